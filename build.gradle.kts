@@ -5,6 +5,9 @@ plugins {
     id("org.jetbrains.dokka") version "1.4.20"
     id("ru.vyarus.mkdocs") version "2.1.1"
 
+    // Benchmarking
+    id("me.champeau.jmh") version "0.6.5" apply false
+
     // Style checking
     id("com.diffplug.spotless") version "5.14.1"
 
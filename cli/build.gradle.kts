@@ -1,6 +1,9 @@
 plugins {
     application
     kotlin("jvm")
+
+    // Benchmarking
+    id("me.champeau.jmh")
 }
 
 /** Application */
@@ -35,3 +38,10 @@ dependencies {
     // Testing
     testImplementation(project(":test-utilities"))
 }
+
+/** Benchmarking */
+
+jmh {
+    // Lets benchmarks find the example programs and their inputs.
+    jvmArgsAppend.add("-Dviaduct.benchmarks=${rootProject.file("benchmarks")}")
+}
@@ -0,0 +1,154 @@
+package edu.cornell.cs.apl.viaduct.cli
+
+import edu.cornell.cs.apl.viaduct.backend.IO.FileStrategy
+import edu.cornell.cs.apl.viaduct.backend.IO.Strategy
+import edu.cornell.cs.apl.viaduct.backend.PlaintextProtocolInterpreter
+import edu.cornell.cs.apl.viaduct.backend.ViaductBackend
+import edu.cornell.cs.apl.viaduct.backend.aby.ABYProtocolInterpreter
+import edu.cornell.cs.apl.viaduct.backend.commitment.CommitmentProtocolInterpreterFactory
+import edu.cornell.cs.apl.viaduct.backend.zkp.SimulatedZKPBackend
+import edu.cornell.cs.apl.viaduct.backend.zkp.ZKPProtocolInterpreterFactory
+import edu.cornell.cs.apl.viaduct.parsing.ArithABYProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.BoolABYProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.CommitmentProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.LocalProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.ProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.ReplicationProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.SourceFile
+import edu.cornell.cs.apl.viaduct.parsing.YaoABYProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.ZKPProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.parse
+import edu.cornell.cs.apl.viaduct.passes.elaborated
+import edu.cornell.cs.apl.viaduct.protocols.ArithABY
+import edu.cornell.cs.apl.viaduct.protocols.BoolABY
+import edu.cornell.cs.apl.viaduct.protocols.Commitment
+import edu.cornell.cs.apl.viaduct.protocols.Local
+import edu.cornell.cs.apl.viaduct.protocols.Replication
+import edu.cornell.cs.apl.viaduct.protocols.YaoABY
+import edu.cornell.cs.apl.viaduct.protocols.ZKP
+import edu.cornell.cs.apl.viaduct.syntax.Host
+import edu.cornell.cs.apl.viaduct.syntax.Protocol
+import edu.cornell.cs.apl.viaduct.syntax.ProtocolName
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.ProgramNode
+import java.io.File
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+
+/**
+ * Runs the compiled programs in `benchmarks/compiled` with every host inside the benchmarking process.
+ *
+ * Inputs are read from `benchmarks/inputs` the same way `benchmarks/benchmark.py` picks them.
+ * The time each host spent running is printed at the end of each trial.
+ * Set [zkp] to `simulated` to run ZKP protocols without the native libsnark library.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class CompiledProgramBenchmark {
+    @Param(
+        "BiomatchBool", "BiomatchYao",
+        "HhiScoreBool", "HhiScoreYao",
+        "HistoricalMillionairesBool", "HistoricalMillionairesYao",
+        "KmeansBool", "KmeansYao",
+        "MedianBool", "MedianYao",
+        "TwoRoundBiddingBool", "TwoRoundBiddingYao"
+    )
+    lateinit var benchmark: String
+
+    @Param("libsnark")
+    lateinit var zkp: String
+
+    private val protocols: Map<ProtocolName, ProtocolParser<Protocol>> =
+        mapOf(
+            Local.protocolName to LocalProtocolParser,
+            Commitment.protocolName to CommitmentProtocolParser,
+            Replication.protocolName to ReplicationProtocolParser,
+            ArithABY.protocolName to ArithABYProtocolParser,
+            BoolABY.protocolName to BoolABYProtocolParser,
+            YaoABY.protocolName to YaoABYProtocolParser,
+            ZKP.protocolName to ZKPProtocolParser
+        )
+
+    private val backend =
+        ViaductBackend(
+            listOf(
+                PlaintextProtocolInterpreter,
+                ABYProtocolInterpreter,
+                CommitmentProtocolInterpreterFactory,
+                ZKPProtocolInterpreterFactory
+            )
+        )
+
+    private lateinit var program: ProgramNode
+
+    private lateinit var inputs: Map<Host, File>
+
+    private val hostDurations: MutableMap<Host, MutableList<Long>> = mutableMapOf()
+
+    private val benchmarksDirectory: File =
+        File(System.getProperty("viaduct.benchmarks", "benchmarks"))
+
+    @Setup
+    fun setup() {
+        ZKPProtocolInterpreterFactory.backend =
+            when (zkp) {
+                "libsnark" -> null
+                "simulated" -> SimulatedZKPBackend()
+                else -> throw IllegalArgumentException("unknown ZKP backend: $zkp")
+            }
+
+        program = SourceFile.from(File(benchmarksDirectory, "compiled/$benchmark.via")).parse(protocols).elaborated()
+
+        // compiled benchmarks are named after the source benchmark followed by the MPC protocol used
+        val sourceName: String = benchmark.removeSuffix("Bool").removeSuffix("Yao")
+        val inputsDirectory = File(benchmarksDirectory, "inputs")
+        val benchmarkInputs: Array<File> =
+            inputsDirectory.listFiles { file -> file.name.startsWith("$sourceName-") && file.extension == "txt" }
+                ?: arrayOf()
+
+        inputs =
+            if (benchmarkInputs.isEmpty()) {
+                mapOf(
+                    Host("alice") to File(inputsDirectory, "alice.txt"),
+                    Host("bob") to File(inputsDirectory, "bob.txt")
+                )
+            } else {
+                benchmarkInputs.associate { file ->
+                    Host(file.nameWithoutExtension.removePrefix("$sourceName-")) to file
+                }
+            }
+    }
+
+    @Benchmark
+    fun run() {
+        val strategies: Map<Host, Strategy> = inputs.mapValues { kv -> FileStrategy(kv.value) }
+        for ((host, duration) in backend.runAll(program, strategies)) {
+            hostDurations.getOrPut(host) { mutableListOf() }.add(duration)
+        }
+    }
+
+    @TearDown
+    fun reportHostDurations() {
+        for ((host, durations) in hostDurations) {
+            println(
+                "$benchmark, host ${host.name}: mean ${durations.average().toLong()}ms, " +
+                    "min ${durations.minOrNull()}ms, max ${durations.maxOrNull()}ms"
+            )
+        }
+        hostDurations.clear()
+    }
+}
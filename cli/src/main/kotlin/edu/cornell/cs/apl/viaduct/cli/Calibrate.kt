@@ -0,0 +1,126 @@
+package edu.cornell.cs.apl.viaduct.cli
+
+import com.github.ajalt.clikt.core.CliktCommand
+import com.github.ajalt.clikt.parameters.arguments.argument
+import com.github.ajalt.clikt.parameters.arguments.optional
+import com.github.ajalt.clikt.parameters.options.default
+import com.github.ajalt.clikt.parameters.options.multiple
+import com.github.ajalt.clikt.parameters.options.option
+import com.github.ajalt.clikt.parameters.options.pair
+import com.github.ajalt.clikt.parameters.types.int
+import edu.cornell.cs.apl.viaduct.backend.CostCalibration
+import edu.cornell.cs.apl.viaduct.backend.HostAddress
+import edu.cornell.cs.apl.viaduct.backend.PlaintextProtocolInterpreter
+import edu.cornell.cs.apl.viaduct.backend.ProtocolBackend
+import edu.cornell.cs.apl.viaduct.backend.ViaductBackend
+import edu.cornell.cs.apl.viaduct.backend.aby.ABYProtocolInterpreter
+import edu.cornell.cs.apl.viaduct.backend.commitment.CommitmentProtocolInterpreterFactory
+import edu.cornell.cs.apl.viaduct.backend.zkp.SimulatedZKPBackend
+import edu.cornell.cs.apl.viaduct.backend.zkp.ZKPKeyStore
+import edu.cornell.cs.apl.viaduct.backend.zkp.ZKPProtocolInterpreterFactory
+import edu.cornell.cs.apl.viaduct.syntax.Host
+import java.io.File
+import kotlin.system.exitProcess
+import mu.KotlinLogging
+
+private val logger = KotlinLogging.logger("Calibrate")
+
+/**
+ * Measures the costs of protocols for [Compile]'s calibrated cost model.
+ *
+ * Without a host name, both hosts run in this process, so messages never cross the network and
+ * the profile is marked as measured in process. To calibrate for a deployment, run this command
+ * as `alice` on one machine and as `bob` on the other, with the same options.
+ */
+class Calibrate : CliktCommand(help = "Measure the costs of protocols for the calibrated cost model") {
+    private val hostName: String? by argument(
+        "HOSTNAME",
+        help = """
+            Run the benchmarks as this host (alice or bob) against the other host
+            (default: run both hosts in this process, which does not measure message latency)
+        """
+    ).optional()
+
+    val output: File? by outputFile()
+
+    val hostAddress: List<Pair<String, String>> by option(
+        "-h",
+        "--host",
+        help = "Set host connection info"
+    ).pair().multiple()
+
+    val abyPort: Int? by option(
+        "--abyport",
+        help = "Set port used by ABY"
+    ).int()
+
+    val repetitions: Int by option(
+        "--repetitions",
+        help = "Repeat the measured statements this many times in each benchmark"
+    ).int().default(CostCalibration.DEFAULT_REPETITIONS)
+
+    val runs: Int by option(
+        "-n",
+        "--runs",
+        help = "Run each benchmark this many times, keeping the fastest run"
+    ).int().default(CostCalibration.DEFAULT_RUNS)
+
+    val zkpKeys: File by zkpKeyDirectory()
+
+    val simulateZKP: Boolean by simulateZKP()
+
+    private fun getProtocolBackends(): List<ProtocolBackend> {
+        return listOf(
+            PlaintextProtocolInterpreter,
+            ABYProtocolInterpreter,
+            CommitmentProtocolInterpreterFactory,
+            ZKPProtocolInterpreterFactory
+        )
+    }
+
+    override fun run() {
+        ZKPProtocolInterpreterFactory.keyStore = ZKPKeyStore(zkpKeys)
+        if (simulateZKP) {
+            ZKPProtocolInterpreterFactory.backend = SimulatedZKPBackend()
+        }
+
+        abyPort?.let { ABYProtocolInterpreter.port = it }
+
+        val connectionInfoMap: Map<Host, HostAddress> =
+            hostAddress.associate { kv ->
+                val addressStr = kv.second.split(":", limit = 2)
+                Host(kv.first) to HostAddress(addressStr[0], addressStr[1].toInt())
+            }
+        val backend = ViaductBackend(getProtocolBackends(), connectionInfoMap)
+
+        val calibration =
+            when (val host = hostName?.let { Host(it) }) {
+                null ->
+                    CostCalibration(repetitions, runs, measuredInProcess = true) { program, strategy ->
+                        backend.runAll(program, program.hostDeclarations.associate { it.name.value to strategy })
+                    }
+
+                else ->
+                    CostCalibration(repetitions, runs) { program, strategy ->
+                        backend.run(program, host, strategy)
+                    }
+            }
+
+        val profile = calibration.calibrate()
+        if (profile.measuredInProcess) {
+            logger.warn {
+                "both hosts ran in this process, so the profile's message latency is not realistic; " +
+                    "give a host name to calibrate between machines"
+            }
+        }
+        when (val file = output) {
+            null -> profile.lines().forEach { println(it) }
+            else -> profile.write(file)
+        }
+
+        if (hostName != null) {
+            // like [Run], do not wait for connections to the other host to wind down
+            exitProcess(0)
+        }
+    }
+}
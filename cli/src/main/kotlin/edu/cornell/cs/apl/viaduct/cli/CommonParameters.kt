@@ -7,6 +7,8 @@ import com.github.ajalt.clikt.parameters.arguments.argument
 import com.github.ajalt.clikt.parameters.arguments.optional
 import com.github.ajalt.clikt.parameters.options.OptionDelegate
 import com.github.ajalt.clikt.parameters.options.counted
+import com.github.ajalt.clikt.parameters.options.default
+import com.github.ajalt.clikt.parameters.options.flag
 import com.github.ajalt.clikt.parameters.options.option
 import com.github.ajalt.clikt.parameters.options.validate
 import com.github.ajalt.clikt.parameters.types.file
@@ -42,6 +44,32 @@ internal fun ParameterHolder.outputFile(): OptionDelegate<File?> =
         help = "Write output to FILE (default: stdout)"
     ).file(canBeDir = false, mustExist = false)
 
+/** Adds an option for the directory ZKP proving and verification keys are stored in. */
+internal fun ParameterHolder.zkpKeyDirectory(): OptionDelegate<File> =
+    option(
+        "--zkp-keys",
+        help = "Store ZKP keys in DIRECTORY (default: zkpkeys)",
+        metavar = "DIRECTORY"
+    ).file(canBeFile = false).default(File("zkpkeys"))
+
+/**
+ * Adds a flag that replaces libsnark with a simulated ZKP backend.
+ * All hosts of a run must agree on this flag.
+ */
+internal fun ParameterHolder.simulateZKP(): OptionDelegate<Boolean> =
+    option(
+        "--simulate-zkp",
+        help = "Simulate ZKP proofs without libsnark. Insecure; for testing and benchmarking only"
+    ).flag(default = false)
+
+/** Adds an option for the file that records how often loops and functions run, for [Compile] to use. */
+internal fun ParameterHolder.profileOutput(): OptionDelegate<File?> =
+    option(
+        "--profile",
+        help = "Record how many times loops run and functions are called in FILE",
+        metavar = "FILE"
+    ).file(canBeDir = false, mustExist = false)
+
 /** Adds a command line option that sets the application logging level. */
 internal fun ParameterHolder.verbosity(): OptionDelegate<Int> =
     option(
@@ -1,9 +1,12 @@
 package edu.cornell.cs.apl.viaduct.cli
 
 import com.github.ajalt.clikt.core.CliktCommand
+import com.github.ajalt.clikt.core.UsageError
 import com.github.ajalt.clikt.parameters.options.flag
+import com.github.ajalt.clikt.parameters.options.multiple
 import com.github.ajalt.clikt.parameters.options.option
 import com.github.ajalt.clikt.parameters.types.file
+import com.github.ajalt.clikt.parameters.types.long
 import edu.cornell.cs.apl.prettyprinting.PrettyPrintable
 import edu.cornell.cs.apl.viaduct.analysis.InformationFlowAnalysis
 import edu.cornell.cs.apl.viaduct.analysis.declarationNodes
@@ -16,7 +19,13 @@ import edu.cornell.cs.apl.viaduct.passes.annotateWithProtocols
 import edu.cornell.cs.apl.viaduct.passes.check
 import edu.cornell.cs.apl.viaduct.passes.elaborated
 import edu.cornell.cs.apl.viaduct.passes.specialize
+import edu.cornell.cs.apl.viaduct.selection.CalibratedCostEstimator
+import edu.cornell.cs.apl.viaduct.selection.CostEstimator
 import edu.cornell.cs.apl.viaduct.selection.CostMode
+import edu.cornell.cs.apl.viaduct.selection.CostProfile
+import edu.cornell.cs.apl.viaduct.selection.ExecutionProfile
+import edu.cornell.cs.apl.viaduct.selection.IntegerCost
+import edu.cornell.cs.apl.viaduct.selection.SelectionCache
 import edu.cornell.cs.apl.viaduct.selection.SimpleCostEstimator
 import edu.cornell.cs.apl.viaduct.selection.SimpleCostRegime
 import edu.cornell.cs.apl.viaduct.selection.SimpleProtocolComposer
@@ -81,10 +90,69 @@ class Compile : CliktCommand(help = "Compile ideal protocol to secure distribute
 
     val wanCost: Boolean by option(
         "--wancost",
-        help = "Use WAN cost model instead of LAN cost model"
+        help = "Use WAN cost model instead of LAN cost model. Cannot be combined with --cost-profile"
     ).flag(default = false)
 
+    val costProfile: File? by option(
+        "--cost-profile",
+        metavar = "FILE",
+        help = """
+            Estimate costs from the measurements in FILE, made by the calibrate command,
+            instead of using the LAN or WAN cost model
+        """
+    ).file(mustExist = true, canBeDir = false)
+
+    val selectionCacheDirectory: File? by option(
+        "--selection-cache",
+        metavar = "DIRECTORY",
+        help = "Reuse protocol selections from earlier compilations stored in DIRECTORY"
+    ).file(canBeFile = false)
+
+    val incrementalSelection: Boolean by option(
+        "--incremental-selection",
+        help = """
+            Keep the protocols of functions that did not change since the last compilation
+            with the same selection cache. Faster, but the selection may not be optimal
+        """
+    ).flag(default = false)
+
+    val parallelSelection: Boolean by option(
+        "--parallel-selection",
+        help = """
+            Split protocol selection into parts connected only through function parameters,
+            and solve them in parallel. Cannot be combined with --selection-time-limit
+        """
+    ).flag(default = false)
+
+    val profiles: List<File> by option(
+        "--profile",
+        metavar = "FILE",
+        help = """
+            Weigh the cost of loops and functions by how often they ran in the profile FILE,
+            recorded by running the compiled program. Can be given once per host
+        """
+    ).file(mustExist = true, canBeDir = false).multiple()
+
+    val selectionTimeLimit: Long? by option(
+        "--selection-time-limit",
+        metavar = "MILLISECONDS",
+        help = """
+            Start protocol selection from a fast greedy selection, and spend at most
+            MILLISECONDS on selection instead of searching for an optimal selection.
+            Fails if no selection is found in time
+        """
+    ).long()
+
     override fun run() {
+        if (parallelSelection && selectionTimeLimit != null) {
+            // decomposed selection solves every part optimally, so it cannot honor a time limit
+            throw UsageError("--parallel-selection cannot be combined with --selection-time-limit")
+        }
+        if (wanCost && costProfile != null) {
+            // measured costs replace the cost model, WAN or LAN
+            throw UsageError("--wancost cannot be combined with --cost-profile")
+        }
+
         logger.info { "elaborating source program..." }
         val unspecializedProgram = input.parse().elaborated()
 
@@ -115,7 +183,20 @@ class Compile : CliktCommand(help = "Compile ideal protocol to secure distribute
 
         val protocolComposer = SimpleProtocolComposer
         val costRegime = if (wanCost) SimpleCostRegime.WAN else SimpleCostRegime.LAN
-        val costEstimator = SimpleCostEstimator(SimpleProtocolComposer, costRegime)
+        val calibratedCosts = costProfile?.let { CostProfile.read(it) }
+        if (calibratedCosts?.measuredInProcess == true) {
+            logger.warn { "cost profile $costProfile was measured in one process; message costs are not realistic" }
+        }
+        val costEstimator: CostEstimator<IntegerCost> =
+            calibratedCosts?.let { CalibratedCostEstimator(protocolComposer, it) }
+                ?: SimpleCostEstimator(SimpleProtocolComposer, costRegime)
+        val costConfiguration =
+            calibratedCosts?.let { "calibrated ${SelectionCache.fingerprint(*it.lines().sorted().toTypedArray())}" }
+                ?: "simple $costRegime"
+        val selectionCache =
+            selectionCacheDirectory?.let {
+                SelectionCache(it, configuration = costConfiguration, reuseUnchangedFunctions = incrementalSelection)
+            }
 
         val protocolAssignment: (FunctionName, Variable) -> Protocol
         val protocolSelectionDuration = measureTimeMillis {
@@ -125,7 +206,11 @@ class Compile : CliktCommand(help = "Compile ideal protocol to secure distribute
                 protocolFactory,
                 protocolComposer,
                 costEstimator,
-                if (maximizeCost) CostMode.MAXIMIZE else CostMode.MINIMIZE
+                if (maximizeCost) CostMode.MAXIMIZE else CostMode.MINIMIZE,
+                selectionCache,
+                parallelSelection,
+                selectionTimeLimit,
+                profiles.map { ExecutionProfile.read(it) }.reduceOrNull { acc, p -> acc.union(p) }
             ) { metadata -> dumpProgramMetadata(program, metadata, protocolSelectionOutput) }
         }
         logger.info { "finished protocol selection, ran for ${protocolSelectionDuration}ms" }
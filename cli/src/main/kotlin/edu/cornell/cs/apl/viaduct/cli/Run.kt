@@ -2,20 +2,28 @@ package edu.cornell.cs.apl.viaduct.cli
 
 import com.github.ajalt.clikt.core.CliktCommand
 import com.github.ajalt.clikt.parameters.arguments.argument
+import com.github.ajalt.clikt.parameters.options.default
 import com.github.ajalt.clikt.parameters.options.multiple
 import com.github.ajalt.clikt.parameters.options.option
 import com.github.ajalt.clikt.parameters.options.pair
+import com.github.ajalt.clikt.parameters.types.choice
 import com.github.ajalt.clikt.parameters.types.file
 import com.github.ajalt.clikt.parameters.types.int
+import edu.cornell.cs.apl.viaduct.backend.ExecutionProfiler
 import edu.cornell.cs.apl.viaduct.backend.HostAddress
 import edu.cornell.cs.apl.viaduct.backend.IO.FileStrategy
 import edu.cornell.cs.apl.viaduct.backend.IO.Strategy
 import edu.cornell.cs.apl.viaduct.backend.IO.TerminalIO
+import edu.cornell.cs.apl.viaduct.backend.NioTransport
 import edu.cornell.cs.apl.viaduct.backend.PlaintextProtocolInterpreter
 import edu.cornell.cs.apl.viaduct.backend.ProtocolBackend
+import edu.cornell.cs.apl.viaduct.backend.SocketTransport
+import edu.cornell.cs.apl.viaduct.backend.TransportFactory
 import edu.cornell.cs.apl.viaduct.backend.ViaductBackend
 import edu.cornell.cs.apl.viaduct.backend.aby.ABYProtocolInterpreter
 import edu.cornell.cs.apl.viaduct.backend.commitment.CommitmentProtocolInterpreterFactory
+import edu.cornell.cs.apl.viaduct.backend.zkp.SimulatedZKPBackend
+import edu.cornell.cs.apl.viaduct.backend.zkp.ZKPKeyStore
 import edu.cornell.cs.apl.viaduct.backend.zkp.ZKPProtocolInterpreterFactory
 import edu.cornell.cs.apl.viaduct.parsing.ArithABYProtocolParser
 import edu.cornell.cs.apl.viaduct.parsing.BoolABYProtocolParser
@@ -65,6 +73,20 @@ class Run : CliktCommand(help = "Run compiled protocol for a single host") {
         help = "Set port used by ABY"
     ).int()
 
+    val transportFactory: TransportFactory by option(
+        "--transport",
+        help = "Set how messages are exchanged with other hosts"
+    ).choice(
+        "nio" to NioTransport,
+        "socket" to SocketTransport
+    ).default(NioTransport)
+
+    val zkpKeys: File by zkpKeyDirectory()
+
+    val simulateZKP: Boolean by simulateZKP()
+
+    val profile: File? by profileOutput()
+
     private val protocols: Map<ProtocolName, ProtocolParser<Protocol>> =
         mapOf(
             Local.protocolName to LocalProtocolParser,
@@ -87,6 +109,10 @@ class Run : CliktCommand(help = "Run compiled protocol for a single host") {
 
     override fun run() {
         val program = input.parse(protocols).elaborated()
+        ZKPProtocolInterpreterFactory.keyStore = ZKPKeyStore(zkpKeys)
+        if (simulateZKP) {
+            ZKPProtocolInterpreterFactory.backend = SimulatedZKPBackend()
+        }
 
         val connectionInfoMap: Map<Host, HostAddress> =
             hostAddress.map { kv ->
@@ -100,7 +126,7 @@ class Run : CliktCommand(help = "Run compiled protocol for a single host") {
             ABYProtocolInterpreter.port = abyPort as Int
         }
 
-        val backend = ViaductBackend(getProtocolBackends(), connectionInfoMap)
+        val backend = ViaductBackend(getProtocolBackends(), connectionInfoMap, transportFactory)
 
         val strategy: Strategy =
             if (inputStrategy == null)
@@ -109,7 +135,9 @@ class Run : CliktCommand(help = "Run compiled protocol for a single host") {
                 (FileStrategy(inputStrategy!!))
 
         // interpret program
-        backend.run(program, Host(hostName), strategy)
+        val profiler = profile?.let { ExecutionProfiler(program) }
+        backend.run(program, Host(hostName), strategy, profiler)
+        profile?.let { file -> profiler?.profile()?.write(file) }
         exitProcess(0)
     }
 }
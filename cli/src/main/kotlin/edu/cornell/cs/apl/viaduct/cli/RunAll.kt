@@ -0,0 +1,119 @@
+package edu.cornell.cs.apl.viaduct.cli
+
+import com.github.ajalt.clikt.core.CliktCommand
+import com.github.ajalt.clikt.parameters.options.default
+import com.github.ajalt.clikt.parameters.options.multiple
+import com.github.ajalt.clikt.parameters.options.option
+import com.github.ajalt.clikt.parameters.options.pair
+import com.github.ajalt.clikt.parameters.types.int
+import edu.cornell.cs.apl.viaduct.backend.ExecutionProfiler
+import edu.cornell.cs.apl.viaduct.backend.IO.FileStrategy
+import edu.cornell.cs.apl.viaduct.backend.IO.Strategy
+import edu.cornell.cs.apl.viaduct.backend.IO.TerminalIO
+import edu.cornell.cs.apl.viaduct.backend.PlaintextProtocolInterpreter
+import edu.cornell.cs.apl.viaduct.backend.ProtocolBackend
+import edu.cornell.cs.apl.viaduct.backend.ViaductBackend
+import edu.cornell.cs.apl.viaduct.backend.aby.ABYProtocolInterpreter
+import edu.cornell.cs.apl.viaduct.backend.commitment.CommitmentProtocolInterpreterFactory
+import edu.cornell.cs.apl.viaduct.backend.zkp.SimulatedZKPBackend
+import edu.cornell.cs.apl.viaduct.backend.zkp.ZKPKeyStore
+import edu.cornell.cs.apl.viaduct.backend.zkp.ZKPProtocolInterpreterFactory
+import edu.cornell.cs.apl.viaduct.parsing.ArithABYProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.BoolABYProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.CommitmentProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.LocalProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.ProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.ReplicationProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.YaoABYProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.ZKPProtocolParser
+import edu.cornell.cs.apl.viaduct.passes.elaborated
+import edu.cornell.cs.apl.viaduct.protocols.ArithABY
+import edu.cornell.cs.apl.viaduct.protocols.BoolABY
+import edu.cornell.cs.apl.viaduct.protocols.Commitment
+import edu.cornell.cs.apl.viaduct.protocols.Local
+import edu.cornell.cs.apl.viaduct.protocols.Replication
+import edu.cornell.cs.apl.viaduct.protocols.YaoABY
+import edu.cornell.cs.apl.viaduct.protocols.ZKP
+import edu.cornell.cs.apl.viaduct.syntax.Host
+import edu.cornell.cs.apl.viaduct.syntax.Protocol
+import edu.cornell.cs.apl.viaduct.syntax.ProtocolName
+import java.io.File
+
+class RunAll : CliktCommand(help = "Run compiled protocol for all hosts in a single process") {
+    val input: File? by inputProgram()
+
+    val inputStrategies: List<Pair<String, String>> by option(
+        "-in",
+        "--input",
+        help = "Stream inputs for a host from a file"
+    ).pair().multiple()
+
+    val iterations: Int by option(
+        "-n",
+        "--iterations",
+        help = "Run the program this many times, reporting timings for each run"
+    ).int().default(1)
+
+    val zkpKeys: File by zkpKeyDirectory()
+
+    val simulateZKP: Boolean by simulateZKP()
+
+    val profile: File? by profileOutput()
+
+    private val protocols: Map<ProtocolName, ProtocolParser<Protocol>> =
+        mapOf(
+            Local.protocolName to LocalProtocolParser,
+            Commitment.protocolName to CommitmentProtocolParser,
+            Replication.protocolName to ReplicationProtocolParser,
+            ArithABY.protocolName to ArithABYProtocolParser,
+            BoolABY.protocolName to BoolABYProtocolParser,
+            YaoABY.protocolName to YaoABYProtocolParser,
+            ZKP.protocolName to ZKPProtocolParser
+        )
+
+    private fun getProtocolBackends(): List<ProtocolBackend> {
+        return listOf(
+            PlaintextProtocolInterpreter,
+            ABYProtocolInterpreter,
+            CommitmentProtocolInterpreterFactory,
+            ZKPProtocolInterpreterFactory
+        )
+    }
+
+    override fun run() {
+        val program = input.parse(protocols).elaborated()
+        ZKPProtocolInterpreterFactory.keyStore = ZKPKeyStore(zkpKeys)
+        if (simulateZKP) {
+            ZKPProtocolInterpreterFactory.backend = SimulatedZKPBackend()
+        }
+        val backend = ViaductBackend(getProtocolBackends())
+
+        val inputFiles: Map<Host, File> =
+            inputStrategies.associate { kv -> Host(kv.first) to File(kv.second) }
+
+        for (iteration in 1..iterations) {
+            // strategies are stateful, so build fresh ones for every run
+            val strategies: Map<Host, Strategy> =
+                program.hostDeclarations.associate { hostDecl ->
+                    val host = hostDecl.name.value
+                    host to (inputFiles[host]?.let { FileStrategy(it) } ?: TerminalIO())
+                }
+
+            // only the first run is profiled, so call counts are not inflated by repeated runs
+            val profilers: Map<Host, ExecutionProfiler> =
+                if (profile != null && iteration == 1) {
+                    strategies.keys.associateWith { ExecutionProfiler(program) }
+                } else {
+                    mapOf()
+                }
+
+            val durations: Map<Host, Long> = backend.runAll(program, strategies, profilers)
+            profile?.let { file ->
+                profilers.values.map { it.profile() }.reduceOrNull { acc, p -> acc.union(p) }?.write(file)
+            }
+            for ((host, duration) in durations) {
+                System.err.println("iteration $iteration, host ${host.name}: ${duration}ms")
+            }
+        }
+    }
+}
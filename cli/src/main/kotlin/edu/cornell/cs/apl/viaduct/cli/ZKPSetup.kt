@@ -0,0 +1,99 @@
+package edu.cornell.cs.apl.viaduct.cli
+
+import com.github.ajalt.clikt.core.CliktCommand
+import com.github.ajalt.clikt.parameters.options.multiple
+import com.github.ajalt.clikt.parameters.options.option
+import com.github.ajalt.clikt.parameters.options.pair
+import edu.cornell.cs.apl.viaduct.backend.IO.FileStrategy
+import edu.cornell.cs.apl.viaduct.backend.IO.Strategy
+import edu.cornell.cs.apl.viaduct.backend.IO.TerminalIO
+import edu.cornell.cs.apl.viaduct.backend.PlaintextProtocolInterpreter
+import edu.cornell.cs.apl.viaduct.backend.ProtocolBackend
+import edu.cornell.cs.apl.viaduct.backend.ViaductBackend
+import edu.cornell.cs.apl.viaduct.backend.aby.ABYProtocolInterpreter
+import edu.cornell.cs.apl.viaduct.backend.commitment.CommitmentProtocolInterpreterFactory
+import edu.cornell.cs.apl.viaduct.backend.zkp.ZKPKeyStore
+import edu.cornell.cs.apl.viaduct.backend.zkp.ZKPProtocolInterpreterFactory
+import edu.cornell.cs.apl.viaduct.parsing.ArithABYProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.BoolABYProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.CommitmentProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.LocalProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.ProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.ReplicationProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.YaoABYProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.ZKPProtocolParser
+import edu.cornell.cs.apl.viaduct.passes.elaborated
+import edu.cornell.cs.apl.viaduct.protocols.ArithABY
+import edu.cornell.cs.apl.viaduct.protocols.BoolABY
+import edu.cornell.cs.apl.viaduct.protocols.Commitment
+import edu.cornell.cs.apl.viaduct.protocols.Local
+import edu.cornell.cs.apl.viaduct.protocols.Replication
+import edu.cornell.cs.apl.viaduct.protocols.YaoABY
+import edu.cornell.cs.apl.viaduct.protocols.ZKP
+import edu.cornell.cs.apl.viaduct.syntax.Host
+import edu.cornell.cs.apl.viaduct.syntax.Protocol
+import edu.cornell.cs.apl.viaduct.syntax.ProtocolName
+import java.io.File
+
+/**
+ * Generates the ZKP keys a compiled program needs ahead of time.
+ *
+ * The shape of ZKP circuits depends on control flow and on plaintext values like vector indices,
+ * so circuit shapes are enumerated by running the program once for all hosts in this process.
+ * Keys for every circuit the run proves are generated and written to the key directory.
+ */
+class ZKPSetup : CliktCommand(name = "zkp-setup", help = "Generate ZKP keys for all circuits of a compiled protocol") {
+    val input: File? by inputProgram()
+
+    val inputStrategies: List<Pair<String, String>> by option(
+        "-in",
+        "--input",
+        help = "Stream inputs for a host from a file"
+    ).pair().multiple()
+
+    val zkpKeys: File by zkpKeyDirectory()
+
+    private val protocols: Map<ProtocolName, ProtocolParser<Protocol>> =
+        mapOf(
+            Local.protocolName to LocalProtocolParser,
+            Commitment.protocolName to CommitmentProtocolParser,
+            Replication.protocolName to ReplicationProtocolParser,
+            ArithABY.protocolName to ArithABYProtocolParser,
+            BoolABY.protocolName to BoolABYProtocolParser,
+            YaoABY.protocolName to YaoABYProtocolParser,
+            ZKP.protocolName to ZKPProtocolParser
+        )
+
+    private fun getProtocolBackends(): List<ProtocolBackend> {
+        return listOf(
+            PlaintextProtocolInterpreter,
+            ABYProtocolInterpreter,
+            CommitmentProtocolInterpreterFactory,
+            ZKPProtocolInterpreterFactory
+        )
+    }
+
+    override fun run() {
+        val program = input.parse(protocols).elaborated()
+        val keyStore = ZKPKeyStore(zkpKeys)
+        ZKPProtocolInterpreterFactory.keyStore = keyStore
+
+        val inputFiles: Map<Host, File> =
+            inputStrategies.associate { kv -> Host(kv.first) to File(kv.second) }
+        val strategies: Map<Host, Strategy> =
+            program.hostDeclarations.associate { hostDecl ->
+                val host = hostDecl.name.value
+                host to (inputFiles[host]?.let { FileStrategy(it) } ?: TerminalIO())
+            }
+
+        ViaductBackend(getProtocolBackends()).runAll(program, strategies)
+
+        val circuits: Set<String> = keyStore.circuits
+        for (circuit in circuits.sorted()) {
+            System.err.println(circuit)
+        }
+        System.err.println(
+            "${circuits.size} circuit(s), generated keys for ${keyStore.generated} in ${zkpKeys.path}"
+        )
+    }
+}
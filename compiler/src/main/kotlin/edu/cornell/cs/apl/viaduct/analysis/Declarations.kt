@@ -30,6 +30,7 @@ import edu.cornell.cs.apl.viaduct.syntax.intermediate.QueryNode
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.ReadNode
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.ReceiveNode
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.SendNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.SimpleStatementNode
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.StatementNode
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.UpdateNode
 import edu.cornell.cs.apl.viaduct.util.FreshNameGenerator
@@ -102,6 +103,9 @@ fun Node.letNodes(): List<LetNode> = this.listOfInstances()
 /** Returns all [DeclarationNode]s contained in this node. */
 fun Node.declarationNodes(): List<DeclarationNode> = this.listOfInstances()
 
+/** Returns all [SimpleStatementNode]s contained in this node, in program order. */
+fun Node.simpleStatementNodes(): List<SimpleStatementNode> = this.listOfInstances()
+
 /** Returns all [ObjectDeclarationArgumentNode]s contained in this node. */
 fun Node.objectDeclarationArgumentNodes(): List<ObjectDeclarationArgumentNode> = this.listOfInstances()
 
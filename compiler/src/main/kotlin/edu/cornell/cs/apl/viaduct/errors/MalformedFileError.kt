@@ -0,0 +1,34 @@
+package edu.cornell.cs.apl.viaduct.errors
+
+import edu.cornell.cs.apl.prettyprinting.Document
+import edu.cornell.cs.apl.prettyprinting.plus
+import edu.cornell.cs.apl.prettyprinting.times
+
+/**
+ * Thrown when a file the compiler reads alongside the program, like an execution profile,
+ * is not in the expected format.
+ *
+ * @param fileKind What the file was supposed to contain, like "execution profile".
+ * @param lineNumber The line where the problem was found, counting from 1, if there is one.
+ * @param problem What is wrong with the file, if it is more specific than a malformed line.
+ */
+class MalformedFileError(
+    override val source: String,
+    private val fileKind: String,
+    private val lineNumber: Int? = null,
+    private val problem: String? = null
+) : CompilationError() {
+    override val category: String
+        get() = "Malformed File"
+
+    override val description: Document
+        get() {
+            val malformed = Document("This") * fileKind * "is malformed"
+            val located = lineNumber?.let { malformed * "at line" * it.toString() } ?: malformed
+            val explained = problem?.let { (located + ":") * it } ?: located
+            return explained + "." + Document.lineBreak
+        }
+
+    override val hint: Document
+        get() = Document("Generate the file again with the command that created it.")
+}
@@ -14,13 +14,22 @@ abstract class ProtocolSelectionError : CompilationError() {
 
 /**
  * Thrown when the protocol selection cannot find a solution.
+ *
+ * @param timeLimitMillis: The time limit that ran out before a solution was found, if any.
  */
-class NoSelectionSolutionError : ProtocolSelectionError() {
+class NoSelectionSolutionError(
+    private val timeLimitMillis: Long? = null
+) : ProtocolSelectionError() {
     override val source: String
         get() = ""
 
     override val description: Document
-        get() = Document("Could not find a protocol selection for this program.\n")
+        get() =
+            if (timeLimitMillis == null) {
+                Document("Could not find a protocol selection for this program.\n")
+            } else {
+                Document("Could not find a protocol selection for this program within $timeLimitMillis ms.\n")
+            }
 }
 
 /**
@@ -0,0 +1,100 @@
+package edu.cornell.cs.apl.viaduct.selection
+
+import edu.cornell.cs.apl.viaduct.protocols.ABY
+import edu.cornell.cs.apl.viaduct.syntax.Host
+import edu.cornell.cs.apl.viaduct.syntax.Protocol
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.LetNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.OperatorApplicationNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.SimpleStatementNode
+import kotlinx.collections.immutable.persistentMapOf
+
+/**
+ * Cost estimator backed by costs measured on the deployment machines, stored in a [CostProfile].
+ *
+ * Estimates two features:
+ * - EXECUTION_COST: time spent computing, including share conversions and running circuits
+ * - NUM_MESSAGES: number of messages exchanged between hosts
+ *
+ * Execution costs are in microseconds already, so messages are weighted by their measured latency.
+ */
+class CalibratedCostEstimator(
+    private val protocolComposer: ProtocolComposer,
+    private val profile: CostProfile
+) : CostEstimator<IntegerCost> {
+    companion object {
+        private const val NUM_MESSAGES = "numberOfMessages"
+        private const val EXECUTION_COST = "executionCost"
+    }
+
+    override fun executionCost(stmt: SimpleStatementNode, protocol: Protocol): Cost<IntegerCost> {
+        val statementCost =
+            profile.statements[protocol.protocolName]
+                ?: throw Error("CalibratedCostEstimator: no cost for protocol ${protocol.protocolName}")
+
+        val rhs = (stmt as? LetNode)?.value
+        val operatorCost =
+            if (protocol is ABY && rhs is OperatorApplicationNode) {
+                profile.operators[rhs.operator to protocol.protocolName]
+                    ?: throw Error(
+                        "CalibratedCostEstimator: no cost for operator ${rhs.operator} " +
+                            "in protocol ${protocol.protocolName}"
+                    )
+            } else {
+                0
+            }
+
+        return zeroCost().update(EXECUTION_COST, IntegerCost(statementCost + operatorCost))
+    }
+
+    override fun communicationCost(source: Protocol, destination: Protocol, host: Host?): Cost<IntegerCost> {
+        if (source == destination || !protocolComposer.canCommunicate(source, destination)) {
+            return zeroCost()
+        }
+
+        val events =
+            if (host != null) {
+                protocolComposer.communicate(source, destination).getHostReceives(host)
+            } else {
+                protocolComposer.communicate(source, destination)
+            }.filter { it.recv.id != Protocol.INTERNAL_INPUT || it.send.id != Protocol.INTERNAL_OUTPUT }
+
+        if (events.isEmpty()) {
+            return zeroCost()
+        }
+
+        val messages =
+            events.count { event -> event.send.host != event.recv.host && event.send.protocol !is ABY }
+
+        // values either move between ABY circuit types, or leave the circuit they were computed in
+        val computationCost =
+            if (source is ABY && destination is ABY) {
+                profile.conversions[source.protocolName to destination.protocolName]
+                    ?: throw Error(
+                        "CalibratedCostEstimator: no cost for converting from ${source.protocolName} " +
+                            "to ${destination.protocolName}"
+                    )
+            } else {
+                profile.circuits[source.protocolName] ?: 0
+            }
+
+        return zeroCost()
+            .update(NUM_MESSAGES, IntegerCost(messages))
+            .update(EXECUTION_COST, IntegerCost(computationCost))
+    }
+
+    override fun zeroCost(): Cost<IntegerCost> =
+        Cost(
+            persistentMapOf(
+                NUM_MESSAGES to IntegerCost(0),
+                EXECUTION_COST to IntegerCost(0)
+            )
+        )
+
+    override fun featureWeights(): Cost<IntegerCost> =
+        Cost(
+            persistentMapOf(
+                NUM_MESSAGES to IntegerCost(profile.messageLatency),
+                EXECUTION_COST to IntegerCost(1)
+            )
+        )
+}
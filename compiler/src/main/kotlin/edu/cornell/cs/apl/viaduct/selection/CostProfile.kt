@@ -0,0 +1,206 @@
+package edu.cornell.cs.apl.viaduct.selection
+
+import edu.cornell.cs.apl.viaduct.errors.MalformedFileError
+import edu.cornell.cs.apl.viaduct.protocols.ArithABY
+import edu.cornell.cs.apl.viaduct.protocols.BoolABY
+import edu.cornell.cs.apl.viaduct.protocols.Commitment
+import edu.cornell.cs.apl.viaduct.protocols.Local
+import edu.cornell.cs.apl.viaduct.protocols.Replication
+import edu.cornell.cs.apl.viaduct.protocols.YaoABY
+import edu.cornell.cs.apl.viaduct.protocols.ZKP
+import edu.cornell.cs.apl.viaduct.syntax.Operator
+import edu.cornell.cs.apl.viaduct.syntax.ProtocolName
+import edu.cornell.cs.apl.viaduct.syntax.operators.Addition
+import edu.cornell.cs.apl.viaduct.syntax.operators.And
+import edu.cornell.cs.apl.viaduct.syntax.operators.Division
+import edu.cornell.cs.apl.viaduct.syntax.operators.EqualTo
+import edu.cornell.cs.apl.viaduct.syntax.operators.ExclusiveOr
+import edu.cornell.cs.apl.viaduct.syntax.operators.GreaterThan
+import edu.cornell.cs.apl.viaduct.syntax.operators.GreaterThanOrEqualTo
+import edu.cornell.cs.apl.viaduct.syntax.operators.LessThan
+import edu.cornell.cs.apl.viaduct.syntax.operators.LessThanOrEqualTo
+import edu.cornell.cs.apl.viaduct.syntax.operators.Maximum
+import edu.cornell.cs.apl.viaduct.syntax.operators.Minimum
+import edu.cornell.cs.apl.viaduct.syntax.operators.Multiplication
+import edu.cornell.cs.apl.viaduct.syntax.operators.Mux
+import edu.cornell.cs.apl.viaduct.syntax.operators.Negation
+import edu.cornell.cs.apl.viaduct.syntax.operators.Not
+import edu.cornell.cs.apl.viaduct.syntax.operators.Or
+import edu.cornell.cs.apl.viaduct.syntax.operators.Subtraction
+import java.io.File
+
+/**
+ * Costs of executing statements and exchanging messages, measured on the machines a program
+ * will run on. Used by [CalibratedCostEstimator].
+ *
+ * All costs are in microseconds. [read] only accepts profiles with a cost for every protocol,
+ * every operator each ABY circuit type supports, and every conversion between circuit types.
+ */
+class CostProfile(
+    /** Cost of executing a statement in each protocol, not counting operators in [operators]. */
+    val statements: Map<ProtocolName, Int>,
+    /** Cost of applying each operator in each protocol that computes over secrets. */
+    val operators: Map<Pair<Operator, ProtocolName>, Int>,
+    /** Cost of converting a value from one protocol to another, as between ABY circuit types. */
+    val conversions: Map<Pair<ProtocolName, ProtocolName>, Int>,
+    /** Cost of running a circuit and revealing its result, for protocols that evaluate circuits. */
+    val circuits: Map<ProtocolName, Int>,
+    /** Cost of sending a message from one host to another. */
+    val messageLatency: Int,
+    /**
+     * True if both hosts ran in one process while measuring, so messages never went over the
+     * network and [messageLatency] says nothing about the deployment.
+     */
+    val measuredInProcess: Boolean = false
+) {
+    companion object {
+        private const val STATEMENT = "statement"
+        private const val OPERATOR = "operator"
+        private const val CONVERSION = "conversion"
+        private const val CIRCUIT = "circuit"
+        private const val MESSAGE = "message"
+        private const val IN_PROCESS = "in-process"
+
+        private val arithmeticOperators: List<Operator> =
+            listOf(Negation, Addition, Subtraction, Multiplication)
+
+        private val booleanOperators: List<Operator> =
+            arithmeticOperators + listOf(
+                Division, Minimum, Maximum,
+                Not, And, Or, ExclusiveOr,
+                EqualTo, LessThan, LessThanOrEqualTo, GreaterThan, GreaterThanOrEqualTo,
+                Mux
+            )
+
+        /** Operators each ABY circuit type computes, which need a cost in every profile. */
+        val supportedOperators: Map<ProtocolName, List<Operator>> =
+            mapOf(
+                ArithABY.protocolName to arithmeticOperators,
+                BoolABY.protocolName to booleanOperators,
+                YaoABY.protocolName to booleanOperators
+            )
+
+        /** Protocols whose statements need a cost in every profile. */
+        private val protocols: List<ProtocolName> =
+            listOf(Local.protocolName, Replication.protocolName, Commitment.protocolName, ZKP.protocolName) +
+                supportedOperators.keys
+
+        /** Names for operators in profile files, since operators do not have unique printed forms. */
+        private val operatorNames: Map<Operator, String> =
+            mapOf(
+                Negation to "neg",
+                Addition to "add",
+                Subtraction to "sub",
+                Multiplication to "mul",
+                Division to "div",
+                Minimum to "min",
+                Maximum to "max",
+                Not to "not",
+                And to "and",
+                Or to "or",
+                EqualTo to "eq",
+                ExclusiveOr to "xor",
+                LessThan to "lt",
+                LessThanOrEqualTo to "le",
+                GreaterThan to "gt",
+                GreaterThanOrEqualTo to "ge",
+                Mux to "mux"
+            )
+
+        private val operatorsByName: Map<String, Operator> =
+            operatorNames.entries.associate { (operator, name) -> name to operator }
+
+        /** Reads a profile written by [write]. */
+        fun read(file: File): CostProfile {
+            val statements: MutableMap<ProtocolName, Int> = mutableMapOf()
+            val operators: MutableMap<Pair<Operator, ProtocolName>, Int> = mutableMapOf()
+            val conversions: MutableMap<Pair<ProtocolName, ProtocolName>, Int> = mutableMapOf()
+            val circuits: MutableMap<ProtocolName, Int> = mutableMapOf()
+            var messageLatency: Int? = null
+            var measuredInProcess = false
+            file.readLines().forEachIndexed { lineNumber, line ->
+                fun malformed(): Nothing =
+                    throw MalformedFileError(file.path, "cost profile", lineNumber + 1)
+
+                val fields = line.split('\t')
+                val cost: Int? = fields.last().toIntOrNull()
+                when {
+                    line.isBlank() -> {
+                    }
+
+                    line == IN_PROCESS ->
+                        measuredInProcess = true
+
+                    cost == null -> malformed()
+
+                    fields[0] == STATEMENT && fields.size == 3 ->
+                        statements[ProtocolName(fields[1])] = cost
+
+                    fields[0] == OPERATOR && fields.size == 4 -> {
+                        val operator = operatorsByName[fields[2]] ?: malformed()
+                        operators[operator to ProtocolName(fields[1])] = cost
+                    }
+
+                    fields[0] == CONVERSION && fields.size == 4 ->
+                        conversions[ProtocolName(fields[1]) to ProtocolName(fields[2])] = cost
+
+                    fields[0] == CIRCUIT && fields.size == 3 ->
+                        circuits[ProtocolName(fields[1])] = cost
+
+                    fields[0] == MESSAGE && fields.size == 2 ->
+                        messageLatency = cost
+
+                    else -> malformed()
+                }
+            }
+
+            fun incomplete(missing: String): Nothing =
+                throw MalformedFileError(file.path, "cost profile", problem = "it has no cost for $missing")
+
+            // a missing cost would otherwise only surface in the middle of protocol selection
+            for (protocol in protocols) {
+                if (protocol !in statements) {
+                    incomplete("statements in ${protocol.name}")
+                }
+            }
+            for ((sharing, supported) in supportedOperators) {
+                for (operator in supported) {
+                    if ((operator to sharing) !in operators) {
+                        incomplete("${operatorNames[operator]} in ${sharing.name}")
+                    }
+                }
+                for (destination in supportedOperators.keys.minus(sharing)) {
+                    if ((sharing to destination) !in conversions) {
+                        incomplete("conversions from ${sharing.name} to ${destination.name}")
+                    }
+                }
+            }
+
+            return CostProfile(
+                statements,
+                operators,
+                conversions,
+                circuits,
+                messageLatency ?: incomplete("messages"),
+                measuredInProcess
+            )
+        }
+    }
+
+    /** This profile as tab separated lines, in the format [read] expects. */
+    fun lines(): List<String> =
+        (if (measuredInProcess) listOf(IN_PROCESS) else listOf()) +
+            statements.map { (protocol, cost) -> "$STATEMENT\t${protocol.name}\t$cost" } +
+            operators.map { (key, cost) ->
+                val operatorName = operatorNames[key.first] ?: error("no name for operator ${key.first}")
+                "$OPERATOR\t${key.second.name}\t$operatorName\t$cost"
+            } +
+            conversions.map { (key, cost) -> "$CONVERSION\t${key.first.name}\t${key.second.name}\t$cost" } +
+            circuits.map { (protocol, cost) -> "$CIRCUIT\t${protocol.name}\t$cost" } +
+            "$MESSAGE\t$messageLatency"
+
+    /** Writes this profile to [file]. */
+    fun write(file: File) {
+        file.writeText(lines().joinToString("") { "$it\n" })
+    }
+}
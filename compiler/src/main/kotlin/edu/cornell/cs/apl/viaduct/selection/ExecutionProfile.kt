@@ -0,0 +1,113 @@
+package edu.cornell.cs.apl.viaduct.selection
+
+import edu.cornell.cs.apl.viaduct.analysis.NameAnalysis
+import edu.cornell.cs.apl.viaduct.analysis.infiniteLoopNodes
+import edu.cornell.cs.apl.viaduct.analysis.main
+import edu.cornell.cs.apl.viaduct.errors.MalformedFileError
+import edu.cornell.cs.apl.viaduct.syntax.FunctionName
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.InfiniteLoopNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.ProgramNode
+import java.io.File
+
+/**
+ * How often loops ran and functions were called while executing a program.
+ *
+ * Loops are identified by a [LoopKey] instead of their jump labels, so a profile recorded while
+ * running a compiled program still applies when the source program is compiled again.
+ */
+class ExecutionProfile(
+    /** How many times each loop was entered, and how many iterations it ran in total. */
+    val loops: Map<LoopKey, LoopCount>,
+    /** How many times each function was called in total. */
+    val calls: Map<FunctionName, Long>
+) {
+    /** The [index]th loop (in post-order) of [function]. */
+    data class LoopKey(val function: FunctionName, val index: Int)
+
+    data class LoopCount(val entries: Long, val iterations: Long)
+
+    companion object {
+        private const val LOOP = "loop"
+        private const val CALL = "call"
+
+        /** Identifies every loop in [program]. */
+        fun loopKeys(program: ProgramNode): Map<InfiniteLoopNode, LoopKey> {
+            val bodies =
+                program.functions.map { it.name.value to it.body } +
+                    (NameAnalysis.MAIN_FUNCTION to program.main.body)
+            return bodies.flatMap { (function, body) ->
+                body.infiniteLoopNodes().mapIndexed { index, loop -> loop to LoopKey(function, index) }
+            }.toMap()
+        }
+
+        /** Reads a profile written by [write]. */
+        fun read(file: File): ExecutionProfile {
+            val loops: MutableMap<LoopKey, LoopCount> = mutableMapOf()
+            val calls: MutableMap<FunctionName, Long> = mutableMapOf()
+            file.readLines().forEachIndexed { lineNumber, line ->
+                fun malformed(): Nothing =
+                    throw MalformedFileError(file.path, "execution profile", lineNumber + 1)
+
+                val fields = line.split('\t')
+                when {
+                    line.isBlank() -> {
+                    }
+
+                    fields[0] == LOOP && fields.size == 5 -> {
+                        val key = LoopKey(FunctionName(fields[1]), fields[2].toIntOrNull() ?: malformed())
+                        loops[key] =
+                            LoopCount(fields[3].toLongOrNull() ?: malformed(), fields[4].toLongOrNull() ?: malformed())
+                    }
+
+                    fields[0] == CALL && fields.size == 3 ->
+                        calls[FunctionName(fields[1])] = fields[2].toLongOrNull() ?: malformed()
+
+                    else -> malformed()
+                }
+            }
+            return ExecutionProfile(loops, calls)
+        }
+    }
+
+    /**
+     * Average number of iterations of the loop identified by [key] each time it was entered,
+     * or null if the loop never ran.
+     */
+    fun tripCount(key: LoopKey): Int? =
+        loops[key]?.takeIf { it.entries > 0 }?.let { count ->
+            ((count.iterations + count.entries - 1) / count.entries).coerceIn(1, Int.MAX_VALUE.toLong()).toInt()
+        }
+
+    /**
+     * Combines profiles recorded by different hosts running the same program. Hosts that do not
+     * participate in a loop never see it run, so the largest count is kept.
+     */
+    fun union(other: ExecutionProfile): ExecutionProfile =
+        ExecutionProfile(
+            (loops.keys + other.loops.keys).associateWith { key ->
+                val count = loops[key]
+                val otherCount = other.loops[key]
+                when {
+                    count == null -> otherCount!!
+                    otherCount == null -> count
+                    else ->
+                        LoopCount(
+                            maxOf(count.entries, otherCount.entries),
+                            maxOf(count.iterations, otherCount.iterations)
+                        )
+                }
+            },
+            (calls.keys + other.calls.keys).associateWith { maxOf(calls[it] ?: 0L, other.calls[it] ?: 0L) }
+        )
+
+    /** This profile as tab separated lines, in the format [read] expects. */
+    fun lines(): List<String> =
+        loops.map { (key, count) ->
+            "$LOOP\t${key.function.name}\t${key.index}\t${count.entries}\t${count.iterations}"
+        } + calls.map { (function, count) -> "$CALL\t${function.name}\t$count" }
+
+    /** Writes this profile to [file]. */
+    fun write(file: File) {
+        file.writeText(lines().joinToString("") { "$it\n" })
+    }
+}
@@ -0,0 +1,154 @@
+package edu.cornell.cs.apl.viaduct.selection
+
+import edu.cornell.cs.apl.viaduct.analysis.NameAnalysis
+import edu.cornell.cs.apl.viaduct.analysis.simpleStatementNodes
+import edu.cornell.cs.apl.viaduct.syntax.Protocol
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.DeclarationNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.LetNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.Node
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.ReadNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.SimpleStatementNode
+
+/**
+ * Quickly selects protocols one variable at a time, without a solver.
+ *
+ * Blocks are visited one at a time, and the lets and declarations of each block in program order.
+ * Each variable gets the viable protocol with the lowest (or highest, depending on [costMode])
+ * estimated cost of executing its statement and receiving its arguments from the protocols already
+ * selected for them; protocols that cannot receive from those protocols are avoided. Variables
+ * constrained to be equal, like arguments and parameters, are selected together.
+ *
+ * The selection respects viability and equality constraints, but it is not checked against the
+ * rest of the constraints (like participating hosts), and it may be far from optimal.
+ */
+internal class GreedySelection(
+    private val nameAnalysis: NameAnalysis,
+    private val constraintGenerator: SelectionConstraintGenerator,
+    private val protocolComposer: ProtocolComposer,
+    private val costEstimator: CostEstimator<IntegerCost>,
+    private val costMode: CostMode
+) {
+    private val weights = costEstimator.featureWeights()
+
+    private fun Cost<IntegerCost>.weighted(): Long =
+        this.features.entries.sumOf { (feature, cost) -> (weights[feature]?.cost ?: 0).toLong() * cost.cost }
+
+    /**
+     * Selects protocols for the variables of [blocks] (function bodies and the main process),
+     * subject to the top-level viability and equality constraints in [constraints].
+     * Variables without a let or declaration, like parameters, are only selected if they are equal
+     * to one that has one.
+     */
+    fun select(blocks: List<Node>, constraints: Collection<SelectionConstraint>): Map<FunctionVariable, Protocol> {
+        val topLevel = constraints.flatMap { it.conjuncts() }
+
+        val allowed: MutableMap<FunctionVariable, Set<Protocol>> = mutableMapOf()
+        val equalities = UnionFind()
+        for (constraint in topLevel) {
+            when (constraint) {
+                is VariableIn ->
+                    allowed[constraint.variable] =
+                        allowed[constraint.variable]?.intersect(constraint.protocols) ?: constraint.protocols
+
+                is VariableEquals ->
+                    equalities.unionAll(listOf(constraint.var1, constraint.var2))
+
+                else -> {
+                }
+            }
+        }
+
+        // protocols allowed for every variable in an equality class
+        val classAllowed: MutableMap<Any, Set<Protocol>> = mutableMapOf()
+        for ((variable, protocols) in allowed) {
+            val root = equalities.find(variable)
+            classAllowed[root] = classAllowed[root]?.intersect(protocols) ?: protocols
+        }
+
+        val classProtocols: MutableMap<Any, Protocol> = mutableMapOf()
+        val selected: MutableMap<FunctionVariable, Protocol> = mutableMapOf()
+
+        fun protocolOf(read: ReadNode): Protocol? {
+            val declaration = nameAnalysis.declaration(read)
+            val variable =
+                FunctionVariable(nameAnalysis.enclosingFunctionName(declaration), declaration.temporary.value)
+            return classProtocols[equalities.find(variable)]
+        }
+
+        fun selectFor(
+            statement: SimpleStatementNode,
+            variable: FunctionVariable,
+            viable: Set<Protocol>,
+            reads: Collection<ReadNode>
+        ) {
+            val root = equalities.find(variable)
+            val protocol =
+                classProtocols.getOrPut(root) {
+                    val candidates = viable.intersect(classAllowed[root] ?: viable).ifEmpty { viable }
+                    val argumentProtocols = reads.mapNotNull { protocolOf(it) }
+                    val receiving =
+                        candidates.filter { protocol ->
+                            argumentProtocols.all { protocolComposer.canCommunicate(it, protocol) }
+                        }.ifEmpty { candidates.toList() }
+
+                    val costs =
+                        receiving.associateWith { protocol ->
+                            argumentProtocols
+                                .filter { protocolComposer.canCommunicate(it, protocol) }
+                                .fold(costEstimator.executionCost(statement, protocol)) { acc, argumentProtocol ->
+                                    acc.concat(costEstimator.communicationCost(argumentProtocol, protocol))
+                                }.weighted()
+                        }
+                    when (costMode) {
+                        CostMode.MINIMIZE -> costs.minByOrNull { it.value }
+                        CostMode.MAXIMIZE -> costs.maxByOrNull { it.value }
+                    }?.key ?: return
+                }
+            selected[variable] = protocol
+        }
+
+        for (block in blocks) {
+            for (statement in block.simpleStatementNodes()) {
+                when (statement) {
+                    is LetNode ->
+                        selectFor(
+                            statement,
+                            FunctionVariable(nameAnalysis.enclosingFunctionName(statement), statement.temporary.value),
+                            constraintGenerator.viableProtocols(statement),
+                            nameAnalysis.reads(statement.value)
+                        )
+
+                    is DeclarationNode ->
+                        selectFor(
+                            statement,
+                            FunctionVariable(nameAnalysis.enclosingFunctionName(statement), statement.name.value),
+                            constraintGenerator.viableProtocols(statement),
+                            statement.arguments.filterIsInstance<ReadNode>()
+                        )
+
+                    else -> {
+                    }
+                }
+            }
+        }
+
+        // variables without statements of their own take the protocol of their equality class
+        for (variable in allowed.keys) {
+            classProtocols[equalities.find(variable)]?.let { selected.putIfAbsent(variable, it) }
+        }
+
+        return selected
+    }
+}
+
+private fun SelectionConstraint.conjuncts(): List<SelectionConstraint> =
+    mutableListOf<SelectionConstraint>().also { this.collectConjuncts(it) }
+
+private fun SelectionConstraint.collectConjuncts(conjuncts: MutableList<SelectionConstraint>) {
+    if (this is And) {
+        this.lhs.collectConjuncts(conjuncts)
+        this.rhs.collectConjuncts(conjuncts)
+    } else {
+        conjuncts.add(this)
+    }
+}
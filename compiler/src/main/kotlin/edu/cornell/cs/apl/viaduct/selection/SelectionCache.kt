@@ -0,0 +1,122 @@
+package edu.cornell.cs.apl.viaduct.selection
+
+import edu.cornell.cs.apl.viaduct.syntax.FunctionName
+import edu.cornell.cs.apl.viaduct.syntax.ObjectVariable
+import edu.cornell.cs.apl.viaduct.syntax.Temporary
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+import mu.KotlinLogging
+
+private val logger = KotlinLogging.logger("SelectionCache")
+
+/**
+ * Protocol selections from earlier compilations, stored in [directory].
+ *
+ * Selections are grouped by everything other than the program that determines them: the cost mode,
+ * the protocols of the factory, the weights of the cost model, whether the selection is guaranteed
+ * to be optimal, and [configuration], which describes settings of the factory and cost model that
+ * are not visible otherwise (like the cost regime).
+ * Within a group, selections are indexed by a hash of the program.
+ *
+ * Each selection records a fingerprint of every function it was computed for, so a later
+ * compilation of a different program can find the functions that did not change.
+ * If [reuseUnchangedFunctions] is set, those functions keep their previous protocols and only
+ * the rest of the program is optimized; the result is valid but may cost more than an optimal
+ * selection. Otherwise, previous selections only speed up finding an optimal one.
+ */
+class SelectionCache(
+    val directory: File,
+    val configuration: String = "",
+    val reuseUnchangedFunctions: Boolean = false
+) {
+    companion object {
+        private const val TEMPORARY = "temporary"
+        private const val OBJECT = "object"
+
+        /** Returns a hexadecimal SHA-256 hash of [parts], which are separated so their boundaries matter. */
+        fun fingerprint(vararg parts: String): String {
+            val digest = MessageDigest.getInstance("SHA-256")
+            for (part in parts) {
+                val bytes = part.toByteArray()
+                digest.update(bytes.size.toString().toByteArray())
+                digest.update(':'.code.toByte())
+                digest.update(bytes)
+            }
+            return digest.digest().joinToString("") { String.format("%02x", it) }
+        }
+    }
+
+    /** A selection, as protocol names, and the fingerprints of the functions it was made for. */
+    class Entry(
+        val functionFingerprints: Map<FunctionName, String>,
+        val assignment: Map<FunctionVariable, String>
+    )
+
+    private fun groupDirectory(group: String) = File(directory, group)
+
+    private fun entryFile(group: String, program: String) = File(groupDirectory(group), "$program.selection")
+
+    /** Returns the selection stored for [program] in [group], if there is one. */
+    fun load(group: String, program: String): Entry? = read(entryFile(group, program))
+
+    /** Returns the most recently stored selection in [group], if there is one. */
+    fun latest(group: String): Entry? =
+        groupDirectory(group)
+            .listFiles { file -> file.extension == "selection" }
+            ?.maxByOrNull { it.lastModified() }
+            ?.let { read(it) }
+
+    /** Stores [entry] as the selection for [program] in [group]. */
+    fun store(group: String, program: String, entry: Entry) {
+        val file = entryFile(group, program)
+        try {
+            file.parentFile.mkdirs()
+            // written to a temporary file first so concurrent compilations never read partial entries
+            val temporary = File.createTempFile(file.name, ".tmp", file.parentFile)
+            temporary.bufferedWriter().use { writer ->
+                for ((function, fingerprint) in entry.functionFingerprints) {
+                    writer.write("function\t${function.name}\t$fingerprint\n")
+                }
+                for ((variable, protocol) in entry.assignment) {
+                    val category = if (variable.variable is Temporary) TEMPORARY else OBJECT
+                    writer.write("$category\t${variable.function.name}\t${variable.variable.name}\t$protocol\n")
+                }
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE)
+        } catch (e: IOException) {
+            // the cache only saves time, so failing to write it should not fail compilation
+            logger.warn { "could not store protocol selection in $file: ${e.message}" }
+        }
+    }
+
+    private fun read(file: File): Entry? {
+        if (!file.exists()) {
+            return null
+        }
+
+        val functionFingerprints: MutableMap<FunctionName, String> = mutableMapOf()
+        val assignment: MutableMap<FunctionVariable, String> = mutableMapOf()
+        for (line in file.readLines()) {
+            val fields = line.split('\t', limit = 4)
+            when {
+                fields[0] == "function" && fields.size == 3 ->
+                    functionFingerprints[FunctionName(fields[1])] = fields[2]
+
+                fields[0] == TEMPORARY && fields.size == 4 ->
+                    assignment[FunctionVariable(FunctionName(fields[1]), Temporary(fields[2]))] = fields[3]
+
+                fields[0] == OBJECT && fields.size == 4 ->
+                    assignment[FunctionVariable(FunctionName(fields[1]), ObjectVariable(fields[2]))] = fields[3]
+
+                else -> {
+                    logger.warn { "ignoring malformed protocol selection in $file" }
+                    return null
+                }
+            }
+        }
+        return Entry(functionFingerprints, assignment)
+    }
+}
@@ -19,6 +19,7 @@ import edu.cornell.cs.apl.viaduct.syntax.Variable
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.DeclarationNode
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.ExpressionNode
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.LetNode
+import java.math.BigInteger
 
 data class FunctionVariable(val function: FunctionName, val variable: Variable) : PrettyPrintable {
     override val asDocument: Document =
@@ -158,12 +159,13 @@ internal fun SelectionConstraint.implies(other: SelectionConstraint): SelectionC
     return Implies(this, other)
 }
 
+/** Given a protocol selection and values for cost variables, evaluate the cost; costs can exceed 64 bits. **/
 internal fun SymbolicCost.evaluate(
     f: (FunctionName, Variable) -> Protocol,
-    c: (CostVariable) -> Int
-): Int {
+    c: (CostVariable) -> BigInteger
+): BigInteger {
     return when (this) {
-        is CostLiteral -> this.cost
+        is CostLiteral -> this.cost.toBigInteger()
         is CostVariable -> c(this)
         is CostAdd -> this.lhs.evaluate(f, c) + this.rhs.evaluate(f, c)
         is CostMul -> this.lhs.evaluate(f, c) * this.rhs.evaluate(f, c)
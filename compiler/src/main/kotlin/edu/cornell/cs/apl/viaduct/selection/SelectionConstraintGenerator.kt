@@ -54,12 +54,27 @@ class SelectionConstraintGenerator(
     private val protocolFactory: ProtocolFactory,
     private val protocolComposer: ProtocolComposer,
     private val costEstimator: CostEstimator<IntegerCost>,
-    private val ctx: Context
+    private val ctx: Context,
+    private val profile: ExecutionProfile? = null
 ) {
+    companion object {
+        /** Iterations assumed for loops that were not profiled and have no static bound. */
+        const val DEFAULT_LOOP_TRIP_COUNT: Int = 10
+    }
+
     private val hostTrustConfiguration = HostTrustConfiguration(program)
     private val nameAnalysis = NameAnalysis.get(program)
     private val informationFlowAnalysis = InformationFlowAnalysis.get(program)
 
+    private val loopKeys: Map<InfiniteLoopNode, ExecutionProfile.LoopKey> by lazy { ExecutionProfile.loopKeys(program) }
+    private val staticLoopBounds = StaticLoopBounds(nameAnalysis)
+
+    /** How many times the body of [loop] runs each time the loop is entered, from the profile if possible. */
+    private fun tripCount(loop: InfiniteLoopNode): Int =
+        loopKeys[loop]?.let { profile?.tripCount(it) }
+            ?: staticLoopBounds.tripCount(loop)
+            ?: DEFAULT_LOOP_TRIP_COUNT
+
     // TODO: pc must be weak enough for the hosts involved in the selected protocols to read it
     fun viableProtocols(node: LetNode): Set<Protocol> =
         protocolFactory.viableProtocols(node).filter {
@@ -156,8 +171,10 @@ class SelectionConstraintGenerator(
                     CostMux(CostLessThanEqualTo(thenCost, elseCost), elseCost, thenCost)
                 }
 
-            is InfiniteLoopNode ->
-                this.body.symbolicCost.map { f -> CostMul(CostLiteral(10), f) }
+            is InfiniteLoopNode -> {
+                val tripCount = tripCount(this)
+                this.body.symbolicCost.map { f -> CostMul(CostLiteral(tripCount), f) }
+            }
 
             // TODO: handle this later, recursive functions are tricky
             is FunctionCallNode -> zeroSymbolicCost
@@ -179,6 +196,16 @@ class SelectionConstraintGenerator(
 
     fun symbolicCost(node: Node) = node.symbolicCost
 
+    /**
+     * Symbolic cost of all calls to [function]. Calls cost nothing on their own, so the body is
+     * weighted by how many times the profile says the function was called, or counted once.
+     */
+    fun callCost(function: FunctionDeclarationNode): Cost<SymbolicCost> {
+        val calls = profile?.calls?.get(function.name.value) ?: return function.body.symbolicCost
+        val weight = calls.coerceIn(1, Int.MAX_VALUE.toLong()).toInt()
+        return function.body.symbolicCost.map { f -> CostMul(CostLiteral(weight), f) }
+    }
+
     /** Symbolic variables that specify whether a host is participating in the execution of a statement. */
     private val Node.participatingHosts: Map<Host, HostVariable> by attribute {
         program.hosts.map { host ->
@@ -0,0 +1,463 @@
+package edu.cornell.cs.apl.viaduct.selection
+
+import com.microsoft.z3.ArithExpr
+import com.microsoft.z3.BoolExpr
+import com.microsoft.z3.Context
+import com.microsoft.z3.IntExpr
+import com.microsoft.z3.IntNum
+import com.microsoft.z3.Optimize
+import com.microsoft.z3.Status
+import com.uchuhimo.collections.BiMap
+import edu.cornell.cs.apl.viaduct.errors.NoProtocolIndexMapping
+import edu.cornell.cs.apl.viaduct.errors.NoSelectionSolutionError
+import edu.cornell.cs.apl.viaduct.syntax.Protocol
+import java.math.BigInteger
+import java.util.Collections
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import mu.KotlinLogging
+
+private val logger = KotlinLogging.logger("SelectionDecomposition")
+
+/**
+ * Splits protocol selection into subproblems that are solved in parallel, on a Z3 context per thread.
+ *
+ * After specialization, functions only share selection variables with their callers through
+ * their [parameters], since arguments must have the same protocol as parameters. Symbolic variables
+ * are grouped into components connected by constraints and cost terms, not counting parameters.
+ * The parameters a component mentions form its interface. Each component is solved once for every
+ * assignment of protocols to its interface, and a master problem picks the interface assignments,
+ * using the optimal cost of each component under each assignment in place of its constraints.
+ * Components only interact through their interfaces, so the combined selection is optimal.
+ *
+ * Components whose interface has more than [maxInterfaceAssignments] assignments are too tightly
+ * coupled to enumerate; they are solved as part of the master problem instead.
+ */
+internal class SelectionDecomposition(
+    private val ctx: Context,
+    private val costMode: CostMode,
+    private val varMap: BiMap<FunctionVariable, IntExpr>,
+    private val pmap: BiMap<Protocol, Int>,
+    private val pmapExpr: BiMap<Protocol, IntExpr>,
+    private val parameters: Map<FunctionVariable, Set<Protocol>>,
+    private val maxInterfaceAssignments: Int,
+    private val threads: Int
+) {
+    companion object {
+        /** The most interface assignments a component is solved for before it is left to the master problem. */
+        const val DEFAULT_MAX_INTERFACE_ASSIGNMENTS: Int = 64
+    }
+
+    /** A protocol for every selection variable, with the values of cost variables and the total cost. */
+    class Solution(
+        val protocols: Map<FunctionVariable, Protocol>,
+        val costVariables: Map<CostVariable, BigInteger>,
+        val totalCost: BigInteger
+    )
+
+    /** Constraints and cost terms connected through symbolic variables other than parameters. */
+    private class Component {
+        val constraints: MutableList<SelectionConstraint> = mutableListOf()
+        val costTerms: MutableList<Pair<BigInteger, SymbolicCost>> = mutableListOf()
+        val variables: MutableSet<Any> = mutableSetOf()
+        val interfaceVariables: MutableSet<FunctionVariable> = mutableSetOf()
+    }
+
+    /** The optimal selection for a component under one interface assignment. */
+    private class Subsolution(
+        val cost: BigInteger,
+        val protocols: Map<FunctionVariable, Int>,
+        val costVariables: Map<CostVariable, BigInteger>
+    )
+
+    private fun isParameter(variable: Any): Boolean =
+        variable is FunctionVariable && parameters.containsKey(variable)
+
+    /**
+     * Solves the selection problem given by [constraints] and [totalCost].
+     * Returns null if the problem does not split into components worth solving separately.
+     */
+    fun solve(constraints: Collection<SelectionConstraint>, totalCost: SymbolicCost): Solution? {
+        val costTerms = mutableListOf<Pair<BigInteger, SymbolicCost>>()
+        totalCost.collectTerms(BigInteger.ONE, costTerms)
+
+        val constraintVariables: Map<SelectionConstraint, Set<Any>> =
+            constraints.associateWith { c -> mutableSetOf<Any>().also { c.collectVariables(it) } }
+        val costTermVariables: List<Set<Any>> =
+            costTerms.map { (_, term) -> mutableSetOf<Any>().also { term.collectVariables(it) } }
+
+        // parameters are left out, so they do not connect callers with the functions they call
+        val components = UnionFind()
+        for (variables in constraintVariables.values + costTermVariables) {
+            components.unionAll(variables.filterNot { isParameter(it) })
+        }
+
+        // parts that only mention parameters, or nothing at all, are solved by the master problem
+        val master = Component()
+        val componentsByRoot: MutableMap<Any, Component> = mutableMapOf()
+        fun componentOf(variables: Set<Any>): Component {
+            val inner = variables.firstOrNull { !isParameter(it) } ?: return master
+            return componentsByRoot.getOrPut(components.find(inner)) { Component() }
+        }
+
+        for ((constraint, variables) in constraintVariables) {
+            val component = componentOf(variables)
+            component.constraints.add(constraint)
+            component.addVariables(variables)
+        }
+        for ((term, variables) in costTerms.zip(costTermVariables)) {
+            val component = componentOf(variables)
+            component.costTerms.add(term)
+            component.addVariables(variables)
+        }
+
+        val separable =
+            componentsByRoot.values.filter { component ->
+                component.interfaceVariables.fold(1L) { count, parameter ->
+                    minOf(count * parameters.getValue(parameter).size, Long.MAX_VALUE / Int.MAX_VALUE)
+                } <= maxInterfaceAssignments
+            }
+        if (componentsByRoot.size < 2 || separable.isEmpty()) {
+            return null
+        }
+        val coupled = componentsByRoot.values.filter { it !in separable }
+
+        val subsolutions = solveSeparately(separable)
+
+        return solveMaster(master, coupled, subsolutions)
+    }
+
+    private fun Component.addVariables(variables: Set<Any>) {
+        for (variable in variables) {
+            if (isParameter(variable)) {
+                this.interfaceVariables.add(variable as FunctionVariable)
+            } else {
+                this.variables.add(variable)
+            }
+        }
+    }
+
+    /** All assignments of protocols to [variables]. */
+    private fun assignments(variables: Collection<FunctionVariable>): List<Map<FunctionVariable, Protocol>> =
+        variables.fold(listOf(mapOf())) { partial, variable ->
+            partial.flatMap { assignment ->
+                parameters.getValue(variable).map { protocol -> assignment + (variable to protocol) }
+            }
+        }
+
+    private fun costExpr(costTerms: List<Pair<BigInteger, SymbolicCost>>): ArithExpr {
+        val terms: List<ArithExpr> =
+            costTerms.map { (factor, term) ->
+                ctx.mkMul(ctx.mkInt(factor.toString()), term.arithExpr(ctx, varMap, pmapExpr))
+            }
+        return if (terms.isEmpty()) ctx.mkInt(0) else ctx.mkAdd(*terms.toTypedArray())
+    }
+
+    private fun Optimize.optimize(cost: ArithExpr) {
+        when (costMode) {
+            CostMode.MINIMIZE -> this.MkMinimize(cost)
+            CostMode.MAXIMIZE -> this.MkMaximize(cost)
+        }
+    }
+
+    /** Solves [components] for every assignment to their interface, in parallel. */
+    private fun solveSeparately(
+        components: List<Component>
+    ): Map<Component, Map<Map<FunctionVariable, Protocol>, Subsolution?>> {
+        // built before any worker starts, since the shared context must not be used concurrently
+        val terms: Map<Component, ComponentTerms> =
+            components.associateWith { component ->
+                ComponentTerms(
+                    component.constraints.map { it.boolExpr(ctx, varMap, pmapExpr) },
+                    costExpr(component.costTerms)
+                )
+            }
+
+        val workers: MutableList<Worker> = Collections.synchronizedList(mutableListOf())
+        val worker: ThreadLocal<Worker> = ThreadLocal.withInitial { Worker().also { workers.add(it) } }
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            val futures: Map<Component, Map<Map<FunctionVariable, Protocol>, Future<Subsolution?>>> =
+                components.associateWith { component ->
+                    assignments(component.interfaceVariables).associateWith { assignment ->
+                        executor.submit<Subsolution?> {
+                            worker.get().solve(component, terms.getValue(component), assignment)
+                        }
+                    }
+                }
+
+            logger.info {
+                "split protocol selection into ${components.size} separately solved components " +
+                    "with ${futures.values.sumOf { it.size }} subproblems on $threads threads"
+            }
+
+            return futures.mapValues { (_, byAssignment) -> byAssignment.mapValues { it.value.get() } }
+        } finally {
+            executor.shutdownNow()
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)
+            workers.forEach { it.context.close() }
+        }
+    }
+
+    /** The constraints and cost of a component, in the shared context. */
+    private class ComponentTerms(val constraints: List<BoolExpr>, val cost: ArithExpr)
+
+    /** A component translated into a worker's context. */
+    private class TranslatedComponent(
+        val constraints: List<BoolExpr>,
+        val cost: ArithExpr,
+        val protocolVariables: Map<FunctionVariable, IntExpr>,
+        val costVariables: Map<CostVariable, IntExpr>,
+        val interfaceVariables: Map<FunctionVariable, IntExpr>
+    )
+
+    /**
+     * Solves subproblems on one worker thread, in a Z3 context of its own that is created on the
+     * worker and reused for all subproblems it solves. Each component is translated into the
+     * context once, however many of its interface assignments the worker solves.
+     */
+    private inner class Worker {
+        val context = Context()
+
+        private val translated: MutableMap<Component, TranslatedComponent> = mutableMapOf()
+
+        private fun translate(component: Component, terms: ComponentTerms): TranslatedComponent =
+            translated.getOrPut(component) {
+                // translating reads the shared context, which other workers may be reading as well
+                synchronized(ctx) {
+                    TranslatedComponent(
+                        terms.constraints.map { it.translate(context) as BoolExpr },
+                        terms.cost.translate(context) as ArithExpr,
+                        component.variables.filterIsInstance<FunctionVariable>()
+                            .associateWith { varMap[it]!!.translate(context) as IntExpr },
+                        component.variables.filterIsInstance<CostVariable>()
+                            .associateWith { it.variable.translate(context) as IntExpr },
+                        component.interfaceVariables.associateWith { varMap[it]!!.translate(context) as IntExpr }
+                    )
+                }
+            }
+
+        /**
+         * Returns the optimal selection for [component] under the interface [assignment],
+         * or null if the assignment is infeasible.
+         */
+        fun solve(
+            component: Component,
+            terms: ComponentTerms,
+            assignment: Map<FunctionVariable, Protocol>
+        ): Subsolution? {
+            val subproblem = translate(component, terms)
+            val optimize = context.mkOptimize()
+            val costSymvar = context.mkIntConst("cost")
+
+            for (constraint in subproblem.constraints) {
+                optimize.Add(constraint)
+            }
+            for (variable in subproblem.costVariables.values) {
+                optimize.Add(context.mkGe(variable, context.mkInt(0)))
+            }
+            for ((parameter, protocol) in assignment) {
+                optimize.Add(
+                    context.mkEq(subproblem.interfaceVariables.getValue(parameter), context.mkInt(pmap[protocol]!!))
+                )
+            }
+            optimize.Add(context.mkEq(costSymvar, subproblem.cost))
+            optimize.optimize(costSymvar)
+
+            if (optimize.Check() != Status.SATISFIABLE) {
+                return null
+            }
+            val model = optimize.model
+            return Subsolution(
+                (model.eval(costSymvar, true) as IntNum).bigInteger,
+                subproblem.protocolVariables.mapValues { (model.eval(it.value, true) as IntNum).int },
+                subproblem.costVariables.mapValues { (model.eval(it.value, true) as IntNum).bigInteger }
+            )
+        }
+    }
+
+    /**
+     * Picks interface assignments for separately solved components, and solves the [coupled]
+     * components and the parts of the problem only mentioning parameters ([master]).
+     */
+    private fun solveMaster(
+        master: Component,
+        coupled: List<Component>,
+        subsolutions: Map<Component, Map<Map<FunctionVariable, Protocol>, Subsolution?>>
+    ): Solution {
+        val solver = ctx.mkOptimize()
+        val masterComponents = coupled + master
+        val costParts = mutableListOf<ArithExpr>()
+
+        for (component in masterComponents) {
+            for (constraint in component.constraints) {
+                solver.Add(constraint.boolExpr(ctx, varMap, pmapExpr))
+            }
+            for (variable in component.variables.filterIsInstance<CostVariable>()) {
+                solver.Add(ctx.mkGe(variable.variable, ctx.mkInt(0)))
+            }
+            costParts.add(costExpr(component.costTerms))
+        }
+
+        // each component restricts its interface to feasible assignments, and adds their optimal cost
+        for ((_, byAssignment) in subsolutions) {
+            val feasible = byAssignment.filterValues { it != null }
+            if (feasible.isEmpty()) {
+                throw NoSelectionSolutionError()
+            }
+
+            val cases: List<Pair<BoolExpr, BigInteger>> =
+                feasible.map { (assignment, subsolution) ->
+                    val matches: List<BoolExpr> =
+                        assignment.map { (parameter, protocol) -> ctx.mkEq(varMap[parameter]!!, pmapExpr[protocol]!!) }
+                    val condition = if (matches.isEmpty()) ctx.mkTrue() else ctx.mkAnd(*matches.toTypedArray())
+                    condition to subsolution!!.cost
+                }
+            solver.Add(ctx.mkOr(*cases.map { it.first }.toTypedArray()))
+            costParts.add(
+                cases.fold(ctx.mkInt(0) as ArithExpr) { rest, (condition, cost) ->
+                    ctx.mkITE(condition, ctx.mkInt(cost.toString()), rest) as ArithExpr
+                }
+            )
+        }
+
+        val totalCostSymvar = ctx.mkFreshConst("total_cost", ctx.intSort) as IntExpr
+        solver.Add(ctx.mkEq(totalCostSymvar, ctx.mkAdd(*costParts.toTypedArray())))
+        solver.optimize(totalCostSymvar)
+
+        if (solver.Check() != Status.SATISFIABLE) {
+            throw NoSelectionSolutionError()
+        }
+        val model = solver.model
+
+        fun protocol(index: Int): Protocol = pmap.inverse[index] ?: throw NoProtocolIndexMapping(index)
+
+        val protocols: MutableMap<FunctionVariable, Protocol> =
+            varMap.mapValuesTo(mutableMapOf()) { protocol((model.eval(it.value, true) as IntNum).int) }
+        val costVariables: MutableMap<CostVariable, BigInteger> =
+            masterComponents
+                .flatMap { component -> component.variables.filterIsInstance<CostVariable>() }
+                .associateWithTo(mutableMapOf()) { (model.eval(it.variable, true) as IntNum).bigInteger }
+
+        // separately solved components use their solution for the interface assignment the master picked
+        for ((component, byAssignment) in subsolutions) {
+            val assignment = component.interfaceVariables.associateWith { protocols.getValue(it) }
+            val subsolution = byAssignment.getValue(assignment)!!
+            for ((variable, index) in subsolution.protocols) {
+                protocols[variable] = protocol(index)
+            }
+            costVariables.putAll(subsolution.costVariables)
+        }
+
+        return Solution(protocols, costVariables, (model.eval(totalCostSymvar, true) as IntNum).bigInteger)
+    }
+}
+
+/** Disjoint sets of symbolic variables. */
+internal class UnionFind {
+    private val parents: MutableMap<Any, Any> = mutableMapOf()
+
+    fun find(element: Any): Any {
+        var root = element
+        while (true) {
+            val parent = parents.getOrPut(root) { root }
+            if (parent == root) {
+                break
+            }
+            root = parent
+        }
+
+        // compress the path, so later searches are fast
+        var current = element
+        while (current != root) {
+            val next = parents.getValue(current)
+            parents[current] = root
+            current = next
+        }
+        return root
+    }
+
+    fun unionAll(elements: Collection<Any>) {
+        val roots = elements.map { find(it) }
+        for (root in roots.drop(1)) {
+            parents[find(root)] = find(roots[0])
+        }
+    }
+}
+
+/** Adds the terms of [this] cost, multiplied by [factor], to [terms], distributing constant factors. */
+private fun SymbolicCost.collectTerms(factor: BigInteger, terms: MutableList<Pair<BigInteger, SymbolicCost>>) {
+    when {
+        factor.signum() == 0 -> {
+        }
+        this is CostAdd -> {
+            this.lhs.collectTerms(factor, terms)
+            this.rhs.collectTerms(factor, terms)
+        }
+        this is CostMul && this.lhs is CostLiteral ->
+            this.rhs.collectTerms(factor * this.lhs.cost.toBigInteger(), terms)
+        this is CostMul && this.rhs is CostLiteral ->
+            this.lhs.collectTerms(factor * this.rhs.cost.toBigInteger(), terms)
+        this is CostLiteral && this.cost == 0 -> {
+        }
+        else -> terms.add(factor to this)
+    }
+}
+
+/** Adds the selection, cost, host, and guard visibility variables [this] mentions to [variables]. */
+private fun SelectionConstraint.collectVariables(variables: MutableSet<Any>) {
+    when (this) {
+        is HostVariable -> variables.add(this)
+        is GuardVisibilityFlag -> variables.add(this)
+        is Literal -> {
+        }
+        is Implies -> {
+            this.lhs.collectVariables(variables)
+            this.rhs.collectVariables(variables)
+        }
+        is Or -> {
+            this.lhs.collectVariables(variables)
+            this.rhs.collectVariables(variables)
+        }
+        is And -> {
+            this.lhs.collectVariables(variables)
+            this.rhs.collectVariables(variables)
+        }
+        is Not -> this.rhs.collectVariables(variables)
+        is VariableIn -> variables.add(this.variable)
+        is VariableEquals -> {
+            variables.add(this.var1)
+            variables.add(this.var2)
+        }
+        is CostEquals -> {
+            this.lhs.collectVariables(variables)
+            this.rhs.collectVariables(variables)
+        }
+        is CostLessThanEqualTo -> {
+            this.lhs.collectVariables(variables)
+            this.rhs.collectVariables(variables)
+        }
+    }
+}
+
+private fun SymbolicCost.collectVariables(variables: MutableSet<Any>) {
+    when (this) {
+        is CostLiteral -> {
+        }
+        is CostVariable -> variables.add(this)
+        is CostAdd -> {
+            this.lhs.collectVariables(variables)
+            this.rhs.collectVariables(variables)
+        }
+        is CostMul -> {
+            this.lhs.collectVariables(variables)
+            this.rhs.collectVariables(variables)
+        }
+        is CostMux -> {
+            this.guard.collectVariables(variables)
+            this.lhs.collectVariables(variables)
+            this.rhs.collectVariables(variables)
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package edu.cornell.cs.apl.viaduct.selection
+
+import edu.cornell.cs.apl.viaduct.analysis.NameAnalysis
+import edu.cornell.cs.apl.viaduct.analysis.updateNodes
+import edu.cornell.cs.apl.viaduct.syntax.datatypes.Get
+import edu.cornell.cs.apl.viaduct.syntax.datatypes.Modify
+import edu.cornell.cs.apl.viaduct.syntax.datatypes.MutableCell
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.AtomicExpressionNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.BreakNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.DeclarationNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.IfNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.InfiniteLoopNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.LetNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.LiteralNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.OperatorApplicationNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.QueryNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.ReadNode
+import edu.cornell.cs.apl.viaduct.syntax.operators.Addition
+import edu.cornell.cs.apl.viaduct.syntax.operators.GreaterThan
+import edu.cornell.cs.apl.viaduct.syntax.operators.GreaterThanOrEqualTo
+import edu.cornell.cs.apl.viaduct.syntax.operators.LessThan
+import edu.cornell.cs.apl.viaduct.syntax.operators.LessThanOrEqualTo
+import edu.cornell.cs.apl.viaduct.syntax.operators.Subtraction
+import edu.cornell.cs.apl.viaduct.syntax.values.IntegerValue
+
+/**
+ * Infers how many times counting loops run, for loops the program was not profiled on.
+ *
+ * Recognizes elaborated `for` and `while` loops of the form
+ *
+ * ```
+ * var i = START;
+ * loop {
+ *     let $t = i.get(); let $g = $t < BOUND;
+ *     if ($g) { ...; i += STEP; } else { break; }
+ * }
+ * ```
+ *
+ * where the comparison may be any of `<`, `<=`, `>`, `>=` (with either side constant), the update
+ * may be `+=` or `-=`, and `i` is updated nowhere else in the loop. Updates to `i` between its
+ * declaration and the loop are not taken into account.
+ */
+internal class StaticLoopBounds(private val nameAnalysis: NameAnalysis) {
+    private val AtomicExpressionNode.integer: Int?
+        get() = ((this as? LiteralNode)?.value as? IntegerValue)?.value
+
+    /** The counter [this] reads, if it is a temporary bound to the value of a mutable cell. */
+    private val AtomicExpressionNode.counter: DeclarationNode?
+        get() {
+            val query = (this as? ReadNode)?.let { nameAnalysis.declaration(it).value } as? QueryNode
+            if (query == null || query.query.value != Get || query.arguments.isNotEmpty()) {
+                return null
+            }
+            val declaration = nameAnalysis.declaration(query) as? DeclarationNode
+            return declaration?.takeIf { it.className.value == MutableCell }
+        }
+
+    /** Returns the number of iterations of [loop], or null if it is not a recognized counting loop. */
+    fun tripCount(loop: InfiniteLoopNode): Int? {
+        val statements = loop.body.statements
+        val guardedBody = statements.lastOrNull() as? IfNode ?: return null
+        if (statements.dropLast(1).any { it !is LetNode }) {
+            return null
+        }
+        if (guardedBody.elseBranch.statements.none { it is BreakNode && it.jumpLabel.value == loop.jumpLabel.value }) {
+            return null
+        }
+
+        val guard = guardedBody.guard as? ReadNode ?: return null
+        val comparison = nameAnalysis.declaration(guard).value as? OperatorApplicationNode ?: return null
+        if (comparison.arguments.size != 2) {
+            return null
+        }
+        val (lhs, rhs) = comparison.arguments
+
+        // normalize to "counter OP bound"
+        val counter: DeclarationNode
+        val bound: Int
+        val operator =
+            when {
+                lhs.counter != null && rhs.integer != null -> {
+                    counter = lhs.counter!!
+                    bound = rhs.integer!!
+                    comparison.operator
+                }
+
+                rhs.counter != null && lhs.integer != null -> {
+                    counter = rhs.counter!!
+                    bound = lhs.integer!!
+                    when (comparison.operator) {
+                        LessThan -> GreaterThan
+                        LessThanOrEqualTo -> GreaterThanOrEqualTo
+                        GreaterThan -> LessThan
+                        GreaterThanOrEqualTo -> LessThanOrEqualTo
+                        else -> return null
+                    }
+                }
+
+                else -> return null
+            }
+
+        val start = counter.arguments.singleOrNull()?.integer ?: return null
+        val update = loop.updateNodes().singleOrNull { nameAnalysis.declaration(it) == counter } ?: return null
+        val stepSize = update.arguments.singleOrNull()?.integer ?: return null
+        val step =
+            when (update.update.value) {
+                Modify(Addition) -> stepSize.toLong()
+                Modify(Subtraction) -> -stepSize.toLong()
+                else -> return null
+            }
+
+        // the number of steps it takes for the guard to become false
+        val iterations: Long =
+            when {
+                operator == LessThan && step > 0 -> ceilDiv(bound - start.toLong(), step)
+                operator == LessThanOrEqualTo && step > 0 -> ceilDiv(bound - start.toLong() + 1, step)
+                operator == GreaterThan && step < 0 -> ceilDiv(start.toLong() - bound, -step)
+                operator == GreaterThanOrEqualTo && step < 0 -> ceilDiv(start.toLong() - bound + 1, -step)
+                else -> return null
+            }
+
+        return iterations.coerceIn(1, Int.MAX_VALUE.toLong()).toInt()
+    }
+
+    private fun ceilDiv(numerator: Long, denominator: Long): Long =
+        if (numerator <= 0) 0 else (numerator + denominator - 1) / denominator
+}
@@ -1,9 +1,12 @@
 package edu.cornell.cs.apl.viaduct.selection
 
+import com.microsoft.z3.BoolExpr
 import com.microsoft.z3.Context
 import com.microsoft.z3.IntExpr
 import com.microsoft.z3.IntNum
 import com.microsoft.z3.Model
+import com.microsoft.z3.Optimize
+import com.microsoft.z3.Solver
 import com.microsoft.z3.Status
 import com.uchuhimo.collections.BiMap
 import com.uchuhimo.collections.toBiMap
@@ -33,6 +36,8 @@ import edu.cornell.cs.apl.viaduct.syntax.intermediate.ObjectDeclarationArgumentN
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.ParameterNode
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.ProcessDeclarationNode
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.ProgramNode
+import java.math.BigInteger
+import kotlin.system.measureTimeMillis
 import mu.KotlinLogging
 
 private val logger = KotlinLogging.logger("Z3Selection")
@@ -65,12 +70,16 @@ private class Z3Selection(
     private val costEstimator: CostEstimator<IntegerCost>,
     private val ctx: Context,
     private val costMode: CostMode,
+    private val selectionCache: SelectionCache?,
+    private val decompose: Boolean,
+    private val timeLimitMillis: Long?,
+    private val profile: ExecutionProfile?,
     private val dumpMetadata: (Map<Node, PrettyPrintable>) -> Unit
 ) {
     private val nameAnalysis = NameAnalysis.get(program)
 
     private val constraintGenerator =
-        SelectionConstraintGenerator(program, protocolFactory, protocolComposer, costEstimator, ctx)
+        SelectionConstraintGenerator(program, protocolFactory, protocolComposer, costEstimator, ctx, profile)
     private val hostTrustConfiguration = HostTrustConfiguration(program)
 
     init {
@@ -89,17 +98,13 @@ private class Z3Selection(
     private fun printMetadata(
         reachableFunctions: Iterable<FunctionDeclarationNode>,
         eval: (FunctionName, Variable) -> Protocol,
-        model: Model,
-        totalCostSymvar: IntExpr
+        costVariableValue: (CostVariable) -> BigInteger,
+        totalCost: BigInteger
     ) {
         val nodeCostFunc: (Node) -> Pair<Node, PrettyPrintable> = { node ->
             val symcost = constraintGenerator.symbolicCost(node)
             val nodeCostStr =
-                symcost.featureSum().evaluate(eval) { cvar ->
-                    val interpValue = model.getConstInterp(cvar.variable)
-                    assert(interpValue != null)
-                    (interpValue as IntNum).int
-                }.toString()
+                symcost.featureSum().evaluate(eval, costVariableValue).toString()
 
             val nodeProtocolStr =
                 when (node) {
@@ -150,7 +155,7 @@ private class Z3Selection(
                 .plus(main.infiniteLoopNodes())
 
         val totalCostMetadata =
-            Document("total cost: ${(model.getConstInterp(totalCostSymvar) as IntNum).int}")
+            Document("total cost: $totalCost")
 
         val costMetadata: Map<Node, PrettyPrintable> =
             declarationNodes.asSequence().map { nodeCostFunc(it) }
@@ -167,14 +172,211 @@ private class Z3Selection(
         dumpMetadata(costMetadata)
     }
 
+    private fun assignmentFunction(assignment: Map<FunctionVariable, Protocol>): (FunctionName, Variable) -> Protocol =
+        { f, v -> assignment[FunctionVariable(f, v)] ?: throw NoVariableSelectionSolutionError(f, v) }
+
+    /** Returns the protocols named in [entry], or null if some protocol is no longer available. */
+    private fun decode(
+        entry: SelectionCache.Entry,
+        protocols: Map<String, Protocol>
+    ): Map<FunctionVariable, Protocol>? {
+        return entry.assignment.mapValues { protocols[it.value] ?: return null }
+    }
+
+    /**
+     * Solves [solver], whose assertions are [assertions], starting from the protocols [hints] gives
+     * to variables of unchanged functions.
+     *
+     * When reusing unchanged functions, the hinted variables are fixed and the rest is optimized.
+     * Otherwise, a plain satisfiability check with the hinted variables fixed finds some selection
+     * close to the previous one; its cost bounds the full problem, which cuts off much of the search
+     * for an optimal solution without paying for a second optimization.
+     * Returns null if there is no solution.
+     */
+    private fun solve(
+        solver: Optimize,
+        assertions: List<BoolExpr>,
+        varMap: BiMap<FunctionVariable, IntExpr>,
+        pmapExpr: BiMap<Protocol, IntExpr>,
+        hints: Map<FunctionVariable, Protocol>,
+        totalCostSymvar: IntExpr
+    ): Model? {
+        val hinted: List<BoolExpr> =
+            hints.map { (variable, protocol) -> ctx.mkEq(varMap[variable]!!, pmapExpr[protocol]!!) }
+
+        if (hints.isNotEmpty() && selectionCache?.reuseUnchangedFunctions == true) {
+            solver.Push()
+            hinted.forEach { solver.Add(it) }
+            if (solver.Check() == Status.SATISFIABLE) {
+                logger.info { "reused protocols of ${hints.size} variables in unchanged functions" }
+                return solver.model
+            }
+            logger.info { "previous protocols of unchanged functions are no longer valid" }
+            solver.Pop()
+        } else if (hints.isNotEmpty()) {
+            var bound: IntNum? = null
+            val boundDuration = measureTimeMillis {
+                val feasibility = ctx.mkSolver()
+                assertions.forEach { feasibility.Add(it) }
+                hinted.forEach { feasibility.Add(it) }
+                if (feasibility.Check() == Status.SATISFIABLE) {
+                    bound = feasibility.model.eval(totalCostSymvar, true) as IntNum
+                }
+            }
+
+            val warmStart = bound
+            if (warmStart != null) {
+                logger.info { "bounding total cost by $warmStart from previous selection, found in ${boundDuration}ms" }
+                when (costMode) {
+                    CostMode.MINIMIZE -> solver.Add(ctx.mkLe(totalCostSymvar, warmStart))
+                    CostMode.MAXIMIZE -> solver.Add(ctx.mkGe(totalCostSymvar, warmStart))
+                }
+            } else {
+                logger.info { "previous protocols of unchanged functions are no longer valid" }
+            }
+        }
+
+        var model: Model? = null
+        val duration = measureTimeMillis {
+            model = if (solver.Check() == Status.SATISFIABLE) solver.model else null
+        }
+        logger.info { "optimized protocol selection in ${duration}ms" }
+        return model
+    }
+
+    private fun storeSelection(
+        cacheGroup: String?,
+        cacheKey: String,
+        functionFingerprints: Map<FunctionName, String>,
+        assignment: Map<FunctionVariable, Protocol>
+    ) {
+        if (selectionCache != null && cacheGroup != null) {
+            selectionCache.store(
+                cacheGroup,
+                cacheKey,
+                SelectionCache.Entry(functionFingerprints, assignment.mapValues { it.value.asDocument.print() })
+            )
+        }
+    }
+
+    /**
+     * Finds a selection for the assertions in [solver], improving on [start] until [timeLimitMillis] runs out.
+     *
+     * The protocols in [start] are checked first, leaving only host, guard, and cost variables to solve for.
+     * If they are not valid, any selection is the starting point instead. Z3 then looks for selections that
+     * are strictly better than the best one so far until time runs out or there is no better one, so the
+     * best selection found so far is returned even if it is not optimal.
+     * Returns null if there is no solution.
+     *
+     * @throws NoSelectionSolutionError if time runs out before any selection is found.
+     */
+    private fun solveAnytime(
+        solver: Solver,
+        varMap: BiMap<FunctionVariable, IntExpr>,
+        pmapExpr: BiMap<Protocol, IntExpr>,
+        start: Map<FunctionVariable, Protocol>,
+        totalCostSymvar: IntExpr,
+        timeLimitMillis: Long
+    ): Model? {
+        val deadline = System.currentTimeMillis() + timeLimitMillis
+
+        /** Checks the assertions in [solver], giving up with [Status.UNKNOWN] at the deadline. */
+        fun check(): Status {
+            val remaining = deadline - System.currentTimeMillis()
+            if (remaining <= 0) {
+                return Status.UNKNOWN
+            }
+            val params = ctx.mkParams()
+            params.add("timeout", remaining.coerceAtMost(Int.MAX_VALUE.toLong()).toInt())
+            solver.setParameters(params)
+            return solver.Check()
+        }
+
+        var startModel: Model? = null
+        if (start.isNotEmpty()) {
+            solver.Push()
+            for ((variable, protocol) in start) {
+                varMap[variable]?.let { solver.Add(ctx.mkEq(it, pmapExpr[protocol]!!)) }
+            }
+            when (check()) {
+                Status.SATISFIABLE -> {
+                    startModel = solver.model
+                    logger.info { "greedy selection of ${start.size} variables is valid" }
+                }
+                Status.UNSATISFIABLE ->
+                    logger.info { "greedy selection is not valid; searching for any selection" }
+                else ->
+                    logger.info { "time limit reached while checking greedy selection" }
+            }
+            solver.Pop()
+        }
+
+        var best: Model =
+            startModel ?: when (check()) {
+                Status.SATISFIABLE -> solver.model
+                Status.UNSATISFIABLE -> return null
+                else -> {
+                    logger.info { "time limit reached before any selection was found" }
+                    throw NoSelectionSolutionError(timeLimitMillis)
+                }
+            }
+
+        while (System.currentTimeMillis() < deadline) {
+            val bound = best.eval(totalCostSymvar, true) as IntNum
+            when (costMode) {
+                CostMode.MINIMIZE -> solver.Add(ctx.mkLt(totalCostSymvar, bound))
+                CostMode.MAXIMIZE -> solver.Add(ctx.mkGt(totalCostSymvar, bound))
+            }
+
+            when (check()) {
+                Status.SATISFIABLE -> best = solver.model
+                Status.UNSATISFIABLE -> {
+                    logger.info { "selection with total cost $bound is optimal" }
+                    return best
+                }
+                else -> break
+            }
+        }
+
+        logger.info { "time limit reached; using selection with total cost ${best.eval(totalCostSymvar, true)}" }
+        return best
+    }
+
     /** Protocol selection. */
     fun select(): (FunctionName, Variable) -> Protocol {
-        val solver = ctx.mkOptimize()
-        val constraints = mutableSetOf<SelectionConstraint>()
-
         val reachableFunctionNames = nameAnalysis.reachableFunctions(main)
         val reachableFunctions = program.functions.filter { f -> reachableFunctionNames.contains(f.name.value) }
 
+        val pmap: BiMap<Protocol, Int> =
+            protocolFactory.protocols().map { it.protocol }.toSet().withIndex().map {
+                it.value to it.index
+            }.toMap().toBiMap()
+
+        val protocolsByName: Map<String, Protocol> = pmap.keys.associateBy { it.asDocument.print() }
+
+        val functionFingerprints: Map<FunctionName, String> =
+            reachableFunctions
+                .associate { f -> f.name.value to SelectionCache.fingerprint(f.asDocument.print()) }
+                .plus(NameAnalysis.MAIN_FUNCTION to SelectionCache.fingerprint(main.asDocument.print()))
+
+        // selections are reused only if everything other than the program is the same
+        val cacheGroup: String? =
+            selectionCache?.let { cache ->
+                SelectionCache.fingerprint(
+                    costMode.name,
+                    cache.configuration,
+                    costEstimator.featureWeights().asDocument.print(),
+                    protocolsByName.keys.sorted().joinToString("\n"),
+                    profile?.lines()?.sorted()?.joinToString("\n") ?: "",
+                    // selections that may not be optimal are never reused by compilations that want optimal ones
+                    if (cache.reuseUnchangedFunctions || timeLimitMillis != null) "approximate" else "optimal"
+                )
+            }
+        val cacheKey =
+            SelectionCache.fingerprint(program.asDocument.print(), main.protocol.value.asDocument.print())
+
+        val constraints = mutableSetOf<SelectionConstraint>()
+
         // select for functions first
         for (function in reachableFunctions) {
             constraints.addAll(constraintGenerator.getConstraints(function))
@@ -215,11 +417,6 @@ private class Z3Selection(
                 }
             }.toMap()
 
-        val pmap: BiMap<Protocol, Int> =
-            protocolFactory.protocols().map { it.protocol }.toSet().withIndex().map {
-                it.value to it.index
-            }.toMap().toBiMap()
-
         val varMap: BiMap<FunctionVariable, IntExpr> =
             (letNodes.mapKeys {
                 FunctionVariable(nameAnalysis.enclosingFunctionName(it.key), it.key.temporary.value)
@@ -246,12 +443,6 @@ private class Z3Selection(
             costVariables.addAll(constraint.costVariables())
             hostVariables.addAll(constraint.hostVariables())
             guardVisibilityVariables.addAll(constraint.guardVisibilityVariables())
-            solver.Add(constraint.boolExpr(ctx, varMap, pmapExpr))
-        }
-
-        // make sure all cost variables are nonnegative
-        for (costVariable in costVariables) {
-            solver.Add(ctx.mkGe(costVariable.variable, ctx.mkInt(0)))
         }
 
         if (varMap.values.isNotEmpty()) {
@@ -259,48 +450,141 @@ private class Z3Selection(
             val programCostFeatures: Cost<SymbolicCost> =
                 reachableFunctions.fold(constraintGenerator.symbolicCost(main.body)) { acc, f ->
                     acc.concat(
-                        constraintGenerator.symbolicCost(f.body)
+                        constraintGenerator.callCost(f)
                     )
                 }
 
             val totalCost = programCostFeatures.featureSum()
+
+            val symvarCount = varMap.size + costVariables.size + hostVariables.size + guardVisibilityVariables.size
+
+            logger.info { "number of symvars: $symvarCount" }
+            logger.info { "cost mode set to $costMode" }
+
+            val assertions: MutableList<BoolExpr> =
+                constraints.mapTo(mutableListOf()) { it.boolExpr(ctx, varMap, pmapExpr) }
+
+            // make sure all cost variables are nonnegative
+            for (costVariable in costVariables) {
+                assertions.add(ctx.mkGe(costVariable.variable, ctx.mkInt(0)))
+            }
+
             val costExpr = totalCost.arithExpr(ctx, varMap, pmapExpr)
             val totalCostSymvar = ctx.mkFreshConst("total_cost", ctx.intSort) as IntExpr
 
-            solver.Add(ctx.mkEq(totalCostSymvar, costExpr))
+            assertions.add(ctx.mkEq(totalCostSymvar, costExpr))
 
-            when (costMode) {
-                CostMode.MINIMIZE -> solver.MkMinimize(totalCostSymvar)
-                CostMode.MAXIMIZE -> solver.MkMaximize(totalCostSymvar)
+            fun extractAssignment(model: Model): Map<FunctionVariable, Protocol> =
+                varMap.mapValues { e ->
+                    val protocolIndex = (model.getConstInterp(e.value) as IntNum).int
+                    pmap.inverse[protocolIndex] ?: throw NoProtocolIndexMapping(protocolIndex)
+                }
+
+            fun printModelMetadata(model: Model, eval: (FunctionName, Variable) -> Protocol) {
+                printMetadata(
+                    reachableFunctions,
+                    eval,
+                    { cvar ->
+                        val interpValue = model.getConstInterp(cvar.variable)
+                        assert(interpValue != null)
+                        (interpValue as IntNum).bigInteger
+                    },
+                    (model.getConstInterp(totalCostSymvar) as IntNum).bigInteger
+                )
             }
 
-            val symvarCount = varMap.size + costVariables.size + hostVariables.size + guardVisibilityVariables.size
+            // the cached selection fixes every protocol, so checking it only solves for costs and metadata
+            val cached: Map<FunctionVariable, Protocol>? =
+                cacheGroup?.let { selectionCache?.load(it, cacheKey) }?.let { decode(it, protocolsByName) }
+            if (cached != null && cached.keys.containsAll(varMap.keys)) {
+                val solver = ctx.mkSolver()
+                assertions.forEach { solver.Add(it) }
+                for ((variable, protocol) in cached) {
+                    varMap[variable]?.let { solver.Add(ctx.mkEq(it, pmapExpr[protocol]!!)) }
+                }
 
-            logger.info { "number of symvars: $symvarCount" }
-            logger.info { "cost mode set to $costMode" }
+                if (solver.Check() == Status.SATISFIABLE) {
+                    val model = solver.model
+                    val eval = assignmentFunction(extractAssignment(model))
+                    printModelMetadata(model, eval)
+                    logger.info { "reusing cached protocol selection" }
+                    return eval
+                } else {
+                    logger.info { "cached protocol selection is no longer valid" }
+                }
+            }
 
-            if (solver.Check() == Status.SATISFIABLE) {
-                val model = solver.model
-                val interpMap: Map<FunctionVariable, Int> =
-                    varMap.mapValues { e ->
-                        (model.getConstInterp(e.value) as IntNum).int
-                    }
+            val decomposition: SelectionDecomposition.Solution? =
+                if (decompose) {
+                    val parameters: Map<FunctionVariable, Set<Protocol>> =
+                        parameterNodes.keys.associate { parameter ->
+                            val functionName = nameAnalysis.functionDeclaration(parameter).name.value
+                            FunctionVariable(functionName, parameter.name.value) to
+                                constraintGenerator.viableProtocols(parameter)
+                        }
+                    SelectionDecomposition(
+                        ctx, costMode, varMap, pmap, pmapExpr, parameters,
+                        SelectionDecomposition.DEFAULT_MAX_INTERFACE_ASSIGNMENTS,
+                        Runtime.getRuntime().availableProcessors()
+                    ).solve(constraints, totalCost)
+                } else {
+                    null
+                }
+
+            if (decomposition != null) {
+                val eval = assignmentFunction(decomposition.protocols)
+                printMetadata(
+                    reachableFunctions,
+                    eval,
+                    { decomposition.costVariables[it] ?: BigInteger.ZERO },
+                    decomposition.totalCost
+                )
+                logger.info { "decomposed constraints satisfiable, combined models" }
+                storeSelection(cacheGroup, cacheKey, functionFingerprints, decomposition.protocols)
+                return eval
+            } else if (decompose) {
+                logger.info { "constraints do not decompose; solving them together" }
+            }
 
-                fun eval(f: FunctionName, v: Variable): Protocol {
-                    val fvar = FunctionVariable(f, v)
-                    return interpMap[fvar]?.let { protocolIndex ->
-                        pmap.inverse[protocolIndex] ?: throw NoProtocolIndexMapping(protocolIndex)
-                    } ?: throw NoVariableSelectionSolutionError(f, v)
+            // protocols of unchanged functions in the most recent selection with the same configuration
+            val previous: SelectionCache.Entry? = cacheGroup?.let { selectionCache?.latest(it) }
+            val hints: Map<FunctionVariable, Protocol> =
+                if (previous == null) {
+                    mapOf()
+                } else {
+                    (decode(previous, protocolsByName) ?: mapOf()).filterKeys { v ->
+                        varMap.containsKey(v) &&
+                            previous.functionFingerprints[v.function] == functionFingerprints[v.function]
+                    }
                 }
 
-                printMetadata(reachableFunctions, ::eval, model, totalCostSymvar)
+            val model =
+                if (timeLimitMillis == null) {
+                    val solver = ctx.mkOptimize()
+                    assertions.forEach { solver.Add(it) }
+                    when (costMode) {
+                        CostMode.MINIMIZE -> solver.MkMinimize(totalCostSymvar)
+                        CostMode.MAXIMIZE -> solver.MkMaximize(totalCostSymvar)
+                    }
+                    solve(solver, assertions, varMap, pmapExpr, hints, totalCostSymvar)
+                } else {
+                    val solver = ctx.mkSolver()
+                    assertions.forEach { solver.Add(it) }
+                    val greedy =
+                        GreedySelection(nameAnalysis, constraintGenerator, protocolComposer, costEstimator, costMode)
+                            .select(reachableFunctions.map { it.body } + main.body, constraints)
+                    solveAnytime(solver, varMap, pmapExpr, greedy + hints, totalCostSymvar, timeLimitMillis)
+                } ?: throw NoSelectionSolutionError()
+            val assignment: Map<FunctionVariable, Protocol> = extractAssignment(model)
+            val eval = assignmentFunction(assignment)
 
-                logger.info { "constraints satisfiable, extracted model" }
+            printModelMetadata(model, eval)
 
-                return ::eval
-            } else {
-                throw NoSelectionSolutionError()
-            }
+            logger.info { "constraints satisfiable, extracted model" }
+
+            storeSelection(cacheGroup, cacheKey, functionFingerprints, assignment)
+
+            return eval
         } else {
             return { f: FunctionName, v: Variable ->
                 throw NoVariableSelectionSolutionError(f, v)
@@ -316,13 +600,19 @@ fun selectProtocolsWithZ3(
     protocolComposer: ProtocolComposer,
     costEstimator: CostEstimator<IntegerCost>,
     costMode: CostMode,
+    selectionCache: SelectionCache? = null,
+    decompose: Boolean = false,
+    timeLimitMillis: Long? = null,
+    profile: ExecutionProfile? = null,
     dumpMetadata: (Map<Node, PrettyPrintable>) -> Unit = {}
 ): (FunctionName, Variable) -> Protocol {
+    require(!decompose || timeLimitMillis == null) { "Decomposed selection does not support time limits." }
+
     val ctx = Context()
     val ret = Z3Selection(
         program, main,
         protocolFactory, protocolComposer, costEstimator,
-        ctx, costMode, dumpMetadata
+        ctx, costMode, selectionCache, decompose, timeLimitMillis, profile, dumpMetadata
     ).select()
     ctx.close()
     return ret
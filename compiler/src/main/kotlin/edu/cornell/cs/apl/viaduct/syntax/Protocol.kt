@@ -66,8 +66,12 @@ abstract class Protocol : Name, Comparable<Protocol> {
     final override fun equals(other: Any?): Boolean =
         other is Protocol && this.protocolName == other.protocolName && this.arguments == other.arguments
 
-    final override fun hashCode(): Int =
+    /** Protocols are immutable and used as keys in hot lookups, so the hash is computed once. */
+    private val cachedHashCode: Int by lazy {
         Pair(protocolName, arguments).hashCode()
+    }
+
+    final override fun hashCode(): Int = cachedHashCode
 
     final override fun compareTo(other: Protocol): Int {
         if (protocolName != other.protocolName) {
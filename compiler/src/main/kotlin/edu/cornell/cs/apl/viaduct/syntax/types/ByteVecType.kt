@@ -6,7 +6,7 @@ import edu.cornell.cs.apl.viaduct.syntax.values.Value
 /** The type of booleans. */
 object ByteVecType : ValueType() {
     override val defaultValue: Value
-        get() = ByteVecValue(listOf())
+        get() = ByteVecValue(ByteArray(0))
 
     override fun toString(): String {
         return "bool"
@@ -3,8 +3,21 @@ package edu.cornell.cs.apl.viaduct.syntax.values
 import edu.cornell.cs.apl.viaduct.syntax.types.ByteVecType
 import edu.cornell.cs.apl.viaduct.syntax.types.ValueType
 
-/** A bytevec. */
-data class ByteVecValue(val value: List<Byte>) : Value() {
+/**
+ * A bytevec.
+ *
+ * The array is shared, not copied, so it must not be modified after the value is created.
+ */
+class ByteVecValue(val value: ByteArray) : Value() {
     override val type: ValueType
         get() = ByteVecType
+
+    override fun equals(other: Any?): Boolean =
+        other is ByteVecValue && this.value.contentEquals(other.value)
+
+    override fun hashCode(): Int =
+        value.contentHashCode()
+
+    override fun toString(): String =
+        "ByteVecValue(value=${value.contentToString()})"
 }
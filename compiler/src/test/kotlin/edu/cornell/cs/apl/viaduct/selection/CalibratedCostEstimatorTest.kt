@@ -0,0 +1,143 @@
+package edu.cornell.cs.apl.viaduct.selection
+
+import edu.cornell.cs.apl.viaduct.PositiveTestProgramProvider
+import edu.cornell.cs.apl.viaduct.analysis.main
+import edu.cornell.cs.apl.viaduct.errors.MalformedFileError
+import edu.cornell.cs.apl.viaduct.passes.check
+import edu.cornell.cs.apl.viaduct.passes.elaborated
+import edu.cornell.cs.apl.viaduct.protocols.ArithABY
+import edu.cornell.cs.apl.viaduct.protocols.BoolABY
+import edu.cornell.cs.apl.viaduct.protocols.Commitment
+import edu.cornell.cs.apl.viaduct.protocols.Local
+import edu.cornell.cs.apl.viaduct.protocols.Replication
+import edu.cornell.cs.apl.viaduct.protocols.YaoABY
+import edu.cornell.cs.apl.viaduct.protocols.ZKP
+import edu.cornell.cs.apl.viaduct.syntax.Operator
+import edu.cornell.cs.apl.viaduct.syntax.operators.Addition
+import edu.cornell.cs.apl.viaduct.syntax.operators.And
+import edu.cornell.cs.apl.viaduct.syntax.operators.Division
+import edu.cornell.cs.apl.viaduct.syntax.operators.EqualTo
+import edu.cornell.cs.apl.viaduct.syntax.operators.ExclusiveOr
+import edu.cornell.cs.apl.viaduct.syntax.operators.GreaterThan
+import edu.cornell.cs.apl.viaduct.syntax.operators.GreaterThanOrEqualTo
+import edu.cornell.cs.apl.viaduct.syntax.operators.LessThan
+import edu.cornell.cs.apl.viaduct.syntax.operators.LessThanOrEqualTo
+import edu.cornell.cs.apl.viaduct.syntax.operators.Maximum
+import edu.cornell.cs.apl.viaduct.syntax.operators.Minimum
+import edu.cornell.cs.apl.viaduct.syntax.operators.Multiplication
+import edu.cornell.cs.apl.viaduct.syntax.operators.Mux
+import edu.cornell.cs.apl.viaduct.syntax.operators.Negation
+import edu.cornell.cs.apl.viaduct.syntax.operators.Not
+import edu.cornell.cs.apl.viaduct.syntax.operators.Or
+import edu.cornell.cs.apl.viaduct.syntax.operators.Subtraction
+import edu.cornell.cs.apl.viaduct.syntax.surface.ProgramNode
+import java.io.File
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.junit.jupiter.api.io.TempDir
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.ArgumentsSource
+
+internal class CalibratedCostEstimatorTest {
+    private val sharings = listOf(ArithABY.protocolName, BoolABY.protocolName, YaoABY.protocolName)
+
+    private val otherProtocols =
+        listOf(Local.protocolName, Replication.protocolName, Commitment.protocolName, ZKP.protocolName)
+
+    private val operators: List<Operator> =
+        listOf(
+            Negation, Addition, Subtraction, Multiplication, Division, Minimum, Maximum,
+            Not, And, Or, ExclusiveOr,
+            EqualTo, LessThan, LessThanOrEqualTo, GreaterThan, GreaterThanOrEqualTo,
+            Mux
+        )
+
+    /** A profile with made up costs for everything. */
+    private val profile =
+        CostProfile(
+            statements = (otherProtocols + sharings).associateWith { 5 },
+            operators = operators.flatMap { operator -> sharings.map { operator to it } }.associateWith { 40 },
+            conversions = sharings.flatMap { from -> sharings.minus(from).map { from to it } }.associateWith { 30 },
+            circuits = (sharings + ZKP.protocolName).associateWith { 500 },
+            messageLatency = 100
+        )
+
+    @TempDir
+    lateinit var directory: File
+
+    @Test
+    fun `profiles are read back as written`() {
+        val file = File(directory, "costs")
+        profile.write(file)
+
+        val read = CostProfile.read(file)
+        assertEquals(profile.statements, read.statements)
+        assertEquals(profile.operators, read.operators)
+        assertEquals(profile.conversions, read.conversions)
+        assertEquals(profile.circuits, read.circuits)
+        assertEquals(profile.messageLatency, read.messageLatency)
+        assertFalse(read.measuredInProcess)
+    }
+
+    @Test
+    fun `profiles measured in process are marked`() {
+        val file = File(directory, "costs")
+        profile.run { CostProfile(statements, operators, conversions, circuits, messageLatency, true) }.write(file)
+
+        assertTrue(CostProfile.read(file).measuredInProcess)
+    }
+
+    @Test
+    fun `profiles missing costs are rejected`() {
+        val incomplete =
+            listOf(
+                profile.run {
+                    CostProfile(statements - Local.protocolName, operators, conversions, circuits, messageLatency)
+                },
+                profile.run {
+                    val operator = Mux to YaoABY.protocolName
+                    CostProfile(statements, operators - operator, conversions, circuits, messageLatency)
+                },
+                profile.run {
+                    val conversion = BoolABY.protocolName to ArithABY.protocolName
+                    CostProfile(statements, operators, conversions - conversion, circuits, messageLatency)
+                }
+            )
+
+        for (missing in incomplete) {
+            val file = File(directory, "costs")
+            missing.write(file)
+            assertThrows<MalformedFileError> { CostProfile.read(file) }
+        }
+
+        val file = File(directory, "costs")
+        file.writeText(profile.lines().filterNot { it.startsWith("message") }.joinToString("") { "$it\n" })
+        assertThrows<MalformedFileError> { CostProfile.read(file) }
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(PositiveTestProgramProvider::class)
+    fun `calibrated selections are valid`(surfaceProgram: ProgramNode) {
+        val program = surfaceProgram.elaborated()
+        program.check()
+
+        val protocolFactory = SimpleProtocolFactory(program)
+        val costEstimator = CalibratedCostEstimator(SimpleProtocolComposer, profile)
+
+        val assignment =
+            selectProtocolsWithZ3(
+                program, program.main,
+                protocolFactory, SimpleProtocolComposer, costEstimator,
+                CostMode.MINIMIZE
+            )
+
+        validateProtocolAssignment(
+            program, program.main,
+            protocolFactory, SimpleProtocolComposer, costEstimator,
+            assignment
+        )
+    }
+}
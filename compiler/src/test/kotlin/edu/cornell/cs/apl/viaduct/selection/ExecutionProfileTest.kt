@@ -0,0 +1,121 @@
+package edu.cornell.cs.apl.viaduct.selection
+
+import edu.cornell.cs.apl.viaduct.analysis.NameAnalysis
+import edu.cornell.cs.apl.viaduct.analysis.infiniteLoopNodes
+import edu.cornell.cs.apl.viaduct.analysis.main
+import edu.cornell.cs.apl.viaduct.errors.MalformedFileError
+import edu.cornell.cs.apl.viaduct.parsing.SourceFile
+import edu.cornell.cs.apl.viaduct.parsing.parse
+import edu.cornell.cs.apl.viaduct.passes.check
+import edu.cornell.cs.apl.viaduct.passes.elaborated
+import edu.cornell.cs.apl.viaduct.syntax.FunctionName
+import java.io.File
+import java.math.BigInteger
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.junit.jupiter.api.io.TempDir
+
+internal class ExecutionProfileTest {
+    @TempDir
+    lateinit var directory: File
+
+    private val f = FunctionName("f")
+    private val loop = ExecutionProfile.LoopKey(f, 0)
+
+    @Test
+    fun `profiles are read back as written`() {
+        val profile =
+            ExecutionProfile(
+                mapOf(loop to ExecutionProfile.LoopCount(2, 7)),
+                mapOf(f to 3L, NameAnalysis.MAIN_FUNCTION to 1L)
+            )
+        val file = File(directory, "profile")
+        profile.write(file)
+
+        val read = ExecutionProfile.read(file)
+        assertEquals(profile.loops, read.loops)
+        assertEquals(profile.calls, read.calls)
+    }
+
+    @Test
+    fun `malformed profiles are rejected`() {
+        val file = File(directory, "profile")
+        file.writeText("call\tf\tmany\n")
+        assertThrows<MalformedFileError> { ExecutionProfile.read(file) }
+    }
+
+    @Test
+    fun `trip counts are rounded up averages`() {
+        val profile = ExecutionProfile(mapOf(loop to ExecutionProfile.LoopCount(2, 7)), mapOf())
+        assertEquals(4, profile.tripCount(loop))
+        assertNull(profile.tripCount(ExecutionProfile.LoopKey(f, 1)))
+    }
+
+    @Test
+    fun `unions keep the largest counts`() {
+        val alice = ExecutionProfile(mapOf(loop to ExecutionProfile.LoopCount(1, 10)), mapOf(f to 2L))
+        val bob = ExecutionProfile(mapOf(), mapOf(f to 5L))
+        val union = alice.union(bob)
+        assertEquals(ExecutionProfile.LoopCount(1, 10), union.loops[loop])
+        assertEquals(5L, union.calls[f])
+    }
+
+    @Test
+    fun `counting loops have static bounds`() {
+        val source =
+            """
+            process main {
+                for (var i: int = 0; i < 5; i += 1) {
+                    output i to alice;
+                }
+                for (var j: int = 0; j <= 10; j += 2) {
+                    output j to alice;
+                }
+                loop {
+                    break;
+                }
+            }
+
+            host alice: {A}
+            """.trimIndent()
+        val program = SourceFile.from("<static bounds>", source).parse().elaborated()
+        val bounds = StaticLoopBounds(NameAnalysis.get(program))
+
+        assertEquals(listOf(5, 6, null), program.main.infiniteLoopNodes().map { bounds.tripCount(it) })
+    }
+
+    @Test
+    fun `costs can exceed 32 bits`() {
+        val source =
+            """
+            process main {
+                loop {
+                    val a: int{A} = input int from alice;
+                    val b: int{A} = a + 1;
+                    output b to alice;
+                    break;
+                }
+            }
+
+            host alice: {A}
+            """.trimIndent()
+        val program = SourceFile.from("<large costs>", source).parse().elaborated()
+        program.check()
+        val mainLoop = ExecutionProfile.LoopKey(NameAnalysis.MAIN_FUNCTION, 0)
+        val profile = ExecutionProfile(mapOf(mainLoop to ExecutionProfile.LoopCount(1, Long.MAX_VALUE)), mapOf())
+
+        var totalCost: String? = null
+        selectProtocolsWithZ3(
+            program, program.main,
+            SimpleProtocolFactory(program), SimpleProtocolComposer,
+            SimpleCostEstimator(SimpleProtocolComposer, SimpleCostRegime.LAN),
+            CostMode.MINIMIZE,
+            profile = profile
+        ) { metadata -> totalCost = metadata.getValue(program).asDocument.print() }
+
+        assertTrue(BigInteger(totalCost!!.removePrefix("total cost: ")) > Int.MAX_VALUE.toBigInteger())
+    }
+}
@@ -0,0 +1,56 @@
+package edu.cornell.cs.apl.viaduct.selection
+
+import edu.cornell.cs.apl.viaduct.PositiveTestProgramProvider
+import edu.cornell.cs.apl.viaduct.analysis.main
+import edu.cornell.cs.apl.viaduct.errors.NoSelectionSolutionError
+import edu.cornell.cs.apl.viaduct.passes.check
+import edu.cornell.cs.apl.viaduct.passes.elaborated
+import edu.cornell.cs.apl.viaduct.syntax.surface.ProgramNode
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.assertThrows
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.ArgumentsSource
+
+internal class GreedySelectionTest {
+    @ParameterizedTest
+    @ArgumentsSource(PositiveTestProgramProvider::class)
+    fun `greedy selections are valid`(surfaceProgram: ProgramNode) {
+        val program = surfaceProgram.elaborated()
+        program.check()
+
+        val protocolFactory = SimpleProtocolFactory(program)
+        val costEstimator = SimpleCostEstimator(SimpleProtocolComposer, SimpleCostRegime.LAN)
+
+        // no selection can be found once the time limit has run out
+        assertThrows<NoSelectionSolutionError> {
+            selectProtocolsWithZ3(
+                program, program.main,
+                protocolFactory, SimpleProtocolComposer, costEstimator,
+                CostMode.MINIMIZE,
+                timeLimitMillis = 0
+            )
+        }
+
+        for (timeLimit in listOf(100L, 10000L)) {
+            val assignment =
+                try {
+                    selectProtocolsWithZ3(
+                        program, program.main,
+                        protocolFactory, SimpleProtocolComposer, costEstimator,
+                        CostMode.MINIMIZE,
+                        timeLimitMillis = timeLimit
+                    )
+                } catch (e: NoSelectionSolutionError) {
+                    // short time limits can run out before the first selection is found
+                    assertTrue(timeLimit < 10000L)
+                    continue
+                }
+
+            validateProtocolAssignment(
+                program, program.main,
+                protocolFactory, SimpleProtocolComposer, costEstimator,
+                assignment
+            )
+        }
+    }
+}
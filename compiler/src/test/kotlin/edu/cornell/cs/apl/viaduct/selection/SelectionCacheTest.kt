@@ -0,0 +1,152 @@
+package edu.cornell.cs.apl.viaduct.selection
+
+import edu.cornell.cs.apl.viaduct.PositiveTestProgramProvider
+import edu.cornell.cs.apl.viaduct.analysis.main
+import edu.cornell.cs.apl.viaduct.parsing.SourceFile
+import edu.cornell.cs.apl.viaduct.parsing.parse
+import edu.cornell.cs.apl.viaduct.passes.annotateWithProtocols
+import edu.cornell.cs.apl.viaduct.passes.check
+import edu.cornell.cs.apl.viaduct.passes.elaborated
+import edu.cornell.cs.apl.viaduct.syntax.FunctionName
+import edu.cornell.cs.apl.viaduct.syntax.ObjectVariable
+import edu.cornell.cs.apl.viaduct.syntax.Protocol
+import edu.cornell.cs.apl.viaduct.syntax.Temporary
+import edu.cornell.cs.apl.viaduct.syntax.Variable
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.ProgramNode as IntermediateProgramNode
+import edu.cornell.cs.apl.viaduct.syntax.surface.ProgramNode
+import java.io.File
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.ArgumentsSource
+
+internal class SelectionCacheTest {
+    @TempDir
+    lateinit var directory: File
+
+    @Test
+    fun `entries are read back as stored`() {
+        val cache = SelectionCache(directory)
+        val f = FunctionName("f")
+        val entry =
+            SelectionCache.Entry(
+                mapOf(f to "fingerprint"),
+                mapOf(
+                    FunctionVariable(f, Temporary("\$tmp")) to "Local(host = alice)",
+                    FunctionVariable(f, ObjectVariable("x")) to "Replication(hosts = {alice, bob})"
+                )
+            )
+        cache.store("group", "program", entry)
+
+        val loaded = cache.load("group", "program")!!
+        assertEquals(entry.functionFingerprints, loaded.functionFingerprints)
+        assertEquals(entry.assignment, loaded.assignment)
+        assertEquals(entry.assignment, cache.latest("group")!!.assignment)
+        assertNull(cache.load("group", "other program"))
+        assertNull(cache.latest("other group"))
+    }
+
+    @Test
+    fun `fingerprints separate their parts`() {
+        assertNotEquals(SelectionCache.fingerprint("ab", "c"), SelectionCache.fingerprint("a", "bc"))
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(PositiveTestProgramProvider::class)
+    fun `cached selections match solved selections`(surfaceProgram: ProgramNode) {
+        val program = surfaceProgram.elaborated()
+        program.check()
+
+        fun annotated(cache: SelectionCache?): String =
+            program.annotateWithProtocols(select(program, cache).first).asDocument.print()
+
+        val cache = SelectionCache(directory)
+        val solved = annotated(cache)
+        assertEquals(solved, annotated(cache))
+    }
+
+    @Test
+    fun `cache hits report the cost of the cached selection`() {
+        val program = parse(changedFunction("c + c"))
+        val cache = SelectionCache(directory)
+        assertEquals(select(program, cache).second, select(program, cache).second)
+    }
+
+    @Test
+    fun `selections with changed functions match fresh selections`() {
+        val original = parse(changedFunction("c + c"))
+        val changed = parse(changedFunction("c * 2"))
+
+        val cache = SelectionCache(directory)
+        select(original, cache)
+        assertEquals(select(changed, null).second, select(changed, cache).second)
+    }
+
+    @Test
+    fun `reusing unchanged functions gives valid selections`() {
+        val original = parse(changedFunction("c + c"))
+        val changed = parse(changedFunction("c * 2"))
+
+        val cache = SelectionCache(directory, reuseUnchangedFunctions = true)
+        validate(original, select(original, cache).first)
+        validate(changed, select(changed, cache).first)
+        validate(changed, select(changed, cache).first)
+    }
+
+    private val costEstimator = SimpleCostEstimator(SimpleProtocolComposer, SimpleCostRegime.LAN)
+
+    /** A program calling two functions; only the body of the second one is [twice]. */
+    private fun changedFunction(twice: String): String =
+        """
+        fun add10(a: int{A}, b: out int{B}) {
+            out b = declassify (endorse a to {A & B<-} from {A}) + 10 to {(A|B)-> & (A&B)<-};
+        }
+
+        fun twice(c: int{A}, d: out int{A}) {
+            out d = $twice;
+        }
+
+        process main {
+            val a: int{A} = input int from alice;
+            twice(a, val x);
+            add10(x, val b);
+            output b to bob;
+        }
+
+        host alice: {A}
+        host bob: {B}
+        """.trimIndent()
+
+    private fun parse(source: String): IntermediateProgramNode {
+        val program = SourceFile.from("<selection cache>", source).parse().elaborated()
+        program.check()
+        return program
+    }
+
+    /** Selects protocols for [program], and returns the selection along with the total cost it reports. */
+    private fun select(
+        program: IntermediateProgramNode,
+        cache: SelectionCache?
+    ): Pair<(FunctionName, Variable) -> Protocol, String> {
+        var totalCost: String? = null
+        val assignment =
+            selectProtocolsWithZ3(
+                program, program.main,
+                SimpleProtocolFactory(program), SimpleProtocolComposer, costEstimator,
+                CostMode.MINIMIZE,
+                cache
+            ) { metadata -> totalCost = metadata.getValue(program).asDocument.print() }
+        return assignment to totalCost!!
+    }
+
+    private fun validate(program: IntermediateProgramNode, assignment: (FunctionName, Variable) -> Protocol) {
+        validateProtocolAssignment(
+            program, program.main,
+            SimpleProtocolFactory(program), SimpleProtocolComposer, costEstimator,
+            assignment
+        )
+    }
+}
@@ -0,0 +1,138 @@
+package edu.cornell.cs.apl.viaduct.selection
+
+import com.microsoft.z3.Context
+import com.microsoft.z3.IntExpr
+import com.microsoft.z3.IntNum
+import com.microsoft.z3.Status
+import com.uchuhimo.collections.toBiMap
+import edu.cornell.cs.apl.viaduct.PositiveTestProgramProvider
+import edu.cornell.cs.apl.viaduct.analysis.main
+import edu.cornell.cs.apl.viaduct.passes.check
+import edu.cornell.cs.apl.viaduct.passes.elaborated
+import edu.cornell.cs.apl.viaduct.protocols.Local
+import edu.cornell.cs.apl.viaduct.protocols.Replication
+import edu.cornell.cs.apl.viaduct.syntax.FunctionName
+import edu.cornell.cs.apl.viaduct.syntax.Host
+import edu.cornell.cs.apl.viaduct.syntax.ObjectVariable
+import edu.cornell.cs.apl.viaduct.syntax.Protocol
+import edu.cornell.cs.apl.viaduct.syntax.Variable
+import edu.cornell.cs.apl.viaduct.syntax.surface.ProgramNode
+import java.math.BigInteger
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.ArgumentsSource
+
+internal class SelectionDecompositionTest {
+    @ParameterizedTest
+    @ArgumentsSource(PositiveTestProgramProvider::class)
+    fun `decomposed selections are valid and optimal`(surfaceProgram: ProgramNode) {
+        val program = surfaceProgram.elaborated()
+        program.check()
+
+        val protocolFactory = SimpleProtocolFactory(program)
+        val costEstimator = SimpleCostEstimator(SimpleProtocolComposer, SimpleCostRegime.LAN)
+
+        fun select(decompose: Boolean): Pair<String?, (FunctionName, Variable) -> Protocol> {
+            var totalCost: String? = null
+            val assignment =
+                selectProtocolsWithZ3(
+                    program, program.main,
+                    protocolFactory, SimpleProtocolComposer, costEstimator,
+                    CostMode.MINIMIZE,
+                    decompose = decompose
+                ) { metadata -> totalCost = metadata[program]?.asDocument?.print() }
+            return totalCost to assignment
+        }
+
+        val (globalCost, _) = select(false)
+        val (decomposedCost, decomposedAssignment) = select(true)
+
+        validateProtocolAssignment(
+            program, program.main,
+            protocolFactory, SimpleProtocolComposer, costEstimator,
+            decomposedAssignment
+        )
+        assertEquals(globalCost, decomposedCost)
+    }
+
+    /**
+     * Main passes `a` to `f` and `b` to `g`, which prefer protocols for their parameter other than
+     * the ones main prefers for its arguments. The variables of `f`, `g`, and main are only
+     * connected through parameters, so each is solved as a separate component.
+     */
+    @Test
+    fun `selection for several specialized functions is split into components`() {
+        val alice = Local(Host("alice"))
+        val bob = Local(Host("bob"))
+        val both = Replication(setOf(Host("alice"), Host("bob")))
+        val protocols: Set<Protocol> = setOf(alice, bob, both)
+
+        val main = FunctionName("main")
+        val f = FunctionName("f")
+        val g = FunctionName("g")
+        val a = FunctionVariable(main, ObjectVariable("a"))
+        val b = FunctionVariable(main, ObjectVariable("b"))
+        val fParameter = FunctionVariable(f, ObjectVariable("p"))
+        val fBody = FunctionVariable(f, ObjectVariable("x"))
+        val gParameter = FunctionVariable(g, ObjectVariable("p"))
+        val gBody = FunctionVariable(g, ObjectVariable("x"))
+        val variables = listOf(a, b, fParameter, fBody, gParameter, gBody)
+
+        fun unless(condition: SelectionConstraint, cost: Int): SymbolicCost =
+            CostMux(condition, CostLiteral(0), CostLiteral(cost))
+
+        val constraints: List<SelectionConstraint> =
+            variables.map { VariableIn(it, protocols) } +
+                listOf(VariableEquals(a, fParameter), VariableEquals(b, gParameter))
+        val totalCost: SymbolicCost =
+            listOf(
+                unless(VariableIn(a, setOf(alice)), 2),
+                unless(VariableIn(b, setOf(bob)), 2),
+                unless(VariableIn(fBody, setOf(both)), 4),
+                unless(VariableEquals(fBody, fParameter), 3),
+                unless(VariableIn(gBody, setOf(bob)), 2),
+                unless(VariableEquals(gBody, gParameter), 1)
+            ).reduce { acc, cost -> acc.concat(cost) }
+
+        val ctx = Context()
+        try {
+            val varMap = variables.associateWith { ctx.mkIntConst(it.toString()) }.toBiMap()
+            val pmap = protocols.withIndex().associate { it.value to it.index }.toBiMap()
+            val pmapExpr = pmap.mapValues { ctx.mkInt(it.value) as IntExpr }.toBiMap()
+            val parameters = mapOf(fParameter to protocols, gParameter to protocols)
+
+            val solution =
+                SelectionDecomposition(
+                    ctx, CostMode.MINIMIZE, varMap, pmap, pmapExpr, parameters,
+                    SelectionDecomposition.DEFAULT_MAX_INTERFACE_ASSIGNMENTS,
+                    threads = 2
+                ).solve(constraints, totalCost)
+            assertNotNull(solution)
+
+            // the same problem solved in one piece
+            val optimize = ctx.mkOptimize()
+            constraints.forEach { optimize.Add(it.boolExpr(ctx, varMap, pmapExpr)) }
+            val cost = ctx.mkIntConst("cost")
+            optimize.Add(ctx.mkEq(cost, totalCost.arithExpr(ctx, varMap, pmapExpr)))
+            optimize.MkMinimize(cost)
+            assertEquals(Status.SATISFIABLE, optimize.Check())
+            assertEquals(BigInteger.valueOf(2), (optimize.model.eval(cost, true) as IntNum).bigInteger)
+            assertEquals(BigInteger.valueOf(2), solution!!.totalCost)
+
+            // the combined selection satisfies every constraint and has the reported cost
+            val solver = ctx.mkSolver()
+            constraints.forEach { solver.Add(it.boolExpr(ctx, varMap, pmapExpr)) }
+            for ((variable, protocol) in solution.protocols) {
+                solver.Add(ctx.mkEq(varMap[variable]!!, pmapExpr[protocol]!!))
+            }
+            solver.Add(ctx.mkEq(ctx.mkInt(solution.totalCost.toString()), totalCost.arithExpr(ctx, varMap, pmapExpr)))
+            assertEquals(Status.SATISFIABLE, solver.Check())
+            assertTrue(solution.protocols.keys.containsAll(variables))
+        } finally {
+            ctx.close()
+        }
+    }
+}
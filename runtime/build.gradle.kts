@@ -1,5 +1,8 @@
 plugins {
     kotlin("jvm")
+
+    // Benchmarking
+    id("me.champeau.jmh")
 }
 
 /** Dependencies */
@@ -18,3 +21,8 @@ dependencies {
     // Testing
     testImplementation(project(":test-utilities"))
 }
+
+/** Benchmarking */
+
+// Give benchmarks access to internal declarations, like tests.
+kotlin.target.compilations.getByName("jmh").associateWith(kotlin.target.compilations.getByName("main"))
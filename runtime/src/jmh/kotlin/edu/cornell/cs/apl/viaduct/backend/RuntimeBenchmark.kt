@@ -0,0 +1,97 @@
+package edu.cornell.cs.apl.viaduct.backend
+
+import edu.cornell.cs.apl.viaduct.analysis.ProtocolAnalysis
+import edu.cornell.cs.apl.viaduct.backend.IO.Strategy
+import edu.cornell.cs.apl.viaduct.parsing.parse
+import edu.cornell.cs.apl.viaduct.passes.elaborated
+import edu.cornell.cs.apl.viaduct.protocols.Synchronization
+import edu.cornell.cs.apl.viaduct.selection.SimpleProtocolComposer
+import edu.cornell.cs.apl.viaduct.syntax.Host
+import edu.cornell.cs.apl.viaduct.syntax.ProtocolProjection
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.ProgramNode
+import edu.cornell.cs.apl.viaduct.syntax.values.IntegerValue
+import edu.cornell.cs.apl.viaduct.syntax.values.Value
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+
+private object NoInputStrategy : Strategy {
+    override suspend fun getInput(): Value = IntegerValue(0)
+
+    override suspend fun recvOutput(value: Value) {}
+}
+
+/**
+ * Measures send/receive round trips between two hosts through [ViaductRuntime],
+ * with the network replaced by an [InMemoryNetwork].
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class RuntimeBenchmark {
+    companion object {
+        private const val ROUND_TRIPS: Int = 10000
+    }
+
+    private val alice = Host("alice")
+    private val bob = Host("bob")
+
+    private lateinit var program: ProgramNode
+    private lateinit var protocolAnalysis: ProtocolAnalysis
+
+    @Setup
+    fun setup() {
+        program = "host alice: {A}\nhost bob: {B}\nprocess main {}".parse().elaborated()
+        protocolAnalysis = ProtocolAnalysis(program, SimpleProtocolComposer)
+    }
+
+    private fun buildRuntime(host: Host, network: InMemoryNetwork): ViaductRuntime {
+        val addresses: Map<Host, HostAddress> =
+            mapOf(alice to HostAddress("127.0.0.1", 0), bob to HostAddress("127.0.0.1", 0))
+        return ViaductRuntime(host, program, protocolAnalysis, addresses, listOf(), NoInputStrategy, network)
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROUND_TRIPS)
+    fun roundTrip() {
+        val network = InMemoryNetwork()
+        val aliceRuntime = buildRuntime(alice, network)
+        val bobRuntime = buildRuntime(bob, network)
+
+        val syncProtocol = Synchronization(setOf(alice, bob))
+        val aliceProcess = ProtocolProjection(syncProtocol, alice)
+        val bobProcess = ProtocolProjection(syncProtocol, bob)
+
+        val bobThread = thread {
+            bobRuntime.connectAndRun {
+                val processRuntime = ViaductProcessRuntime(bobRuntime, bobProcess)
+                repeat(ROUND_TRIPS) {
+                    processRuntime.send(processRuntime.receive(aliceProcess), aliceProcess)
+                }
+            }
+        }
+
+        aliceRuntime.connectAndRun {
+            val processRuntime = ViaductProcessRuntime(aliceRuntime, aliceProcess)
+            repeat(ROUND_TRIPS) { i ->
+                processRuntime.send(IntegerValue(i), bobProcess)
+                processRuntime.receive(bobProcess)
+            }
+        }
+
+        bobThread.join()
+    }
+}
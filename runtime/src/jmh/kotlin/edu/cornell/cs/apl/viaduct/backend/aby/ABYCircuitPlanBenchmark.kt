@@ -0,0 +1,70 @@
+package edu.cornell.cs.apl.viaduct.backend.aby
+
+import edu.cornell.cs.apl.viaduct.syntax.operators.Addition
+import edu.cornell.cs.apl.viaduct.syntax.operators.EqualTo
+import edu.cornell.cs.apl.viaduct.syntax.operators.Mux
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+
+/**
+ * Measures building and binding [ABYCircuitPlan]s for synthetic gate DAGs.
+ *
+ * The DAGs mimic a loop that updates a secret vector at secret indices: every round muxes
+ * every element of the vector, so elements are shared by many gates and the DAG grows
+ * with both the vector size and the number of rounds. No gates are put into ABY.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class ABYCircuitPlanBenchmark {
+    @Param("16", "64", "256")
+    var vectorSize: Int = 0
+
+    @Param("4", "16")
+    var rounds: Int = 0
+
+    private val circuitType = ABYCircuitType.YAO
+
+    private lateinit var outputGates: List<ABYCircuitGate>
+
+    private lateinit var plan: ABYCircuitPlan
+
+    private fun vectorUpdates(): List<ABYCircuitGate> {
+        val vector: MutableList<ABYCircuitGate> = MutableList(vectorSize) { i -> ABYInGate(i, circuitType) }
+        repeat(rounds) { round ->
+            val index = ABYInGate(round, circuitType)
+            val increment = ABYInGate(round, circuitType)
+            for (i in vector.indices) {
+                val guard = operatorToCircuit(EqualTo, listOf(index, ABYConstantGate(i, circuitType)), circuitType)
+                val updated = operatorToCircuit(Addition, listOf(vector[i], increment), circuitType)
+                vector[i] = operatorToCircuit(Mux, listOf(guard, updated, vector[i]), circuitType)
+            }
+        }
+        return vector
+    }
+
+    @Setup
+    fun setup() {
+        outputGates = vectorUpdates()
+        plan = ABYCircuitPlan.build(outputGates)
+    }
+
+    @Benchmark
+    fun build(): ABYCircuitPlan = ABYCircuitPlan.build(outputGates)
+
+    @Benchmark
+    fun bind(): List<ABYCircuitGate>? = plan.bind(outputGates)
+}
@@ -0,0 +1,139 @@
+package edu.cornell.cs.apl.viaduct.backend.zkp
+
+import edu.cornell.cs.apl.viaduct.backend.WireGenerator
+import edu.cornell.cs.apl.viaduct.backend.WireTerm
+import edu.cornell.cs.apl.viaduct.backend.commitment.genNonce
+import edu.cornell.cs.apl.viaduct.backend.eval
+import edu.cornell.cs.apl.viaduct.libsnarkwrapper.ByteBuf
+import edu.cornell.cs.apl.viaduct.libsnarkwrapper.libsnarkwrapper
+import edu.cornell.cs.apl.viaduct.libsnarkwrapper.libsnarkwrapper.mkByteBuf
+import edu.cornell.cs.apl.viaduct.syntax.operators.Addition
+import edu.cornell.cs.apl.viaduct.syntax.operators.Multiplication
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+
+/**
+ * Compares passing ZKP keys to libsnarkwrapper as memory mapped direct buffers
+ * against copying them through byte arrays and [ByteBuf]s, and building constraint systems
+ * against reassigning one built before, as [R1CSCache] does.
+ *
+ * The circuit evaluates a polynomial of the given [degree] on one committed input, so key sizes
+ * grow with the degree. Requires the native libsnarkwrapper library.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class ZKPKeyBenchmark {
+    @Param("1", "64")
+    var degree: Int = 0
+
+    private val ensureInit = ZKPInit
+
+    private lateinit var directory: File
+    private lateinit var provingKeyFile: File
+    private lateinit var verificationKeyFile: File
+
+    /** The circuit as built by the prover and by the verifier. */
+    private lateinit var proverWire: WireTerm
+    private lateinit var verifierWire: WireTerm
+    private var wireVal: Int = 0
+
+    private lateinit var mappedProvingKey: ByteBuffer
+    private lateinit var mappedVerificationKey: ByteBuffer
+    private lateinit var copiedProvingKey: ByteBuf
+    private lateinit var copiedVerificationKey: ByteBuf
+
+    private lateinit var proverConstraints: R1CS
+
+    private fun map(file: File): ByteBuffer =
+        FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel ->
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+        }
+
+    private fun copy(file: File): ByteBuf = mkByteBuf(file.readBytes())
+
+    /** Computes 1 + x + x^2 + ... + x^[degree] using Horner's method. */
+    private fun polynomial(generator: WireGenerator, x: WireTerm): WireTerm {
+        var result: WireTerm = generator.mkConst(1)
+        repeat(degree) {
+            val product = generator.mkOp(Multiplication, listOf(result, x))
+            result = generator.mkOp(Addition, listOf(product, generator.mkConst(1)))
+        }
+        return result
+    }
+
+    @Setup
+    fun setup() {
+        val nonce = genNonce(32)
+        val hash: ByteArray = libsnarkwrapper.get_sha_nonce_val_direct(ByteBuffer.wrap(nonce).asDirectBuffer(), 3)._data
+        val prover = WireGenerator()
+        proverWire = polynomial(prover, prover.mkIn(3, hash, nonce))
+        val verifier = WireGenerator()
+        verifierWire = polynomial(verifier, verifier.mkDummyIn(hash, nonce))
+        wireVal = proverWire.eval()
+
+        directory = Files.createTempDirectory("zkp-keys").toFile()
+        provingKeyFile = File(directory, "circuit.pk")
+        verificationKeyFile = File(directory, "circuit.vk")
+        proverConstraints = proverWire.toR1CS(true, wireVal)
+        proverConstraints.genKeypair(provingKeyFile, verificationKeyFile)
+
+        mappedProvingKey = map(provingKeyFile)
+        mappedVerificationKey = map(verificationKeyFile)
+        copiedProvingKey = copy(provingKeyFile)
+        copiedVerificationKey = copy(verificationKeyFile)
+    }
+
+    @TearDown
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    @Benchmark
+    fun loadKeyMapped(): ByteBuffer = map(provingKeyFile)
+
+    @Benchmark
+    fun loadKeyCopied(): ByteBuf = copy(provingKeyFile)
+
+    @Benchmark
+    fun buildConstraints(): R1CS = proverWire.toR1CS(true, wireVal)
+
+    @Benchmark
+    fun reassignConstraints(): R1CS {
+        proverConstraints.assign(listOf(proverWire), listOf(wireVal.toLong()))
+        return proverConstraints
+    }
+
+    @Benchmark
+    fun proofRoundTripMapped(): Boolean {
+        val proof = proverWire.toR1CS(true, wireVal).makeProof(mappedProvingKey)
+        val received = ByteBuffer.wrap(proof._data)
+        return verifierWire.toR1CS(false, wireVal).verifyProof(mappedVerificationKey, received)
+    }
+
+    @Benchmark
+    fun proofRoundTripCopied(): Boolean {
+        val proof = proverWire.toR1CS(true, wireVal).r1cs.generateProof(copiedProvingKey)
+        val received = mkByteBuf(proof._data)
+        return verifierWire.toR1CS(false, wireVal).r1cs.verifyProof(copiedVerificationKey, received)
+    }
+}
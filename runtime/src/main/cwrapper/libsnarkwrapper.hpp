@@ -1,3 +1,6 @@
+#include <fstream>
+#include <functional>
+#include <memory>
 #include "utils.hpp"
 
 
@@ -17,6 +20,13 @@ ByteBuf get_sha_nonce_val (ByteBuf nonce, long long val) {
     return {hash_str};
 }
 
+ByteBuf get_sha_nonce_val_direct (const char *direct_data, size_t direct_len, long long val) {
+    protoboard pb;
+    auto res = mkSHA(pb, val, std::string(direct_data, direct_len), true);
+    auto hash_str = bvec_to_string(res.output.get_bits(pb));
+    return {hash_str};
+}
+
 class R1CSInstance {
     private:
         protoboard pb;
@@ -24,6 +34,51 @@ class R1CSInstance {
         bool inserting_public = true;
         int num_public = 0;
 
+        // Computations of internal variables, in the order they were added. Rerunning them
+        // regenerates the witness, so the constraint system can be reused with new inputs.
+        std::vector<std::function<void()>> witness_steps;
+
+        void addWitnessStep(std::function<void()> step) {
+            if (isProver) {
+                step();
+                witness_steps.push_back(step);
+            }
+        }
+
+        // Adds a private input x with sha256(x, nonce) = hash. Gadgets are kept alive by the witness step.
+        Var mkHashedInput(long long val, VarArray hash, VarArray nonce) {
+            assert(nonce.values.size() == libsnark::SHA256_digest_size);
+            inserting_public = false;
+
+            pb_variable x;
+            x.allocate(pb);
+            if (isProver) {
+                pb.val(x) = val;
+            }
+
+            auto data = std::make_shared<digest_variable>(pb, libsnark::SHA256_digest_size, "");
+            auto pg = std::make_shared<libsnark::packing_gadget<field128>>(pb, data->bits, x);
+            pg->generate_r1cs_constraints(true);
+
+            auto nonce_digest = std::make_shared<digest_variable>(pb, libsnark::SHA256_digest_size, "");
+            nonce_digest->generate_r1cs_constraints();
+            // the hashed nonce must be the public one, not one the prover picks
+            addEquality(pb, nonce_digest->bits, nonce.values);
+
+            auto output_digest = std::make_shared<digest_variable>(pb, libsnark::SHA256_digest_size, "");
+            auto g = std::make_shared<libsnark::sha256_two_to_one_hash_gadget<field128>>(
+                pb, *data, *nonce_digest, *output_digest, "");
+            g->generate_r1cs_constraints();
+            addEquality(pb, output_digest->bits, hash.values);
+
+            addWitnessStep([this, data, pg, nonce, nonce_digest, output_digest, g]() {
+                pg->generate_r1cs_witness_from_packed();
+                nonce_digest->generate_r1cs_witness(nonce.values.get_bits(pb));
+                g->generate_r1cs_witness();
+            });
+            return {x};
+        }
+
     public:
         R1CSInstance() {
         }
@@ -53,22 +108,33 @@ class R1CSInstance {
 
         Var mkPrivateValProver(long long val, VarArray hash, VarArray nonce) {
             assert(isProver);
-            assert(nonce.values.size() == libsnark::SHA256_digest_size);
-            inserting_public = false;
-
-            auto res = mkSHA(pb, val, bvec_to_string(nonce.values.get_bits(pb)), true);
-            addEquality(pb, res.output, hash.values);
-            return {res.val_var};
+            return mkHashedInput(val, hash, nonce);
         }
 
         Var mkPrivateValVerifier(VarArray hash, VarArray nonce) {
             assert(!isProver);
-            assert(nonce.values.size() == libsnark::SHA256_digest_size);
-            inserting_public = false;
+            return mkHashedInput(0, hash, nonce);
+        }
 
-            auto res = mkSHA(pb, 0, bvec_to_string(nonce.values.get_bits(pb)), false);
-            addEquality(pb, res.output, hash.values);
-            return {res.val_var};
+        // Reassign inputs of a constraint system built before, then regenerate the witness.
+        void setPublicVal(Var v, long long val) {
+            pb.val(v.value) = val;
+        }
+
+        void setPublicBitvec(VarArray v, ByteBuf buf) {
+            v.values.fill_with_bits(pb, string_to_bvec(buf.contents));
+        }
+
+        void setPrivateVal(Var v, long long val) {
+            assert(isProver);
+            pb.val(v.value) = val;
+        }
+
+        void generateWitness() {
+            assert(isProver);
+            for (auto &step : witness_steps) {
+                step();
+            }
         }
 
         Var mkAnd(Var lhs, Var rhs) {
@@ -78,9 +144,9 @@ class R1CSInstance {
             pb_variable out;
             out.allocate(pb);
             pb.add_r1cs_constraint(constraint(lhs.value, rhs.value, out));
-            if (isProver) {
+            addWitnessStep([this, lhs, rhs, out]() {
                 pb.val(out) = pb.val(lhs.value) * pb.val(rhs.value);
-            }
+            });
             return {out};
         }
 
@@ -90,9 +156,9 @@ class R1CSInstance {
             pb_variable out;
             out.allocate(pb);
             pb.add_r1cs_constraint(constraint(1, 1-v.value, out));
-            if (isProver) {
+            addWitnessStep([this, v, out]() {
                 pb.val(out) = field128::one() - pb.val(v.value);
-            }
+            });
             return {out};
         }
 
@@ -105,9 +171,9 @@ class R1CSInstance {
             pb_variable out;
             out.allocate(pb);
             pb.add_r1cs_constraint(constraint(lhs.value, rhs.value, out));
-            if (isProver) {
+            addWitnessStep([this, lhs, rhs, out]() {
                 pb.val(out) = pb.val(lhs.value) * pb.val(rhs.value);
-            }
+            });
             return {out};
         }
 
@@ -116,9 +182,9 @@ class R1CSInstance {
             pb_variable out;
             out.allocate(pb);
             pb.add_r1cs_constraint(constraint(1, lhs.value + rhs.value, out));
-            if (isProver) {
+            addWitnessStep([this, lhs, rhs, out]() {
                 pb.val(out) = pb.val(lhs.value) + pb.val(rhs.value);
-            }
+            });
             return {out};
         }
 
@@ -130,17 +196,17 @@ class R1CSInstance {
             out1.allocate(pb);
             pb.add_r1cs_constraint(constraint(b.value, lhs.value, out1));
 
-            if (isProver) {
+            addWitnessStep([this, b, lhs, out1]() {
                 pb.val(out1) = pb.val(b.value) * pb.val(lhs.value);
-            }
+            });
 
             pb_variable out2;
             out2.allocate(pb);
             pb.add_r1cs_constraint(constraint(1- b.value, rhs.value, out2));
 
-            if (isProver) {
+            addWitnessStep([this, b, rhs, out2]() {
                 pb.val(out2) = (field128::one() - pb.val(b.value)) * pb.val(rhs.value);
-            }
+            });
 
             return mkAdd({out1}, {out2});
         }
@@ -150,11 +216,9 @@ class R1CSInstance {
             pb_variable less, less_or_eq;
             less.allocate(pb);
             less_or_eq.allocate(pb);
-            auto cg = libsnark::comparison_gadget<field128>(pb, 32, a.value, b.value, less, less_or_eq);
-            cg.generate_r1cs_constraints();
-            if (isProver) {
-                cg.generate_r1cs_witness();
-            }
+            auto cg = std::make_shared<libsnark::comparison_gadget<field128>>(pb, 32, a.value, b.value, less, less_or_eq);
+            cg->generate_r1cs_constraints();
+            addWitnessStep([cg]() { cg->generate_r1cs_witness(); });
 
             return mkAnd(mkNot({less}), {less_or_eq});
         }
@@ -164,11 +228,9 @@ class R1CSInstance {
             pb_variable less, less_or_eq;
             less.allocate(pb);
             less_or_eq.allocate(pb);
-            auto cg = libsnark::comparison_gadget<field128>(pb, 32, a.value, b.value, less, less_or_eq);
-            cg.generate_r1cs_constraints();
-            if (isProver) {
-                cg.generate_r1cs_witness();
-            }
+            auto cg = std::make_shared<libsnark::comparison_gadget<field128>>(pb, 32, a.value, b.value, less, less_or_eq);
+            cg->generate_r1cs_constraints();
+            addWitnessStep([cg]() { cg->generate_r1cs_witness(); });
             return {less};
         }
 
@@ -177,11 +239,9 @@ class R1CSInstance {
             pb_variable less, less_or_eq;
             less.allocate(pb);
             less_or_eq.allocate(pb);
-            auto cg = libsnark::comparison_gadget<field128>(pb, 32, a.value, b.value, less, less_or_eq);
-            cg.generate_r1cs_constraints();
-            if (isProver) {
-                cg.generate_r1cs_witness();
-            }
+            auto cg = std::make_shared<libsnark::comparison_gadget<field128>>(pb, 32, a.value, b.value, less, less_or_eq);
+            cg->generate_r1cs_constraints();
+            addWitnessStep([cg]() { cg->generate_r1cs_witness(); });
             return {less_or_eq};
         }
 
@@ -189,8 +249,19 @@ class R1CSInstance {
             addEquality(pb, a, b);
         }
 
+        size_t numConstraints() {
+            return pb.num_constraints();
+        }
+
         // Requires that wires are only dummy_in, public, or internal
         bool verifyProof(ByteBuf verificationKey, ByteBuf proof) {
+            return verifyProofDirect(
+                verificationKey.contents.data(), verificationKey.contents.size(),
+                proof.contents.data(), proof.contents.size());
+        }
+
+        // Verify proof. Keys and proofs are read in place, without copying them.
+        bool verifyProofDirect(const char *direct_data, size_t direct_len, const char *direct_data2, size_t direct_len2) {
 
             libff::inhibit_profiling_info = true;
             libff::inhibit_profiling_counters = true;
@@ -198,12 +269,14 @@ class R1CSInstance {
 
             // Deserialize the verification key
             libsnark::r1cs_ppzksnark_verification_key<libsnark::default_r1cs_ppzksnark_pp> vk;
-            std::stringstream vk_stream(verificationKey.contents);
+            MemoryStreamBuf vk_buf(direct_data, direct_len);
+            std::istream vk_stream(&vk_buf);
             vk_stream >> vk;
 
             // Deserialize proof
             libsnark::r1cs_ppzksnark_proof<libsnark::default_r1cs_ppzksnark_pp> pf;
-            std::stringstream pf_stream(proof.contents);
+            MemoryStreamBuf pf_buf(direct_data2, direct_len2);
+            std::istream pf_stream(&pf_buf);
             pf_stream >> pf;
 
             return libsnark::r1cs_ppzksnark_verifier_strong_IC(vk, pb.primary_input(), pf);
@@ -211,6 +284,11 @@ class R1CSInstance {
 
         // Generate proof. Input: Proving key.
         ByteBuf generateProof(ByteBuf provingKey) {
+            return generateProofDirect(provingKey.contents.data(), provingKey.contents.size());
+        }
+
+        // Generate proof. The proving key is read in place, without copying it.
+        ByteBuf generateProofDirect(const char *direct_data, size_t direct_len) {
             assert (isProver);
             pb.set_input_sizes(num_public);
             assert (ensure_satisfied(pb));
@@ -219,7 +297,8 @@ class R1CSInstance {
             libff::inhibit_profiling_counters = true;
 
             libsnark::r1cs_ppzksnark_proving_key<libsnark::default_r1cs_ppzksnark_pp> pk;
-            std::stringstream pk_stream(provingKey.contents);
+            MemoryStreamBuf pk_buf(direct_data, direct_len);
+            std::istream pk_stream(&pk_buf);
             pk_stream >> pk;
 
             std::stringstream pf_stream;
@@ -244,4 +323,22 @@ class R1CSInstance {
             return { { kp_pk.str() }, { kp_vk.str() } };
         }
 
+        // Generate a key pair and write it to files, so keys never cross JNI.
+        void genKeypairToFiles(std::string provingKeyFile, std::string verificationKeyFile) {
+            assert (isProver);
+            pb.set_input_sizes(num_public);
+            assert (ensure_satisfied(pb));
+
+            libff::inhibit_profiling_info = true;
+            libff::inhibit_profiling_counters = true;
+
+            auto cs = pb.get_constraint_system();
+            auto kp = libsnark::r1cs_ppzksnark_generator<libsnark::default_r1cs_ppzksnark_pp>(cs);
+
+            std::ofstream pk_stream(provingKeyFile, std::ios::binary);
+            pk_stream << kp.pk;
+            std::ofstream vk_stream(verificationKeyFile, std::ios::binary);
+            vk_stream << kp.vk;
+        }
+
 };
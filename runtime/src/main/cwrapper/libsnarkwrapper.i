@@ -9,6 +9,22 @@
 
 %apply (char *STRING, size_t LENGTH) { (const char *data, size_t len) }
 
+// Direct ByteBuffers, like memory mapped key files, are passed by address without copying.
+// The C++ side sees the remaining bytes of the buffer.
+%typemap(jni) (const char *direct_data, size_t direct_len) "jobject"
+%typemap(jtype) (const char *direct_data, size_t direct_len) "java.nio.ByteBuffer"
+%typemap(jstype) (const char *direct_data, size_t direct_len) "java.nio.ByteBuffer"
+%typemap(javain) (const char *direct_data, size_t direct_len) "$javainput.slice()"
+%typemap(in) (const char *direct_data, size_t direct_len) {
+  $1 = (char *) JCALL1(GetDirectBufferAddress, jenv, $input);
+  if (!$1) {
+    SWIG_JavaThrowException(jenv, SWIG_JavaIllegalArgumentException, "expected a direct ByteBuffer");
+    return $null;
+  }
+  $2 = (size_t) JCALL1(GetDirectBufferCapacity, jenv, $input);
+}
+%apply (const char *direct_data, size_t direct_len) { (const char *direct_data2, size_t direct_len2) }
+
 %typemap(jni) const signed char *get_data "jbyteArray"
 %typemap(jtype) const signed char *get_data "byte[]"
 %typemap(jstype) const signed char *get_data "byte[]"
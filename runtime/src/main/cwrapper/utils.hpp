@@ -1,6 +1,7 @@
 #include <vector>
 #include <map>
 #include <string>
+#include <streambuf>
 #include <bitset>
 #define CURVE_ALT_BN128
 #include <libff/algebra/fields/field_utils.hpp>
@@ -55,6 +56,16 @@ ByteBuf mkByteBuf(const char data[], size_t len) {
     return {std::string(data, len)};
 }
 
+#ifndef SWIG
+// Reads memory owned by the caller, like a direct ByteBuffer, without copying it.
+struct MemoryStreamBuf : std::streambuf {
+    MemoryStreamBuf(const char *data, size_t len) {
+        char *begin = const_cast<char *>(data);
+        setg(begin, begin, begin + len);
+    }
+};
+#endif
+
 typedef libff::Fr<libsnark::default_r1cs_ppzksnark_pp> field128;
 typedef libsnark::protoboard<field128> protoboard;
 typedef libsnark::pb_variable<field128> pb_variable;
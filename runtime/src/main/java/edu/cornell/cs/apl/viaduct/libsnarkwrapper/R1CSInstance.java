@@ -80,6 +80,23 @@ public class R1CSInstance {
         true);
   }
 
+  public void setPublicVal(Var v, long val) {
+    libsnarkwrapperJNI.R1CSInstance_setPublicVal(swigCPtr, this, Var.getCPtr(v), v, val);
+  }
+
+  public void setPublicBitvec(VarArray v, ByteBuf buf) {
+    libsnarkwrapperJNI.R1CSInstance_setPublicBitvec(
+        swigCPtr, this, VarArray.getCPtr(v), v, ByteBuf.getCPtr(buf), buf);
+  }
+
+  public void setPrivateVal(Var v, long val) {
+    libsnarkwrapperJNI.R1CSInstance_setPrivateVal(swigCPtr, this, Var.getCPtr(v), v, val);
+  }
+
+  public void generateWitness() {
+    libsnarkwrapperJNI.R1CSInstance_generateWitness(swigCPtr, this);
+  }
+
   public Var mkAnd(Var lhs, Var rhs) {
     return new Var(
         libsnarkwrapperJNI.R1CSInstance_mkAnd(
@@ -144,6 +161,10 @@ public class R1CSInstance {
         swigCPtr, this, Var.getCPtr(a), a, Var.getCPtr(b), b);
   }
 
+  public long numConstraints() {
+    return libsnarkwrapperJNI.R1CSInstance_numConstraints(swigCPtr, this);
+  }
+
   public boolean verifyProof(ByteBuf verificationKey, ByteBuf proof) {
     return libsnarkwrapperJNI.R1CSInstance_verifyProof(
         swigCPtr,
@@ -154,6 +175,12 @@ public class R1CSInstance {
         proof);
   }
 
+  public boolean verifyProofDirect(
+      java.nio.ByteBuffer direct_data, java.nio.ByteBuffer direct_data2) {
+    return libsnarkwrapperJNI.R1CSInstance_verifyProofDirect(
+        swigCPtr, this, direct_data.slice(), direct_data2.slice());
+  }
+
   public ByteBuf generateProof(ByteBuf provingKey) {
     return new ByteBuf(
         libsnarkwrapperJNI.R1CSInstance_generateProof(
@@ -161,7 +188,18 @@ public class R1CSInstance {
         true);
   }
 
+  public ByteBuf generateProofDirect(java.nio.ByteBuffer direct_data) {
+    return new ByteBuf(
+        libsnarkwrapperJNI.R1CSInstance_generateProofDirect(swigCPtr, this, direct_data.slice()),
+        true);
+  }
+
   public Keypair genKeypair() {
     return new Keypair(libsnarkwrapperJNI.R1CSInstance_genKeypair(swigCPtr, this), true);
   }
+
+  public void genKeypairToFiles(String provingKeyFile, String verificationKeyFile) {
+    libsnarkwrapperJNI.R1CSInstance_genKeypairToFiles(
+        swigCPtr, this, provingKeyFile, verificationKeyFile);
+  }
 }
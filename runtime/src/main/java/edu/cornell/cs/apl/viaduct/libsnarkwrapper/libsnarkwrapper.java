@@ -18,6 +18,11 @@ public class libsnarkwrapper {
         libsnarkwrapperJNI.get_sha_nonce_val(ByteBuf.getCPtr(nonce), nonce, val), true);
   }
 
+  public static ByteBuf get_sha_nonce_val_direct(java.nio.ByteBuffer direct_data, long val) {
+    return new ByteBuf(
+        libsnarkwrapperJNI.get_sha_nonce_val_direct(direct_data.slice(), val), true);
+  }
+
   public static long divide_rounding_up(long dividend, long divisor) {
     return libsnarkwrapperJNI.divide_rounding_up(dividend, divisor);
   }
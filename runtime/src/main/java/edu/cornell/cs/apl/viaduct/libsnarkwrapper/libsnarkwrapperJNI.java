@@ -128,6 +128,8 @@ public class libsnarkwrapperJNI {
 
   public static final native long get_sha_nonce_val(long jarg1, ByteBuf jarg1_, long jarg2);
 
+  public static final native long get_sha_nonce_val_direct(java.nio.ByteBuffer jarg1, long jarg3);
+
   public static final native long new_R1CSInstance();
 
   public static final native void R1CSInstance_isProver_set(
@@ -156,6 +158,17 @@ public class libsnarkwrapperJNI {
   public static final native long R1CSInstance_mkPrivateValVerifier(
       long jarg1, R1CSInstance jarg1_, long jarg2, VarArray jarg2_, long jarg3, VarArray jarg3_);
 
+  public static final native void R1CSInstance_setPublicVal(
+      long jarg1, R1CSInstance jarg1_, long jarg2, Var jarg2_, long jarg3);
+
+  public static final native void R1CSInstance_setPublicBitvec(
+      long jarg1, R1CSInstance jarg1_, long jarg2, VarArray jarg2_, long jarg3, ByteBuf jarg3_);
+
+  public static final native void R1CSInstance_setPrivateVal(
+      long jarg1, R1CSInstance jarg1_, long jarg2, Var jarg2_, long jarg3);
+
+  public static final native void R1CSInstance_generateWitness(long jarg1, R1CSInstance jarg1_);
+
   public static final native long R1CSInstance_mkAnd(
       long jarg1, R1CSInstance jarg1_, long jarg2, Var jarg2_, long jarg3, Var jarg3_);
 
@@ -193,14 +206,25 @@ public class libsnarkwrapperJNI {
   public static final native void R1CSInstance_AddEquality(
       long jarg1, R1CSInstance jarg1_, long jarg2, Var jarg2_, long jarg3, Var jarg3_);
 
+  public static final native long R1CSInstance_numConstraints(long jarg1, R1CSInstance jarg1_);
+
   public static final native boolean R1CSInstance_verifyProof(
       long jarg1, R1CSInstance jarg1_, long jarg2, ByteBuf jarg2_, long jarg3, ByteBuf jarg3_);
 
+  public static final native boolean R1CSInstance_verifyProofDirect(
+      long jarg1, R1CSInstance jarg1_, java.nio.ByteBuffer jarg2, java.nio.ByteBuffer jarg4);
+
   public static final native long R1CSInstance_generateProof(
       long jarg1, R1CSInstance jarg1_, long jarg2, ByteBuf jarg2_);
 
+  public static final native long R1CSInstance_generateProofDirect(
+      long jarg1, R1CSInstance jarg1_, java.nio.ByteBuffer jarg2);
+
   public static final native long R1CSInstance_genKeypair(long jarg1, R1CSInstance jarg1_);
 
+  public static final native void R1CSInstance_genKeypairToFiles(
+      long jarg1, R1CSInstance jarg1_, String jarg2, String jarg3);
+
   public static final native void delete_R1CSInstance(long jarg1);
 
   public static final native long divide_rounding_up(long jarg1, long jarg2);
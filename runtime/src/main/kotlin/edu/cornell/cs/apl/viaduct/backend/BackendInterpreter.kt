@@ -38,7 +38,8 @@ class BackendInterpreter(
     private val program: ProgramNode,
     private val protocolAnalysis: ProtocolAnalysis,
     private val protocolInterpreters: List<ProtocolInterpreter>,
-    private val runtime: ViaductProcessRuntime
+    private val runtime: ViaductProcessRuntime,
+    private val profiler: ExecutionProfiler? = null
 ) {
     private val allHosts = program.hostDeclarations.map { it.name.value }.toSet()
     private val nameAnalysis = NameAnalysis.get(program)
@@ -113,21 +114,92 @@ class BackendInterpreter(
         }
     }
 
+    /** The statement reading the temporary defined by a let node. */
+    private class LetReader(
+        val reader: SimpleStatementNode,
+        val readerProtocol: Protocol,
+        val events: ProtocolCommunication
+    )
+
+    private fun letReader(stmt: LetNode): LetReader? {
+        // there should only be a single reader, if any
+        val reader: SimpleStatementNode =
+            nameAnalysis.readers(stmt).filterIsInstance<SimpleStatementNode>().firstOrNull() ?: return null
+        return LetReader(
+            reader,
+            protocolAnalysis.primaryProtocol(reader),
+            protocolAnalysis.relevantCommunicationEvents(stmt, reader)
+        )
+    }
+
+    /** Receives the value of [stmt], if this host participates in the reader of [stmt]. */
+    private suspend fun receive(stmt: LetNode, protocol: Protocol, letReader: LetReader) {
+        if (protocolAnalysis.participatingHosts(letReader.reader).contains(this.host)) {
+            protocolInterpreterMap[letReader.readerProtocol]
+                ?.runReceive(stmt, protocol, letReader.reader, letReader.readerProtocol, letReader.events)
+                ?: throw ViaductInterpreterError(
+                    "no backend for protocol ${letReader.readerProtocol.asDocument.print()}"
+                )
+        }
+    }
+
+    /** Consecutive let nodes whose values [interpreter] sends to other protocols. */
+    private class ReleaseBatch(
+        val interpreter: BatchingProtocolInterpreter,
+        val lets: List<Pair<LetNode, LetReader>>
+    )
+
+    /**
+     * Returns the longest run of let nodes starting at index [start] of [block] whose values
+     * are released by the same [BatchingProtocolInterpreter], or null if the run is shorter
+     * than two let nodes.
+     */
+    private fun releaseBatch(block: BlockNode, start: Int): ReleaseBatch? {
+        var interpreter: BatchingProtocolInterpreter? = null
+        val lets: MutableList<Pair<LetNode, LetReader>> = mutableListOf()
+
+        for (stmt in block.subList(start, block.size)) {
+            if (stmt !is LetNode || !protocolAnalysis.participatingHosts(stmt).contains(this.host)) {
+                break
+            }
+
+            val stmtInterpreter = protocolInterpreterMap[protocolAnalysis.primaryProtocol(stmt)]
+            val letReader: LetReader? = letReader(stmt)
+            if (stmtInterpreter !is BatchingProtocolInterpreter ||
+                (interpreter != null && stmtInterpreter !== interpreter) ||
+                letReader == null ||
+                stmtInterpreter.availableProtocols.contains(letReader.readerProtocol)
+            ) {
+                break
+            }
+
+            interpreter = stmtInterpreter
+            lets.add(Pair(stmt, letReader))
+        }
+
+        return if (interpreter != null && lets.size > 1) ReleaseBatch(interpreter, lets) else null
+    }
+
+    /** Executes the let nodes in [batch] and then sends and receives their values in order. */
+    private suspend fun run(batch: ReleaseBatch) {
+        for ((stmt, _) in batch.lets) {
+            batch.interpreter.runSimpleStatement(protocolAnalysis.primaryProtocol(stmt), stmt)
+        }
+
+        batch.interpreter.prepareRelease(batch.lets.map { (stmt, letReader) -> Pair(stmt, letReader.events) })
+
+        for ((stmt, letReader) in batch.lets) {
+            val protocol = protocolAnalysis.primaryProtocol(stmt)
+            batch.interpreter.runSend(stmt, protocol, letReader.reader, letReader.readerProtocol, letReader.events)
+            receive(stmt, protocol, letReader)
+        }
+    }
+
     suspend fun run(function: FunctionName, stmt: StatementNode) {
         when (stmt) {
             is LetNode -> {
                 val protocol = protocolAnalysis.primaryProtocol(stmt)
-                var reader: SimpleStatementNode? = null
-                var readerProtocol: Protocol? = null
-                var events: ProtocolCommunication? = null
-
-                // there should only be a single reader, if any
-                val readers = nameAnalysis.readers(stmt).filterIsInstance<SimpleStatementNode>()
-                if (readers.isNotEmpty()) {
-                    reader = readers.first()
-                    readerProtocol = protocolAnalysis.primaryProtocol(reader)
-                    events = protocolAnalysis.relevantCommunicationEvents(stmt, reader)
-                }
+                val letReader: LetReader? = letReader(stmt)
 
                 if (protocolAnalysis.participatingHosts(stmt).contains(this.host)) {
                     // execute statement, if host is participating
@@ -136,20 +208,20 @@ class BackendInterpreter(
                     protocolBackend.runSimpleStatement(protocol, stmt)
 
                     // send data
-                    if (readers.isNotEmpty()) {
-                        protocolBackend.runSend(stmt, protocol, reader!!, readerProtocol!!, events!!)
+                    if (letReader != null) {
+                        protocolBackend.runSend(
+                            stmt,
+                            protocol,
+                            letReader.reader,
+                            letReader.readerProtocol,
+                            letReader.events
+                        )
                     }
                 }
 
                 // receive data
-                if (readers.isNotEmpty()) {
-                    if (protocolAnalysis.participatingHosts(reader!!).contains(this.host)) {
-                        protocolInterpreterMap[readerProtocol]
-                            ?.runReceive(stmt, protocol, reader, readerProtocol!!, events!!)
-                            ?: throw ViaductInterpreterError(
-                                "no backend for protocol ${readerProtocol!!.asDocument.print()}"
-                            )
-                    }
+                if (letReader != null) {
+                    receive(stmt, protocol, letReader)
                 }
 
                 // synchronize(protocolAnalysis.participatingHosts(stmt), protocolAnalysis.hostsToSync(stmt))
@@ -185,6 +257,7 @@ class BackendInterpreter(
 
                 // execute function body
                 val calledFunction = nameAnalysis.declaration(stmt)
+                profiler?.call(calledFunction.name.value)
                 run(calledFunction.name.value, calledFunction.body)
 
                 // pop function activation record
@@ -235,7 +308,9 @@ class BackendInterpreter(
                         run(function, stmt)
                          */
 
+                        profiler?.enterLoop(stmt)
                         while (true) {
+                            profiler?.startIteration(stmt)
                             run(function, stmt.body)
                         }
                     } catch (signal: LoopBreakSignal) {
@@ -264,8 +339,16 @@ class BackendInterpreter(
                     interpreter.pushContext()
                 }
 
-                for (child: StatementNode in stmt) {
-                    run(function, child)
+                var i = 0
+                while (i < stmt.size) {
+                    val releaseBatch: ReleaseBatch? = releaseBatch(stmt, i)
+                    if (releaseBatch != null) {
+                        run(releaseBatch)
+                        i += releaseBatch.lets.size
+                    } else {
+                        run(function, stmt[i])
+                        i++
+                    }
                 }
 
                 for (interpreter in protocolInterpreters) {
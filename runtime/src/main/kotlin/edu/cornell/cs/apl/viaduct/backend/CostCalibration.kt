@@ -0,0 +1,255 @@
+package edu.cornell.cs.apl.viaduct.backend
+
+import edu.cornell.cs.apl.viaduct.backend.IO.Strategy
+import edu.cornell.cs.apl.viaduct.parsing.ArithABYProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.BoolABYProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.CommitmentProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.LocalProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.ProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.ReplicationProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.SourceFile
+import edu.cornell.cs.apl.viaduct.parsing.YaoABYProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.ZKPProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.parse
+import edu.cornell.cs.apl.viaduct.passes.elaborated
+import edu.cornell.cs.apl.viaduct.protocols.ABY
+import edu.cornell.cs.apl.viaduct.protocols.ArithABY
+import edu.cornell.cs.apl.viaduct.protocols.BoolABY
+import edu.cornell.cs.apl.viaduct.protocols.Commitment
+import edu.cornell.cs.apl.viaduct.protocols.Local
+import edu.cornell.cs.apl.viaduct.protocols.Replication
+import edu.cornell.cs.apl.viaduct.protocols.YaoABY
+import edu.cornell.cs.apl.viaduct.protocols.ZKP
+import edu.cornell.cs.apl.viaduct.selection.CostProfile
+import edu.cornell.cs.apl.viaduct.syntax.Host
+import edu.cornell.cs.apl.viaduct.syntax.Operator
+import edu.cornell.cs.apl.viaduct.syntax.Protocol
+import edu.cornell.cs.apl.viaduct.syntax.ProtocolName
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.ProgramNode
+import edu.cornell.cs.apl.viaduct.syntax.operators.Addition
+import edu.cornell.cs.apl.viaduct.syntax.operators.And
+import edu.cornell.cs.apl.viaduct.syntax.operators.ExclusiveOr
+import edu.cornell.cs.apl.viaduct.syntax.operators.Maximum
+import edu.cornell.cs.apl.viaduct.syntax.operators.Minimum
+import edu.cornell.cs.apl.viaduct.syntax.operators.Mux
+import edu.cornell.cs.apl.viaduct.syntax.operators.Negation
+import edu.cornell.cs.apl.viaduct.syntax.operators.Not
+import edu.cornell.cs.apl.viaduct.syntax.operators.Or
+import edu.cornell.cs.apl.viaduct.syntax.values.IntegerValue
+import edu.cornell.cs.apl.viaduct.syntax.values.Value
+import kotlin.math.roundToInt
+import kotlin.system.measureNanoTime
+import mu.KotlinLogging
+
+private val logger = KotlinLogging.logger("Cost Calibration")
+
+/** Feeds the same input to every benchmark and discards all outputs. */
+private object CalibrationStrategy : Strategy {
+    override suspend fun getInput(): Value = IntegerValue(1)
+
+    override suspend fun recvOutput(value: Value) {}
+}
+
+/**
+ * Measures the costs in a [CostProfile] by running small compiled programs between two hosts,
+ * `alice` and `bob`, with [runProgram].
+ *
+ * Each benchmark program repeats a block of statements [repetitions] times, and is run [runs]
+ * times after a warm-up run; the fastest run counts. Costs are the differences between blocks that
+ * use a feature and blocks that do not, so fixed costs like connecting hosts cancel out.
+ *
+ * To calibrate for a deployment, [runProgram] should run the hosts on the deployment machines.
+ * If it runs both hosts in one process instead, [measuredInProcess] should be set, and the profile
+ * is marked as such, since its message latency is not measured over a network.
+ */
+class CostCalibration(
+    private val repetitions: Int = DEFAULT_REPETITIONS,
+    private val runs: Int = DEFAULT_RUNS,
+    private val measuredInProcess: Boolean = false,
+    private val runProgram: (ProgramNode, Strategy) -> Unit
+) {
+    companion object {
+        const val DEFAULT_REPETITIONS: Int = 20
+        const val DEFAULT_RUNS: Int = 3
+
+        /** Number of multiplications in the circuit that measures the cost of a ZKP constraint. */
+        private const val ZKP_CIRCUIT_SIZE = 8
+
+        private val alice = Host("alice")
+        private val bob = Host("bob")
+
+        private val protocolParsers: Map<ProtocolName, ProtocolParser<Protocol>> =
+            mapOf(
+                Local.protocolName to LocalProtocolParser,
+                Commitment.protocolName to CommitmentProtocolParser,
+                Replication.protocolName to ReplicationProtocolParser,
+                ArithABY.protocolName to ArithABYProtocolParser,
+                BoolABY.protocolName to BoolABYProtocolParser,
+                YaoABY.protocolName to YaoABYProtocolParser,
+                ZKP.protocolName to ZKPProtocolParser
+            )
+    }
+
+    init {
+        require(repetitions > 0 && runs > 0)
+    }
+
+    /** Temporary [name] of the [i]th block. */
+    private fun t(name: String, i: Int): String = "\$${name}_$i"
+
+    private fun let(temporary: String, protocol: Protocol, value: String): String =
+        "let $temporary@${protocol.name} = $value;"
+
+    /**
+     * Statements every block starts with: integer inputs `x` and `y` from `alice` and `bob`,
+     * and booleans `p` and `q` computed from them locally.
+     */
+    private fun inputs(i: Int): List<String> =
+        listOf(
+            let(t("x", i), Local(alice), "input int from alice"),
+            let(t("y", i), Local(bob), "input int from bob"),
+            let(t("p", i), Local(alice), "(${t("x", i)} < 1)"),
+            let(t("q", i), Local(bob), "(${t("y", i)} < 1)")
+        )
+
+    /** Sends [result] to [host] and outputs it there. */
+    private fun output(i: Int, result: String, host: Host): List<String> =
+        listOf(
+            let(t("o", i), Local(host), result),
+            "output ${t("o", i)} to ${host.name};"
+        )
+
+    /** Applies [operator] to the inputs of the [i]th block. */
+    private fun application(operator: Operator, i: Int): String {
+        val x = t("x", i)
+        val y = t("y", i)
+        val p = t("p", i)
+        val q = t("q", i)
+        return when (operator) {
+            Negation -> "(-$x)"
+            Not -> "(!$p)"
+            Minimum -> "(min($x, $y))"
+            Maximum -> "(max($x, $y))"
+            Mux -> "(mux($p, $x, $y))"
+            And, Or, ExclusiveOr -> "($p $operator $q)"
+            else -> "($x $operator $y)"
+        }
+    }
+
+    private fun program(block: (Int) -> List<String>): ProgramNode {
+        val statements = (0 until repetitions).flatMap { i -> inputs(i) + block(i) }
+        val source =
+            "host alice : {A}\nhost bob : {B}\n\nprocess main {\n" +
+                statements.joinToString("") { "    $it\n" } + "}\n"
+        return SourceFile.from("<calibration>", source).parse(protocolParsers).elaborated()
+    }
+
+    /** Microseconds it takes to run [block] once. */
+    private fun time(description: String, block: (Int) -> List<String>): Double {
+        val program = program(block)
+
+        // warms up the JVM and generates ZKP keys
+        runProgram(program, CalibrationStrategy)
+
+        val fastest = (1..runs).minOf { measureNanoTime { runProgram(program, CalibrationStrategy) } }
+        val microseconds = fastest / 1000.0 / repetitions
+        logger.info { "$description: ${"%.1f".format(microseconds)}us per block" }
+        return microseconds
+    }
+
+    private fun Double.toCost(minimum: Int = 0): Int = roundToInt().coerceAtLeast(minimum)
+
+    /** Runs all benchmarks and returns the measured costs. */
+    fun calibrate(): CostProfile {
+        val statements: MutableMap<ProtocolName, Int> = mutableMapOf()
+        val operators: MutableMap<Pair<Operator, ProtocolName>, Int> = mutableMapOf()
+        val conversions: MutableMap<Pair<ProtocolName, ProtocolName>, Int> = mutableMapOf()
+        val circuits: MutableMap<ProtocolName, Int> = mutableMapOf()
+
+        // plaintext protocols and messages
+        val local = time("local") { i -> output(i, t("x", i), alice) }
+        val sent = time("message") { i -> output(i, t("x", i), bob) }
+        val messageLatency = sent - local
+
+        statements[Local.protocolName] =
+            (time("local statement") { i ->
+                listOf(let(t("r", i), Local(alice), application(Addition, i))) + output(i, t("x", i), alice)
+            } - local).toCost(minimum = 1)
+
+        statements[Replication.protocolName] =
+            (time("replication") { i ->
+                listOf(let(t("r", i), Replication(setOf(alice, bob)), t("x", i))) + output(i, t("r", i), alice)
+            } - sent).toCost(minimum = 1)
+
+        // committing to a value and opening the commitment, which sends a message as well
+        statements[Commitment.protocolName] =
+            (time("commitment") { i ->
+                listOf(let(t("r", i), Commitment(alice, setOf(bob)), t("x", i))) + output(i, t("r", i), bob)
+            } - sent).toCost(minimum = 1)
+
+        // proofs of one multiplication and of many; the difference is the cost of the extra constraints
+        val zkp = ZKP(alice, setOf(bob))
+        fun proof(size: Int): (Int) -> List<String> = { i ->
+            (0 until size).map { j ->
+                val previous = if (j == 0) t("x", i) else t("z${j - 1}", i)
+                let(t("z$j", i), zkp, "($previous * ${t("x", i)})")
+            } + output(i, t("z${size - 1}", i), bob)
+        }
+        val smallProof = time("ZKP proof with 1 constraint", proof(1))
+        val largeProof = time("ZKP proof with $ZKP_CIRCUIT_SIZE constraints", proof(ZKP_CIRCUIT_SIZE))
+        val constraint = (largeProof - smallProof) / (ZKP_CIRCUIT_SIZE - 1)
+        statements[ZKP.protocolName] = constraint.toCost(minimum = 1)
+        circuits[ZKP.protocolName] = (smallProof - sent - constraint).toCost()
+
+        // ABY circuit types
+        val sharings: List<ABY> = listOf(ArithABY(alice, bob), BoolABY(alice, bob), YaoABY(alice, bob))
+        val sharingBaselines: MutableMap<ProtocolName, Double> = mutableMapOf()
+        for (sharing in sharings) {
+            val name = sharing.protocolName
+            val baseline = time("${name.name} identity") { i ->
+                listOf(let(t("r", i), sharing, t("x", i))) + output(i, t("r", i), alice)
+            }
+            sharingBaselines[name] = baseline
+            circuits[name] = (baseline - local).toCost()
+
+            statements[name] =
+                (time("${name.name} statement") { i ->
+                    listOf(
+                        let(t("s", i), sharing, t("x", i)),
+                        let(t("r", i), sharing, t("s", i))
+                    ) + output(i, t("r", i), alice)
+                } - baseline).toCost(minimum = 1)
+
+            for (operator in CostProfile.supportedOperators.getValue(name)) {
+                operators[operator to name] =
+                    (time("${name.name} $operator") { i ->
+                        listOf(let(t("r", i), sharing, application(operator, i))) + output(i, t("r", i), alice)
+                    } - baseline).toCost()
+            }
+        }
+
+        // conversions, measured by adding in one circuit type and then again in another
+        for (source in sharings) {
+            for (destination in sharings.filter { it != source }) {
+                val sourceName = source.protocolName
+                val destinationName = destination.protocolName
+                val pipeline = time("${sourceName.name} to ${destinationName.name}") { i ->
+                    listOf(
+                        let(t("a", i), source, application(Addition, i)),
+                        let(t("r", i), destination, "(${t("a", i)} + ${t("y", i)})")
+                    ) + output(i, t("r", i), alice)
+                }
+                val computation =
+                    sharingBaselines.getValue(destinationName) +
+                        operators.getValue(Addition to sourceName) +
+                        operators.getValue(Addition to destinationName) +
+                        statements.getValue(sourceName)
+                conversions[sourceName to destinationName] = (pipeline - computation).toCost()
+            }
+        }
+
+        return CostProfile(
+            statements, operators, conversions, circuits, messageLatency.toCost(minimum = 1), measuredInProcess
+        )
+    }
+}
@@ -0,0 +1,41 @@
+package edu.cornell.cs.apl.viaduct.backend
+
+import edu.cornell.cs.apl.viaduct.selection.ExecutionProfile
+import edu.cornell.cs.apl.viaduct.syntax.FunctionName
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.InfiniteLoopNode
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.ProgramNode
+
+/**
+ * Counts loop iterations and function calls while a host interprets [program], so the
+ * compiler can weigh the cost of loops and functions by how often they actually run.
+ *
+ * Each host needs its own profiler; use [ExecutionProfile.union] to combine their profiles.
+ */
+class ExecutionProfiler(program: ProgramNode) {
+    private val loopKeys: Map<InfiniteLoopNode, ExecutionProfile.LoopKey> = ExecutionProfile.loopKeys(program)
+
+    private val loopEntries: MutableMap<ExecutionProfile.LoopKey, Long> = mutableMapOf()
+    private val loopIterations: MutableMap<ExecutionProfile.LoopKey, Long> = mutableMapOf()
+    private val calls: MutableMap<FunctionName, Long> = mutableMapOf()
+
+    fun enterLoop(loop: InfiniteLoopNode) {
+        loopKeys[loop]?.let { loopEntries[it] = (loopEntries[it] ?: 0L) + 1 }
+    }
+
+    fun startIteration(loop: InfiniteLoopNode) {
+        loopKeys[loop]?.let { loopIterations[it] = (loopIterations[it] ?: 0L) + 1 }
+    }
+
+    fun call(function: FunctionName) {
+        calls[function] = (calls[function] ?: 0L) + 1
+    }
+
+    /** The counts recorded so far. */
+    fun profile(): ExecutionProfile =
+        ExecutionProfile(
+            loopEntries.mapValues { (key, entries) ->
+                ExecutionProfile.LoopCount(entries, loopIterations[key] ?: 0L)
+            },
+            calls.toMap()
+        )
+}
@@ -0,0 +1,141 @@
+package edu.cornell.cs.apl.viaduct.backend
+
+import edu.cornell.cs.apl.viaduct.errors.ViaductInterpreterError
+import edu.cornell.cs.apl.viaduct.syntax.Host
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import mu.KotlinLogging
+
+private val logger = KotlinLogging.logger("InMemoryTransport")
+
+/**
+ * Connects hosts running inside the same process through in-memory queues.
+ *
+ * Every host of a run must build its transport from the same network,
+ * and a network cannot be reused across runs.
+ * If a host fails, the run must be stopped with [fail], since other hosts would wait for it forever.
+ */
+class InMemoryNetwork : TransportFactory {
+    private val transports: ConcurrentHashMap<Host, InMemoryTransport> = ConcurrentHashMap()
+
+    private var connected: CountDownLatch? = null
+
+    /** Set once some host failed; see [fail]. */
+    @Volatile
+    private var failure: ViaductInterpreterError? = null
+
+    override fun buildTransport(self: HostInfo, hosts: Collection<HostInfo>): ViaductTransport {
+        synchronized(this) {
+            if (connected == null) {
+                connected = CountDownLatch(hosts.size)
+                if (failure != null) {
+                    releaseHosts()
+                }
+            }
+        }
+        return InMemoryTransport(this, self, hosts)
+    }
+
+    internal fun register(transport: InMemoryTransport) {
+        transports[transport.self.host] = transport
+        connected!!.countDown()
+
+        // the network may have failed before this host registered
+        failure?.let { transport.fail(it) }
+    }
+
+    /** Blocks until every host has registered with the network. */
+    internal fun awaitHosts() {
+        connected!!.await()
+        failure?.let { throw it }
+    }
+
+    /**
+     * Stops the run after [host] failed. Hosts waiting for others to connect, for messages,
+     * or for others to finish sending fail instead of waiting forever.
+     */
+    fun fail(host: Host) {
+        val error = ViaductInterpreterError("stopped because host ${host.name} failed")
+        synchronized(this) {
+            if (failure != null) {
+                return
+            }
+            failure = error
+            releaseHosts()
+        }
+        for (transport in transports.values) {
+            transport.fail(error)
+        }
+    }
+
+    private fun releaseHosts() {
+        connected?.let { latch ->
+            while (latch.count > 0) {
+                latch.countDown()
+            }
+        }
+    }
+
+    internal fun transport(host: Host): InMemoryTransport =
+        transports.getValue(host)
+}
+
+/** Transport for a host connected to an [InMemoryNetwork]. */
+class InMemoryTransport internal constructor(
+    private val network: InMemoryNetwork,
+    internal val self: HostInfo,
+    private val hosts: Collection<HostInfo>
+) : ViaductTransport {
+    private val inbox: Channel<SendMessage> = Channel(Channel.UNLIMITED)
+
+    /** Completed once this host has sent its last message. */
+    private val finishedSending: CompletableDeferred<Unit> = CompletableDeferred()
+
+    private val messagesSent: MutableMap<Host, Long> = ConcurrentHashMap()
+
+    override fun connect() {
+        network.register(this)
+        network.awaitHosts()
+    }
+
+    override fun start(scope: CoroutineScope, deliver: (SendMessage) -> Unit) {
+        scope.launch {
+            for (msg in inbox) {
+                deliver(msg)
+            }
+        }
+    }
+
+    override suspend fun send(receiver: Host, message: SendMessage) {
+        network.transport(receiver).inbox.send(message)
+        messagesSent.merge(receiver, 1L) { count, increment -> count + increment }
+    }
+
+    override suspend fun shutdown() {
+        finishedSending.complete(Unit)
+
+        // wait for other hosts to stop sending
+        hosts
+            .filter { other -> other.host != self.host }
+            .map { other -> network.transport(other.host).finishedSending }
+            .awaitAll()
+        inbox.close()
+
+        for ((host, count) in messagesSent) {
+            logger.info { "messages sent to host ${host.name}: $count" }
+        }
+    }
+
+    override fun close() {}
+
+    /** Makes this host stop waiting for messages and for other hosts, and fail with [error]. */
+    internal fun fail(error: ViaductInterpreterError) {
+        inbox.close(error)
+        finishedSending.completeExceptionally(error)
+    }
+}
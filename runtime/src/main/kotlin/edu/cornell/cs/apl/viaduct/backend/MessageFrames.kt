@@ -0,0 +1,95 @@
+package edu.cornell.cs.apl.viaduct.backend
+
+import edu.cornell.cs.apl.viaduct.errors.ViaductInterpreterError
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.ReadableByteChannel
+
+/**
+ * Wire format for messages exchanged between hosts.
+ *
+ * Messages are grouped into frames. A frame starts with a header containing the length
+ * of its body in bytes and the number of messages in it, as little-endian integers.
+ * The body is the concatenation of the encoded messages: sender and receiver ids as
+ * varints, then the value as encoded by [ValueCodec].
+ */
+internal object MessageFrames {
+    /** Size of the frame header (body length, message count). */
+    const val HEADER_SIZE: Int = 8
+
+    /** Number of bytes needed to encode [messages] as a frame, header included. */
+    fun frameSize(messages: List<SendMessage>): Int =
+        HEADER_SIZE + messages.sumOf { msg -> encodedSize(msg) }
+
+    private fun encodedSize(msg: SendMessage): Int =
+        ValueCodec.varintSize(msg.sender) + ValueCodec.varintSize(msg.receiver) + ValueCodec.encodedSize(msg.message)
+
+    /** Encodes [messages] as a single frame, header included. */
+    fun encode(messages: List<SendMessage>): ByteBuffer {
+        val buffer: ByteBuffer = ByteBuffer.allocate(frameSize(messages))
+        encode(messages, buffer)
+        buffer.flip()
+        return buffer
+    }
+
+    /**
+     * Writes [messages] as a single frame into [buffer], starting at its current position.
+     * The buffer must have at least [frameSize] bytes remaining.
+     */
+    fun encode(messages: List<SendMessage>, buffer: ByteBuffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN)
+        buffer.putInt(frameSize(messages) - HEADER_SIZE)
+        buffer.putInt(messages.size)
+
+        for (msg in messages) {
+            ValueCodec.putVarint(buffer, msg.sender)
+            ValueCodec.putVarint(buffer, msg.receiver)
+            ValueCodec.encode(msg.message, buffer)
+        }
+    }
+
+    /**
+     * Reads one frame from a blocking [channel] and returns the messages in it along with
+     * the total number of bytes read. Returns null if the channel reached the end of the
+     * stream before the start of a frame.
+     */
+    fun read(channel: ReadableByteChannel): Pair<List<SendMessage>, Int>? {
+        val header: ByteBuffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+        if (channel.read(header) < 0) {
+            return null
+        }
+        readFully(channel, header)
+        val bodySize: Int = header.int
+        val messageCount: Int = header.int
+
+        val body: ByteBuffer = ByteBuffer.allocate(bodySize).order(ByteOrder.LITTLE_ENDIAN)
+        readFully(channel, body)
+        return Pair(decode(body, messageCount), HEADER_SIZE + bodySize)
+    }
+
+    /** Decodes [messageCount] messages from the body of a frame. */
+    fun decode(body: ByteBuffer, messageCount: Int): List<SendMessage> {
+        val messages: MutableList<SendMessage> = ArrayList(messageCount)
+        repeat(messageCount) {
+            val sender: ProcessId = ValueCodec.getVarint(body)
+            val receiver: ProcessId = ValueCodec.getVarint(body)
+            messages.add(SendMessage(sender, receiver, ValueCodec.decode(body)))
+        }
+
+        if (body.hasRemaining()) {
+            throw ViaductInterpreterError("frame has ${body.remaining()} trailing bytes")
+        }
+
+        return messages
+    }
+
+    /** Fills the rest of [buffer] from [channel] and flips it. */
+    private fun readFully(channel: ReadableByteChannel, buffer: ByteBuffer) {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw ViaductInterpreterError("connection closed in the middle of a frame")
+            }
+        }
+        buffer.flip()
+    }
+}
@@ -0,0 +1,263 @@
+package edu.cornell.cs.apl.viaduct.backend
+
+import edu.cornell.cs.apl.viaduct.syntax.Host
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.SocketChannel
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.cancel
+import mu.KotlinLogging
+
+private val logger = KotlinLogging.logger("NioTransport")
+
+/**
+ * Transport that multiplexes the connections to all remote hosts over a single
+ * event loop thread, using non-blocking channels and direct buffers.
+ *
+ * Outgoing messages are queued per host; the event loop coalesces everything queued
+ * for a host into a single frame. Incoming frames are decoded and delivered as soon
+ * as they arrive.
+ */
+class NioTransport(
+    private val self: HostInfo,
+    private val hosts: Collection<HostInfo>
+) : ViaductTransport {
+    companion object : TransportFactory {
+        private const val INITIAL_BUFFER_SIZE: Int = 64 * 1024
+
+        override fun buildTransport(self: HostInfo, hosts: Collection<HostInfo>): ViaductTransport =
+            NioTransport(self, hosts)
+    }
+
+    private class Peer(val host: Host, val channel: SocketChannel) {
+        val outbox: ConcurrentLinkedQueue<SendMessage> = ConcurrentLinkedQueue()
+
+        val statistics: LinkStatistics = LinkStatistics(host)
+
+        var readBuffer: ByteBuffer =
+            ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+
+        /** Frame currently being written; empty when there is nothing left to write. */
+        var writeBuffer: ByteBuffer =
+            ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN).apply { flip() }
+
+        lateinit var key: SelectionKey
+
+        /** True if the remote host will not send any more messages. */
+        var isInputClosed: Boolean = false
+
+        /** True if this host will not send any more messages. */
+        var isOutputClosed: Boolean = false
+
+        val hasPendingOutput: Boolean
+            get() = outbox.isNotEmpty() || writeBuffer.hasRemaining()
+
+        /** Registers interest in reading while the remote host is sending, and in writing while a frame is pending. */
+        fun updateInterest() {
+            val readOps = if (isInputClosed) 0 else SelectionKey.OP_READ
+            val writeOps = if (writeBuffer.hasRemaining()) SelectionKey.OP_WRITE else 0
+            key.interestOps(readOps or writeOps)
+        }
+    }
+
+    private val selector: Selector = Selector.open()
+
+    private var peers: Map<Host, Peer> = mapOf()
+
+    /** Set when a wakeup of the selector has been requested but not yet handled. */
+    private val wakeupPending: AtomicBoolean = AtomicBoolean(false)
+
+    @Volatile
+    private var isShuttingDown: Boolean = false
+
+    private val eventLoopDone: CompletableDeferred<Unit> = CompletableDeferred()
+
+    private lateinit var deliver: (SendMessage) -> Unit
+
+    override fun connect() {
+        peers = connectToHosts(self, hosts).mapValues { kv -> Peer(kv.key, kv.value) }
+    }
+
+    override fun start(scope: CoroutineScope, deliver: (SendMessage) -> Unit) {
+        this.deliver = deliver
+
+        for (peer in peers.values) {
+            peer.channel.configureBlocking(false)
+            peer.key = peer.channel.register(selector, SelectionKey.OP_READ, peer)
+        }
+
+        thread(name = "transport event loop for host ${self.host.name}", isDaemon = true) {
+            logger.info { "launching event loop for ${peers.size} hosts" }
+            try {
+                eventLoop()
+                eventLoopDone.complete(Unit)
+            } catch (e: Throwable) {
+                logger.error(e) { "event loop failed" }
+                eventLoopDone.completeExceptionally(e)
+
+                // nothing more will be delivered, so fail whoever is waiting for messages
+                scope.cancel(CancellationException("transport event loop failed", e))
+            }
+        }
+    }
+
+    private fun wakeup() {
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup()
+        }
+    }
+
+    private fun eventLoop() {
+        while (true) {
+            wakeupPending.set(false)
+            for (peer in peers.values) {
+                flushOutbox(peer)
+            }
+
+            if (isShuttingDown) {
+                // tell hosts we are done sending once everything queued for them is written
+                for (peer in peers.values) {
+                    if (!peer.isOutputClosed && !peer.hasPendingOutput) {
+                        peer.channel.shutdownOutput()
+                        peer.isOutputClosed = true
+                    }
+                }
+
+                if (peers.values.all { peer -> peer.isOutputClosed && peer.isInputClosed }) {
+                    break
+                }
+            }
+
+            selector.select()
+
+            val selectedKeys = selector.selectedKeys().iterator()
+            while (selectedKeys.hasNext()) {
+                val key: SelectionKey = selectedKeys.next()
+                selectedKeys.remove()
+
+                val peer = key.attachment() as Peer
+                if (key.isValid && key.isReadable) {
+                    readFrom(peer)
+                }
+                if (key.isValid && key.isWritable) {
+                    writeTo(peer)
+                }
+            }
+        }
+    }
+
+    /** Encodes all queued messages for [peer] into a single frame, unless a frame is still being written. */
+    private fun flushOutbox(peer: Peer) {
+        if (peer.isOutputClosed || peer.writeBuffer.hasRemaining() || peer.outbox.isEmpty()) {
+            return
+        }
+
+        val batch: MutableList<SendMessage> = mutableListOf()
+        while (true) {
+            batch.add(peer.outbox.poll() ?: break)
+        }
+
+        val frameSize: Int = MessageFrames.frameSize(batch)
+        if (frameSize > peer.writeBuffer.capacity()) {
+            peer.writeBuffer = ByteBuffer.allocateDirect(frameSize).order(ByteOrder.LITTLE_ENDIAN)
+        }
+
+        peer.writeBuffer.clear()
+        MessageFrames.encode(batch, peer.writeBuffer)
+        peer.writeBuffer.flip()
+
+        peer.statistics.bytesSent += frameSize
+        peer.statistics.framesSent += 1
+        peer.statistics.messagesSent += batch.size
+
+        writeTo(peer)
+    }
+
+    private fun writeTo(peer: Peer) {
+        val buffer: ByteBuffer = peer.writeBuffer
+        while (buffer.hasRemaining()) {
+            if (peer.channel.write(buffer) == 0) {
+                break
+            }
+        }
+
+        peer.updateInterest()
+    }
+
+    private fun readFrom(peer: Peer) {
+        if (peer.channel.read(peer.readBuffer) < 0) {
+            logger.info { "host ${peer.host.name} finished sending" }
+            peer.isInputClosed = true
+            peer.updateInterest()
+            return
+        }
+
+        val buffer: ByteBuffer = peer.readBuffer
+        buffer.flip()
+        while (buffer.remaining() >= MessageFrames.HEADER_SIZE) {
+            val frameStart: Int = buffer.position()
+            val bodySize: Int = buffer.getInt(frameStart)
+            if (buffer.remaining() < MessageFrames.HEADER_SIZE + bodySize) {
+                break
+            }
+
+            val messageCount: Int = buffer.getInt(frameStart + 4)
+            buffer.position(frameStart + MessageFrames.HEADER_SIZE)
+            val body: ByteBuffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN)
+            body.limit(bodySize)
+            val messages: List<SendMessage> = MessageFrames.decode(body, messageCount)
+            buffer.position(frameStart + MessageFrames.HEADER_SIZE + bodySize)
+
+            peer.statistics.bytesReceived += MessageFrames.HEADER_SIZE + bodySize
+            peer.statistics.framesReceived += 1
+            peer.statistics.messagesReceived += messages.size
+
+            for (message in messages) {
+                deliver(message)
+            }
+        }
+        buffer.compact()
+
+        // grow the buffer if the frame being read does not fit
+        if (buffer.position() >= MessageFrames.HEADER_SIZE) {
+            val frameSize: Int = MessageFrames.HEADER_SIZE + buffer.getInt(0)
+            if (frameSize > buffer.capacity()) {
+                val newBuffer: ByteBuffer = ByteBuffer.allocateDirect(frameSize).order(ByteOrder.LITTLE_ENDIAN)
+                buffer.flip()
+                newBuffer.put(buffer)
+                peer.readBuffer = newBuffer
+            }
+        }
+    }
+
+    override suspend fun send(receiver: Host, message: SendMessage) {
+        peers.getValue(receiver).outbox.add(message)
+        wakeup()
+    }
+
+    override suspend fun shutdown() {
+        isShuttingDown = true
+        selector.wakeup()
+        eventLoopDone.await()
+
+        logger.info { "shutting down event loop" }
+        for (peer in peers.values) {
+            peer.statistics.log()
+        }
+    }
+
+    override fun close() {
+        for (peer in peers.values) {
+            logger.info { "closing connection to host ${peer.host.name}" }
+            peer.channel.close()
+        }
+        selector.close()
+    }
+}
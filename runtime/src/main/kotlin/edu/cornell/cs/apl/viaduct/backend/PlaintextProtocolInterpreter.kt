@@ -2,7 +2,6 @@ package edu.cornell.cs.apl.viaduct.backend
 
 import edu.cornell.cs.apl.viaduct.analysis.ProtocolAnalysis
 import edu.cornell.cs.apl.viaduct.backend.commitment.HashInfo
-import edu.cornell.cs.apl.viaduct.backend.commitment.encode
 import edu.cornell.cs.apl.viaduct.errors.UndefinedNameError
 import edu.cornell.cs.apl.viaduct.errors.ViaductInterpreterError
 import edu.cornell.cs.apl.viaduct.protocols.Local
@@ -265,7 +264,7 @@ class PlaintextProtocolInterpreter(
                     for (hashCommitmentInput in hashCommitmentInputs) {
                         val commitment: ByteVecValue = runtime.receive(hashCommitmentInput) as ByteVecValue
 
-                        assert(HashInfo(commitment.value, nonce.value).verify(msg.encode()))
+                        assert(HashInfo(commitment.value, nonce.value).verify(msg))
                         logger.info {
                             "verified commitment from host ${hashCommitmentInput.send.asProjection().asDocument.print()}"
                         }
@@ -49,6 +49,16 @@ interface ProtocolInterpreter {
     suspend fun restoreContext(marker: Int)
 }
 
+/** A [ProtocolInterpreter] that can reveal the values of several let nodes at once. */
+interface BatchingProtocolInterpreter : ProtocolInterpreter {
+    /**
+     * Called with consecutive let nodes whose values this interpreter sends to other protocols,
+     * after [runSimpleStatement] has been called for all of them. [runSend] is then called
+     * for each let node in order, interleaved with the corresponding receives.
+     */
+    suspend fun prepareRelease(senders: List<Pair<LetNode, ProtocolCommunication>>)
+}
+
 interface ProtocolBackend {
     fun buildProtocolInterpreters(
         host: Host,
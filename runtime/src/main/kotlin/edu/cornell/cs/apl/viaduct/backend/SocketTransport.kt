@@ -0,0 +1,198 @@
+package edu.cornell.cs.apl.viaduct.backend
+
+import edu.cornell.cs.apl.viaduct.syntax.Host
+import java.nio.ByteBuffer
+import java.nio.channels.SocketChannel
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import mu.KotlinLogging
+
+private val logger = KotlinLogging.logger("SocketTransport")
+
+private class ViaductReceiverThread(
+    val host: Host,
+    val channel: SocketChannel,
+    val statistics: LinkStatistics,
+    val deliver: (SendMessage) -> Unit
+) {
+    override fun toString(): String {
+        return "receiver thread for host ${host.name}"
+    }
+
+    /** Reads frames until the remote host closes the connection, delivering messages as they arrive. */
+    fun run() {
+        while (true) {
+            val (messages, frameSize) = MessageFrames.read(channel) ?: break
+            statistics.bytesReceived += frameSize
+            statistics.framesReceived += 1
+            statistics.messagesReceived += messages.size
+
+            for (message in messages) {
+                deliver(message)
+            }
+        }
+
+        logger.info { "shutting down $this" }
+    }
+}
+
+private class ViaductSenderThread(
+    val host: Host,
+    val channel: SocketChannel,
+    val statistics: LinkStatistics,
+    val msgQueue: Channel<ViaductMessage>
+) {
+    /** A message taken off the queue while batching that has not been processed yet. */
+    private var deferredMessage: ViaductMessage? = null
+
+    override fun toString(): String {
+        return "sender thread for host ${host.name}"
+    }
+
+    suspend fun run() {
+        loop@ while (true) {
+            val msg: ViaductMessage = deferredMessage ?: msgQueue.receive()
+            deferredMessage = null
+
+            when (msg) {
+                is SendMessage -> send(msg)
+
+                is ShutdownMessage -> {
+                    logger.info { "shutting down $this" }
+                    withContext(Dispatchers.IO) {
+                        channel.shutdownOutput()
+                    }
+                    break@loop
+                }
+            }
+        }
+    }
+
+    private suspend fun send(msg: SendMessage) {
+        // coalesce all messages already queued for this host into a single frame
+        val batch: MutableList<SendMessage> = mutableListOf(msg)
+        while (true) {
+            val next: ViaductMessage = msgQueue.tryReceive().getOrNull() ?: break
+            if (next is SendMessage) {
+                batch.add(next)
+            } else {
+                deferredMessage = next
+                break
+            }
+        }
+
+        val frame: ByteBuffer = MessageFrames.encode(batch)
+        val frameSize: Int = frame.remaining()
+        withContext(Dispatchers.IO) {
+            while (frame.hasRemaining()) {
+                channel.write(frame)
+            }
+        }
+
+        statistics.bytesSent += frameSize
+        statistics.framesSent += 1
+        statistics.messagesSent += batch.size
+    }
+}
+
+/**
+ * Transport that uses blocking socket I/O, with a sender thread and a receiver thread
+ * dedicated to each remote host. Receiver threads continuously read frames and deliver
+ * messages as soon as they arrive.
+ */
+class SocketTransport(
+    private val self: HostInfo,
+    private val hosts: Collection<HostInfo>
+) : ViaductTransport {
+    companion object : TransportFactory {
+        // output buffer for channels
+        private const val CHANNEL_CAPACITY: Int = 100
+
+        override fun buildTransport(self: HostInfo, hosts: Collection<HostInfo>): ViaductTransport =
+            SocketTransport(self, hosts)
+    }
+
+    private val remoteHosts: List<Host> =
+        hosts.map { hinfo -> hinfo.host }.filter { other -> other != self.host }
+
+    private val sendChannels: Map<Host, Channel<ViaductMessage>> =
+        remoteHosts.associateWith { Channel(CHANNEL_CAPACITY) }
+
+    private val statistics: Map<Host, LinkStatistics> =
+        remoteHosts.associateWith { LinkStatistics(it) }
+
+    private val executors: MutableList<ExecutorService> = mutableListOf()
+
+    private val receiverJobs: MutableList<Job> = mutableListOf()
+
+    private var connectionMap: Map<Host, SocketChannel> = mapOf()
+
+    override fun connect() {
+        connectionMap = connectToHosts(self, hosts)
+    }
+
+    override fun start(scope: CoroutineScope, deliver: (SendMessage) -> Unit) {
+        for (host in remoteHosts) {
+            val channel: SocketChannel = connectionMap.getValue(host)
+
+            val receiverThread =
+                ViaductReceiverThread(host, channel, statistics.getValue(host), deliver)
+
+            val senderThread =
+                ViaductSenderThread(host, channel, statistics.getValue(host), sendChannels.getValue(host))
+
+            val receiverExecutor = Executors.newSingleThreadExecutor()
+            val senderExecutor = Executors.newSingleThreadExecutor()
+            executors.add(receiverExecutor)
+            executors.add(senderExecutor)
+
+            receiverJobs.add(
+                scope.launch(receiverExecutor.asCoroutineDispatcher()) {
+                    logger.info { "launching receiver thread for host ${host.name}" }
+                    receiverThread.run()
+                }
+            )
+
+            scope.launch(senderExecutor.asCoroutineDispatcher()) {
+                logger.info { "launching sender thread for host ${host.name}" }
+                senderThread.run()
+            }
+        }
+    }
+
+    override suspend fun send(receiver: Host, message: SendMessage) {
+        sendChannels.getValue(receiver).send(message)
+    }
+
+    override suspend fun shutdown() {
+        for (host in remoteHosts) {
+            sendChannels.getValue(host).send(ShutdownMessage)
+        }
+
+        // wait for other hosts to stop sending
+        receiverJobs.joinAll()
+
+        for (host in remoteHosts) {
+            statistics.getValue(host).log()
+        }
+    }
+
+    override fun close() {
+        for (kv in connectionMap) {
+            logger.info { "closing connection to host ${kv.key.name}" }
+            kv.value.close()
+        }
+
+        for (executor in executors) {
+            executor.shutdown()
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package edu.cornell.cs.apl.viaduct.backend
+
+import edu.cornell.cs.apl.viaduct.errors.ViaductInterpreterError
+import edu.cornell.cs.apl.viaduct.syntax.values.BooleanValue
+import edu.cornell.cs.apl.viaduct.syntax.values.ByteVecValue
+import edu.cornell.cs.apl.viaduct.syntax.values.IntegerValue
+import edu.cornell.cs.apl.viaduct.syntax.values.UnitValue
+import edu.cornell.cs.apl.viaduct.syntax.values.Value
+import java.nio.ByteBuffer
+
+/**
+ * Binary encoding of the [Value]s sent between hosts.
+ *
+ * Every value starts with a one byte type tag. Booleans are encoded entirely in the tag.
+ * Integers are zigzag encoded and written as varints, so small magnitudes take a single byte.
+ * Byte vectors are written as a varint length followed by the raw bytes, which are copied
+ * in bulk to and from the backing array of [ByteVecValue].
+ */
+internal object ValueCodec {
+    private const val FALSE_TAG: Byte = 0
+    private const val TRUE_TAG: Byte = 1
+    private const val INTEGER_TAG: Byte = 2
+    private const val BYTEVEC_TAG: Byte = 3
+    private const val UNIT_TAG: Byte = 4
+
+    /** Number of bytes needed to encode [value], tag included. */
+    fun encodedSize(value: Value): Int =
+        1 + when (value) {
+            is BooleanValue -> 0
+            is IntegerValue -> varintSize(zigzag(value.value))
+            is ByteVecValue -> varintSize(value.value.size) + value.value.size
+            is UnitValue -> 0
+            else -> throw ViaductInterpreterError("cannot send value $value")
+        }
+
+    /** Writes [value] into [buffer] at its current position. */
+    fun encode(value: Value, buffer: ByteBuffer) {
+        when (value) {
+            is BooleanValue -> buffer.put(if (value.value) TRUE_TAG else FALSE_TAG)
+
+            is IntegerValue -> {
+                buffer.put(INTEGER_TAG)
+                putVarint(buffer, zigzag(value.value))
+            }
+
+            is ByteVecValue -> {
+                buffer.put(BYTEVEC_TAG)
+                putVarint(buffer, value.value.size)
+                buffer.put(value.value)
+            }
+
+            is UnitValue -> buffer.put(UNIT_TAG)
+
+            else -> throw ViaductInterpreterError("cannot send value $value")
+        }
+    }
+
+    /** Reads a value from [buffer] at its current position. */
+    fun decode(buffer: ByteBuffer): Value =
+        when (val tag: Byte = buffer.get()) {
+            FALSE_TAG -> BooleanValue(false)
+
+            TRUE_TAG -> BooleanValue(true)
+
+            INTEGER_TAG -> IntegerValue(unzigzag(getVarint(buffer)))
+
+            BYTEVEC_TAG -> {
+                val bytes = ByteArray(getVarint(buffer))
+                buffer.get(bytes)
+                ByteVecValue(bytes)
+            }
+
+            UNIT_TAG -> UnitValue
+
+            else -> throw ViaductInterpreterError("parsed invalid value type $tag")
+        }
+
+    /** Maps signed integers to unsigned ones so that small magnitudes have small encodings. */
+    private fun zigzag(n: Int): Int = (n shl 1) xor (n shr 31)
+
+    private fun unzigzag(n: Int): Int = (n ushr 1) xor -(n and 1)
+
+    /** Number of bytes [putVarint] uses to write [n], which is treated as unsigned. */
+    fun varintSize(n: Int): Int {
+        var size = 1
+        var rest: Int = n ushr 7
+        while (rest != 0) {
+            size++
+            rest = rest ushr 7
+        }
+        return size
+    }
+
+    /** Writes [n] as an unsigned LEB128 varint: seven bits per byte, least significant group first. */
+    fun putVarint(buffer: ByteBuffer, n: Int) {
+        var rest: Int = n
+        while (rest and 0x7F.inv() != 0) {
+            buffer.put(((rest and 0x7F) or 0x80).toByte())
+            rest = rest ushr 7
+        }
+        buffer.put(rest.toByte())
+    }
+
+    fun getVarint(buffer: ByteBuffer): Int {
+        var result = 0
+        var shift = 0
+        while (shift < 35) {
+            val b: Int = buffer.get().toInt()
+            result = result or ((b and 0x7F) shl shift)
+            if (b and 0x80 == 0) {
+                return result
+            }
+            shift += 7
+        }
+        throw ViaductInterpreterError("malformed varint")
+    }
+}
@@ -7,6 +7,9 @@ import edu.cornell.cs.apl.viaduct.selection.SimpleProtocolComposer
 import edu.cornell.cs.apl.viaduct.syntax.Host
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.HostDeclarationNode
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.ProgramNode
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import kotlin.concurrent.thread
 import kotlin.system.measureTimeMillis
 import mu.KotlinLogging
 
@@ -14,14 +17,38 @@ private val logger = KotlinLogging.logger("ViaductBackend")
 
 class ViaductBackend(
     private val backends: List<ProtocolBackend>,
-    private val customConnectionInfo: Map<Host, HostAddress> = mapOf()
+    private val customConnectionInfo: Map<Host, HostAddress> = mapOf(),
+    private val transportFactory: TransportFactory = NioTransport
 ) {
     companion object {
         const val DEFAULT_PORT = 5000
         const val DEFAULT_ADDRESS = "127.0.0.1"
     }
 
-    fun run(program: ProgramNode, host: Host, strategy: Strategy) {
+    private fun buildConnectionMap(program: ProgramNode): Map<Host, HostAddress> {
+        var portNum = DEFAULT_PORT
+
+        // custom connection info must provide info for all hosts or none
+        return if (customConnectionInfo.isEmpty()) {
+            program.hostDeclarations
+                .map { hostDecl ->
+                    val addr = HostAddress(DEFAULT_ADDRESS, portNum)
+                    portNum++
+                    Pair(hostDecl.name.value, addr)
+                }.toMap()
+        } else {
+            val allHostsDefined = program.hostDeclarations.all { hostDecl ->
+                customConnectionInfo.containsKey(hostDecl.name.value)
+            }
+            if (!allHostsDefined) {
+                throw ViaductInterpreterError("Some hosts do not have connection information.")
+            }
+            customConnectionInfo
+        }
+    }
+
+    /** Runs [host]'s part of [program], recording how often loops and functions run in [profiler] if given. */
+    fun run(program: ProgramNode, host: Host, strategy: Strategy, profiler: ExecutionProfiler? = null) {
         val isHostValid: Boolean =
             program.declarations
                 .filterIsInstance<HostDeclarationNode>()
@@ -33,29 +60,69 @@ class ViaductBackend(
         // build protocol analysis from protocol annotations in the program
         val protocolAnalysis = ProtocolAnalysis(program, SimpleProtocolComposer)
 
-        var portNum = DEFAULT_PORT
-        val connectionMap: Map<Host, HostAddress> =
-            // custom connection info must provide info for all hosts or none
-            if (customConnectionInfo.isEmpty()) {
-                program.hostDeclarations
-                    .map { hostDecl ->
-                        val addr = HostAddress(DEFAULT_ADDRESS, portNum)
-                        portNum++
-                        Pair(hostDecl.name.value, addr)
-                    }.toMap()
-            } else {
-                val allHostsDefined = program.hostDeclarations.all { hostDecl ->
-                    customConnectionInfo.containsKey(hostDecl.name.value)
-                }
-                if (!allHostsDefined) {
-                    throw ViaductInterpreterError("Some hosts do not have connection information.")
-                }
-                customConnectionInfo
-            }
+        val connectionMap: Map<Host, HostAddress> = buildConnectionMap(program)
 
-        val runtime = ViaductRuntime(host, program, protocolAnalysis, connectionMap, backends, strategy)
+        val runtime =
+            ViaductRuntime(host, program, protocolAnalysis, connectionMap, backends, strategy, transportFactory, profiler)
 
         val runtimeDuration = measureTimeMillis { runtime.start() }
         logger.info { "runtime duration: ${runtimeDuration}ms" }
     }
+
+    /**
+     * Runs every host of [program] inside this process, each on its own thread.
+     *
+     * Hosts exchange messages through an [InMemoryNetwork], so the transport set for this
+     * backend is ignored. Protocol backends that open their own connections (e.g. ABY) still
+     * connect over the addresses in the connection map.
+     *
+     * Hosts with a profiler in [profilers] record how often loops and functions run in it.
+     * If a host fails, the other hosts are stopped, and the first failure is rethrown.
+     *
+     * @return how long each host took to run, in milliseconds.
+     */
+    fun runAll(
+        program: ProgramNode,
+        strategies: Map<Host, Strategy>,
+        profilers: Map<Host, ExecutionProfiler> = mapOf()
+    ): Map<Host, Long> {
+        val hosts: List<Host> = program.hostDeclarations.map { hostDecl -> hostDecl.name.value }
+        for (host in hosts) {
+            if (!strategies.containsKey(host)) throw ViaductInterpreterError("no input strategy for host $host")
+        }
+
+        val connectionMap: Map<Host, HostAddress> = buildConnectionMap(program)
+        val network = InMemoryNetwork()
+
+        val durations: MutableMap<Host, Long> = ConcurrentHashMap()
+        val failures: ConcurrentLinkedQueue<Throwable> = ConcurrentLinkedQueue()
+        val threads: List<Thread> =
+            hosts.map { host ->
+                thread(name = "runtime for host ${host.name}") {
+                    try {
+                        // analyses cache results without synchronization, so each host gets its own
+                        val protocolAnalysis = ProtocolAnalysis(program, SimpleProtocolComposer)
+                        val runtime =
+                            ViaductRuntime(
+                                host, program, protocolAnalysis, connectionMap,
+                                backends, strategies.getValue(host), network, profilers[host]
+                            )
+                        durations[host] = measureTimeMillis { runtime.start() }
+                    } catch (e: Throwable) {
+                        logger.error(e) { "runtime for host ${host.name} failed" }
+                        failures.add(e)
+                        // recorded first, so the failure that caused the others is the one reported
+                        network.fail(host)
+                    }
+                }
+            }
+
+        threads.forEach { it.join() }
+        failures.firstOrNull()?.let { throw it }
+
+        for (host in hosts) {
+            logger.info { "runtime duration for host ${host.name}: ${durations[host]}ms" }
+        }
+        return hosts.associateWith { host -> durations.getValue(host) }
+    }
 }
@@ -9,27 +9,12 @@ import edu.cornell.cs.apl.viaduct.syntax.Host
 import edu.cornell.cs.apl.viaduct.syntax.Protocol
 import edu.cornell.cs.apl.viaduct.syntax.ProtocolProjection
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.ProgramNode
-import edu.cornell.cs.apl.viaduct.syntax.values.BooleanValue
-import edu.cornell.cs.apl.viaduct.syntax.values.ByteVecValue
-import edu.cornell.cs.apl.viaduct.syntax.values.IntegerValue
-import edu.cornell.cs.apl.viaduct.syntax.values.UnitValue
 import edu.cornell.cs.apl.viaduct.syntax.values.Value
-import java.io.InputStream
-import java.io.OutputStream
-import java.net.ConnectException
-import java.net.ServerSocket
-import java.net.Socket
-import java.nio.ByteBuffer
-import java.nio.ByteOrder
 import java.util.Scanner
-import java.util.concurrent.Executors
-import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
-import kotlinx.coroutines.asCoroutineDispatcher
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
-import kotlinx.coroutines.withContext
 import mu.KotlinLogging
 
 private var logger = KotlinLogging.logger("Runtime")
@@ -47,162 +32,8 @@ data class SendMessage(
     val message: Value
 ) : CommunicationMessage()
 
-data class ReceiveMessage(
-    val sender: ProcessId,
-    val receiver: ProcessId
-) : CommunicationMessage()
-
 object ShutdownMessage : ViaductMessage()
 
-private abstract class ViaductThread(
-    val msgQueue: Channel<ViaductMessage>
-) {
-    abstract suspend fun processCommunicationMessage(msg: CommunicationMessage)
-
-    suspend fun run() {
-        loop@ while (true) {
-            when (val msg: ViaductMessage = msgQueue.receive()) {
-                is CommunicationMessage -> processCommunicationMessage(msg)
-
-                is ShutdownMessage -> {
-                    logger.info { "shutting down $this" }
-                    break@loop
-                }
-            }
-        }
-    }
-}
-
-private class ViaductReceiverThread(
-    val host: Host,
-    val socket: Socket,
-    val runtime: ViaductRuntime,
-    msgQueue: Channel<ViaductMessage>
-) : ViaductThread(msgQueue) {
-    var bytesReceived: Long = 0
-        private set
-
-    override fun toString(): String {
-        return "receiver thread for host ${host.name}"
-    }
-
-    override suspend fun processCommunicationMessage(msg: CommunicationMessage) {
-        when (msg) {
-            is ReceiveMessage -> {
-                val result: Triple<Value, Process, Process> =
-                    withContext(Dispatchers.IO) {
-                        val socketInput: InputStream = socket.getInputStream()
-                        val senderId: Int = socketInput.read()
-                        val receiverId: Int = socketInput.read()
-                        val valType: Int = socketInput.read()
-                        bytesReceived += 3
-
-                        val sender: Process = runtime.getProcessById(senderId).process
-                        val receiver: Process = runtime.getProcessById(receiverId).process
-                        val value: Value =
-                            when (valType) {
-                                // BooleanValue
-                                0 -> {
-                                    bytesReceived += 1
-                                    BooleanValue(socketInput.read() != 0)
-                                }
-
-                                // IntegerValue
-                                1 -> {
-                                    bytesReceived += 4
-                                    val b = socketInput.readNBytes(4)
-                                    IntegerValue(ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN).int)
-                                }
-
-                                // ByteVecValue
-                                2 -> {
-                                    val len_buf = socketInput.readNBytes(4)
-                                    val len = ByteBuffer.wrap(len_buf).order(ByteOrder.LITTLE_ENDIAN).int
-                                    val i = socketInput.readNBytes(len).toList()
-                                    bytesReceived += 4 + len
-                                    ByteVecValue(i)
-                                }
-
-                                // UnitValue
-                                3 -> UnitValue
-
-                                else -> throw ViaductInterpreterError("parsed invalid value type $valType")
-                            }
-
-                        Triple(value, sender, receiver)
-                    }
-
-                logger.info {
-                    "received remote message ${result.first.type.asDocument.print()} " +
-                        "from ${result.second.asDocument.print()} to ${result.third.asDocument.print()}"
-                }
-
-                runtime.send(result.first, result.second, result.third)
-            }
-
-            else -> throw ViaductInterpreterError("receiver coroutine cannot send")
-        }
-    }
-}
-
-private class ViaductSenderThread(
-    val host: Host,
-    val socket: Socket,
-    val runtime: ViaductRuntime,
-    msgQueue: Channel<ViaductMessage>
-) : ViaductThread(msgQueue) {
-    var bytesSent: Long = 0
-        private set
-
-    override fun toString(): String {
-        return "sender thread for host ${host.name}"
-    }
-
-    override suspend fun processCommunicationMessage(msg: CommunicationMessage) {
-        when (msg) {
-            is SendMessage -> {
-                withContext(Dispatchers.IO) {
-                    val socketOutput: OutputStream = socket.getOutputStream()
-                    socketOutput.write(msg.sender)
-                    socketOutput.write(msg.receiver)
-                    bytesSent += 2
-                    when (msg.message) {
-                        is BooleanValue -> {
-                            socketOutput.write(0)
-                            socketOutput.write(if (msg.message.value) 1 else 0)
-                            bytesSent += 2
-                        }
-
-                        is IntegerValue -> {
-                            socketOutput.write(1)
-                            val b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(msg.message.value)
-                            socketOutput.write(b.array())
-                            bytesSent += 5
-                        }
-
-                        is ByteVecValue -> {
-                            socketOutput.write(2)
-                            val bytes = msg.message.value.toByteArray()
-                            val len = bytes.size
-                            val len_buf = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(len)
-                            socketOutput.write(len_buf.array())
-                            socketOutput.write(bytes)
-                            bytesSent += 5 + bytes.size
-                        }
-
-                        is UnitValue -> {
-                            socketOutput.write(3)
-                            bytesSent += 1
-                        }
-                    }
-                }
-            }
-
-            else -> throw ViaductInterpreterError("sender coroutine cannot receive")
-        }
-    }
-}
-
 typealias IpAddress = String
 typealias Port = Int
 
@@ -211,9 +42,7 @@ data class HostAddress(val ipAddress: IpAddress, val port: Port)
 data class HostInfo(
     val host: Host,
     val id: HostId,
-    val address: HostAddress,
-    val recvChannel: Channel<ViaductMessage>,
-    val sendChannel: Channel<ViaductMessage>
+    val address: HostAddress
 )
 
 data class ProcessInfo(
@@ -235,23 +64,33 @@ class ViaductRuntime(
     private val protocolAnalysis: ProtocolAnalysis,
     private val hostConnectionInfo: Map<Host, HostAddress>,
     private val backends: List<ProtocolBackend>,
-    private val strategy: Strategy
+    private val strategy: Strategy,
+    transportFactory: TransportFactory = NioTransport,
+    private val profiler: ExecutionProfiler? = null
 ) {
     private val syncProtocol = Synchronization(program.hostDeclarations.map { it.name.value }.toSet())
+
+    /** Process information indexed by process ID. */
+    private val processTable: Array<ProcessInfo>
     private val processInfoMap: Map<Process, ProcessInfo>
+
+    /** Host information indexed by host ID. */
+    private val hostTable: Array<HostInfo>
     private val hostInfoMap: Map<Host, HostInfo>
 
-    private val channelMap: Map<Process, Map<Process, Channel<Value>>>
+    private val transport: ViaductTransport
+
+    /** Channels indexed by sender ID, then receiver ID. Null for processes that never communicate. */
+    private val channels: Array<Array<Channel<Value>?>>
 
     private val stdinScanner: Scanner = Scanner(System.`in`)
 
+    /** Actions run before this host receives anything from another host; see [addRemoteReceiveListener]. */
+    private val remoteReceiveListeners: MutableList<suspend () -> Unit> = mutableListOf()
+
     companion object {
         // output buffer for channels
         private const val CHANNEL_CAPACITY: Int = 100
-
-        // try to connect for 10 seconds, at 100ms intervals
-        const val CONNECTION_NUM_RETRY: Int = 20
-        const val CONNECTION_RETRY_DELAY: Long = 500
     }
 
     init {
@@ -272,104 +111,121 @@ class ViaductRuntime(
                     }
                 ).sorted()
 
-        val tempProcessInfoMap: MutableMap<Process, ProcessInfo> = mutableMapOf()
-        var j = 1
-        for (projection: ProtocolProjection in processList) {
-            tempProcessInfoMap[projection] = ProcessInfo(projection, j)
-            j++
-        }
-
-        processInfoMap = tempProcessInfoMap
-
-        // initialize channel map
-        val processPairList: List<Pair<Process, Process>> =
-            processInfoMap.values
-                .filter { pinfo -> pinfo.protocol !is Synchronization }
-                .flatMap { pinfo ->
-                    processInfoMap.values
-                        .filter { pinfo2 -> pinfo2.id != pinfo.id }
-                        .map { pinfo2 -> Pair(pinfo.process, pinfo2.process) }
+        processTable =
+            processList
+                .mapIndexed { id, projection -> ProcessInfo(projection, id) }
+                .toTypedArray()
+        processInfoMap = processTable.associateBy { pinfo -> pinfo.process }
+
+        // initialize channels; synchronization processes only talk to each other
+        channels = Array(processTable.size) { arrayOfNulls<Channel<Value>>(processTable.size) }
+        for (sender: ProcessInfo in processTable) {
+            for (receiver: ProcessInfo in processTable) {
+                if (sender.id == receiver.id ||
+                    (sender.protocol is Synchronization && receiver.protocol !is Synchronization)
+                ) {
+                    continue
                 }
-                .toList()
-
-        val tempChannelMap: MutableMap<Process, MutableMap<Process, Channel<Value>>> = mutableMapOf()
-        for (pair: Pair<Process, Process> in processPairList) {
-            if (!tempChannelMap.containsKey(pair.first)) {
-                tempChannelMap[pair.first] = mutableMapOf()
-            }
 
-            if (!tempChannelMap[pair.first]!!.containsKey(pair.second)) {
-                tempChannelMap[pair.first]!![pair.second] = Channel(CHANNEL_CAPACITY)
+                // messages from remote hosts are delivered as soon as they arrive,
+                // so the transport must never have to wait for the receiver to catch up
+                channels[sender.id][receiver.id] =
+                    if (sender.host != host && receiver.host == host) Channel<Value>(Channel.UNLIMITED)
+                    else Channel<Value>(CHANNEL_CAPACITY)
             }
         }
 
-        // add synchronization channels
-        for (host in syncProtocol.hosts) {
-            val syncProcess = ProtocolProjection(syncProtocol, host)
-            tempChannelMap[syncProcess] = mutableMapOf()
-            tempChannelMap[syncProcess]!!.putAll(
-                syncProtocol.hosts
-                    .filter { host2 -> host2 != host }
-                    .map { host2 ->
-                        ProtocolProjection(syncProtocol, host2) to Channel(CHANNEL_CAPACITY)
-                    }
-            )
-        }
-
-        channelMap = tempChannelMap
-
         // create identifiers for hosts
         val hostList: List<Host> =
             program.hostDeclarations.map { node -> node.name.value }.sorted()
 
-        val tempHostInfoMap = mutableMapOf<Host, HostInfo>()
-        var i = 1
-        for (host: Host in hostList) {
-            tempHostInfoMap[host] =
-                HostInfo(host, i, hostConnectionInfo[host]!!, Channel(CHANNEL_CAPACITY), Channel(CHANNEL_CAPACITY))
-            i++
-        }
-        hostInfoMap = tempHostInfoMap
+        hostTable =
+            hostList
+                .mapIndexed { id, host -> HostInfo(host, id, hostConnectionInfo[host]!!) }
+                .toTypedArray()
+        hostInfoMap = hostTable.associateBy { hinfo -> hinfo.host }
+
+        transport = transportFactory.buildTransport(hostInfoMap[host]!!, hostTable.toList())
     }
 
     fun getHostById(id: HostId): HostInfo =
-        hostInfoMap.values.first { hinfo -> hinfo.id == id }
-
-    fun getProcessById(id: ProcessId): ProcessInfo {
-        val lst = processInfoMap.values.filter { pinfo -> pinfo.id == id }
-        if (lst.isNotEmpty()) {
-            return lst.first()
-        } else {
-            throw ViaductInterpreterError("unknown process id: $id")
-        }
-    }
+        hostTable.getOrNull(id) ?: throw ViaductInterpreterError("unknown host id: $id")
 
-    suspend fun send(value: Value, sender: Process, receiver: Process) {
-        if (receiver.host == host) { // local communication
-            channelMap[sender]!![receiver]!!.send(value)
-        } else { // remote communication
+    fun getProcessById(id: ProcessId): ProcessInfo =
+        processTable.getOrNull(id) ?: throw ViaductInterpreterError("unknown process id: $id")
+
+    fun getProcessId(process: Process): ProcessId =
+        processInfoMap[process]?.id
+            ?: throw ViaductInterpreterError("unknown process ${process.asDocument.print()}")
 
-            val msg = SendMessage(processInfoMap[sender]!!.id, processInfoMap[receiver]!!.id, value)
-            hostInfoMap[receiver.host]!!.sendChannel.send(msg)
+    private fun getChannel(sender: ProcessId, receiver: ProcessId): Channel<Value> =
+        channels[sender][receiver]
+            ?: throw ViaductInterpreterError(
+                "no channel from ${processTable[sender].process.asDocument.print()} " +
+                    "to ${processTable[receiver].process.asDocument.print()}"
+            )
+
+    suspend fun send(value: Value, sender: ProcessId, receiver: ProcessId) {
+        val receiverInfo: ProcessInfo = processTable[receiver]
+        if (receiverInfo.host == host) { // local communication
+            getChannel(sender, receiver).send(value)
+        } else { // remote communication
+            transport.send(receiverInfo.host, SendMessage(sender, receiver, value))
 
             logger.info {
                 "sent remote message ${value.type.asDocument.print()} " +
-                    "from ${sender.asDocument.print()} to ${receiver.asDocument.print()}"
+                    "from ${processTable[sender].process.asDocument.print()} " +
+                    "to ${receiverInfo.process.asDocument.print()}"
             }
         }
     }
 
+    suspend fun send(value: Value, sender: Process, receiver: Process) {
+        send(value, getProcessId(sender), getProcessId(receiver))
+    }
+
     suspend fun send(value: Value, event: CommunicationEvent) {
         send(value, event.send.asProjection(), event.recv.asProjection())
     }
 
+    suspend fun receive(sender: ProcessId, receiver: ProcessId): Value {
+        if (processTable[sender].host != host) {
+            beforeRemoteReceive()
+        }
+        return getChannel(sender, receiver).receive()
+    }
+
+    /**
+     * Runs [listener] every time before this host receives a message from another host.
+     * Protocols use this to commit to their state before seeing anything other hosts sent.
+     */
+    fun addRemoteReceiveListener(listener: suspend () -> Unit) {
+        remoteReceiveListeners.add(listener)
+    }
+
+    /**
+     * Runs the listeners added with [addRemoteReceiveListener]. Protocols that receive data
+     * from other hosts without going through this runtime must call this first.
+     */
+    suspend fun beforeRemoteReceive() {
+        for (listener in remoteReceiveListeners) {
+            listener()
+        }
+    }
+
     suspend fun receive(sender: Process, receiver: Process): Value {
-        if (sender.host != host) { // remote communication
-            val msg = ReceiveMessage(processInfoMap[sender]!!.id, processInfoMap[receiver]!!.id)
-            hostInfoMap[sender.host]!!.recvChannel.send(msg)
+        return receive(getProcessId(sender), getProcessId(receiver))
+    }
+
+    /** Routes a message that arrived from another host to the channel of its process pair. */
+    private fun deliver(msg: SendMessage) {
+        logger.info {
+            "received remote message ${msg.message.type.asDocument.print()} " +
+                "from ${getProcessById(msg.sender).process.asDocument.print()} " +
+                "to ${getProcessById(msg.receiver).process.asDocument.print()}"
         }
 
-        return channelMap[sender]!![receiver]!!.receive()
+        getChannel(msg.sender, msg.receiver).trySend(msg.message).getOrThrow()
     }
 
     suspend fun receive(event: CommunicationEvent): Value {
@@ -384,159 +240,62 @@ class ViaductRuntime(
         strategy.recvOutput(value)
     }
 
-    // protocol for connections: for hosts i and j where i < j, j connects to i
-    private fun createRemoteConnections(): Map<Host, Socket> {
-        val connectionMap: MutableMap<Host, Socket> = mutableMapOf()
-        val hinfo: HostInfo = hostInfoMap[host]!!
-
-        // connect to hosts with lower ID
-        for (hinfo2: HostInfo in hostInfoMap.values) {
-            if (hinfo2.id < hinfo.id) { // this host connects to that host
-                var retries = 0
-                var connected = false
-                while (retries < CONNECTION_NUM_RETRY) {
-                    try {
-                        val clientSocket = Socket(hinfo2.address.ipAddress, hinfo2.address.port)
-                        clientSocket.getOutputStream().write(hinfo.id)
-                        connectionMap[hinfo2.host] = clientSocket
-                        connected = true
-                        logger.info {
-                            "connected to host ${hinfo2.host.name} " +
-                                "at ${hinfo2.address.ipAddress}:${hinfo2.address.port}"
-                        }
-
-                        break
-                    } catch (e: ConnectException) {
-                        logger.info {
-                            "failed to connect to host ${hinfo2.host.name} " +
-                                "at ${hinfo2.address.ipAddress}:${hinfo2.address.port}, retrying"
-                        }
-                        retries++
-                        Thread.sleep(CONNECTION_RETRY_DELAY)
-                    }
-                }
+    /**
+     * Connects to all other hosts, runs [body] while messages are exchanged,
+     * then shuts down the connections.
+     */
+    fun connectAndRun(body: suspend () -> Unit) {
+        transport.connect()
 
-                if (!connected) {
-                    throw ViaductInterpreterError("host ${hinfo.host} failed to connect to ${hinfo2.host}")
+        runBlocking {
+            transport.start(this) { msg -> deliver(msg) }
+
+            val job: Job = launch { body() }
+
+            job.invokeOnCompletion {
+                launch {
+                    transport.shutdown()
                 }
             }
         }
 
-        // accept connections from hosts with higher ID
-        val incomingConnections: MutableSet<HostId> =
-            hostInfoMap.values
-                .filter { hinfo2 -> hinfo2.id > hinfo.id }
-                .map { hinfo2 -> hinfo2.id }
-                .toMutableSet()
-
-        val serverSocket = ServerSocket(hinfo.address.port)
-        while (incomingConnections.isNotEmpty()) {
-            val clientSocket = serverSocket.accept()
-            val clientHostId = clientSocket.getInputStream().read()
-            val clientHost = getHostById(clientHostId)
-            connectionMap[clientHost.host] = clientSocket
-            incomingConnections.remove(clientHostId)
-
-            logger.info { "accepted connection from host ${clientHost.host.name}" }
-        }
-
-        serverSocket.close()
-
-        return connectionMap
+        transport.close()
     }
 
     fun start() {
-        val connectionMap: Map<Host, Socket> = createRemoteConnections()
-
-        val hostParticipatingProtocols: Set<Protocol> =
-            protocolAnalysis
-                .participatingProtocols(program)
-                .filter { protocol -> protocol.hosts.contains(host) }
-                .toSet()
-
-        val processInterpreters =
-            backends.flatMap { backend ->
-                backend.buildProtocolInterpreters(
-                    host,
-                    program,
-                    hostParticipatingProtocols,
-                    protocolAnalysis,
-                    this,
-                    hostConnectionInfo
-                )
-            }
-
-        val receiverThreads: MutableMap<Host, ViaductReceiverThread> = mutableMapOf()
-        val senderThreads: MutableMap<Host, ViaductSenderThread> = mutableMapOf()
-
-        runBlocking {
-            for (kv: Map.Entry<Host, HostInfo> in hostInfoMap) {
-                if (host != kv.key) {
-                    receiverThreads[kv.key] =
-                        ViaductReceiverThread(
-                            kv.key,
-                            connectionMap[kv.key]!!,
-                            this@ViaductRuntime,
-                            hostInfoMap[kv.key]!!.recvChannel
-                        )
-
-                    senderThreads[kv.key] =
-                        ViaductSenderThread(
-                            kv.key,
-                            connectionMap[kv.key]!!,
-                            this@ViaductRuntime,
-                            hostInfoMap[kv.key]!!.sendChannel
-                        )
-
-                    launch(Executors.newSingleThreadExecutor().asCoroutineDispatcher()) {
-                        logger.info { "launching receiver thread for host ${kv.key.name}" }
-                        receiverThreads[kv.key]!!.run()
-                    }
-
-                    launch(Executors.newSingleThreadExecutor().asCoroutineDispatcher()) {
-                        logger.info { "launching sender thread for host ${kv.key.name}" }
-                        senderThreads[kv.key]!!.run()
-                    }
-                }
-            }
-
-            // run interpreter
-            val job: Job = launch {
-                val interpreter =
-                    BackendInterpreter(
+        connectAndRun {
+            val hostParticipatingProtocols: Set<Protocol> =
+                protocolAnalysis
+                    .participatingProtocols(program)
+                    .filter { protocol -> protocol.hosts.contains(host) }
+                    .toSet()
+
+            val processInterpreters =
+                backends.flatMap { backend ->
+                    backend.buildProtocolInterpreters(
                         host,
                         program,
+                        hostParticipatingProtocols,
                         protocolAnalysis,
-                        processInterpreters,
-                        ViaductProcessRuntime(
-                            this@ViaductRuntime,
-                            ProtocolProjection(syncProtocol, host)
-                        )
+                        this,
+                        hostConnectionInfo
                     )
-                interpreter.run()
-            }
-
-            job.invokeOnCompletion {
-                launch {
-                    for (kv: Map.Entry<Host, HostInfo> in hostInfoMap) {
-                        if (host != kv.key) {
-                            val receiverThread: ViaductReceiverThread = receiverThreads[kv.key]!!
-                            val senderThread: ViaductSenderThread = senderThreads[kv.key]!!
-
-                            logger.info { "bytes sent to host ${host.name}: ${senderThread.bytesSent}" }
-                            logger.info { "bytes received from host ${host.name}: ${receiverThread.bytesReceived}" }
-
-                            kv.value.recvChannel.send(ShutdownMessage)
-                            kv.value.sendChannel.send(ShutdownMessage)
-                        }
-                    }
                 }
-            }
-        }
 
-        for (kv in connectionMap) {
-            logger.info { "closing connection to host ${kv.key.name}" }
-            kv.value.close()
+            // run interpreter
+            val interpreter =
+                BackendInterpreter(
+                    host,
+                    program,
+                    protocolAnalysis,
+                    processInterpreters,
+                    ViaductProcessRuntime(
+                        this,
+                        ProtocolProjection(syncProtocol, host)
+                    ),
+                    profiler
+                )
+            interpreter.run()
         }
     }
 }
@@ -545,22 +304,29 @@ class ViaductProcessRuntime(
     private val runtime: ViaductRuntime,
     val projection: ProtocolProjection
 ) {
+    private val processId: ProcessId = runtime.getProcessId(projection)
+
     suspend fun send(value: Value, receiver: ProtocolProjection) {
-        runtime.send(value, projection, receiver)
+        runtime.send(value, processId, runtime.getProcessId(receiver))
     }
 
     suspend fun send(value: Value, event: CommunicationEvent) {
         assert(event.send.protocol == projection.protocol && event.send.host == projection.host)
-        runtime.send(value, projection, ProtocolProjection(event.recv.protocol, event.recv.host))
+        runtime.send(value, processId, runtime.getProcessId(event.recv.asProjection()))
     }
 
     suspend fun receive(sender: ProtocolProjection): Value {
-        return runtime.receive(sender, projection)
+        return runtime.receive(runtime.getProcessId(sender), processId)
     }
 
     suspend fun receive(event: CommunicationEvent): Value {
         assert(event.recv.protocol == projection.protocol && event.recv.host == projection.host)
-        return runtime.receive(ProtocolProjection(event.send.protocol, event.send.host), projection)
+        return runtime.receive(runtime.getProcessId(event.send.asProjection()), processId)
+    }
+
+    /** See [ViaductRuntime.addRemoteReceiveListener]. */
+    fun addRemoteReceiveListener(listener: suspend () -> Unit) {
+        runtime.addRemoteReceiveListener(listener)
     }
 
     suspend fun input(): Value {
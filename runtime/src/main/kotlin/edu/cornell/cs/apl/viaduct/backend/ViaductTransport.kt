@@ -0,0 +1,162 @@
+package edu.cornell.cs.apl.viaduct.backend
+
+import edu.cornell.cs.apl.viaduct.errors.ViaductInterpreterError
+import edu.cornell.cs.apl.viaduct.syntax.Host
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+import kotlinx.coroutines.CoroutineScope
+import mu.KotlinLogging
+
+private val logger = KotlinLogging.logger("Transport")
+
+/** Moves messages between the hosts running a program. */
+interface ViaductTransport {
+    /** Opens connections to all other hosts. Blocks until every host is connected. */
+    fun connect()
+
+    /**
+     * Starts moving messages. Long running tasks are launched in [scope].
+     *
+     * Messages are read from the network as soon as they arrive, and each one is passed
+     * to [deliver]. Messages from a host are delivered in the order they were sent.
+     * [deliver] may be called from any thread and must not block.
+     */
+    fun start(scope: CoroutineScope, deliver: (SendMessage) -> Unit)
+
+    /** Queues [message] for delivery to [receiver]. */
+    suspend fun send(receiver: Host, message: SendMessage)
+
+    /**
+     * Sends all queued messages and tells other hosts no more messages will follow.
+     * Returns once every other host has done the same. Logs statistics.
+     */
+    suspend fun shutdown()
+
+    /** Closes all connections. */
+    fun close()
+}
+
+interface TransportFactory {
+    /** Builds a transport for [self] that can talk to all hosts in [hosts]. */
+    fun buildTransport(self: HostInfo, hosts: Collection<HostInfo>): ViaductTransport
+}
+
+/** Traffic counters for the connection to a single host. */
+internal class LinkStatistics(val host: Host) {
+    var bytesSent: Long = 0
+    var framesSent: Long = 0
+    var messagesSent: Long = 0
+
+    var bytesReceived: Long = 0
+    var framesReceived: Long = 0
+    var messagesReceived: Long = 0
+
+    private fun messagesPerFrame(messages: Long, frames: Long): String =
+        if (frames == 0L) "0" else "%.2f".format(messages.toDouble() / frames)
+
+    fun log() {
+        logger.info { "bytes sent to host ${host.name}: $bytesSent" }
+        logger.info { "bytes received from host ${host.name}: $bytesReceived" }
+        logger.info {
+            "frames sent to host ${host.name}: $framesSent " +
+                "(${messagesPerFrame(messagesSent, framesSent)} messages per frame)"
+        }
+        logger.info {
+            "frames received from host ${host.name}: $framesReceived " +
+                "(${messagesPerFrame(messagesReceived, framesReceived)} messages per frame)"
+        }
+    }
+}
+
+/** Try to connect for 10 seconds, at 500ms intervals. */
+private const val CONNECTION_NUM_RETRY: Int = 20
+private const val CONNECTION_RETRY_DELAY: Long = 500
+
+/**
+ * Opens a blocking connection to every host in [hosts] other than [self].
+ *
+ * Protocol for connections: for hosts i and j where i < j, j connects to i
+ * and identifies itself by sending its id.
+ */
+internal fun connectToHosts(self: HostInfo, hosts: Collection<HostInfo>): Map<Host, SocketChannel> {
+    val connectionMap: MutableMap<Host, SocketChannel> = mutableMapOf()
+
+    // connect to hosts with lower ID
+    for (other: HostInfo in hosts) {
+        if (other.id < self.id) { // this host connects to that host
+            var retries = 0
+            var connected = false
+            while (retries < CONNECTION_NUM_RETRY) {
+                try {
+                    val clientChannel =
+                        SocketChannel.open(InetSocketAddress(other.address.ipAddress, other.address.port))
+                    clientChannel.socket().tcpNoDelay = true
+                    writeFully(clientChannel, ByteBuffer.wrap(byteArrayOf(self.id.toByte())))
+                    connectionMap[other.host] = clientChannel
+                    connected = true
+                    logger.info {
+                        "connected to host ${other.host.name} " +
+                            "at ${other.address.ipAddress}:${other.address.port}"
+                    }
+
+                    break
+                } catch (e: IOException) {
+                    logger.info {
+                        "failed to connect to host ${other.host.name} " +
+                            "at ${other.address.ipAddress}:${other.address.port}, retrying"
+                    }
+                    retries++
+                    Thread.sleep(CONNECTION_RETRY_DELAY)
+                }
+            }
+
+            if (!connected) {
+                throw ViaductInterpreterError("host ${self.host} failed to connect to ${other.host}")
+            }
+        }
+    }
+
+    // accept connections from hosts with higher ID
+    val incomingConnections: MutableSet<HostId> =
+        hosts
+            .filter { other -> other.id > self.id }
+            .map { other -> other.id }
+            .toMutableSet()
+
+    if (incomingConnections.isNotEmpty()) {
+        val serverChannel = ServerSocketChannel.open()
+        serverChannel.bind(InetSocketAddress(self.address.port))
+        while (incomingConnections.isNotEmpty()) {
+            val clientChannel = serverChannel.accept()
+            clientChannel.socket().tcpNoDelay = true
+
+            val idBuffer = ByteBuffer.allocate(1)
+            while (idBuffer.hasRemaining()) {
+                if (clientChannel.read(idBuffer) < 0) {
+                    throw ViaductInterpreterError("connection closed before host identified itself")
+                }
+            }
+            val clientHostId: HostId = idBuffer.get(0).toInt() and 0xFF
+            val clientHost: HostInfo =
+                hosts.firstOrNull { other -> other.id == clientHostId }
+                    ?: throw ViaductInterpreterError("unknown host id: $clientHostId")
+
+            connectionMap[clientHost.host] = clientChannel
+            incomingConnections.remove(clientHostId)
+
+            logger.info { "accepted connection from host ${clientHost.host.name}" }
+        }
+        serverChannel.close()
+    }
+
+    return connectionMap
+}
+
+private fun writeFully(channel: SocketChannel, buffer: ByteBuffer) {
+    while (buffer.hasRemaining()) {
+        channel.write(buffer)
+    }
+}
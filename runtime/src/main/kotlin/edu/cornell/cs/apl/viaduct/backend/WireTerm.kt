@@ -13,59 +13,164 @@ import edu.cornell.cs.apl.viaduct.syntax.operators.Multiplication
 import edu.cornell.cs.apl.viaduct.syntax.operators.Mux
 import edu.cornell.cs.apl.viaduct.syntax.operators.Not
 import edu.cornell.cs.apl.viaduct.syntax.operators.Or
+import java.util.Stack
 
-sealed class WireTerm
-data class WireOp(val op: Operator, val inputs: List<WireTerm>) : WireTerm()
-data class WireIn(val v: Int, val index: Int, val hash: List<Byte>, val nonce: List<Byte>) : WireTerm()
-data class WireDummyIn(val index: Int, val hash: List<Byte>, val nonce: List<Byte>) : WireTerm()
-data class WireConst(val index: Int, val v: Int) : WireTerm()
+/**
+ * A node in the DAG of wires built by a [WireGenerator].
+ *
+ * Nodes are hash-consed: a [WireGenerator] returns the existing node when asked for an operation
+ * it has already built with the same inputs, so nodes can be compared by identity and [id].
+ */
+sealed class WireTerm {
+    /** Identifies this node among the nodes built by the same [WireGenerator]. */
+    abstract val id: Int
+}
+
+class WireOp(override val id: Int, val op: Operator, val inputs: List<WireTerm>) : WireTerm() {
+    /** The value of this wire, once computed by [eval]. */
+    internal var value: Int? = null
+}
+
+class WireIn(override val id: Int, val v: Int, val index: Int, val hash: ByteArray, val nonce: ByteArray) :
+    WireTerm()
+
+class WireDummyIn(override val id: Int, val index: Int, val hash: ByteArray, val nonce: ByteArray) : WireTerm()
+
+class WireConst(override val id: Int, val index: Int, val v: Int) : WireTerm()
 
 fun String.asPrettyPrintable(): PrettyPrintable = Document(this)
 
-// For booleans, encoding is: 0 if false, anything else if true
+/**
+ * Returns the nodes of the DAG rooted at [this] in post-order, so inputs come before the
+ * operations using them. Every node is listed once, in the order it is first reached.
+ * Operations for which [descend] returns false are listed without their inputs.
+ */
+fun WireTerm.postOrder(descend: (WireOp) -> Boolean = { true }): List<WireTerm> =
+    listOf(this).postOrder(descend)
 
-fun WireTerm.eval(): Int =
-    when (this) {
-        is WireOp ->
-            when (this.op) {
-                is Addition -> inputs[0].eval() + inputs[1].eval()
-                is Multiplication -> inputs[0].eval() * inputs[1].eval()
-                is And -> inputs[0].eval() * inputs[1].eval()
-                is Not -> 1 - inputs[0].eval()
-                is Or -> 1 - (1 - inputs[0].eval()) * (1 - inputs[1].eval())
-                is EqualTo -> if (inputs[0].eval() == inputs[1].eval()) {
-                    1
-                } else {
-                    0
+/** Returns the nodes of the DAG rooted at all wires in [this], visiting the roots in order. */
+fun List<WireTerm>.postOrder(descend: (WireOp) -> Boolean = { true }): List<WireTerm> {
+    val nodes: MutableList<WireTerm> = mutableListOf()
+    val visited: MutableSet<Int> = mutableSetOf()
+
+    // pairs of nodes and the index of the next input to visit
+    val traverseStack = Stack<Pair<WireTerm, Int>>()
+    for (root in this) {
+        if (visited.add(root.id)) {
+            traverseStack.push(Pair(root, 0))
+        }
+        while (traverseStack.isNotEmpty()) {
+            val (node, nextInput) = traverseStack.pop()
+            if (node is WireOp && nextInput < node.inputs.size && descend(node)) {
+                traverseStack.push(Pair(node, nextInput + 1))
+                val input = node.inputs[nextInput]
+                if (visited.add(input.id)) {
+                    traverseStack.push(Pair(input, 0))
                 }
-                is Mux -> if (inputs[0].eval() == 1) (inputs[1].eval()) else (inputs[2].eval())
-                is LessThan -> if (inputs[0].eval() < inputs[1].eval()) (1) else (0)
-                is LessThanOrEqualTo -> if (inputs[0].eval() <= inputs[1].eval()) (1) else (0)
-                else -> throw Exception("unsupported op: $op")
+            } else {
+                nodes.add(node)
             }
+        }
+    }
+    return nodes
+}
+
+// For booleans, encoding is: 0 if false, anything else if true
+
+/** Computes the value of [this] wire. Values of operations are memoized, so shared nodes are evaluated once. */
+fun WireTerm.eval(): Int {
+    for (node in this.postOrder { op -> op.value == null }) {
+        if (node is WireOp && node.value == null) {
+            node.value = node.evalOp()
+        }
+    }
+    return this.evalNode()
+}
+
+private fun WireTerm.evalNode(): Int =
+    when (this) {
+        is WireOp -> this.value!!
         is WireIn -> this.v
         is WireDummyIn -> throw Exception("evaluating dummy input")
         is WireConst -> this.v
     }
 
+private fun WireOp.evalOp(): Int {
+    val inputs = this.inputs.map { it.evalNode() }
+    return when (this.op) {
+        is Addition -> inputs[0] + inputs[1]
+        is Multiplication -> inputs[0] * inputs[1]
+        is And -> inputs[0] * inputs[1]
+        is Not -> 1 - inputs[0]
+        is Or -> 1 - (1 - inputs[0]) * (1 - inputs[1])
+        is EqualTo -> if (inputs[0] == inputs[1]) {
+            1
+        } else {
+            0
+        }
+        is Mux -> if (inputs[0] == 1) (inputs[1]) else (inputs[2])
+        is LessThan -> if (inputs[0] < inputs[1]) (1) else (0)
+        is LessThanOrEqualTo -> if (inputs[0] <= inputs[1]) (1) else (0)
+        else -> throw Exception("unsupported op: $op")
+    }
+}
+
+/** Number of nodes in [this] wire if shared nodes were duplicated for every use. */
+fun WireTerm.treeSize(): Long {
+    val sizes: MutableMap<Int, Long> = mutableMapOf()
+    for (node in this.postOrder()) {
+        sizes[node.id] =
+            when (node) {
+                is WireOp -> node.inputs.fold(1L) { size, input -> saturatingAdd(size, sizes[input.id]!!) }
+                else -> 1L
+            }
+    }
+    return sizes[this.id]!!
+}
+
+private fun saturatingAdd(x: Long, y: Long): Long =
+    if (x > Long.MAX_VALUE - y) Long.MAX_VALUE else x + y
+
 class WireGenerator {
+    private var nodeIndex = 0
     private var inIndex = 0
     private var constIndex = 0
-    fun mkOp(op: Operator, inputs: List<WireTerm>) = WireOp(op, inputs)
-    fun mkDummyIn(hash: List<Byte>, nonce: List<Byte>): WireTerm {
-        val r = WireDummyIn(inIndex, hash, nonce)
+
+    /** Operations built so far, indexed by operator and the ids of their inputs. */
+    private val operations: MutableMap<Pair<Operator, List<Int>>, WireOp> = mutableMapOf()
+
+    private fun nextId(): Int {
+        val id = nodeIndex
+        nodeIndex++
+        return id
+    }
+
+    fun mkOp(op: Operator, inputs: List<WireTerm>): WireTerm =
+        operations.getOrPut(Pair(op, inputs.map { it.id })) { WireOp(nextId(), op, inputs) }
+
+    /**
+     * Stops sharing operations built so far with operations built later, so the table does not grow
+     * for the whole run. Provers and verifiers must call this at the same points, since sharing
+     * determines wire names.
+     */
+    fun forgetOperations() {
+        operations.clear()
+    }
+
+    fun mkDummyIn(hash: ByteArray, nonce: ByteArray): WireDummyIn {
+        val r = WireDummyIn(nextId(), inIndex, hash, nonce)
         inIndex++
         return r
     }
 
-    fun mkIn(v: Int, hash: List<Byte>, nonce: List<Byte>): WireTerm {
-        val r = WireIn(v, inIndex, hash, nonce)
+    fun mkIn(v: Int, hash: ByteArray, nonce: ByteArray): WireIn {
+        val r = WireIn(nextId(), v, inIndex, hash, nonce)
         inIndex++
         return r
     }
 
     fun mkConst(v: Int): WireTerm {
-        val r = WireConst(constIndex, v)
+        val r = WireConst(nextId(), constIndex, v)
         constIndex++
         return r
     }
@@ -73,61 +178,43 @@ class WireGenerator {
 
 // // Canonical naming for WireTerms
 
-fun WireTerm.asString(): String {
-    return when (this) {
-        is WireConst -> "Aux($index)"
-        is WireDummyIn -> "In($index)"
-        is WireIn -> "In($index)"
-        is WireOp -> op.asDocument(inputs.map { it.asString().asPrettyPrintable() }).print()
-    }
-}
-fun WireTerm.hash(): String {
-    val blist = Hashing.deterministicHash(this.asString().toByteArray().toList()).hash
-    return blist.hashCode().toString(16)
-}
+/**
+ * Returns a description of the DAG rooted at [this] that does not depend on input values or
+ * node ids. Nodes are numbered in post-order and listed once each, so sharing is preserved.
+ */
+fun WireTerm.asString(): String = listOf(this).asString()
 
-data class NormalizeCounter(
-    var inIndex: Int = 0,
-    val inMap: MutableMap<Int, Int>,
-    var publicIndex: Int = 0,
-    val publicMap: MutableMap<Int, Int>
-)
+/** Describes the DAG computing all wires in [this], followed by the nodes computing each wire. */
+fun List<WireTerm>.asString(): String {
+    val numbers: MutableMap<Int, Int> = mutableMapOf()
+    val description = StringBuilder()
+    for (node in this.postOrder()) {
+        val number = numbers.size
+        numbers[node.id] = number
 
-fun WireTerm.normalize(counter: NormalizeCounter): WireTerm =
-    when (this) {
-        is WireOp ->
-            WireOp(this.op, this.inputs.map { it.normalize(counter) })
-        is WireIn -> {
-            if (counter.inMap[this.index] == null) {
-                val i = counter.inIndex
-                counter.inMap[this.index] = i
-                counter.inIndex++
-                WireIn(this.v, i, this.hash, this.nonce)
-            } else {
-                WireIn(this.v, counter.inMap[this.index]!!, this.hash, this.nonce)
+        val definition =
+            when (node) {
+                is WireConst -> "Aux"
+                is WireDummyIn -> "In"
+                is WireIn -> "In"
+                is WireOp ->
+                    node.op.asDocument(node.inputs.map { "w${numbers[it.id]}".asPrettyPrintable() }).print()
             }
-        }
-        is WireDummyIn -> {
-            if (counter.inMap[this.index] == null) {
-                val i = counter.inIndex
-                counter.inMap[this.index] = i
-                counter.inIndex++
-                WireDummyIn(i, this.hash, this.nonce)
-            } else {
-                WireDummyIn(counter.inMap[this.index]!!, this.hash, this.nonce)
-            }
-        }
-        is WireConst -> {
-            if (counter.publicMap[this.index] == null) {
-                val i = counter.publicIndex
-                counter.publicMap[this.index] = i
-                counter.publicIndex++
-                WireConst(i, this.v)
-            } else {
-                WireConst(counter.publicMap[this.index]!!, this.v)
-            }
-        }
+        description.append("w$number = $definition\n")
     }
+    for (output in this) {
+        description.append("out w${numbers[output.id]}\n")
+    }
+    return description.toString()
+}
+
+/**
+ * Names the shape of the circuit computing [this] wire.
+ * Wires with the same name produce the same constraint system, so they can share proving keys.
+ */
+fun WireTerm.wireName(): String = listOf(this).wireName()
 
-fun WireTerm.wireName(): String =
-    this.normalize(NormalizeCounter(0, mutableMapOf(), 0, mutableMapOf())).hash()
+/** Names the shape of the circuit computing all wires in [this] at once. */
+fun List<WireTerm>.wireName(): String =
+    Hashing.deterministicHash(this.asString().toByteArray()).hash
+        .joinToString("") { String.format("%02x", it) }
@@ -0,0 +1,228 @@
+package edu.cornell.cs.apl.viaduct.backend.aby
+
+import de.tu_darmstadt.cs.encrypto.aby.Share
+import java.util.IdentityHashMap
+import java.util.Stack
+
+/**
+ * The gates of a circuit, flattened into the order in which they are added to ABY.
+ *
+ * Each step is a gate together with the steps computing its children. Every gate object is
+ * computed by exactly one step, no matter how many parents it has, so common subexpressions
+ * are only put into the circuit once. A plan can have several outputs.
+ *
+ * A plan built for one execution of a let node can be reused for later executions whose gate
+ * DAGs have the same shape, which saves traversing the DAG again. See [bind].
+ *
+ * Independent steps putting the same element-wise operation are packed into a single SIMD gate.
+ * See [batches].
+ */
+internal class ABYCircuitPlan private constructor(
+    /** Gates of the DAG the plan was built from, indexed by step. */
+    private val gates: List<ABYCircuitGate>,
+    /** For each step, the steps computing the children of its gate, in order. */
+    private val childSteps: List<IntArray>,
+    private val outputSteps: List<Int>
+) {
+    companion object {
+        /** Builds a plan computing [outputGates]. Takes time linear in the size of the DAG. */
+        fun build(outputGates: List<ABYCircuitGate>): ABYCircuitPlan {
+            val builder = Builder()
+            val outputSteps: List<Int> = outputGates.map { builder.add(it) }
+            return ABYCircuitPlan(builder.gates, builder.childSteps, outputSteps)
+        }
+    }
+
+    /** Number of gates put into the circuit when executing this plan without SIMD gates. */
+    val size: Int
+        get() = gates.size
+
+    /**
+     * Steps grouped into batches that are put into the circuit together, with children computed
+     * in earlier batches than their parents.
+     *
+     * Steps are batched by depth, so steps in the same batch never depend on each other. A batch
+     * with more than one step contains steps putting the same SIMD packable operation in the same
+     * circuit; it is evaluated by combining the arguments of all steps, putting the operation
+     * once, and splitting the result.
+     */
+    private val batches: List<IntArray> by lazy {
+        val depths = IntArray(gates.size)
+        for (step in gates.indices) {
+            depths[step] = 1 + (childSteps[step].maxOfOrNull { depths[it] } ?: -1)
+        }
+
+        val levels: MutableList<MutableMap<Any, MutableList<Int>>> = mutableListOf()
+        for (step in gates.indices) {
+            while (levels.size <= depths[step]) {
+                levels.add(LinkedHashMap())
+            }
+            val gate: ABYCircuitGate = gates[step]
+            val key: Any =
+                if (gate.isSIMDPackable) Pair((gate as ABYOperationGate).operation, gate.circuitType) else step
+            levels[depths[step]].getOrPut(key) { mutableListOf() }.add(step)
+        }
+        levels.flatMap { level -> level.values.map { it.toIntArray() } }
+    }
+
+    /** Number of SIMD gates put into the circuit when executing this plan. */
+    val simdGateCount: Int
+        get() = batches.count { it.size > 1 }
+
+    /** Number of steps computed by SIMD gates instead of individual gates. */
+    val packedStepCount: Int
+        get() = batches.filter { it.size > 1 }.sumOf { it.size }
+
+    /**
+     * Matches the DAG rooted at [outputGates] against the DAG this plan was built from.
+     *
+     * Returns the gates of the new DAG indexed by step, or null if the two DAGs do not have
+     * the same shape. Two DAGs have the same shape if they only differ in the values of
+     * input and constant gates.
+     */
+    fun bind(outputGates: List<ABYCircuitGate>): List<ABYCircuitGate>? {
+        if (outputGates.size != outputSteps.size) {
+            return null
+        }
+
+        val boundGates: Array<ABYCircuitGate?> = arrayOfNulls(gates.size)
+        val boundSteps: MutableMap<ABYCircuitGate, Int> = IdentityHashMap()
+        val traverseStack = Stack<Int>()
+
+        /** Binds [gate] to [step] if it is consistent with bindings made so far. */
+        fun bindStep(step: Int, gate: ABYCircuitGate): Boolean {
+            val boundGate: ABYCircuitGate? = boundGates[step]
+            return when {
+                // steps are shared, so they must be computed by the same gate for all parents
+                boundGate != null ->
+                    boundGate === gate
+
+                // conversely, a gate shared in the new DAG must be shared in the plan
+                boundSteps.containsKey(gate) || !gates[step].hasSameShape(gate) ->
+                    false
+
+                else -> {
+                    boundGates[step] = gate
+                    boundSteps[gate] = step
+                    traverseStack.push(step)
+                    true
+                }
+            }
+        }
+
+        for ((outputStep, outputGate) in outputSteps.zip(outputGates)) {
+            if (!bindStep(outputStep, outputGate)) {
+                return null
+            }
+        }
+
+        while (traverseStack.isNotEmpty()) {
+            val step: Int = traverseStack.pop()
+            for ((i, child) in boundGates[step]!!.children.withIndex()) {
+                if (!bindStep(childSteps[step][i], child)) {
+                    return null
+                }
+            }
+        }
+
+        return boundGates.map { it!! }
+    }
+
+    /**
+     * Puts [boundGates], as returned by [bind], into the circuit and returns the output shares.
+     *
+     * Element-wise operations are packed into SIMD gates if [simd] is set.
+     */
+    fun putGates(builder: ABYCircuitBuilder, boundGates: List<ABYCircuitGate>, simd: Boolean = true): List<Share> {
+        val shares: Array<Share?> = arrayOfNulls(gates.size)
+
+        // gates expect the shares of their children in reverse order
+        fun childShares(step: Int): List<Share> = childSteps[step].reversed().map { childStep -> shares[childStep]!! }
+
+        fun putStep(step: Int) {
+            shares[step] = boundGates[step].putGate(builder, childShares(step))
+        }
+
+        if (!simd) {
+            gates.indices.forEach(::putStep)
+        } else {
+            for (batch in batches) {
+                val arguments: List<List<Share>> = batch.map(::childShares)
+                // ABY can only combine shares with the same number of wires
+                val combinable =
+                    batch.size > 1 &&
+                        arguments[0].indices.all { i -> arguments.map { it[i].wires.size }.distinct().size == 1 }
+                if (!combinable) {
+                    batch.forEach(::putStep)
+                    continue
+                }
+
+                val gate: ABYCircuitGate = boundGates[batch[0]]
+                val circuit = builder.circuit(gate.circuitType)
+                val combinedArguments: List<Share> =
+                    arguments[0].indices.map { i -> circuit.putCombinedShare(arguments.map { it[i] }) }
+                val results: List<Share> = circuit.putSplitShares(gate.putGate(builder, combinedArguments), batch.size)
+                for ((step, result) in batch.zip(results)) {
+                    shares[step] = result
+                }
+            }
+        }
+
+        return outputSteps.map { outputStep -> shares[outputStep]!! }
+    }
+
+    /** Assigns steps to gates in post-order, so children are always computed before their parents. */
+    private class Builder {
+        val gates: MutableList<ABYCircuitGate> = mutableListOf()
+        val childSteps: MutableList<IntArray> = mutableListOf()
+
+        private val steps: MutableMap<ABYCircuitGate, Int> = IdentityHashMap()
+
+        private class Frame(val gate: ABYCircuitGate) {
+            val childSteps: IntArray = IntArray(gate.children.size)
+            var nextChild: Int = 0
+        }
+
+        /** Adds steps computing [root] and returns the step for [root]. */
+        fun add(root: ABYCircuitGate): Int {
+            steps[root]?.let { return it }
+
+            val traverseStack = Stack<Frame>()
+            traverseStack.push(Frame(root))
+            while (true) {
+                val frame: Frame = traverseStack.peek()
+                if (frame.nextChild < frame.gate.children.size) {
+                    val child: ABYCircuitGate = frame.gate.children[frame.nextChild]
+                    val childStep: Int? = steps[child]
+                    if (childStep != null) {
+                        frame.childSteps[frame.nextChild] = childStep
+                        frame.nextChild++
+                    } else {
+                        traverseStack.push(Frame(child))
+                    }
+                } else {
+                    traverseStack.pop()
+
+                    val step: Int = gates.size
+                    gates.add(frame.gate)
+                    childSteps.add(frame.childSteps)
+                    steps[frame.gate] = step
+
+                    if (traverseStack.isEmpty()) {
+                        return step
+                    }
+                    val parent: Frame = traverseStack.peek()
+                    parent.childSteps[parent.nextChild] = step
+                    parent.nextChild++
+                }
+            }
+        }
+    }
+}
+
+/** True if [this] and [other] put the same kind of gate, ignoring input and constant values and children. */
+private fun ABYCircuitGate.hasSameShape(other: ABYCircuitGate): Boolean =
+    this.javaClass == other.javaClass &&
+        this.circuitType == other.circuitType &&
+        this.children.size == other.children.size &&
+        (this !is ABYOperationGate || this.operation === (other as ABYOperationGate).operation)
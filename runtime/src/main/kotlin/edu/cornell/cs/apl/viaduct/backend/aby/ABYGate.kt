@@ -54,8 +54,7 @@ class ABYCircuitBuilder(
 
 sealed class ABYCircuitGate(
     val children: List<ABYCircuitGate>,
-    val circuitType: ABYCircuitType,
-    var variableGate: Boolean = false // is this gate stored in a variable?
+    val circuitType: ABYCircuitType
 ) {
     /** Adds the gate represented by this object to the given circuit. */
     abstract fun putGate(builder: ABYCircuitBuilder, childShares: List<Share>): Share
@@ -137,6 +136,35 @@ class ABYOperationGate(
         builder.circuit(circuitType).operation(childShares)
 }
 
+/*
+ * Gate constructors are shared between all operation gates so that gates putting the same operation
+ * can be recognized by comparing [ABYOperationGate.operation].
+ */
+private val putSUB: PutOperationGate = putBinaryOperationGate(Circuit::putSUBGate)
+private val putADD: PutOperationGate = putBinaryOperationGate(Circuit::putADDGate)
+private val putMUL: PutOperationGate = putBinaryOperationGate(Circuit::putMULGate)
+private val putMIN: PutOperationGate = putBinaryOperationGate { lhs, rhs -> Aby.putMinGate(this, lhs, rhs) }
+private val putMAX: PutOperationGate = putBinaryOperationGate { lhs, rhs -> Aby.putMaxGate(this, lhs, rhs) }
+private val putNOT: PutOperationGate = putUnaryOperationGate(Circuit::putNOTGate)
+private val putAND: PutOperationGate = putBinaryOperationGate(Circuit::putANDGate)
+private val putEQ: PutOperationGate = putBinaryOperationGate(Circuit::putEQGate)
+private val putGT: PutOperationGate = putBinaryOperationGate(Circuit::putGTGate)
+private val putMUX: PutOperationGate = putTernaryOperationGate(Circuit::putMUXGate)
+private val putXOR: PutOperationGate = putBinaryOperationGate(Circuit::putXORGate)
+private val putDIV: PutOperationGate = putBinaryOperationGate { lhs, rhs -> Aby.putInt32DIVGate(this, lhs, rhs) }
+
+/**
+ * Operations whose gates can be evaluated on many values at once by packing the values into SIMD wires.
+ *
+ * Bitwise operations are left out since they put one gate per wire anyway, so packing them
+ * does not save any gates.
+ */
+private val simdOperations: Set<PutOperationGate> = setOf(putSUB, putADD, putMUL, putEQ, putGT, putMUX)
+
+/** True if gates putting the same operation as this one can be packed into a single SIMD gate. */
+internal val ABYCircuitGate.isSIMDPackable: Boolean
+    get() = this is ABYOperationGate && circuitType != ABYCircuitType.ARITH && operation in simdOperations
+
 /** Add a conversion gate---if necessary---to match the target circuit type. */
 fun ABYCircuitGate.addConversionGates(target: ABYCircuitType) =
     if (this.circuitType == target) this else ABYConversionGate(this, target)
@@ -151,39 +179,39 @@ fun operatorToCircuit(
     return when {
         operator is Negation ->
             ABYOperationGate(
-                putBinaryOperationGate(Circuit::putSUBGate),
+                putSUB,
                 listOf(ABYConstantGate(0, circuitType), finalArguments[0]),
                 circuitType
             )
 
         operator is Addition ->
-            ABYOperationGate(putBinaryOperationGate(Circuit::putADDGate), finalArguments, circuitType)
+            ABYOperationGate(putADD, finalArguments, circuitType)
 
         operator is Subtraction ->
-            ABYOperationGate(putBinaryOperationGate(Circuit::putSUBGate), finalArguments.reversed(), circuitType)
+            ABYOperationGate(putSUB, finalArguments.reversed(), circuitType)
 
         operator is Multiplication ->
-            ABYOperationGate(putBinaryOperationGate(Circuit::putMULGate), finalArguments, circuitType)
+            ABYOperationGate(putMUL, finalArguments, circuitType)
 
         operator is Minimum && circuitType != ABYCircuitType.ARITH ->
             ABYOperationGate(
-                putBinaryOperationGate { lhs, rhs -> Aby.putMinGate(this, lhs, rhs) },
+                putMIN,
                 listOf(finalArguments[0], finalArguments[1]),
                 circuitType
             )
 
         operator is Maximum && circuitType != ABYCircuitType.ARITH ->
             ABYOperationGate(
-                putBinaryOperationGate { lhs, rhs -> Aby.putMaxGate(this, lhs, rhs) },
+                putMAX,
                 listOf(finalArguments[0], finalArguments[1]),
                 circuitType
             )
 
         operator is Not && circuitType != ABYCircuitType.ARITH ->
-            ABYOperationGate(putUnaryOperationGate(Circuit::putNOTGate), finalArguments, circuitType)
+            ABYOperationGate(putNOT, finalArguments, circuitType)
 
         operator is And && circuitType != ABYCircuitType.ARITH ->
-            ABYOperationGate(putBinaryOperationGate(Circuit::putANDGate), finalArguments, circuitType)
+            ABYOperationGate(putAND, finalArguments, circuitType)
 
         operator is Or && circuitType != ABYCircuitType.ARITH ->
             // a | b = ~(~a & ~b)
@@ -200,12 +228,12 @@ fun operatorToCircuit(
             )
 
         operator is EqualTo && circuitType != ABYCircuitType.ARITH ->
-            ABYOperationGate(putBinaryOperationGate(Circuit::putEQGate), finalArguments, circuitType)
+            ABYOperationGate(putEQ, finalArguments, circuitType)
 
         operator is LessThan && circuitType != ABYCircuitType.ARITH ->
             // x < y <=> y > x
             ABYOperationGate(
-                putBinaryOperationGate(Circuit::putGTGate),
+                putGT,
                 listOf(finalArguments[0], finalArguments[1]),
                 circuitType
             )
@@ -213,7 +241,7 @@ fun operatorToCircuit(
         operator is GreaterThan && circuitType != ABYCircuitType.ARITH ->
             // x < y <=> y > x
             ABYOperationGate(
-                putBinaryOperationGate(Circuit::putGTGate),
+                putGT,
                 listOf(finalArguments[1], finalArguments[0]),
                 circuitType
             )
@@ -224,7 +252,7 @@ fun operatorToCircuit(
                 Not,
                 listOf(
                     ABYOperationGate(
-                        putBinaryOperationGate(Circuit::putGTGate),
+                        putGT,
                         finalArguments.reversed(),
                         circuitType
                     )
@@ -238,7 +266,7 @@ fun operatorToCircuit(
                 Not,
                 listOf(
                     ABYOperationGate(
-                        putBinaryOperationGate(Circuit::putGTGate),
+                        putGT,
                         finalArguments,
                         circuitType
                     )
@@ -248,21 +276,21 @@ fun operatorToCircuit(
 
         operator is Mux && circuitType != ABYCircuitType.ARITH ->
             ABYOperationGate(
-                putTernaryOperationGate(Circuit::putMUXGate),
+                putMUX,
                 listOf(finalArguments[0], finalArguments[2], finalArguments[1]),
                 circuitType
             )
 
         operator is ExclusiveOr && circuitType != ABYCircuitType.ARITH ->
             ABYOperationGate(
-                putBinaryOperationGate(Circuit::putXORGate),
+                putXOR,
                 listOf(finalArguments[0], finalArguments[1]),
                 circuitType
             )
 
         operator is Division && circuitType != ABYCircuitType.ARITH ->
             ABYOperationGate(
-                putBinaryOperationGate { lhs, rhs -> Aby.putInt32DIVGate(this, lhs, rhs) },
+                putDIV,
                 listOf(finalArguments[0], finalArguments[1]),
                 circuitType
             )
@@ -294,3 +322,19 @@ fun Circuit.putNOTGate(input: Share): Share {
     }
     return Aby.createNewShare(UInt32Vector(inverses), this)
 }
+
+/** Packs [shares], which must have the same number of wires, into a single share with SIMD wires. */
+internal fun Circuit.putCombinedShare(shares: List<Share>): Share {
+    val wires: List<UInt32Vector> = shares.map { it.wires }
+    val combined = mutableListOf<Long>()
+    for (i in wires[0].indices) {
+        combined.add(this.putCombinerGate(UInt32Vector(wires.map { it[i] })))
+    }
+    return Aby.createNewShare(UInt32Vector(combined), this)
+}
+
+/** Unpacks a share with SIMD wires into the [count] shares it was combined from. */
+internal fun Circuit.putSplitShares(share: Share, count: Int): List<Share> {
+    val split: List<UInt32Vector> = share.wires.map { wire -> this.putSplitterGate(wire) }
+    return (0 until count).map { i -> Aby.createNewShare(UInt32Vector(split.map { it[i] }), this) }
+}
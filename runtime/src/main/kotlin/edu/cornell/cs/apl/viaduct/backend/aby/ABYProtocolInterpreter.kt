@@ -9,6 +9,7 @@ import de.tu_darmstadt.cs.encrypto.aby.SharingType
 import edu.cornell.cs.apl.viaduct.analysis.ProtocolAnalysis
 import edu.cornell.cs.apl.viaduct.analysis.TypeAnalysis
 import edu.cornell.cs.apl.viaduct.backend.AbstractProtocolInterpreter
+import edu.cornell.cs.apl.viaduct.backend.BatchingProtocolInterpreter
 import edu.cornell.cs.apl.viaduct.backend.HostAddress
 import edu.cornell.cs.apl.viaduct.backend.ObjectLocation
 import edu.cornell.cs.apl.viaduct.backend.ProtocolBackend
@@ -51,6 +52,7 @@ import edu.cornell.cs.apl.viaduct.syntax.intermediate.ReceiveNode
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.SimpleStatementNode
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.UpdateNode
 import edu.cornell.cs.apl.viaduct.syntax.operators.EqualTo
+import edu.cornell.cs.apl.viaduct.syntax.operators.ExclusiveOr
 import edu.cornell.cs.apl.viaduct.syntax.operators.Mux
 import edu.cornell.cs.apl.viaduct.syntax.types.BooleanType
 import edu.cornell.cs.apl.viaduct.syntax.types.IntegerType
@@ -79,7 +81,7 @@ class ABYProtocolInterpreter(
     private val runtime: ViaductRuntime,
     connectionMap: Map<Host, HostAddress>,
     port: Int = DEFAULT_PORT
-) : AbstractProtocolInterpreter<ABYProtocolInterpreter.ABYClassObject>(program) {
+) : AbstractProtocolInterpreter<ABYProtocolInterpreter.ABYClassObject>(program), BatchingProtocolInterpreter {
     override val availableProtocols: Set<Protocol> =
         if (role == Role.SERVER) {
             setOf(ArithABY(host, otherHost), BoolABY(host, otherHost), YaoABY(host, otherHost))
@@ -103,6 +105,13 @@ class ABYProtocolInterpreter(
 
     private val ctTempStoreStack: Stack<PersistentMap<Temporary, Value>> = Stack()
 
+    private val circuitPlanCache: MutableMap<List<Temporary>, MutableList<ABYCircuitPlan>> = mutableMapOf()
+    private var circuitPlanHits: Int = 0
+    private var circuitPlanMisses: Int = 0
+
+    /** Values computed by [prepareRelease] that have not been sent yet. */
+    private val preparedReleases: MutableMap<Temporary, Value?> = mutableMapOf()
+
     private var ctTempStore: PersistentMap<Temporary, Value>
         get() {
             return ctTempStoreStack.peek()
@@ -269,166 +278,69 @@ class ABYProtocolInterpreter(
         }
     }
 
-    private abstract class ScheduleNode
-    private data class CircuitNode(val gate: ABYCircuitGate) : ScheduleNode()
-    private data class ParentMarker(val parent: ABYCircuitGate?) : ScheduleNode()
-
-    /* compute the order in which circuits for variables gates should be generated;
-    *  this has to be done in topological order */
-    private fun computeVariableSchedule(outGate: ABYCircuitGate): List<ABYCircuitGate> {
-        // pre-order traversal of circuit
-        val traverseStack = Stack<ScheduleNode>()
-        traverseStack.push(CircuitNode(outGate))
-
-        val visitedVariables: MutableSet<ABYCircuitGate> = mutableSetOf()
-        var parent: ABYCircuitGate? = null
-        val childrenMap: MutableMap<ABYCircuitGate, MutableSet<ABYCircuitGate>> = mutableMapOf()
-
-        while (traverseStack.isNotEmpty()) {
-            when (val curNode: ScheduleNode = traverseStack.pop()!!) {
-                is CircuitNode -> {
-                    val curGate = curNode.gate
-
-                    // update parent map
-                    if (parent != null && curGate.variableGate) {
-                        childrenMap[parent] =
-                            childrenMap[parent]?.let { it.add(curGate); it } ?: mutableSetOf(curGate)
-                    }
-
-                    if (!visitedVariables.contains(curGate) || !curGate.variableGate) {
-                        if (curGate.variableGate) {
-                            visitedVariables.add(curGate)
-                            traverseStack.push(ParentMarker(parent))
-                            parent = curGate
-                        }
-
-                        for (child: ABYCircuitGate in curGate.children) {
-                            traverseStack.push(CircuitNode(child))
-                        }
-                    }
-                }
-
-                // finished traversal of variable gate subtree; restore previous parent
-                is ParentMarker -> {
-                    parent = curNode.parent
-                }
+    /**
+     * Returns a plan for the circuit computing [letNodes], along with the gates of the
+     * current DAG bound to the steps of the plan.
+     *
+     * Let nodes executed in a loop tend to produce DAGs of the same shape on every iteration,
+     * so plans are cached per let node and reused whenever the shape matches.
+     */
+    private fun circuitPlan(
+        letNodes: List<LetNode>,
+        outputGates: List<ABYCircuitGate>
+    ): Pair<ABYCircuitPlan, List<ABYCircuitGate>> {
+        val cachedPlans: MutableList<ABYCircuitPlan> =
+            circuitPlanCache.getOrPut(letNodes.map { it.temporary.value }) { mutableListOf() }
+
+        for (plan in cachedPlans) {
+            val boundGates = plan.bind(outputGates)
+            if (boundGates != null) {
+                circuitPlanHits++
+                return Pair(plan, boundGates)
             }
         }
 
-        // create toposort from parent map; children go before parents
-        val variablesToProcess: MutableSet<ABYCircuitGate> = visitedVariables.toMutableSet()
-        val variableSchedule: MutableList<ABYCircuitGate> = mutableListOf()
-        while (variableSchedule.size < visitedVariables.size) {
-            // find a variable with no children and add it to the schedule
-            var processedVar: ABYCircuitGate? = null
-            for (v in variablesToProcess) {
-                if (childrenMap[v]?.size ?: 0 == 0) {
-                    variableSchedule.add(v)
-
-                    // remove v's outgoing edges
-                    for (kv in childrenMap) {
-                        kv.value.remove(v)
-                    }
-
-                    processedVar = v
-                    break
-                }
-            }
-
-            assert(processedVar != null)
-            variablesToProcess.remove(processedVar)
+        circuitPlanMisses++
+        val plan = ABYCircuitPlan.build(outputGates)
+        if (cachedPlans.size >= MAX_CACHED_PLANS) {
+            cachedPlans.removeAt(0)
         }
-
-        return variableSchedule
+        cachedPlans.add(plan)
+        return Pair(plan, plan.bind(outputGates)!!)
     }
 
-    private data class VariableShare(val share: Share, val size: Int)
-
-    private fun buildABYCircuit(
-        circuitBuilder: ABYCircuitBuilder,
-        variableShareMap: Map<ABYCircuitGate, VariableShare>,
-        outGate: ABYCircuitGate
-    ): VariableShare {
-        // pre-order traversal of circuit
-        val traverseStack = Stack<ABYCircuitGate>()
-
-        // post-order traversal of circuit
-        val exprStack = Stack<ABYCircuitGate>()
-
-        // actual ABY circuit
-        val shareStack = Stack<Share>()
+    /** The value of [letNode], to be revealed to [receivingHosts]. */
+    private class Release(val letNode: LetNode, val receivingHosts: Set<Host>)
 
-        traverseStack.push(outGate)
-
-        // build post-order traversal
-        while (traverseStack.isNotEmpty()) {
-            val curGate: ABYCircuitGate = traverseStack.pop()!!
-
-            exprStack.push(curGate)
-
-            if (!curGate.variableGate || curGate == outGate) {
-                for (child: ABYCircuitGate in curGate.children) {
-                    traverseStack.push(child)
-                }
-            }
-        }
-
-        val size = exprStack.size
-
-        // "evaluate" stack as a reverse Polish expression by building the ABY circuit
-        while (exprStack.isNotEmpty()) {
-            val curGate: ABYCircuitGate = exprStack.pop()!!
-
-            if (!curGate.variableGate || curGate == outGate) {
-                val numChildren = curGate.children.size
-                val childrenShares: MutableList<Share> = mutableListOf()
-                for (i in 1..numChildren) {
-                    childrenShares.add(shareStack.pop())
-                }
-                val share = curGate.putGate(circuitBuilder, childrenShares)
-                shareStack.push(share)
-            } else { // variable gate should already have been processed; retrieve computed share
-                shareStack.push(variableShareMap[curGate]!!.share)
-            }
-        }
+    private fun outputRole(receivingHosts: Set<Host>): Role {
+        val thisHostReceives = receivingHosts.contains(host)
+        val otherHostReceives = receivingHosts.contains(otherHost)
+        return when {
+            thisHostReceives && !otherHostReceives ->
+                this.role
 
-        assert(shareStack.size == 1)
-        return VariableShare(shareStack.pop(), size)
-    }
+            !thisHostReceives && otherHostReceives ->
+                if (this.role == Role.SERVER) Role.CLIENT else Role.SERVER
 
-    private fun computeVariableCircuitMap(
-        circuitBuilder: ABYCircuitBuilder,
-        outputGate: ABYCircuitGate
-    ): Map<ABYCircuitGate, VariableShare> {
-        val variableCircuitMap: MutableMap<ABYCircuitGate, VariableShare> = mutableMapOf()
-        val variableSchedule = computeVariableSchedule(outputGate)
+            thisHostReceives && otherHostReceives ->
+                Role.ALL
 
-        for (v in variableSchedule) {
-            variableCircuitMap[v] = buildABYCircuit(circuitBuilder, variableCircuitMap, v)
+            else ->
+                throw ViaductInterpreterError("ABY: at least one party must receive output when executing circuit")
         }
-
-        return variableCircuitMap
     }
 
-    private fun executeABYCircuit(letNode: LetNode, receivingHosts: Set<Host>): Value? {
-        val thisHostReceives = receivingHosts.contains(host)
-        val otherHostReceives = receivingHosts.contains(otherHost)
-        val outRole: Role =
-            when {
-                thisHostReceives && !otherHostReceives ->
-                    this.role
-
-                !thisHostReceives && otherHostReceives ->
-                    if (this.role == Role.SERVER) Role.CLIENT else Role.SERVER
-
-                thisHostReceives && otherHostReceives ->
-                    Role.ALL
-
-                else ->
-                    throw ViaductInterpreterError("ABY: at least one party must receive output when executing circuit")
+    /**
+     * Executes a single circuit revealing all of [releases]. Returns the cleartext value of each release,
+     * or null for releases this host does not receive.
+     */
+    private suspend fun executeABYCircuit(releases: List<Release>): List<Value?> {
+        val letNodes: List<LetNode> = releases.map { it.letNode }
+        val outputGates: List<ABYCircuitGate> =
+            letNodes.map { letNode ->
+                ssTempStore[letNode.temporary.value] ?: throw UndefinedNameError(letNode.temporary)
             }
-
-        val outputGate = ssTempStore[letNode.temporary.value] ?: throw UndefinedNameError(letNode.temporary)
+        val outRoles: List<Role> = releases.map { release -> outputRole(release.receivingHosts) }
 
         aby.reset()
 
@@ -441,20 +353,39 @@ class ABYProtocolInterpreter(
                 role = role
             )
 
-        val variableCircuitMap: Map<ABYCircuitGate, VariableShare> =
-            computeVariableCircuitMap(circuitBuilder, outputGate)
-        val outputShare: VariableShare = buildABYCircuit(circuitBuilder, variableCircuitMap, outputGate)
-        val clearOutputShare = circuitBuilder.circuit(outputGate.circuitType).putOUTGate(outputShare.share, outRole)
+        val plan: ABYCircuitPlan
+        val boundGates: List<ABYCircuitGate>
+        val planDuration = measureTimeMillis {
+            val planAndGates = circuitPlan(letNodes, outputGates)
+            plan = planAndGates.first
+            boundGates = planAndGates.second
+        }
+
+        val outputShares: List<Share>
+        val gateDuration = measureTimeMillis { outputShares = plan.putGates(circuitBuilder, boundGates, simdGates) }
+        val clearOutputShares: List<Share> =
+            outputGates.indices.map { i ->
+                circuitBuilder.circuit(outputGates[i].circuitType).putOUTGate(outputShares[i], outRoles[i])
+            }
 
+        val simdSummary: String =
+            if (simdGates) " (${plan.packedStepCount} gates packed into ${plan.simdGateCount} SIMD gates)" else ""
         logger.info {
-            val circuitSize = variableCircuitMap.values.fold(outputShare.size) { acc, v -> acc + v.size }
-            "circuit size: $circuitSize"
+            "circuit size: ${plan.size}$simdSummary\n" +
+                "circuit construction time: ${planDuration}ms " +
+                "(plan cache hits/misses: $circuitPlanHits / $circuitPlanMisses)\n" +
+                "gate setup time: ${gateDuration}ms"
         }
 
+        // outputs come from the other party over ABY's own connection
+        if (releases.any { it.receivingHosts.contains(host) }) {
+            runtime.beforeRemoteReceive()
+        }
         val execDuration = measureTimeMillis { aby.execCircuit() }
 
         logger.info {
-            "executed ABY circuit in ${execDuration}ms, sent output to $outRole\n" +
+            "executed ABY circuit in ${execDuration}ms, " +
+                "released ${releases.size} output(s) to ${outRoles.joinToString(", ")}\n" +
                 "total gates: ${aby.totalGates}\n" +
                 "total depth: ${aby.totalDepth}\n" +
                 "total time: ${aby.getTiming(Phase.P_TOTAL)}\n" +
@@ -466,16 +397,30 @@ class ABYProtocolInterpreter(
                 "online sent/recv: ${aby.getSentData(Phase.P_ONLINE)} / ${aby.getReceivedData(Phase.P_ONLINE)}\n"
         }
 
-        return if (thisHostReceives) {
-            val result: Int = clearOutputShare.clearValue32.toInt()
-            when (val msgType: ValueType = typeAnalysis.type(letNode)) {
-                is BooleanType -> BooleanValue(result != 0)
+        return releases.indices.map { i ->
+            if (releases[i].receivingHosts.contains(host)) {
+                val result: Int = clearOutputShares[i].clearValue32.toInt()
+                when (val msgType: ValueType = typeAnalysis.type(releases[i].letNode)) {
+                    is BooleanType -> BooleanValue(result != 0)
 
-                is IntegerType -> IntegerValue(result)
+                    is IntegerType -> IntegerValue(result)
 
-                else -> throw Exception("unknown type $msgType")
-            }
-        } else null
+                    else -> throw Exception("unknown type $msgType")
+                }
+            } else null
+        }
+    }
+
+    override suspend fun prepareRelease(senders: List<Pair<LetNode, ProtocolCommunication>>) {
+        if (!batchReleases || senders.size < 2) {
+            return
+        }
+
+        val releases: List<Release> =
+            senders.map { (letNode, events) -> Release(letNode, events.map { event -> event.recv.host }.toSet()) }
+        for ((release, value) in releases.zip(executeABYCircuit(releases))) {
+            preparedReleases[release.letNode.temporary.value] = value
+        }
     }
 
     override suspend fun runGuard(protocol: Protocol, expr: AtomicExpressionNode): Value {
@@ -513,8 +458,14 @@ class ABYProtocolInterpreter(
         events: ProtocolCommunication
     ) {
         if (!availableProtocols.contains(recvProtocol)) {
-            val receivingHosts = events.map { event -> event.recv.host }.toSet()
-            val outValue = executeABYCircuit(sender, receivingHosts)
+            val temporary: Temporary = sender.temporary.value
+            val outValue: Value? =
+                if (preparedReleases.containsKey(temporary)) {
+                    preparedReleases.remove(temporary)
+                } else {
+                    val receivingHosts = events.map { event -> event.recv.host }.toSet()
+                    executeABYCircuit(listOf(Release(sender, receivingHosts))).first()
+                }
 
             if (outValue != null) {
                 val hostEvents =
@@ -599,10 +550,6 @@ class ABYProtocolInterpreter(
     }
 
     class ABYImmutableCellObject(private var gate: ABYCircuitGate) : ABYClassObject() {
-        init {
-            gate.variableGate = true
-        }
-
         override fun query(
             circuitType: ABYCircuitType,
             query: QueryNameNode,
@@ -627,10 +574,6 @@ class ABYProtocolInterpreter(
     }
 
     inner class ABYMutableCellObject(private var gate: ABYCircuitGate) : ABYClassObject() {
-        init {
-            gate.variableGate = true
-        }
-
         override fun query(
             circuitType: ABYCircuitType,
             query: QueryNameNode,
@@ -663,8 +606,6 @@ class ABYProtocolInterpreter(
                 else ->
                     throw ViaductInterpreterError("ABY: unknown update for mutable cell", update)
             }
-
-            gate.variableGate = true
         }
     }
 
@@ -692,27 +633,25 @@ class ABYProtocolInterpreter(
 
                         // secret indexing requires muxing the entire array
                         is ABYSecretValue -> {
-                            // return 0 in case of indexing error
-                            var currentShare: ABYCircuitGate = ABYConstantGate(0, circuitType)
-                            for (i in size - 1 downTo 0) {
-                                val guard: ABYCircuitGate =
-                                    operatorToCircuit(
-                                        EqualTo,
-                                        listOf(indexValue.value, ABYConstantGate(i, circuitType)),
-                                        circuitType
-                                    )
+                            // at most one guard holds, so every other element is masked to 0;
+                            // this also returns 0 in case of indexing error
+                            val maskedElements: List<ABYCircuitGate> =
+                                (0 until size).map { i ->
+                                    val guard: ABYCircuitGate =
+                                        operatorToCircuit(
+                                            EqualTo,
+                                            listOf(indexValue.value, ABYConstantGate(i, circuitType)),
+                                            circuitType
+                                        )
 
-                                val mux: ABYCircuitGate =
                                     operatorToCircuit(
                                         Mux,
-                                        listOf(guard, gates[i], currentShare),
+                                        listOf(guard, gates[i], ABYConstantGate(0, circuitType)),
                                         circuitType
                                     )
+                                }
 
-                                currentShare = mux
-                            }
-
-                            currentShare
+                            combineMaskedElements(circuitType, maskedElements)
                         }
                     }
                 }
@@ -721,6 +660,35 @@ class ABYProtocolInterpreter(
             }
         }
 
+        /**
+         * Combines elements of which all but at most one are 0.
+         *
+         * The elements are combined with XOR, which is free in Boolean and Yao sharing,
+         * in a balanced tree so the depth of the circuit is logarithmic in the vector size
+         * instead of linear.
+         */
+        private fun combineMaskedElements(
+            circuitType: ABYCircuitType,
+            elements: List<ABYCircuitGate>
+        ): ABYCircuitGate {
+            if (elements.isEmpty()) {
+                return ABYConstantGate(0, circuitType)
+            }
+
+            var level: List<ABYCircuitGate> = elements
+            while (level.size > 1) {
+                level =
+                    level.chunked(2) { pair ->
+                        if (pair.size == 1) {
+                            pair[0]
+                        } else {
+                            operatorToCircuit(ExclusiveOr, pair, circuitType)
+                        }
+                    }
+            }
+            return level[0]
+        }
+
         override fun update(
             circuitType: ABYCircuitType,
             update: UpdateNameNode,
@@ -745,8 +713,6 @@ class ABYProtocolInterpreter(
 
                         else -> throw ViaductInterpreterError("ABY: unknown update ${update.value} for vector", update)
                     }
-
-                    gates[intIndex].variableGate = true
                 }
 
                 // mux all array values
@@ -785,7 +751,6 @@ class ABYProtocolInterpreter(
                             )
 
                         gates[i] = mux
-                        gates[i].variableGate = true
                     }
                 }
             }
@@ -814,8 +779,17 @@ class ABYProtocolInterpreter(
         private const val DEFAULT_PORT = 7766
         private const val BITLEN: Long = 32
 
+        /** Maximum number of circuit shapes remembered for each let node. */
+        private const val MAX_CACHED_PLANS: Int = 4
+
         var port: Int = DEFAULT_PORT
 
+        /** Reveal the values of consecutive let nodes with a single circuit execution. */
+        var batchReleases: Boolean = true
+
+        /** Pack independent element-wise gates of the same operation into SIMD gates. */
+        var simdGates: Boolean = true
+
         private val protocolCircuitType: Map<ProtocolName, ABYCircuitType> =
             mapOf(
                 ArithABY.protocolName to ABYCircuitType.ARITH,
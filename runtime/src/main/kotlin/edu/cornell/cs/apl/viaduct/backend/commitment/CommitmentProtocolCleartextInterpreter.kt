@@ -293,7 +293,11 @@ class CommitmentProtocolCleartextInterpreter(
     }
 
     object HashedNullObject : HashedObject() {
-        val hashed: Hashed<Value> = Hashed(IntegerValue(0), Hashing.generateHash(IntegerValue(0)))
+        /**
+         * Commitment to the initial value of vector elements.
+         * Hash replicas compute the same commitment themselves, so it must be deterministic.
+         */
+        val hashed: Hashed<Value> = Hashed(IntegerValue(0), Hashing.deterministicHash(IntegerValue(0)))
 
         override fun query(query: QueryNameNode, arguments: List<AtomicExpressionNode>): Hashed<Value> {
             throw ViaductInterpreterError("Commitment: unknown query for null object", query)
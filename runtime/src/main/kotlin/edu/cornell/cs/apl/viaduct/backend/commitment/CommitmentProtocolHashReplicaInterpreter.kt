@@ -59,12 +59,13 @@ class CommitmentProtocolHashReplicaInterpreter(
         setOf(runtime.projection.protocol)
 
     private val cleartextHost: Host = (runtime.projection.protocol as Commitment).cleartextHost
+    /** Must match [CommitmentProtocolCleartextInterpreter.HashedNullObject]. */
     private val nullObject = CommitmentCell(Hashing.deterministicHash(IntegerValue(0)).hash)
 
-    private val hashTempStoreStack: Stack<PersistentMap<Temporary, List<Byte>>> = Stack()
+    private val hashTempStoreStack: Stack<PersistentMap<Temporary, ByteArray>> = Stack()
     private val ctTempStoreStack: Stack<PersistentMap<Temporary, Value>> = Stack()
 
-    private var hashTempStore: PersistentMap<Temporary, List<Byte>>
+    private var hashTempStore: PersistentMap<Temporary, ByteArray>
         get() {
             return hashTempStoreStack.peek()
         }
@@ -92,7 +93,7 @@ class CommitmentProtocolHashReplicaInterpreter(
 
     private fun pushContext(
         newObjectStore: PersistentMap<ObjectVariable, ObjectLocation>,
-        newHashTempStore: PersistentMap<Temporary, List<Byte>>,
+        newHashTempStore: PersistentMap<Temporary, ByteArray>,
         newCtTempStore: PersistentMap<Temporary, Value>
     ) {
         objectStoreStack.push(newObjectStore)
@@ -140,7 +141,7 @@ class CommitmentProtocolHashReplicaInterpreter(
         return nullObject
     }
 
-    fun runRead(read: ReadNode): List<Byte> =
+    fun runRead(read: ReadNode): ByteArray =
         hashTempStore[read.temporary.value]
             ?: throw ViaductInterpreterError(
                 "${runtime.projection.protocol.asDocument.print()}:" +
@@ -153,7 +154,7 @@ class CommitmentProtocolHashReplicaInterpreter(
             is ReadNode -> ctTempStore[expr.temporary.value]!!
         }
 
-    private fun runExpr(expr: ExpressionNode): List<Byte> =
+    private fun runExpr(expr: ExpressionNode): ByteArray =
         when (expr) {
             is LiteralNode -> throw ViaductInterpreterError("Commitment: Cannot commit literals")
 
@@ -249,15 +250,15 @@ class CommitmentProtocolHashReplicaInterpreter(
     }
 
     abstract class CommitmentObject() {
-        abstract fun query(query: QueryNameNode, arguments: List<AtomicExpressionNode>): List<Byte>
+        abstract fun query(query: QueryNameNode, arguments: List<AtomicExpressionNode>): ByteArray
         abstract fun update(update: UpdateNameNode, arguments: List<AtomicExpressionNode>)
     }
 
-    inner class CommitmentCell(var bytes: List<Byte>) : CommitmentObject() {
+    inner class CommitmentCell(var bytes: ByteArray) : CommitmentObject() {
         override fun query(
             query: QueryNameNode,
             @Suppress("UNUSED_PARAMETER") arguments: List<AtomicExpressionNode>
-        ): List<Byte> {
+        ): ByteArray {
             return when (query.value) {
                 is Get -> bytes
 
@@ -278,8 +279,8 @@ class CommitmentProtocolHashReplicaInterpreter(
         }
     }
 
-    inner class CommitmentVector(val size: Int, defaultValue: List<Byte>) : CommitmentObject() {
-        private val commitments: ArrayList<List<Byte>> = ArrayList(size)
+    inner class CommitmentVector(val size: Int, defaultValue: ByteArray) : CommitmentObject() {
+        private val commitments: ArrayList<ByteArray> = ArrayList(size)
 
         init {
             for (i: Int in 0 until size) {
@@ -287,7 +288,7 @@ class CommitmentProtocolHashReplicaInterpreter(
             }
         }
 
-        override fun query(query: QueryNameNode, arguments: List<AtomicExpressionNode>): List<Byte> {
+        override fun query(query: QueryNameNode, arguments: List<AtomicExpressionNode>): ByteArray {
             return when (query.value) {
                 is Get -> {
                     val index = (runCleartextExpr(arguments[0]) as IntegerValue).value
@@ -11,69 +11,148 @@ import edu.cornell.cs.apl.viaduct.syntax.values.IntegerValue
 import edu.cornell.cs.apl.viaduct.syntax.values.StringValue
 import edu.cornell.cs.apl.viaduct.syntax.values.UnitValue
 import edu.cornell.cs.apl.viaduct.syntax.values.Value
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
 import java.security.MessageDigest
 import java.security.SecureRandom
 
-data class HashInfo(val hash: List<Byte>, val nonce: List<Byte>) {
-    fun verify(data: List<Byte>): Boolean {
-        return (
-            MessageDigest.getInstance("SHA-256").digest(nonce.toByteArray() + data.toByteArray()).toList()
-                ==
-                hash
-            )
-    }
+/** A SHA-256 commitment [hash] to some data, opened by revealing the data and [nonce]. */
+class HashInfo(val hash: ByteArray, val nonce: ByteArray) {
+    fun verify(data: ByteArray): Boolean =
+        MessageDigest.isEqual(Hashing.digest(nonce) { it.write(data) }, hash)
+
+    fun verify(v: Value): Boolean =
+        MessageDigest.isEqual(Hashing.digest(nonce) { v.encode(it) }, hash)
+
+    override fun equals(other: Any?): Boolean =
+        other is HashInfo && hash.contentEquals(other.hash) && nonce.contentEquals(other.nonce)
+
+    override fun hashCode(): Int = 31 * hash.contentHashCode() + nonce.contentHashCode()
 }
 
 fun Boolean.toByte(): Byte = if (this) 1 else 0
 
-fun Value.encode(): List<Byte> {
-    return when (this) {
-        is IntegerValue -> this.value.toBigInteger().toByteArray().toList()
-        is BooleanValue -> listOf(this.value.toByte())
-        is ByteVecValue -> this.value
-        is UnitValue -> listOf()
-        is StringValue -> this.value.toByteArray().toList()
+/** Writes the encoding of [this] value to [out]. */
+fun Value.encode(out: OutputStream) {
+    when (this) {
+        // minimal big-endian two's complement, as in [java.math.BigInteger.toByteArray]
+        is IntegerValue -> {
+            val width = encodedSize()
+            for (i in width - 1 downTo 0) {
+                out.write(this.value shr (8 * i))
+            }
+        }
+        is BooleanValue -> out.write(this.value.toByte().toInt())
+        is ByteVecValue -> out.write(this.value)
+        is UnitValue -> {}
+        is StringValue -> out.write(this.value.toByteArray())
+        else -> throw Error("Unknown value!")
+    }
+}
+
+fun Value.encode(): ByteArray =
+    ByteArrayOutputStream(encodedSize()).also { this.encode(it) }.toByteArray()
+
+/** Number of bytes written by [encode]. */
+private fun Value.encodedSize(): Int =
+    when (this) {
+        is IntegerValue -> {
+            val magnitude = if (this.value < 0) this.value.inv() else this.value
+            (Int.SIZE_BITS - Integer.numberOfLeadingZeros(magnitude)) / 8 + 1
+        }
+        is BooleanValue -> 1
+        is ByteVecValue -> this.value.size
+        is UnitValue -> 0
+        is StringValue -> this.value.toByteArray().size
         else -> throw Error("Unknown value!")
     }
+
+/**
+ * Writes the encoding of [this] object to [out].
+ *
+ * Vectors are encoded as their size followed by their elements, each prefixed with its length.
+ * Integers are encoded with a variable number of bytes, so without the prefixes vectors
+ * with different elements could have the same encoding.
+ */
+fun PlaintextClassObject.encode(out: OutputStream) {
+    when (this) {
+        is ImmutableCellObject -> this.value.encode(out)
+        is MutableCellObject -> this.value.encode(out)
+        is VectorObject -> {
+            out.writeInt(this.size)
+            for (element in this.values) {
+                out.writeInt(element.encodedSize())
+                element.encode(out)
+            }
+        }
+        is NullObject -> {}
+    }
 }
 
-fun PlaintextClassObject.encode(): List<Byte> {
-    return when (this) {
-        is ImmutableCellObject -> this.value.encode()
-        is MutableCellObject -> this.value.encode()
-        is VectorObject -> TODO("Vector encoding")
-        is NullObject -> listOf()
+fun PlaintextClassObject.encode(): ByteArray =
+    ByteArrayOutputStream().also { this.encode(it) }.toByteArray()
+
+private fun OutputStream.writeInt(v: Int) {
+    for (i in Int.SIZE_BYTES - 1 downTo 0) {
+        this.write(v shr (8 * i))
     }
 }
 
-fun genNonce(width: Int): List<Byte> {
+fun genNonce(width: Int): ByteArray {
     val nonce = ByteArray(width)
-    SecureRandom().nextBytes(nonce)
-    return nonce.toList()
+    Hashing.random.nextBytes(nonce)
+    return nonce
 }
 
 object Hashing {
-    private fun generateHash(data: List<Byte>): HashInfo {
-        val nonce = ByteArray(16)
-        SecureRandom().nextBytes(nonce)
-        return HashInfo(
-            MessageDigest.getInstance("SHA-256").digest(nonce + data.toByteArray()).toList(),
-            nonce.toList()
-        )
+    private const val NONCE_WIDTH: Int = 16
+
+    private val NO_NONCE: ByteArray = ByteArray(0)
+
+    /** Shared source of nonces; [SecureRandom] is thread safe. */
+    internal val random: SecureRandom = SecureRandom()
+
+    /** Feeds written bytes into a SHA-256 digest, so encodings are hashed without being buffered. */
+    private class DigestStream : OutputStream() {
+        val digest: MessageDigest = MessageDigest.getInstance("SHA-256")
+
+        override fun write(b: Int) {
+            digest.update(b.toByte())
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            digest.update(b, off, len)
+        }
+    }
+
+    private val digestStreams: ThreadLocal<DigestStream> = ThreadLocal.withInitial { DigestStream() }
+
+    /** Hashes [nonce] followed by the bytes [write] outputs, using this thread's digest. */
+    internal fun digest(nonce: ByteArray, write: (OutputStream) -> Unit): ByteArray {
+        val stream = digestStreams.get()
+        // discard input left over if a previous write failed
+        stream.digest.reset()
+        stream.digest.update(nonce)
+        write(stream)
+        return stream.digest.digest()
+    }
+
+    private fun commit(write: (OutputStream) -> Unit): HashInfo {
+        val nonce = genNonce(NONCE_WIDTH)
+        return HashInfo(digest(nonce, write), nonce)
     }
 
-    fun generateHash(v: Value): HashInfo = generateHash(v.encode())
+    fun generateHash(data: ByteArray): HashInfo = commit { it.write(data) }
+
+    fun generateHash(v: Value): HashInfo = commit { v.encode(it) }
 
-    fun generateHash(c: PlaintextClassObject): HashInfo = generateHash(c.encode())
+    fun generateHash(c: PlaintextClassObject): HashInfo = commit { c.encode(it) }
 
     /** Deterministic hash for storing literals. **/
 
-    fun deterministicHash(data: List<Byte>): HashInfo {
-        return HashInfo(
-            MessageDigest.getInstance("SHA-256").digest(data.toByteArray()).toList(),
-            listOf()
-        )
-    }
+    fun deterministicHash(data: ByteArray): HashInfo =
+        HashInfo(digest(NO_NONCE) { it.write(data) }, NO_NONCE)
 
-    fun deterministicHash(v: Value): HashInfo = deterministicHash(v.encode())
+    fun deterministicHash(v: Value): HashInfo =
+        HashInfo(digest(NO_NONCE) { v.encode(it) }, NO_NONCE)
 }
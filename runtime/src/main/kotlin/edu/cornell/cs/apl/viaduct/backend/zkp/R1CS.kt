@@ -5,8 +5,9 @@ import edu.cornell.cs.apl.viaduct.backend.WireDummyIn
 import edu.cornell.cs.apl.viaduct.backend.WireIn
 import edu.cornell.cs.apl.viaduct.backend.WireOp
 import edu.cornell.cs.apl.viaduct.backend.WireTerm
+import edu.cornell.cs.apl.viaduct.backend.postOrder
+import edu.cornell.cs.apl.viaduct.backend.treeSize
 import edu.cornell.cs.apl.viaduct.libsnarkwrapper.ByteBuf
-import edu.cornell.cs.apl.viaduct.libsnarkwrapper.Keypair
 import edu.cornell.cs.apl.viaduct.libsnarkwrapper.R1CSInstance
 import edu.cornell.cs.apl.viaduct.libsnarkwrapper.Var
 import edu.cornell.cs.apl.viaduct.libsnarkwrapper.VarArray
@@ -21,6 +22,8 @@ import edu.cornell.cs.apl.viaduct.syntax.operators.Multiplication
 import edu.cornell.cs.apl.viaduct.syntax.operators.Mux
 import edu.cornell.cs.apl.viaduct.syntax.operators.Not
 import edu.cornell.cs.apl.viaduct.syntax.operators.Or
+import java.io.File
+import java.nio.ByteBuffer
 import mu.KotlinLogging
 
 private val logger = KotlinLogging.logger("ZKP Generator")
@@ -34,118 +37,182 @@ class ZKPInit {
     }
 }
 
-// Assumes libsnarkwrapper has been initialized, and initZKP has been called already
-class R1CS(val isProver: Boolean, val wire: WireTerm, val is_eq_to: Long) {
+/**
+ * A constraint system asserting that each wire in [wires] equals the corresponding public value
+ * in [is_eq_to], so a single proof covers all of them.
+ *
+ * The constraint system only depends on the shape of [wires], so it can be reused for other
+ * wires with the same [wireName][edu.cornell.cs.apl.viaduct.backend.wireName] by calling [assign].
+ *
+ * Assumes libsnarkwrapper has been initialized, and initZKP has been called already.
+ */
+class R1CS(val isProver: Boolean, wires: List<WireTerm>, is_eq_to: List<Long>) {
 
-    val primaryInputs: MutableMap<Int, Var> = mutableMapOf()
-    val auxInputs: MutableMap<Int, Var> = mutableMapOf()
+    /** Variables holding the values of wire nodes, indexed by node id. */
+    private val values: MutableMap<Int, Var> = mutableMapOf()
+
+    /** Ids of the nodes this constraint system was built for, in post-order. */
+    private val nodeIds: List<Int>
     val auxInputHashes: MutableMap<Int, VarArray> = mutableMapOf()
     val auxInputNonces: MutableMap<Int, VarArray> = mutableMapOf()
-    var output: Var? = null
+    var outputs: List<Var>? = null
 
     val r1cs: R1CSInstance = R1CSInstance()
 
     init {
         r1cs.isProver = isProver
-        output = r1cs.mkPublicVal(is_eq_to)
-        wire.populatePrimaryInputs()
-        wire.setupAuxInputs()
-        val o = wire.value()
-        r1cs.AddEquality(o, output!!)
+        assert(wires.size == is_eq_to.size)
+        outputs = is_eq_to.map { r1cs.mkPublicVal(it) }
+
+        // every node is added to the constraint system once, no matter how often it is used
+        val nodes: List<WireTerm> = wires.postOrder()
+        nodeIds = nodes.map { it.id }
+        nodes.forEach { it.populatePrimaryInputs() }
+        nodes.forEach { it.setupAuxInputs() }
+        nodes.forEach { node -> if (node is WireOp) values[node.id] = node.value() }
+        for ((wire, output) in wires.zip(outputs!!)) {
+            r1cs.AddEquality(values[wire.id]!!, output)
+        }
+
+        logger.info {
+            "constraint system for ${wires.size} output(s) has ${nodes.size} wire nodes " +
+                "(${wires.sumOf { it.treeSize() }} as trees) and ${r1cs.numConstraints()} constraints"
+        }
+    }
+
+    /**
+     * Replaces the inputs and outputs of this constraint system with those of [wires], which must
+     * have the same shape as the wires it was built for, and regenerates the prover's witness.
+     * Nodes are matched by their position in post-order, which only depends on the shape.
+     */
+    fun assign(wires: List<WireTerm>, is_eq_to: List<Long>) {
+        assert(wires.size == is_eq_to.size)
+        for ((output, value) in outputs!!.zip(is_eq_to)) {
+            r1cs.setPublicVal(output, value)
+        }
+
+        val nodes: List<WireTerm> = wires.postOrder()
+        assert(nodes.size == nodeIds.size)
+        for ((id, node) in nodeIds.zip(nodes)) {
+            when (node) {
+                is WireOp -> {
+                }
+                is WireIn -> {
+                    assert(isProver)
+                    r1cs.setPublicBitvec(auxInputHashes[id]!!, mkByteBuf(node.hash))
+                    r1cs.setPublicBitvec(auxInputNonces[id]!!, mkByteBuf(node.nonce))
+                    r1cs.setPrivateVal(values[id]!!, node.v.toLong())
+                }
+                is WireDummyIn -> {
+                    assert(!isProver)
+                    r1cs.setPublicBitvec(auxInputHashes[id]!!, mkByteBuf(node.hash))
+                    r1cs.setPublicBitvec(auxInputNonces[id]!!, mkByteBuf(node.nonce))
+                }
+                is WireConst -> {
+                    r1cs.setPublicVal(values[id]!!, node.v.toLong())
+                }
+            }
+        }
+
+        // the verifier only checks public values, so it has no witness to compute
+        if (isProver) {
+            r1cs.generateWitness()
+        }
     }
 
     fun WireTerm.populatePrimaryInputs() {
         when (this) {
-            is WireOp ->
-                this.inputs.map { it.populatePrimaryInputs() }
+            is WireOp -> {
+            }
             is WireIn -> {
-                if (!auxInputHashes.containsKey(this.index)) {
-                    auxInputHashes[this.index] = r1cs.mkPublicBitvec(mkByteBuf(this.hash.toByteArray()))
-                }
-                if (!auxInputNonces.containsKey(this.index)) {
-                    auxInputNonces[this.index] = r1cs.mkPublicBitvec(mkByteBuf(this.nonce.toByteArray()))
-                }
+                auxInputHashes[this.id] = r1cs.mkPublicBitvec(mkByteBuf(this.hash))
+                auxInputNonces[this.id] = r1cs.mkPublicBitvec(mkByteBuf(this.nonce))
             }
             is WireDummyIn -> {
-                if (!auxInputHashes.containsKey(this.index)) {
-                    auxInputHashes[this.index] = r1cs.mkPublicBitvec(mkByteBuf(this.hash.toByteArray()))
-                }
-                if (!auxInputNonces.containsKey(this.index)) {
-                    auxInputNonces[this.index] = r1cs.mkPublicBitvec(mkByteBuf(this.nonce.toByteArray()))
-                }
+                auxInputHashes[this.id] = r1cs.mkPublicBitvec(mkByteBuf(this.hash))
+                auxInputNonces[this.id] = r1cs.mkPublicBitvec(mkByteBuf(this.nonce))
             }
             is WireConst -> {
-                if (!primaryInputs.containsKey(this.index)) {
-                    primaryInputs[this.index] = r1cs.mkPublicVal(this.v.toLong())
-                }
+                values[this.id] = r1cs.mkPublicVal(this.v.toLong())
             }
         }
     }
 
     fun WireTerm.setupAuxInputs() {
         when (this) {
-            is WireOp -> this.inputs.map { it.setupAuxInputs() }
+            is WireOp -> {
+            }
             is WireIn -> {
                 assert(isProver)
-                if (!auxInputs.containsKey(this.index)) {
-                    auxInputs[this.index] = r1cs.mkPrivateValProver(
-                        this.v.toLong(),
-                        auxInputHashes[this.index]!!,
-                        auxInputNonces[this.index]!!
-                    )
-                }
+                values[this.id] = r1cs.mkPrivateValProver(
+                    this.v.toLong(),
+                    auxInputHashes[this.id]!!,
+                    auxInputNonces[this.id]!!
+                )
             }
             is WireDummyIn -> {
                 assert(!isProver)
-                if (!auxInputs.containsKey(this.index)) {
-                    auxInputs[this.index] = r1cs.mkPrivateValVerifier(
-                        auxInputHashes[this.index]!!,
-                        auxInputNonces[this.index]!!
-                    )
-                }
+                values[this.id] = r1cs.mkPrivateValVerifier(
+                    auxInputHashes[this.id]!!,
+                    auxInputNonces[this.id]!!
+                )
             }
             is WireConst -> {
             }
         }
     }
 
-    fun WireTerm.value(): Var {
-        return when (this) {
-            is WireOp ->
-                when (this.op) {
-                    is Not -> r1cs.mkNot(this.inputs[0].value())
-                    is And -> r1cs.mkAnd(inputs[0].value(), inputs[1].value())
-                    is Or -> r1cs.mkOr(inputs[0].value(), inputs[1].value())
-                    is Mux -> r1cs.mkMux(inputs[0].value(), inputs[1].value(), inputs[2].value())
-                    is Multiplication -> r1cs.mkMult(inputs[0].value(), inputs[1].value())
-                    is Addition -> r1cs.mkAdd(inputs[0].value(), inputs[1].value())
-                    is EqualTo -> r1cs.mkEqualTo(inputs[0].value(), inputs[1].value())
-                    is LessThan -> r1cs.mkLessThan(inputs[0].value(), inputs[1].value())
-                    is LessThanOrEqualTo -> r1cs.mkLE(inputs[0].value(), inputs[1].value())
-                    else -> throw java.lang.Exception("Unsupported op: $this")
-                }
-
-            is WireIn -> auxInputs[this.index]!!
-            is WireDummyIn -> auxInputs[this.index]!!
-            is WireConst -> primaryInputs[this.index]!!
+    /** Adds the constraints for this operation, whose inputs must already have variables. */
+    fun WireOp.value(): Var {
+        val inputs: List<Var> = this.inputs.map { values[it.id]!! }
+        return when (this.op) {
+            is Not -> r1cs.mkNot(inputs[0])
+            is And -> r1cs.mkAnd(inputs[0], inputs[1])
+            is Or -> r1cs.mkOr(inputs[0], inputs[1])
+            is Mux -> r1cs.mkMux(inputs[0], inputs[1], inputs[2])
+            is Multiplication -> r1cs.mkMult(inputs[0], inputs[1])
+            is Addition -> r1cs.mkAdd(inputs[0], inputs[1])
+            is EqualTo -> r1cs.mkEqualTo(inputs[0], inputs[1])
+            is LessThan -> r1cs.mkLessThan(inputs[0], inputs[1])
+            is LessThanOrEqualTo -> r1cs.mkLE(inputs[0], inputs[1])
+            else -> throw java.lang.Exception("Unsupported op: $this")
         }
     }
 
-    fun makeProof(pk: ByteBuf): ByteBuf {
-        assert(output != null)
-        return r1cs.generateProof(pk)
+    /** Proves this constraint system using the proving key in the remaining bytes of [pk]. */
+    fun makeProof(pk: ByteBuffer): ByteBuf {
+        assert(outputs != null)
+        return r1cs.generateProofDirect(pk.asDirectBuffer())
     }
 
-    fun verifyProof(vk: ByteBuf, pf: ByteBuf): Boolean {
-        assert(output != null)
-        return r1cs.verifyProof(vk, pf)
+    fun verifyProof(vk: ByteBuffer, pf: ByteBuffer): Boolean {
+        assert(outputs != null)
+        return r1cs.verifyProofDirect(vk.asDirectBuffer(), pf.asDirectBuffer())
     }
 
-    fun genKeypair(): Keypair {
-        assert(output != null)
-        return r1cs.genKeypair()
+    /** Generates a key pair for this constraint system, and writes the keys to the given files. */
+    fun genKeypair(provingKeyFile: File, verificationKeyFile: File) {
+        assert(outputs != null)
+        r1cs.genKeypairToFiles(provingKeyFile.path, verificationKeyFile.path)
     }
 }
 
+/**
+ * Returns [this] buffer if it is direct, like a memory mapped file, or a direct copy otherwise.
+ * libsnarkwrapper reads direct buffers in place.
+ */
+fun ByteBuffer.asDirectBuffer(): ByteBuffer =
+    if (this.isDirect) {
+        this
+    } else {
+        val copy = ByteBuffer.allocateDirect(this.remaining())
+        copy.put(this.duplicate())
+        copy.flip()
+        copy
+    }
+
 fun WireTerm.toR1CS(isProver: Boolean, is_eq_to: Int): R1CS =
-    R1CS(isProver, this, is_eq_to.toLong())
+    listOf(this).toR1CS(isProver, listOf(is_eq_to))
+
+fun List<WireTerm>.toR1CS(isProver: Boolean, is_eq_to: List<Int>): R1CS =
+    R1CS(isProver, this, is_eq_to.map { it.toLong() })
@@ -0,0 +1,77 @@
+package edu.cornell.cs.apl.viaduct.backend.zkp
+
+import edu.cornell.cs.apl.viaduct.backend.WireTerm
+import mu.KotlinLogging
+
+private val logger = KotlinLogging.logger("ZKP Constraint Cache")
+
+/**
+ * Constraint systems built for earlier proofs, indexed by the
+ * [wireName][edu.cornell.cs.apl.viaduct.backend.wireName] of their circuit.
+ *
+ * Building a constraint system adds every gadget of the circuit, which dominates the cost of
+ * proving small circuits that are proven repeatedly, like the body of a loop. A cached constraint
+ * system is instead [assigned][R1CS.assign] the inputs and outputs of the new wires, which only
+ * regenerates the witness.
+ *
+ * Each constraint system is used by one proof at a time, so proofs running concurrently on circuits
+ * of the same shape get different instances. Idle instances of the [capacity] most recently used
+ * circuits are kept.
+ */
+class R1CSCache(private val capacity: Int = DEFAULT_CAPACITY) {
+    companion object {
+        const val DEFAULT_CAPACITY: Int = 64
+    }
+
+    /** Idle constraint systems, indexed by circuit name and role, from least to most recently used. */
+    private val idle: LinkedHashMap<Pair<String, Boolean>, MutableList<R1CS>> =
+        object : LinkedHashMap<Pair<String, Boolean>, MutableList<R1CS>>(16, 0.75f, true) {
+            override fun removeEldestEntry(
+                eldest: MutableMap.MutableEntry<Pair<String, Boolean>, MutableList<R1CS>>
+            ): Boolean =
+                size > capacity
+        }
+
+    /**
+     * Returns a constraint system for [wires] with outputs [is_eq_to], reusing an idle one built
+     * for a circuit named [wireName] if there is one. The caller has exclusive use of it until [release].
+     */
+    fun take(wireName: String, isProver: Boolean, wires: List<WireTerm>, is_eq_to: List<Int>): R1CS {
+        val cached: R1CS? =
+            synchronized(this) {
+                idle[Pair(wireName, isProver)]?.removeLastOrNull()
+            }
+
+        return if (cached != null) {
+            logger.info { "reusing constraint system for $wireName" }
+            cached.assign(wires, is_eq_to.map { it.toLong() })
+            cached
+        } else {
+            wires.toR1CS(isProver, is_eq_to)
+        }
+    }
+
+    /** Returns [r1cs], built for a circuit named [wireName], to the cache. */
+    fun release(wireName: String, r1cs: R1CS) {
+        synchronized(this) {
+            idle.getOrPut(Pair(wireName, r1cs.isProver)) { mutableListOf() }.add(r1cs)
+        }
+    }
+
+    /**
+     * Runs [body] with a constraint system for [wires]; see [take].
+     * Constraint systems are not returned to the cache if [body] fails, since their assignment may be partial.
+     */
+    inline fun <T> use(
+        wireName: String,
+        isProver: Boolean,
+        wires: List<WireTerm>,
+        is_eq_to: List<Int>,
+        body: (R1CS) -> T
+    ): T {
+        val r1cs = take(wireName, isProver, wires, is_eq_to)
+        val result = body(r1cs)
+        release(wireName, r1cs)
+        return result
+    }
+}
@@ -0,0 +1,109 @@
+package edu.cornell.cs.apl.viaduct.backend.zkp
+
+import edu.cornell.cs.apl.viaduct.backend.WireConst
+import edu.cornell.cs.apl.viaduct.backend.WireDummyIn
+import edu.cornell.cs.apl.viaduct.backend.WireIn
+import edu.cornell.cs.apl.viaduct.backend.WireOp
+import edu.cornell.cs.apl.viaduct.backend.WireTerm
+import edu.cornell.cs.apl.viaduct.backend.commitment.Hashing
+import edu.cornell.cs.apl.viaduct.backend.commitment.encode
+import edu.cornell.cs.apl.viaduct.backend.postOrder
+import edu.cornell.cs.apl.viaduct.syntax.values.IntegerValue
+import edu.cornell.cs.apl.viaduct.syntax.values.StringValue
+import java.io.OutputStream
+import java.security.MessageDigest
+
+/**
+ * Simulates proofs without libsnark, so the rest of the ZKP pipeline can run and be benchmarked
+ * on machines without the native library.
+ *
+ * Proofs are [proofSize] bytes derived from a hash of the public statement: the circuit name,
+ * the claimed values, and the constants and input commitments of the circuit. Verifying recomputes
+ * them from the verifier's view of the statement, so a prover and verifier that disagree on the
+ * circuit or on messages still fail verification. Proofs are not sound, since they do not depend
+ * on secret inputs; never use this backend outside of tests and benchmarks.
+ *
+ * Proving and verifying block the calling thread for [provingMillis] and [verifyingMillis], like
+ * the native calls they replace.
+ */
+class SimulatedZKPBackend(
+    private val proofSize: Int = DEFAULT_PROOF_SIZE,
+    private val provingMillis: Long = 0,
+    private val verifyingMillis: Long = 0
+) : ZKPBackend {
+    companion object {
+        const val DEFAULT_PROOF_SIZE: Int = 288
+    }
+
+    init {
+        require(proofSize > 0) { "proof size must be positive" }
+    }
+
+    override fun commitInput(nonce: ByteArray, value: Int): ByteArray =
+        Hashing.digest(nonce) { IntegerValue(value).encode(it) }
+
+    override suspend fun prove(wireName: String, wires: List<WireTerm>, wireVals: List<Int>): ByteArray {
+        simulateLatency(provingMillis)
+        return simulatedProof(wireName, wires, wireVals)
+    }
+
+    override suspend fun verify(
+        wireName: String,
+        wires: List<WireTerm>,
+        wireVals: List<Int>,
+        proof: ByteArray
+    ): Boolean {
+        simulateLatency(verifyingMillis)
+        return MessageDigest.isEqual(simulatedProof(wireName, wires, wireVals), proof)
+    }
+
+    private fun simulateLatency(millis: Long) {
+        if (millis > 0) {
+            Thread.sleep(millis)
+        }
+    }
+
+    /** Hashes the public part of the statement, which the prover and verifiers both know. */
+    private fun statement(wireName: String, wires: List<WireTerm>, wireVals: List<Int>): ByteArray =
+        Hashing.digest(ByteArray(0)) { out ->
+            StringValue(wireName).encode(out)
+            wireVals.forEach { out.writeInt(it) }
+            for (node in wires.postOrder()) {
+                when (node) {
+                    is WireOp -> {
+                    }
+                    is WireIn -> {
+                        out.write(node.hash)
+                        out.write(node.nonce)
+                    }
+                    is WireDummyIn -> {
+                        out.write(node.hash)
+                        out.write(node.nonce)
+                    }
+                    is WireConst -> out.writeInt(node.v)
+                }
+            }
+        }
+
+    /** Expands the hash of the statement to [proofSize] bytes. */
+    private fun simulatedProof(wireName: String, wires: List<WireTerm>, wireVals: List<Int>): ByteArray {
+        val seed = statement(wireName, wires, wireVals)
+        val proof = ByteArray(proofSize)
+        var offset = 0
+        var counter = 0
+        while (offset < proofSize) {
+            val block = Hashing.digest(seed) { it.writeInt(counter) }
+            val length = minOf(block.size, proofSize - offset)
+            System.arraycopy(block, 0, proof, offset, length)
+            offset += length
+            counter++
+        }
+        return proof
+    }
+
+    private fun OutputStream.writeInt(v: Int) {
+        for (i in Int.SIZE_BYTES - 1 downTo 0) {
+            this.write(v shr (8 * i))
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package edu.cornell.cs.apl.viaduct.backend.zkp
+
+import edu.cornell.cs.apl.viaduct.backend.WireTerm
+import edu.cornell.cs.apl.viaduct.libsnarkwrapper.libsnarkwrapper
+import java.nio.ByteBuffer
+import mu.KotlinLogging
+
+private val logger = KotlinLogging.logger("ZKP Backend")
+
+/**
+ * The cryptography used by ZKP interpreters: committing to secret inputs, and proving and
+ * verifying that wires evaluate to public values.
+ *
+ * Circuits are identified by their [wireName][edu.cornell.cs.apl.viaduct.backend.wireName],
+ * which the prover and the verifiers compute independently.
+ */
+interface ZKPBackend {
+    /** Returns a commitment to the secret input [value] with [nonce], which proofs open. */
+    fun commitInput(nonce: ByteArray, value: Int): ByteArray
+
+    /** Proves that each wire in [wires] evaluates to the corresponding value in [wireVals]. */
+    suspend fun prove(wireName: String, wires: List<WireTerm>, wireVals: List<Int>): ByteArray
+
+    /** Checks a [proof] sent by the prover that [wires] evaluate to [wireVals]. */
+    suspend fun verify(wireName: String, wires: List<WireTerm>, wireVals: List<Int>, proof: ByteArray): Boolean
+}
+
+/**
+ * Generates real proofs with libsnark, using keys from [keyStore] and
+ * constraint systems from [r1csCache]. Loads the native libsnarkwrapper library.
+ */
+class LibsnarkZKPBackend(private val keyStore: ZKPKeyStore, private val r1csCache: R1CSCache) : ZKPBackend {
+    private val ensureInit = ZKPInit
+
+    override fun commitInput(nonce: ByteArray, value: Int): ByteArray =
+        libsnarkwrapper.get_sha_nonce_val_direct(ByteBuffer.wrap(nonce).asDirectBuffer(), value.toLong())._data
+
+    override suspend fun prove(wireName: String, wires: List<WireTerm>, wireVals: List<Int>): ByteArray =
+        r1csCache.use(wireName, true, wires, wireVals) { r1cs ->
+            // generates a key pair if this is the first time we see a circuit of this shape
+            val pk = keyStore.provingKey(wireName, r1cs)
+            logger.info { "Proving.." }
+            val pf = r1cs.makeProof(pk)
+            logger.info { "Proof done!" }
+            pf._data
+        }
+
+    override suspend fun verify(
+        wireName: String,
+        wires: List<WireTerm>,
+        wireVals: List<Int>,
+        proof: ByteArray
+    ): Boolean {
+        // the prover has its proving key by the time it sends a proof, so the verification key exists too
+        val vk = keyStore.verificationKey(wireName)
+        logger.info { "Verifying.." }
+        return r1csCache.use(wireName, false, wires, wireVals) { r1cs ->
+            r1cs.verifyProof(vk, ByteBuffer.wrap(proof))
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package edu.cornell.cs.apl.viaduct.backend.zkp
+
+import edu.cornell.cs.apl.viaduct.backend.WireDummyIn
+import edu.cornell.cs.apl.viaduct.backend.WireIn
+import edu.cornell.cs.apl.viaduct.errors.ViaductInterpreterError
+
+/** Width in bytes of the SHA-256 hashes committing to secret inputs, and of their nonces. */
+internal const val INPUT_COMMITMENT_WIDTH: Int = 32
+
+/**
+ * Encodes the hashes and nonces of [inputs] as a single message,
+ * so verifiers receive commitments to many secret inputs at once.
+ */
+internal fun encodeInputCommitments(inputs: List<WireIn>): ByteArray {
+    val message = ByteArray(inputs.size * 2 * INPUT_COMMITMENT_WIDTH)
+    var offset = 0
+    for (input in inputs) {
+        input.hash.copyInto(message, offset)
+        offset += INPUT_COMMITMENT_WIDTH
+        input.nonce.copyInto(message, offset)
+        offset += INPUT_COMMITMENT_WIDTH
+    }
+    return message
+}
+
+/**
+ * Fills in the hashes and nonces of [inputs] from a [message] built by [encodeInputCommitments].
+ * Verifiers create dummy inputs before their commitments arrive, so their arrays are filled in place.
+ */
+internal fun decodeInputCommitments(message: ByteArray, inputs: List<WireDummyIn>) {
+    if (message.size != inputs.size * 2 * INPUT_COMMITMENT_WIDTH) {
+        throw ViaductInterpreterError(
+            "ZKP: expected commitments to ${inputs.size} input(s), got ${message.size} bytes"
+        )
+    }
+
+    var offset = 0
+    for (input in inputs) {
+        message.copyInto(input.hash, 0, offset, offset + INPUT_COMMITMENT_WIDTH)
+        offset += INPUT_COMMITMENT_WIDTH
+        message.copyInto(input.nonce, 0, offset, offset + INPUT_COMMITMENT_WIDTH)
+        offset += INPUT_COMMITMENT_WIDTH
+    }
+}
+
+/**
+ * Fills in the hashes and nonces of the first of [inputs] from a [message] built by
+ * [encodeInputCommitments], and removes them from [inputs]. The prover commits to consecutive
+ * inputs in one message, so commitments to [inputs] can be split over several messages.
+ */
+internal fun decodeInputCommitmentPrefix(message: ByteArray, inputs: MutableList<WireDummyIn>) {
+    val count = message.size / (2 * INPUT_COMMITMENT_WIDTH)
+    if (count == 0 || count > inputs.size) {
+        throw ViaductInterpreterError(
+            "ZKP: expected commitments to at most ${inputs.size} input(s), got ${message.size} bytes"
+        )
+    }
+
+    val committed: MutableList<WireDummyIn> = inputs.subList(0, count)
+    decodeInputCommitments(message, committed)
+    committed.clear()
+}
@@ -0,0 +1,190 @@
+package edu.cornell.cs.apl.viaduct.backend.zkp
+
+import edu.cornell.cs.apl.viaduct.errors.ViaductInterpreterError
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.Executors
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.withContext
+import mu.KotlinLogging
+
+private val logger = KotlinLogging.logger("ZKP Key Store")
+
+/**
+ * Proving and verification keys for ZKP circuits, stored in [directory].
+ *
+ * Keys are addressed by the [edu.cornell.cs.apl.viaduct.backend.wireName] of the circuit they were
+ * generated for, so circuits of the same shape share keys across runs, and by
+ * [CONSTRAINT_SYSTEM_VERSION], so keys are not reused after libsnarkwrapper changes. The most recently used
+ * keys are kept mapped; key files are memory mapped once and passed to libsnark in place,
+ * so keys are never copied onto the Java heap. Generated keys are written to files by libsnark.
+ *
+ * Keys for circuits the store has not seen before are generated on a pool of [workers] threads.
+ * Callers suspend until the keys are ready instead of aborting the run. Verifiers cannot generate
+ * keys, since keys generated independently from the prover's would not match; they instead wait
+ * for keys being generated in the same process, or read the keys the prover wrote to [directory].
+ */
+class ZKPKeyStore(
+    val directory: File,
+    private val capacity: Int = DEFAULT_CAPACITY,
+    private val workers: Int = Runtime.getRuntime().availableProcessors()
+) {
+    companion object {
+        const val DEFAULT_CAPACITY: Int = 64
+
+        /**
+         * Version of the constraint systems libsnarkwrapper builds for circuits.
+         * Must be bumped whenever the wrapper changes the constraints it builds for a circuit.
+         */
+        const val CONSTRAINT_SYSTEM_VERSION: Int = 2
+    }
+
+    private class Keys(val provingKey: ByteBuffer, val verificationKey: ByteBuffer)
+
+    /** Mapped keys, indexed by file and ordered from least to most recently used. */
+    private val cache: LinkedHashMap<File, ByteBuffer> =
+        object : LinkedHashMap<File, ByteBuffer>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<File, ByteBuffer>): Boolean =
+                size > capacity
+        }
+
+    /** Key generation in progress, indexed by circuit name. */
+    private val pending: MutableMap<String, Deferred<Keys>> = mutableMapOf()
+
+    /** Circuits whose keys have been requested. */
+    private val requestedCircuits: MutableSet<String> = mutableSetOf()
+
+    private var generatedKeys: Int = 0
+
+    private val generationDispatcher: CoroutineDispatcher by lazy {
+        Executors.newFixedThreadPool(workers) { task ->
+            Thread(task, "zkp-keygen").apply { isDaemon = true }
+        }.asCoroutineDispatcher()
+    }
+
+    /** Names of the circuits whose keys have been requested so far. */
+    val circuits: Set<String>
+        get() = synchronized(this) { requestedCircuits.toSet() }
+
+    /** Number of key pairs generated by this store. */
+    val generated: Int
+        get() = synchronized(this) { generatedKeys }
+
+    /** Name of the key files for the circuit named [circuitName]. */
+    private fun keyName(circuitName: String) = "$circuitName.v$CONSTRAINT_SYSTEM_VERSION"
+
+    private fun provingKeyFile(circuitName: String) = File(directory, "${keyName(circuitName)}.pk")
+
+    private fun verificationKeyFile(circuitName: String) = File(directory, "${keyName(circuitName)}.vk")
+
+    /**
+     * Returns the proving key for the circuit named [circuitName], generating a key pair
+     * from [r1cs] if there is none yet.
+     */
+    suspend fun provingKey(circuitName: String, r1cs: R1CS): ByteBuffer {
+        val provingKeyFile = provingKeyFile(circuitName)
+        var generation: CompletableDeferred<Keys>? = null
+        val keys: Deferred<Keys>? =
+            synchronized(this) {
+                requestedCircuits.add(circuitName)
+                when {
+                    pending.containsKey(circuitName) ->
+                        pending[circuitName]
+
+                    // checked under the lock so the same circuit is never generated twice
+                    cache.containsKey(provingKeyFile) || provingKeyFile.exists() ->
+                        null
+
+                    else ->
+                        CompletableDeferred<Keys>().also {
+                            pending[circuitName] = it
+                            generation = it
+                        }
+                }
+            }
+
+        generation?.let { generate(circuitName, r1cs, it) }
+        return keys?.await()?.provingKey ?: load(provingKeyFile)
+    }
+
+    /** Returns the verification key for the circuit named [circuitName]. */
+    suspend fun verificationKey(circuitName: String): ByteBuffer {
+        val keys: Deferred<Keys>? =
+            synchronized(this) {
+                requestedCircuits.add(circuitName)
+                pending[circuitName]
+            }
+
+        return keys?.await()?.verificationKey
+            ?: if (verificationKeyFile(circuitName).exists()) {
+                load(verificationKeyFile(circuitName))
+            } else {
+                throw ViaductInterpreterError(
+                    "ZKP: no verification key for circuit $circuitName in $directory; run zkp-setup first"
+                )
+            }
+    }
+
+    private suspend fun load(file: File): ByteBuffer {
+        synchronized(this) { cache[file] }?.let { return it }
+
+        val key: ByteBuffer = withContext(Dispatchers.IO) { map(file) }
+        synchronized(this) { cache[file] = key }
+        return key
+    }
+
+    /** Maps [file] into memory. The mapping stays valid after the file is closed. */
+    private fun map(file: File): ByteBuffer =
+        FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel ->
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+        }
+
+    private suspend fun generate(circuitName: String, r1cs: R1CS, result: CompletableDeferred<Keys>) {
+        try {
+            val keys: Keys =
+                withContext(generationDispatcher) {
+                    logger.info { "generating keys for circuit $circuitName" }
+                    directory.mkdirs()
+                    val temporaryProvingKey = File.createTempFile("${keyName(circuitName)}.pk", ".tmp", directory)
+                    val temporaryVerificationKey = File.createTempFile("${keyName(circuitName)}.vk", ".tmp", directory)
+                    r1cs.genKeypair(temporaryProvingKey, temporaryVerificationKey)
+
+                    // the proving key is moved last since its presence marks the key pair as complete
+                    moveAtomically(temporaryVerificationKey, verificationKeyFile(circuitName))
+                    moveAtomically(temporaryProvingKey, provingKeyFile(circuitName))
+                    val keyPair = Keys(map(provingKeyFile(circuitName)), map(verificationKeyFile(circuitName)))
+                    logger.info {
+                        "wrote keys for circuit $circuitName: " +
+                            "${keyPair.provingKey.remaining()} byte proving key, " +
+                            "${keyPair.verificationKey.remaining()} byte verification key"
+                    }
+                    keyPair
+                }
+
+            synchronized(this) {
+                cache[provingKeyFile(circuitName)] = keys.provingKey
+                cache[verificationKeyFile(circuitName)] = keys.verificationKey
+                generatedKeys++
+                pending.remove(circuitName)
+            }
+            result.complete(keys)
+        } catch (e: Throwable) {
+            synchronized(this) { pending.remove(circuitName) }
+            result.completeExceptionally(e)
+            throw e
+        }
+    }
+
+    /** Renames [temporaryFile] to [file] so that readers never observe a partially written file. */
+    private fun moveAtomically(temporaryFile: File, file: File) {
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE)
+    }
+}
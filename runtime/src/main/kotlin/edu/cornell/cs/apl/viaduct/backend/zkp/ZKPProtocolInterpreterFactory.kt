@@ -11,8 +11,45 @@ import edu.cornell.cs.apl.viaduct.syntax.Host
 import edu.cornell.cs.apl.viaduct.syntax.Protocol
 import edu.cornell.cs.apl.viaduct.syntax.ProtocolProjection
 import edu.cornell.cs.apl.viaduct.syntax.intermediate.ProgramNode
+import java.io.File
+import java.util.concurrent.Executors
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.asCoroutineDispatcher
 
 object ZKPProtocolInterpreterFactory : ProtocolBackend {
+    /** Keys shared by all ZKP interpreters in this process. */
+    var keyStore: ZKPKeyStore = ZKPKeyStore(File("zkpkeys"))
+
+    /** Prove consecutive values released to the same verifiers with a single proof. */
+    var batchReleases: Boolean = true
+
+    /**
+     * Send commitments to consecutive secret inputs to each verifier in one message, instead of
+     * one message per input as inputs are received. Commitments are still sent before the
+     * prover's host receives anything from another host, and before any proof.
+     */
+    var batchInputs: Boolean = false
+
+    /** Constraint systems shared by all ZKP interpreters in this process. */
+    val r1csCache: R1CSCache = R1CSCache()
+
+    /**
+     * Backend generating and checking proofs for interpreters built from now on.
+     * Defaults to libsnark with [keyStore] and [r1csCache]; set to a [SimulatedZKPBackend]
+     * to run without the native library.
+     */
+    var backend: ZKPBackend? = null
+
+    /**
+     * Threads proofs are generated on, one per core, shared by all provers in this process.
+     * Independent releases are proven concurrently while the interpreters keep running.
+     */
+    internal val proverDispatcher: CoroutineDispatcher by lazy {
+        Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()) { task ->
+            Thread(task, "zkp-prover").apply { isDaemon = true }
+        }.asCoroutineDispatcher()
+    }
+
     override fun buildProtocolInterpreters(
         host: Host,
         program: ProgramNode,
@@ -22,12 +59,17 @@ object ZKPProtocolInterpreterFactory : ProtocolBackend {
         connectionMap: Map<Host, HostAddress>
     ): Iterable<ProtocolInterpreter> {
         val zkpProtocols = protocols.filterIsInstance<ZKP>()
+        if (zkpProtocols.isEmpty()) {
+            return listOf()
+        }
+
+        val zkpBackend: ZKPBackend = backend ?: LibsnarkZKPBackend(keyStore, r1csCache)
         return zkpProtocols.map {
             val processRuntime = ViaductProcessRuntime(runtime, ProtocolProjection(it, host))
             if (host == it.prover)
-                (ZKPProverInterpreter(program, protocolAnalysis, processRuntime))
+                (ZKPProverInterpreter(program, protocolAnalysis, processRuntime, zkpBackend))
             else
-                (ZKPVerifierInterpreter(program, protocolAnalysis, processRuntime))
+                (ZKPVerifierInterpreter(program, protocolAnalysis, processRuntime, zkpBackend))
         }
     }
 }
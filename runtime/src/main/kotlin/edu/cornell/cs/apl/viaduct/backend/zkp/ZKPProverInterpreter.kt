@@ -2,18 +2,17 @@ package edu.cornell.cs.apl.viaduct.backend.zkp
 
 import edu.cornell.cs.apl.viaduct.analysis.ProtocolAnalysis
 import edu.cornell.cs.apl.viaduct.analysis.TypeAnalysis
+import edu.cornell.cs.apl.viaduct.backend.BatchingProtocolInterpreter
 import edu.cornell.cs.apl.viaduct.backend.ObjectLocation
 import edu.cornell.cs.apl.viaduct.backend.SingleProtocolInterpreter
 import edu.cornell.cs.apl.viaduct.backend.ViaductProcessRuntime
+import edu.cornell.cs.apl.viaduct.backend.WireIn
 import edu.cornell.cs.apl.viaduct.backend.WireGenerator
 import edu.cornell.cs.apl.viaduct.backend.WireTerm
-import edu.cornell.cs.apl.viaduct.backend.asString
 import edu.cornell.cs.apl.viaduct.backend.commitment.genNonce
 import edu.cornell.cs.apl.viaduct.backend.eval
 import edu.cornell.cs.apl.viaduct.backend.wireName
 import edu.cornell.cs.apl.viaduct.errors.ViaductInterpreterError
-import edu.cornell.cs.apl.viaduct.libsnarkwrapper.libsnarkwrapper
-import edu.cornell.cs.apl.viaduct.libsnarkwrapper.libsnarkwrapper.mkByteBuf
 import edu.cornell.cs.apl.viaduct.protocols.ZKP
 import edu.cornell.cs.apl.viaduct.selection.ProtocolCommunication
 import edu.cornell.cs.apl.viaduct.syntax.Host
@@ -49,14 +48,16 @@ import edu.cornell.cs.apl.viaduct.syntax.values.BooleanValue
 import edu.cornell.cs.apl.viaduct.syntax.values.ByteVecValue
 import edu.cornell.cs.apl.viaduct.syntax.values.IntegerValue
 import edu.cornell.cs.apl.viaduct.syntax.values.Value
-import java.io.File
-import java.io.FileInputStream
-import java.io.FileOutputStream
 import java.util.Stack
 import kotlinx.collections.immutable.PersistentMap
 import kotlinx.collections.immutable.persistentMapOf
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.withContext
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.launch
 import mu.KotlinLogging
 
 private val logger = KotlinLogging.logger("ZKP Prover")
@@ -64,17 +65,27 @@ private val logger = KotlinLogging.logger("ZKP Prover")
 class ZKPProverInterpreter(
     program: ProgramNode,
     private val protocolAnalysis: ProtocolAnalysis,
-    val runtime: ViaductProcessRuntime
+    val runtime: ViaductProcessRuntime,
+    private val backend: ZKPBackend
 ) :
-    SingleProtocolInterpreter<ZKPObject>(program, runtime.projection.protocol) {
+    SingleProtocolInterpreter<ZKPObject>(program, runtime.projection.protocol),
+    BatchingProtocolInterpreter {
 
     private val typeAnalysis = TypeAnalysis.get(program)
-    private val ensureInit = ZKPInit
 
     private val verifiers = (runtime.projection.protocol as ZKP).verifiers
 
     private val wireGenerator = WireGenerator()
 
+    /** Values whose proofs were sent to verifiers by [prepareRelease], but have not been released yet. */
+    private val preparedReleases: MutableMap<Temporary, Int> = mutableMapOf()
+
+    /** Secret inputs whose commitments have not been sent to each verifier yet. */
+    private val unsentInputs: Map<Host, MutableList<WireIn>> = verifiers.associateWith { mutableListOf() }
+
+    /** The last message queued for each verifier by [sendToVerifier]. */
+    private val verifierSends: MutableMap<Host, Job> = mutableMapOf()
+
     private val tempStack: Stack<PersistentMap<Temporary, Value>> = Stack()
 
     private var tempStore: PersistentMap<Temporary, Value>
@@ -103,6 +114,13 @@ class ZKPProverInterpreter(
         objectStoreStack.push(persistentMapOf())
         wireStack.push(persistentMapOf())
         tempStack.push(persistentMapOf())
+
+        // commit to all inputs before seeing anything other hosts sent, so later inputs cannot depend on it
+        runtime.addRemoteReceiveListener {
+            for (v: Host in verifiers) {
+                sendInputCommitments(v)
+            }
+        }
     }
 
     private fun pushContext(
@@ -152,15 +170,32 @@ class ZKPProverInterpreter(
             }
             else -> throw Exception("runtime error: unexpected value $value")
         }
-        val nonce = genNonce(32) // 256 / 8 = 32
+        val nonce = genNonce(INPUT_COMMITMENT_WIDTH)
 
-        val hash = libsnarkwrapper.get_sha_nonce_val(mkByteBuf(nonce.toByteArray()), i.toLong())
+        val hash = backend.commitInput(nonce, i)
 
+        val input = wireGenerator.mkIn(i, hash, nonce)
         for (h: Host in verifiers) {
-            runtime.send(ByteVecValue(hash._data.toList()), ProtocolProjection(runtime.projection.protocol, h))
-            runtime.send(ByteVecValue(nonce.toList()), ProtocolProjection(runtime.projection.protocol, h))
+            unsentInputs.getValue(h).add(input)
+            if (!ZKPProtocolInterpreterFactory.batchInputs) {
+                sendInputCommitments(h)
+            }
+        }
+        return input
+    }
+
+    /**
+     * Sends verifier [v] the commitments to all secret inputs it has not received yet, in one message.
+     * Called before sending [v] a proof, so [v] has the commitments to all inputs the proof uses,
+     * and before this host receives anything from another host.
+     */
+    private suspend fun sendInputCommitments(v: Host) {
+        val inputs = unsentInputs.getValue(v)
+        if (inputs.isNotEmpty()) {
+            val message = encodeInputCommitments(inputs)
+            inputs.clear()
+            sendToVerifier(v, CompletableDeferred(ByteVecValue(message)))
         }
-        return wireGenerator.mkIn(i, hash._data.toList(), nonce.toList())
     }
 
     private fun Int.toValue(t: ValueType): Value {
@@ -311,51 +346,9 @@ class ZKPProverInterpreter(
         events: ProtocolCommunication
     ) {
         if (sendProtocol != recvProtocol) {
-            val wire = wireStore[sender.temporary.value]!!
-            val wireVal: Int = wire.eval()
-            logger.info {
-                "Run let on wire $wire with output value $wireVal"
-            }
-            val wireName = wire.wireName()
-            logger.info {
-                "Wire name = $wireName"
-            }
-            val r1cs = wire.toR1CS(true, wireVal)
-
-            withContext(Dispatchers.IO) {
-                val pkFile = File("zkpkeys/$wireName.pk")
-                if (!pkFile.exists()) { // Create proving key, and abort
-                    pkFile.createNewFile()
-                    val vkFile = File("zkpkeys/$wireName.vk")
-                    vkFile.createNewFile()
-                    val kp = r1cs.genKeypair()
-                    val out_pkFile = FileOutputStream(pkFile, false)
-                    logger.info { "kp : writing ${kp.proving_key._data.size} bytes" }
-                    out_pkFile.write(kp.proving_key._data)
-                    logger.info { "vk : writing ${kp.verification_key._data.size} bytes" }
-                    val out_vkFile = FileOutputStream(vkFile, false)
-                    out_vkFile.write(kp.verification_key._data)
-                    out_pkFile.close()
-                    out_vkFile.close()
-                    throw Exception("Created new proving key and verification key for wire ${wire.asString()} with name $wireName. Rerun to use.")
-                } else { // Read proving key, make proof, send to all the verifiers
-                    val in_pkFile = FileInputStream(pkFile)
-                    val pk = mkByteBuf(in_pkFile.readAllBytes())
-                    in_pkFile.close()
-                    logger.info { "Proving.." }
-                    val pf = r1cs.makeProof(pk)
-                    logger.info { "Proof done!" }
-
-                    // send to all verifiers who need to release output
-                    for (v: Host in verifiers) {
-                        if (events.getHostSends(v).isNotEmpty()) {
-                            val hostProjection = ProtocolProjection(runtime.projection.protocol, v)
-                            runtime.send(IntegerValue(wireVal), hostProjection)
-                            runtime.send(ByteVecValue(pf._data.toList()), hostProjection)
-                        }
-                    }
-                }
-            }
+            val wireVal: Int = preparedReleases.remove(sender.temporary.value) ?: proveRelease(sender, events)
+            // verifiers do the same on every release
+            wireGenerator.forgetOperations()
 
             val hostEvents = events.getHostSends(runtime.projection.host)
             for (event in hostEvents) {
@@ -367,6 +360,94 @@ class ZKPProverInterpreter(
         }
     }
 
+    /** Sends the value of [sender] and a proof of it to all verifiers that release it. */
+    private suspend fun proveRelease(sender: LetNode, events: ProtocolCommunication): Int {
+        val wire = wireStore[sender.temporary.value]!!
+        val wireVal: Int = wire.eval()
+        logger.info {
+            "Run let on wire ${wire.id} with output value $wireVal"
+        }
+        val pf = proveAsync(listOf(wire), listOf(wireVal))
+
+        // send to all verifiers who need to release output
+        for (v: Host in verifiers) {
+            if (events.getHostSends(v).isNotEmpty()) {
+                sendInputCommitments(v)
+                sendToVerifier(v, CompletableDeferred(IntegerValue(wireVal)))
+                sendToVerifier(v, pf)
+            }
+        }
+        return wireVal
+    }
+
+    /**
+     * Starts proving that [wires] evaluate to [wireVals] on the prover pool, and returns the proof
+     * without waiting for it. [wireVals] must already be computed, since [eval] is not thread safe.
+     */
+    private suspend fun proveAsync(wires: List<WireTerm>, wireVals: List<Int>): Deferred<Value> =
+        // a child of the interpreter's job, so failures abort the run
+        CoroutineScope(currentCoroutineContext()).async(ZKPProtocolInterpreterFactory.proverDispatcher) {
+            ByteVecValue(prove(wires, wireVals))
+        }
+
+    /**
+     * Sends [message] to verifier [v] once it is ready, after all messages previously sent to [v].
+     * Verifiers receive proofs in order, but the prover keeps interpreting while they are generated.
+     */
+    private suspend fun sendToVerifier(v: Host, message: Deferred<Value>) {
+        val projection = ProtocolProjection(runtime.projection.protocol, v)
+        val previous: Job? = verifierSends[v]
+        if (message.isCompleted && (previous == null || previous.isCompleted)) {
+            verifierSends.remove(v)
+            runtime.send(message.await(), projection)
+        } else {
+            // a child of the interpreter's job, so the runtime is not shut down before the message is sent
+            verifierSends[v] =
+                CoroutineScope(currentCoroutineContext()).launch {
+                    previous?.join()
+                    runtime.send(message.await(), projection)
+                }
+        }
+    }
+
+    /** Proves that [wires] evaluate to [wireVals] with a single proof. */
+    private suspend fun prove(wires: List<WireTerm>, wireVals: List<Int>): ByteArray {
+        val wireName = wires.wireName()
+        logger.info {
+            "Wire name = $wireName"
+        }
+        return backend.prove(wireName, wires, wireVals)
+    }
+
+    /**
+     * Proves the values of let nodes released to the same verifiers together,
+     * and sends the values followed by the proof to each of those verifiers.
+     */
+    override suspend fun prepareRelease(senders: List<Pair<LetNode, ProtocolCommunication>>) {
+        if (!ZKPProtocolInterpreterFactory.batchReleases) {
+            return
+        }
+
+        for (group in zkpReleaseGroups(verifiers, senders)) {
+            val wires: List<WireTerm> = group.senders.map { sender -> wireStore[sender.temporary.value]!! }
+            val wireVals: List<Int> = wires.map { it.eval() }
+            logger.info { "Proving ${wires.size} released values at once" }
+            val pf = proveAsync(wires, wireVals)
+
+            for (v: Host in group.verifiers) {
+                sendInputCommitments(v)
+                for (wireVal in wireVals) {
+                    sendToVerifier(v, CompletableDeferred(IntegerValue(wireVal)))
+                }
+                sendToVerifier(v, pf)
+            }
+
+            for ((sender, wireVal) in group.senders.zip(wireVals)) {
+                preparedReleases[sender.temporary.value] = wireVal
+            }
+        }
+    }
+
     override suspend fun runReceive(
         sender: LetNode,
         sendProtocol: Protocol,
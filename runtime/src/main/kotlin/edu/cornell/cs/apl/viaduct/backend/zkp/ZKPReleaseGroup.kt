@@ -0,0 +1,27 @@
+package edu.cornell.cs.apl.viaduct.backend.zkp
+
+import edu.cornell.cs.apl.viaduct.selection.ProtocolCommunication
+import edu.cornell.cs.apl.viaduct.syntax.Host
+import edu.cornell.cs.apl.viaduct.syntax.intermediate.LetNode
+
+/** Let nodes whose values are released to the same [verifiers] with a single proof. */
+internal class ZKPReleaseGroup(val senders: List<LetNode>, val verifiers: Set<Host>)
+
+/**
+ * Groups [senders] by the verifiers that receive their values.
+ *
+ * Values released to different sets of verifiers cannot share a proof, since every verifier
+ * checking a proof learns all of its outputs. Only groups with more than one let node are returned.
+ * Provers and verifiers compute the same groups, so they agree on which proofs are sent.
+ */
+internal fun zkpReleaseGroups(
+    verifiers: Set<Host>,
+    senders: List<Pair<LetNode, ProtocolCommunication>>
+): List<ZKPReleaseGroup> =
+    senders
+        .groupBy(
+            { (_, events) -> verifiers.filter { v -> events.getHostSends(v).isNotEmpty() }.toSet() },
+            { (sender, _) -> sender }
+        )
+        .filter { (groupVerifiers, groupSenders) -> groupVerifiers.isNotEmpty() && groupSenders.size > 1 }
+        .map { (groupVerifiers, groupSenders) -> ZKPReleaseGroup(groupSenders, groupVerifiers) }
@@ -2,17 +2,18 @@ package edu.cornell.cs.apl.viaduct.backend.zkp
 
 import edu.cornell.cs.apl.viaduct.analysis.ProtocolAnalysis
 import edu.cornell.cs.apl.viaduct.analysis.TypeAnalysis
+import edu.cornell.cs.apl.viaduct.backend.BatchingProtocolInterpreter
 import edu.cornell.cs.apl.viaduct.backend.ObjectLocation
 import edu.cornell.cs.apl.viaduct.backend.SingleProtocolInterpreter
 import edu.cornell.cs.apl.viaduct.backend.ViaductProcessRuntime
+import edu.cornell.cs.apl.viaduct.backend.WireDummyIn
 import edu.cornell.cs.apl.viaduct.backend.WireGenerator
 import edu.cornell.cs.apl.viaduct.backend.WireTerm
-import edu.cornell.cs.apl.viaduct.backend.asString
 import edu.cornell.cs.apl.viaduct.backend.wireName
 import edu.cornell.cs.apl.viaduct.errors.ViaductInterpreterError
-import edu.cornell.cs.apl.viaduct.libsnarkwrapper.libsnarkwrapper.mkByteBuf
 import edu.cornell.cs.apl.viaduct.protocols.ZKP
 import edu.cornell.cs.apl.viaduct.selection.ProtocolCommunication
+import edu.cornell.cs.apl.viaduct.syntax.Host
 import edu.cornell.cs.apl.viaduct.syntax.ObjectVariable
 import edu.cornell.cs.apl.viaduct.syntax.Protocol
 import edu.cornell.cs.apl.viaduct.syntax.ProtocolProjection
@@ -45,8 +46,6 @@ import edu.cornell.cs.apl.viaduct.syntax.values.BooleanValue
 import edu.cornell.cs.apl.viaduct.syntax.values.ByteVecValue
 import edu.cornell.cs.apl.viaduct.syntax.values.IntegerValue
 import edu.cornell.cs.apl.viaduct.syntax.values.Value
-import java.io.File
-import java.io.FileInputStream
 import java.util.Stack
 import kotlinx.collections.immutable.PersistentMap
 import kotlinx.collections.immutable.persistentMapOf
@@ -57,13 +56,14 @@ private val logger = KotlinLogging.logger("ZKP Verifier")
 class ZKPVerifierInterpreter(
     program: ProgramNode,
     val protocolAnalysis: ProtocolAnalysis,
-    val runtime: ViaductProcessRuntime
+    val runtime: ViaductProcessRuntime,
+    private val backend: ZKPBackend
 ) :
-    SingleProtocolInterpreter<ZKPObject>(program, runtime.projection.protocol) {
-
-    private val ensureInit = ZKPInit
+    SingleProtocolInterpreter<ZKPObject>(program, runtime.projection.protocol),
+    BatchingProtocolInterpreter {
 
     private val prover = (runtime.projection.protocol as ZKP).prover
+    private val verifiers = (runtime.projection.protocol as ZKP).verifiers
     private val typeAnalysis = TypeAnalysis.get(program)
 
     private val tempStack: Stack<PersistentMap<Temporary, Value>> = Stack()
@@ -79,6 +79,12 @@ class ZKPVerifierInterpreter(
 
     private val wireGenerator = WireGenerator()
 
+    /** Values verified by [prepareRelease] that have not been released yet. */
+    private val preparedReleases: MutableMap<Temporary, Int> = mutableMapOf()
+
+    /** Secret inputs whose commitments have not been received from the prover yet. */
+    private val uncommittedInputs: MutableList<WireDummyIn> = mutableListOf()
+
     private val wireStack: Stack<PersistentMap<Temporary, WireTerm>> = Stack()
 
     private var wireStore: PersistentMap<Temporary, WireTerm>
@@ -144,10 +150,23 @@ class ZKPVerifierInterpreter(
         }
     }
 
+    /** Creates an input whose hash and nonce are filled in by [receiveInputCommitments]. */
     private suspend fun mkDummyIn(): WireTerm {
-        val hash = (runtime.receive(ProtocolProjection(runtime.projection.protocol, prover)) as ByteVecValue)
-        val nonce = (runtime.receive(ProtocolProjection(runtime.projection.protocol, prover)) as ByteVecValue)
-        return wireGenerator.mkDummyIn(hash.value, nonce.value)
+        val input = wireGenerator.mkDummyIn(ByteArray(INPUT_COMMITMENT_WIDTH), ByteArray(INPUT_COMMITMENT_WIDTH))
+        uncommittedInputs.add(input)
+        if (!ZKPProtocolInterpreterFactory.batchInputs) {
+            receiveInputCommitments()
+        }
+        return input
+    }
+
+    /** Receives the commitments the prover sends with [ZKPProverInterpreter.sendInputCommitments]. */
+    private suspend fun receiveInputCommitments() {
+        // the prover also sends commitments whenever its host receives from other hosts
+        while (uncommittedInputs.isNotEmpty()) {
+            val message = runtime.receive(ProtocolProjection(runtime.projection.protocol, prover)) as ByteVecValue
+            decodeInputCommitmentPrefix(message.value, uncommittedInputs)
+        }
     }
 
     override suspend fun buildExpressionObject(expr: AtomicExpressionNode): ZKPObject {
@@ -277,32 +296,51 @@ class ZKPVerifierInterpreter(
     ) {
         val hostEvents = events.getHostSends(runtime.projection.host)
         if (sendProtocol != recvProtocol && hostEvents.isNotEmpty()) {
-            val wire = wireStore[sender.temporary.value]!!
-            val wireName = wire.wireName()
-            val vkFile = File("zkpkeys/$wireName.vk")
-            if (!vkFile.exists()) {
-                throw Exception("Cannot find verification key for ${wire.asString()} with name $wireName.vk.  Restart after prover finishes.")
-            } else {
-                val wireVal: Int =
-                    (runtime.receive(ProtocolProjection(runtime.projection.protocol, prover)) as IntegerValue).value
-                val r1cs = wire.toR1CS(false, wireVal)
-                val pf =
-                    (runtime.receive(ProtocolProjection(runtime.projection.protocol, prover)) as ByteVecValue).value
-                val in_vkFile = FileInputStream(vkFile)
-                val vk = mkByteBuf(in_vkFile.readAllBytes())
-                in_vkFile.close()
-                logger.info {
-                    "Verifying.."
-                }
-                val verifyResult = r1cs.verifyProof(vk, mkByteBuf(pf.toByteArray()))
-                logger.info {
-                    "Verified: $verifyResult"
-                }
-                assert(verifyResult)
+            val wireVal: Int =
+                preparedReleases.remove(sender.temporary.value) ?: receiveAndVerify(
+                    listOf(wireStore[sender.temporary.value]!!)
+                ).first()
+
+            for (event in hostEvents) {
+                val outVal = wireVal.toValue(typeAnalysis.type(sender))
+                runtime.send(outVal, ProtocolProjection(event.recv.protocol, event.recv.host))
+            }
+        }
+
+        if (sendProtocol != recvProtocol) {
+            // the prover does the same on every release, including those this host does not receive
+            wireGenerator.forgetOperations()
+        }
+    }
+
+    /** Receives the values of [wires] followed by a single proof of all of them, and checks the proof. */
+    private suspend fun receiveAndVerify(wires: List<WireTerm>): List<Int> {
+        val proverProjection = ProtocolProjection(runtime.projection.protocol, prover)
+        receiveInputCommitments()
+        val wireVals: List<Int> = wires.map { (runtime.receive(proverProjection) as IntegerValue).value }
+        val pf = (runtime.receive(proverProjection) as ByteVecValue).value
+
+        val verifyResult = backend.verify(wires.wireName(), wires, wireVals, pf)
+        logger.info {
+            "Verified: $verifyResult"
+        }
+        assert(verifyResult)
+        return wireVals
+    }
+
+    /** Verifies the values of let nodes the prover proves together; see [ZKPProverInterpreter.prepareRelease]. */
+    override suspend fun prepareRelease(senders: List<Pair<LetNode, ProtocolCommunication>>) {
+        if (!ZKPProtocolInterpreterFactory.batchReleases) {
+            return
+        }
 
-                for (event in hostEvents) {
-                    val outVal = wireVal.toValue(typeAnalysis.type(sender))
-                    runtime.send(outVal, ProtocolProjection(event.recv.protocol, event.recv.host))
+        val host: Host = runtime.projection.host
+        for (group in zkpReleaseGroups(verifiers, senders)) {
+            if (group.verifiers.contains(host)) {
+                val wires: List<WireTerm> = group.senders.map { sender -> wireStore[sender.temporary.value]!! }
+                val wireVals: List<Int> = receiveAndVerify(wires)
+                for ((sender, wireVal) in group.senders.zip(wireVals)) {
+                    preparedReleases[sender.temporary.value] = wireVal
                 }
             }
         }
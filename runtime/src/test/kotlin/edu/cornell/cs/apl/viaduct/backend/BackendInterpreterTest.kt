@@ -4,6 +4,7 @@ import edu.cornell.cs.apl.viaduct.PositiveTestProgramProvider
 import edu.cornell.cs.apl.viaduct.analysis.ProtocolAnalysis
 import edu.cornell.cs.apl.viaduct.analysis.main
 import edu.cornell.cs.apl.viaduct.backend.IO.Strategy
+import edu.cornell.cs.apl.viaduct.parsing.parse
 import edu.cornell.cs.apl.viaduct.passes.annotateWithProtocols
 import edu.cornell.cs.apl.viaduct.passes.check
 import edu.cornell.cs.apl.viaduct.passes.elaborated
@@ -38,6 +39,10 @@ import kotlinx.coroutines.asCoroutineDispatcher
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
 import org.apache.logging.log4j.core.config.Configurator
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
+import org.junit.jupiter.api.assertThrows
 import org.junit.jupiter.params.ParameterizedTest
 import org.junit.jupiter.params.provider.ArgumentsSource
 
@@ -104,10 +109,73 @@ private object FakeStrategy : Strategy {
     }
 }
 
+/** Protocol backend that fails for [failingHost], as if it could not set up its protocols. */
+private class FailingProtocolBackend(private val failingHost: Host) : ProtocolBackend {
+    override fun buildProtocolInterpreters(
+        host: Host,
+        program: edu.cornell.cs.apl.viaduct.syntax.intermediate.ProgramNode,
+        protocols: Set<Protocol>,
+        protocolAnalysis: ProtocolAnalysis,
+        runtime: ViaductRuntime,
+        connectionMap: Map<Host, HostAddress>
+    ): Iterable<ProtocolInterpreter> {
+        if (host == failingHost) {
+            throw IllegalStateException("host ${host.name} failed on purpose")
+        }
+        return setOf(FakeProtocolInterpreter(protocols))
+    }
+}
+
 internal class BackendInterpreterTest {
     @ParameterizedTest
     @ArgumentsSource(PositiveTestProgramProvider::class)
     fun testInterpreter(surfaceProgram: ProgramNode) {
+        val fakeProgram = fakeProgram(surfaceProgram)
+        val backend = ViaductBackend(listOf(FakeProtocolBackend))
+
+        // run backend interpreter for all hosts
+        runBlocking {
+            for (host: Host in fakeProgram.hosts()) {
+                launch(Executors.newSingleThreadExecutor().asCoroutineDispatcher()) {
+                    backend.run(fakeProgram, host, FakeStrategy)
+                }
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(PositiveTestProgramProvider::class)
+    fun testRunAll(surfaceProgram: ProgramNode) {
+        val fakeProgram = fakeProgram(surfaceProgram)
+        val backend = ViaductBackend(listOf(FakeProtocolBackend))
+
+        backend.runAll(fakeProgram, fakeProgram.hosts().associateWith { FakeStrategy })
+    }
+
+    @Test
+    @Timeout(60)
+    fun `runAll reports failures instead of waiting for failed hosts`() {
+        val program =
+            """
+            process main {}
+
+            host alice: {A}
+            host bob: {B}
+            """.trimIndent().parse().elaborated()
+        val backend = ViaductBackend(listOf(FailingProtocolBackend(Host("alice"))))
+
+        val failure =
+            assertThrows<IllegalStateException> {
+                backend.runAll(program, program.hosts().associateWith { FakeStrategy })
+            }
+        assertEquals("host alice failed on purpose", failure.message)
+    }
+
+    private fun edu.cornell.cs.apl.viaduct.syntax.intermediate.ProgramNode.hosts(): Set<Host> =
+        this.hostDeclarations.map { hostDecl -> hostDecl.name.value }.toSet()
+
+    /** Selects protocols for [surfaceProgram], and returns a program with its hosts and an empty main. */
+    private fun fakeProgram(surfaceProgram: ProgramNode): edu.cornell.cs.apl.viaduct.syntax.intermediate.ProgramNode {
         val program = surfaceProgram.elaborated().specialize()
 
         // Perform static checks.
@@ -125,36 +193,18 @@ internal class BackendInterpreterTest {
             )
         val annotatedProgram = program.annotateWithProtocols(protocolAssignment)
 
-        // set up backend interpreter with fake backends
-        val hosts: Set<Host> =
-            program.hostDeclarations
-                .map { hostDecl -> hostDecl.name.value }
-                .toSet()
-
-        val backend = ViaductBackend(listOf(FakeProtocolBackend))
-
-        val fakeProgram =
-            edu.cornell.cs.apl.viaduct.syntax.intermediate.ProgramNode(
-                declarations =
-                annotatedProgram.hostDeclarations.plus(
-                    ProcessDeclarationNode(
-                        protocol = Located(MainProtocol, annotatedProgram.sourceLocation),
-                        body = BlockNode(listOf(), annotatedProgram.sourceLocation),
-                        sourceLocation = annotatedProgram.sourceLocation
-                    )
-                ),
-                sourceLocation = annotatedProgram.sourceLocation
-            )
-
         Configurator.setRootLevel(org.apache.logging.log4j.Level.INFO)
 
-        // run backend interpreter for all hosts
-        runBlocking {
-            for (host: Host in hosts) {
-                launch(Executors.newSingleThreadExecutor().asCoroutineDispatcher()) {
-                    backend.run(fakeProgram, host, FakeStrategy)
-                }
-            }
-        }
+        return edu.cornell.cs.apl.viaduct.syntax.intermediate.ProgramNode(
+            declarations =
+            annotatedProgram.hostDeclarations.plus(
+                ProcessDeclarationNode(
+                    protocol = Located(MainProtocol, annotatedProgram.sourceLocation),
+                    body = BlockNode(listOf(), annotatedProgram.sourceLocation),
+                    sourceLocation = annotatedProgram.sourceLocation
+                )
+            ),
+            sourceLocation = annotatedProgram.sourceLocation
+        )
     }
 }
@@ -0,0 +1,113 @@
+package edu.cornell.cs.apl.viaduct.backend
+
+import edu.cornell.cs.apl.viaduct.syntax.Host
+import edu.cornell.cs.apl.viaduct.syntax.values.IntegerValue
+import edu.cornell.cs.apl.viaduct.syntax.values.Value
+import java.util.concurrent.ConcurrentLinkedQueue
+import kotlin.concurrent.thread
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+
+internal class TransportTest {
+    companion object {
+        private const val HOST_COUNT: Int = 3
+        private const val PROCESSES_PER_HOST: Int = 6
+        private const val MESSAGES_PER_PAIR: Int = 250
+    }
+
+    private fun processesOf(host: HostInfo): List<ProcessId> =
+        (0 until PROCESSES_PER_HOST).map { i -> (host.id - 1) * PROCESSES_PER_HOST + i + 1 }
+
+    /**
+     * Every process sends a numbered stream of messages to every process on every other host.
+     * Each receiving process drains its streams one at a time, in the opposite order from which they
+     * were started, so it only makes progress if messages for other streams do not get in the way.
+     */
+    private fun runHost(transportFactory: TransportFactory, self: HostInfo, hosts: List<HostInfo>) {
+        val remoteHosts: List<HostInfo> = hosts.filter { other -> other != self }
+        val remoteProcesses: List<Pair<HostInfo, ProcessId>> =
+            remoteHosts.flatMap { other -> processesOf(other).map { process -> Pair(other, process) } }
+
+        val inboxes: Map<Pair<ProcessId, ProcessId>, Channel<Value>> =
+            remoteProcesses.flatMap { (_, sender) ->
+                processesOf(self).map { receiver -> Pair(sender, receiver) to Channel<Value>(Channel.UNLIMITED) }
+            }.toMap()
+
+        val transport: ViaductTransport = transportFactory.buildTransport(self, hosts)
+        transport.connect()
+
+        runBlocking {
+            transport.start(this) { msg ->
+                inboxes.getValue(Pair(msg.sender, msg.receiver)).trySend(msg.message).getOrThrow()
+            }
+
+            val jobs: MutableList<Job> = mutableListOf()
+            for (process in processesOf(self)) {
+                for ((other, remoteProcess) in remoteProcesses) {
+                    jobs.add(
+                        launch {
+                            for (i in 0 until MESSAGES_PER_PAIR) {
+                                transport.send(other.host, SendMessage(process, remoteProcess, IntegerValue(i)))
+                                if (i % 16 == 0) {
+                                    yield()
+                                }
+                            }
+                        }
+                    )
+                }
+
+                jobs.add(
+                    launch {
+                        for ((_, remoteProcess) in remoteProcesses.reversed()) {
+                            val inbox: Channel<Value> = inboxes.getValue(Pair(remoteProcess, process))
+                            for (i in 0 until MESSAGES_PER_PAIR) {
+                                assertEquals(IntegerValue(i), inbox.receive())
+                            }
+                        }
+                    }
+                )
+            }
+
+            jobs.joinAll()
+            transport.shutdown()
+        }
+
+        transport.close()
+    }
+
+    private fun runStressTest(transportFactory: TransportFactory, basePort: Int) {
+        val hosts: List<HostInfo> =
+            (1..HOST_COUNT).map { i -> HostInfo(Host("host$i"), i, HostAddress("127.0.0.1", basePort + i)) }
+
+        val failures: ConcurrentLinkedQueue<Throwable> = ConcurrentLinkedQueue()
+        val threads: List<Thread> =
+            hosts.map { self ->
+                thread {
+                    try {
+                        runHost(transportFactory, self, hosts)
+                    } catch (e: Throwable) {
+                        failures.add(e)
+                    }
+                }
+            }
+
+        threads.forEach { it.join() }
+        failures.firstOrNull()?.let { throw it }
+    }
+
+    @Test
+    fun `nio transport demultiplexes concurrent process pairs`() {
+        runStressTest(NioTransport, 6100)
+    }
+
+    @Test
+    fun `socket transport demultiplexes concurrent process pairs`() {
+        runStressTest(SocketTransport, 6200)
+    }
+}
@@ -0,0 +1,61 @@
+package edu.cornell.cs.apl.viaduct.backend
+
+import edu.cornell.cs.apl.viaduct.syntax.values.BooleanValue
+import edu.cornell.cs.apl.viaduct.syntax.values.ByteVecValue
+import edu.cornell.cs.apl.viaduct.syntax.values.IntegerValue
+import edu.cornell.cs.apl.viaduct.syntax.values.UnitValue
+import edu.cornell.cs.apl.viaduct.syntax.values.Value
+import java.nio.ByteBuffer
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+
+internal class ValueCodecTest {
+    private val values: List<Value> =
+        listOf(
+            BooleanValue(false),
+            BooleanValue(true),
+            IntegerValue(0),
+            IntegerValue(-1),
+            IntegerValue(63),
+            IntegerValue(-64),
+            IntegerValue(1 shl 20),
+            IntegerValue(Int.MAX_VALUE),
+            IntegerValue(Int.MIN_VALUE),
+            ByteVecValue(ByteArray(0)),
+            ByteVecValue(ByteArray(300) { i -> i.toByte() }),
+            UnitValue
+        )
+
+    @Test
+    fun `values round trip`() {
+        for (value in values) {
+            val buffer: ByteBuffer = ByteBuffer.allocate(ValueCodec.encodedSize(value))
+            ValueCodec.encode(value, buffer)
+            assertEquals(0, buffer.remaining())
+
+            buffer.flip()
+            assertEquals(value, ValueCodec.decode(buffer))
+            assertEquals(0, buffer.remaining())
+        }
+    }
+
+    @Test
+    fun `small values fit in two bytes`() {
+        assertEquals(1, ValueCodec.encodedSize(BooleanValue(true)))
+        assertEquals(2, ValueCodec.encodedSize(IntegerValue(-64)))
+        assertEquals(2, ValueCodec.encodedSize(IntegerValue(63)))
+    }
+
+    @Test
+    fun `frames round trip`() {
+        val messages: List<SendMessage> =
+            values.mapIndexed { i, value -> SendMessage(i, 200 + i, value) }
+        val frame: ByteBuffer = MessageFrames.encode(messages)
+        assertEquals(MessageFrames.frameSize(messages), frame.remaining())
+
+        val bodySize: Int = frame.int
+        val messageCount: Int = frame.int
+        assertEquals(frame.remaining(), bodySize)
+        assertEquals(messages, MessageFrames.decode(frame.slice().order(frame.order()), messageCount))
+    }
+}
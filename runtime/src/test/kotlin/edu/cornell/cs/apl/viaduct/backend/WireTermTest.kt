@@ -0,0 +1,86 @@
+package edu.cornell.cs.apl.viaduct.backend
+
+import edu.cornell.cs.apl.viaduct.syntax.operators.Addition
+import edu.cornell.cs.apl.viaduct.syntax.operators.Multiplication
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotEquals
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Test
+
+internal class WireTermTest {
+    private val hash: ByteArray = ByteArray(32)
+
+    /** Doubles an input [rounds] times, which is exponentially large as a tree. */
+    private fun doubling(generator: WireGenerator, input: WireTerm, rounds: Int): WireTerm {
+        var wire: WireTerm = input
+        repeat(rounds) { wire = generator.mkOp(Addition, listOf(wire, wire)) }
+        return wire
+    }
+
+    @Test
+    fun `equal operations are shared`() {
+        val generator = WireGenerator()
+        val x = generator.mkConst(1)
+        val y = generator.mkConst(2)
+        assertSame(generator.mkOp(Addition, listOf(x, y)), generator.mkOp(Addition, listOf(x, y)))
+        assertNotEquals(
+            generator.mkOp(Addition, listOf(x, y)).id,
+            generator.mkOp(Multiplication, listOf(x, y)).id
+        )
+    }
+
+    @Test
+    fun `shared nodes are evaluated once`() {
+        val generator = WireGenerator()
+        val wire = doubling(generator, generator.mkIn(1, hash, hash), 30)
+        assertEquals(1 shl 30, wire.eval())
+        assertEquals(31, wire.postOrder().size)
+        assertEquals((1L shl 31) - 1, wire.treeSize())
+    }
+
+    @Test
+    fun `prover and verifier agree on wire names`() {
+        val prover = WireGenerator()
+        val verifier = WireGenerator()
+        assertEquals(
+            doubling(prover, prover.mkIn(5, hash, hash), 100).wireName(),
+            doubling(verifier, verifier.mkDummyIn(hash, hash), 100).wireName()
+        )
+    }
+
+    @Test
+    fun `forgotten operations are no longer shared`() {
+        val generator = WireGenerator()
+        val x = generator.mkConst(1)
+        val before = generator.mkOp(Addition, listOf(x, x))
+        generator.forgetOperations()
+        val after = generator.mkOp(Addition, listOf(x, x))
+        assertNotEquals(before.id, after.id)
+        assertSame(after, generator.mkOp(Addition, listOf(x, x)))
+    }
+
+    @Test
+    fun `prover and verifier agree on wire names after forgetting operations`() {
+        fun build(generator: WireGenerator, input: WireTerm): WireTerm {
+            val before = doubling(generator, input, 10)
+            generator.forgetOperations()
+            return generator.mkOp(Addition, listOf(before, doubling(generator, input, 10)))
+        }
+
+        val prover = WireGenerator()
+        val verifier = WireGenerator()
+        assertEquals(
+            build(prover, prover.mkIn(5, hash, hash)).wireName(),
+            build(verifier, verifier.mkDummyIn(hash, hash)).wireName()
+        )
+    }
+
+    @Test
+    fun `wire names distinguish sharing`() {
+        val generator = WireGenerator()
+        val x = generator.mkIn(1, hash, hash)
+        val shared = generator.mkOp(Addition, listOf(x, x))
+        val unshared = generator.mkOp(Addition, listOf(x, generator.mkIn(1, hash, hash)))
+        assertNotEquals(shared.wireName(), unshared.wireName())
+    }
+}
@@ -0,0 +1,84 @@
+package edu.cornell.cs.apl.viaduct.backend.aby
+
+import edu.cornell.cs.apl.viaduct.syntax.operators.Addition
+import edu.cornell.cs.apl.viaduct.syntax.operators.Multiplication
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+
+internal class ABYCircuitPlanTest {
+    private val circuitType = ABYCircuitType.YAO
+
+    private fun add(lhs: ABYCircuitGate, rhs: ABYCircuitGate): ABYCircuitGate =
+        operatorToCircuit(Addition, listOf(lhs, rhs), circuitType)
+
+    private fun multiply(lhs: ABYCircuitGate, rhs: ABYCircuitGate): ABYCircuitGate =
+        operatorToCircuit(Multiplication, listOf(lhs, rhs), circuitType)
+
+    /** (x + y) * (x + y), with the sum shared between both operands. */
+    private fun square(x: Int, y: Int): ABYCircuitGate {
+        val sum = add(ABYInGate(x, circuitType), ABYInGate(y, circuitType))
+        return multiply(sum, sum)
+    }
+
+    @Test
+    fun `shared gates are computed once`() {
+        assertEquals(4, ABYCircuitPlan.build(listOf(square(1, 2))).size)
+    }
+
+    @Test
+    fun `long chains do not overflow the stack`() {
+        var gate: ABYCircuitGate = ABYInGate(0, circuitType)
+        repeat(100000) { i -> gate = add(gate, ABYConstantGate(i, circuitType)) }
+        assertEquals(200001, ABYCircuitPlan.build(listOf(gate)).size)
+    }
+
+    @Test
+    fun `plans bind to DAGs of the same shape`() {
+        val plan = ABYCircuitPlan.build(listOf(square(1, 2)))
+        val bound = plan.bind(listOf(square(3, 4)))
+        assertNotNull(bound)
+        assertEquals(listOf(3, 4), bound!!.filterIsInstance<ABYInGate>().map { it.value })
+    }
+
+    @Test
+    fun `plans do not bind to DAGs with different sharing`() {
+        val plan = ABYCircuitPlan.build(listOf(square(1, 2)))
+        val unshared =
+            multiply(
+                add(ABYInGate(1, circuitType), ABYInGate(2, circuitType)),
+                add(ABYInGate(1, circuitType), ABYInGate(2, circuitType))
+            )
+        assertNull(plan.bind(listOf(unshared)))
+        assertNull(ABYCircuitPlan.build(listOf(unshared)).bind(listOf(square(1, 2))))
+    }
+
+    @Test
+    fun `independent gates of the same operation are packed`() {
+        val plan = ABYCircuitPlan.build(listOf(square(1, 2), square(3, 4), square(5, 6)))
+        // one SIMD gate for the sums and one for the products
+        assertEquals(2, plan.simdGateCount)
+        assertEquals(6, plan.packedStepCount)
+    }
+
+    @Test
+    fun `dependent gates are not packed`() {
+        var gate: ABYCircuitGate = ABYInGate(0, circuitType)
+        repeat(10) { i -> gate = add(gate, ABYConstantGate(i, circuitType)) }
+        assertEquals(0, ABYCircuitPlan.build(listOf(gate)).simdGateCount)
+    }
+
+    @Test
+    fun `arithmetic gates are not packed`() {
+        val sums =
+            (0 until 4).map { i ->
+                operatorToCircuit(
+                    Addition,
+                    listOf(ABYInGate(i, ABYCircuitType.ARITH), ABYInGate(i, ABYCircuitType.ARITH)),
+                    ABYCircuitType.ARITH
+                )
+            }
+        assertEquals(0, ABYCircuitPlan.build(sums).simdGateCount)
+    }
+}
@@ -0,0 +1,45 @@
+package edu.cornell.cs.apl.viaduct.backend.commitment
+
+import edu.cornell.cs.apl.viaduct.backend.VectorObject
+import edu.cornell.cs.apl.viaduct.syntax.values.BooleanValue
+import edu.cornell.cs.apl.viaduct.syntax.values.IntegerValue
+import edu.cornell.cs.apl.viaduct.syntax.values.StringValue
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNotEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+internal class HashingTest {
+    @Test
+    fun `integers are encoded in minimal two's complement`() {
+        for (i in listOf(0, 1, -1, 127, 128, -128, -129, 65535, Int.MAX_VALUE, Int.MIN_VALUE)) {
+            assertArrayEquals(i.toBigInteger().toByteArray(), IntegerValue(i).encode())
+        }
+    }
+
+    @Test
+    fun `commitments open to the committed value only`() {
+        val value = StringValue("hello")
+        val commitment = Hashing.generateHash(value)
+        assertTrue(commitment.verify(value))
+        assertTrue(commitment.verify(value.encode()))
+        assertFalse(commitment.verify(StringValue("hellO")))
+        assertFalse(HashInfo(commitment.hash, genNonce(16)).verify(value))
+    }
+
+    @Test
+    fun `vector encodings are unambiguous`() {
+        // elements concatenate to the same bytes: 01 01 00
+        val first = VectorObject(2, IntegerValue(0))
+        first.values[0] = IntegerValue(257)
+        val second = VectorObject(2, IntegerValue(0))
+        second.values[0] = IntegerValue(1)
+        second.values[1] = IntegerValue(256)
+        val third = VectorObject(3, BooleanValue(false))
+
+        assertNotEquals(first.encode().toList(), second.encode().toList())
+        assertNotEquals(second.encode().toList(), third.encode().toList())
+        assertTrue(Hashing.generateHash(first).verify(first.encode()))
+    }
+}
@@ -0,0 +1,106 @@
+package edu.cornell.cs.apl.viaduct.backend.zkp
+
+import edu.cornell.cs.apl.viaduct.backend.WireGenerator
+import edu.cornell.cs.apl.viaduct.backend.WireTerm
+import edu.cornell.cs.apl.viaduct.backend.commitment.genNonce
+import edu.cornell.cs.apl.viaduct.backend.wireName
+import edu.cornell.cs.apl.viaduct.syntax.operators.Addition
+import java.io.File
+import kotlinx.coroutines.runBlocking
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+
+/**
+ * Round trips through libsnark. Skipped unless the native libsnarkwrapper library is on
+ * `java.library.path`; see `runtime/src/main/cwrapper/Makefile`.
+ */
+internal class LibsnarkZKPBackendTest {
+    companion object {
+        private val nativeLibraryAvailable: Boolean by lazy {
+            try {
+                System.loadLibrary("snarkwrapper")
+                true
+            } catch (e: UnsatisfiedLinkError) {
+                false
+            }
+        }
+    }
+
+    @TempDir
+    lateinit var keyDirectory: File
+
+    private lateinit var backend: LibsnarkZKPBackend
+
+    @BeforeEach
+    fun setUp() {
+        assumeTrue(nativeLibraryAvailable, "libsnarkwrapper is not installed")
+        backend = LibsnarkZKPBackend(ZKPKeyStore(keyDirectory), R1CSCache())
+    }
+
+    private class Input(val value: Int, val nonce: ByteArray, val hash: ByteArray)
+
+    private fun commit(value: Int): Input {
+        val nonce = genNonce(INPUT_COMMITMENT_WIDTH)
+        return Input(value, nonce, backend.commitInput(nonce, value))
+    }
+
+    /** Computes x + 1 as built by the prover, who knows x. */
+    private fun proverWires(x: Input): List<WireTerm> {
+        val generator = WireGenerator()
+        return listOf(generator.mkOp(Addition, listOf(generator.mkIn(x.value, x.hash, x.nonce), generator.mkConst(1))))
+    }
+
+    /** Computes x + 1 as built by a verifier, who only knows the commitment to x. */
+    private fun verifierWires(hash: ByteArray, nonce: ByteArray): List<WireTerm> {
+        val generator = WireGenerator()
+        return listOf(generator.mkOp(Addition, listOf(generator.mkDummyIn(hash, nonce), generator.mkConst(1))))
+    }
+
+    private fun verifierWires(x: Input): List<WireTerm> = verifierWires(x.hash, x.nonce)
+
+    private fun prove(x: Input): ByteArray = runBlocking {
+        val wires = proverWires(x)
+        backend.prove(wires.wireName(), wires, listOf(x.value + 1))
+    }
+
+    private fun verify(wires: List<WireTerm>, value: Int, proof: ByteArray): Boolean = runBlocking {
+        backend.verify(wires.wireName(), wires, listOf(value), proof)
+    }
+
+    @Test
+    fun `proofs from reused constraint systems verify`() {
+        val first = commit(3)
+        assertTrue(verify(verifierWires(first), 4, prove(first)))
+
+        // the second proof reuses the prover's and the verifier's constraint systems with new inputs
+        val second = commit(5)
+        assertTrue(verify(verifierWires(second), 6, prove(second)))
+        assertEquals(1, keyDirectory.listFiles()!!.count { it.name.endsWith(".pk") })
+    }
+
+    @Test
+    fun `proofs with the wrong nonce or hash are rejected`() {
+        val x = commit(3)
+        val proof = prove(x)
+        val other = commit(3)
+        assertFalse(verify(verifierWires(x.hash, other.nonce), 4, proof))
+        assertFalse(verify(verifierWires(other.hash, x.nonce), 4, proof))
+        assertTrue(verify(verifierWires(x), 4, proof))
+    }
+
+    @Test
+    fun `reused verifier constraint systems reject proofs of other values`() {
+        val x = commit(3)
+        val proof = prove(x)
+        assertTrue(verify(verifierWires(x), 4, proof))
+
+        // the verifier's constraint system is reused with new public values
+        assertFalse(verify(verifierWires(x), 5, proof))
+        assertFalse(verify(verifierWires(commit(4)), 5, proof))
+    }
+}
@@ -0,0 +1,62 @@
+package edu.cornell.cs.apl.viaduct.backend.zkp
+
+import edu.cornell.cs.apl.viaduct.backend.WireGenerator
+import edu.cornell.cs.apl.viaduct.backend.WireTerm
+import edu.cornell.cs.apl.viaduct.backend.commitment.genNonce
+import edu.cornell.cs.apl.viaduct.backend.wireName
+import edu.cornell.cs.apl.viaduct.syntax.operators.Addition
+import kotlinx.coroutines.runBlocking
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+internal class SimulatedZKPBackendTest {
+    private val backend = SimulatedZKPBackend()
+
+    private val nonce: ByteArray = genNonce(INPUT_COMMITMENT_WIDTH)
+    private val hash: ByteArray = backend.commitInput(nonce, 3)
+
+    /** Computes x + 1 as built by the prover, who knows x = 3. */
+    private fun proverWire(): WireTerm {
+        val generator = WireGenerator()
+        return generator.mkOp(Addition, listOf(generator.mkIn(3, hash, nonce), generator.mkConst(1)))
+    }
+
+    /** Computes x + 1 as built by a verifier, who only knows the commitment to x. */
+    private fun verifierWire(): WireTerm {
+        val generator = WireGenerator()
+        return generator.mkOp(Addition, listOf(generator.mkDummyIn(hash, nonce), generator.mkConst(1)))
+    }
+
+    @Test
+    fun `commitments fit input commitment messages`() {
+        assertEquals(INPUT_COMMITMENT_WIDTH, hash.size)
+    }
+
+    @Test
+    fun `proofs are deterministic and have the configured size`() = runBlocking {
+        val wires = listOf(proverWire())
+        val proof = backend.prove(wires.wireName(), wires, listOf(4))
+        assertEquals(SimulatedZKPBackend.DEFAULT_PROOF_SIZE, proof.size)
+        assertArrayEquals(proof, backend.prove(wires.wireName(), listOf(proverWire()), listOf(4)))
+        assertEquals(1000, SimulatedZKPBackend(proofSize = 1000).prove(wires.wireName(), wires, listOf(4)).size)
+    }
+
+    @Test
+    fun `verifiers accept proofs of the same statement`() = runBlocking {
+        val proverWires = listOf(proverWire())
+        val verifierWires = listOf(verifierWire())
+        val proof = backend.prove(proverWires.wireName(), proverWires, listOf(4))
+        assertTrue(backend.verify(verifierWires.wireName(), verifierWires, listOf(4), proof))
+    }
+
+    @Test
+    fun `verifiers reject proofs of other values`() = runBlocking {
+        val proverWires = listOf(proverWire())
+        val verifierWires = listOf(verifierWire())
+        val proof = backend.prove(proverWires.wireName(), proverWires, listOf(4))
+        assertFalse(backend.verify(verifierWires.wireName(), verifierWires, listOf(5), proof))
+    }
+}
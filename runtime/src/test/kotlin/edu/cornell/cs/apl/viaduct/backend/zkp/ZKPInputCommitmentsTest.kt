@@ -0,0 +1,191 @@
+package edu.cornell.cs.apl.viaduct.backend.zkp
+
+import edu.cornell.cs.apl.viaduct.backend.HostInfo
+import edu.cornell.cs.apl.viaduct.backend.IO.Strategy
+import edu.cornell.cs.apl.viaduct.backend.InMemoryNetwork
+import edu.cornell.cs.apl.viaduct.backend.PlaintextProtocolInterpreter
+import edu.cornell.cs.apl.viaduct.backend.SendMessage
+import edu.cornell.cs.apl.viaduct.backend.TransportFactory
+import edu.cornell.cs.apl.viaduct.backend.ViaductBackend
+import edu.cornell.cs.apl.viaduct.backend.ViaductTransport
+import edu.cornell.cs.apl.viaduct.backend.WireDummyIn
+import edu.cornell.cs.apl.viaduct.backend.WireGenerator
+import edu.cornell.cs.apl.viaduct.errors.ViaductInterpreterError
+import edu.cornell.cs.apl.viaduct.parsing.LocalProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.SourceFile
+import edu.cornell.cs.apl.viaduct.parsing.ZKPProtocolParser
+import edu.cornell.cs.apl.viaduct.parsing.parse
+import edu.cornell.cs.apl.viaduct.passes.elaborated
+import edu.cornell.cs.apl.viaduct.protocols.Local
+import edu.cornell.cs.apl.viaduct.protocols.ZKP
+import edu.cornell.cs.apl.viaduct.syntax.Host
+import edu.cornell.cs.apl.viaduct.syntax.values.ByteVecValue
+import edu.cornell.cs.apl.viaduct.syntax.values.IntegerValue
+import edu.cornell.cs.apl.viaduct.syntax.values.Value
+import java.util.concurrent.Executors
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeoutOrNull
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
+import org.junit.jupiter.api.assertThrows
+
+internal class ZKPInputCommitmentsTest {
+    private fun bytes(seed: Int): ByteArray = ByteArray(INPUT_COMMITMENT_WIDTH) { i -> (seed * 31 + i).toByte() }
+
+    private fun dummies(count: Int): List<WireDummyIn> {
+        val verifier = WireGenerator()
+        return List(count) { verifier.mkDummyIn(ByteArray(INPUT_COMMITMENT_WIDTH), ByteArray(INPUT_COMMITMENT_WIDTH)) }
+    }
+
+    @Test
+    fun `verifiers receive the commitments of all inputs in one message`() {
+        val prover = WireGenerator()
+        val inputs = List(3) { i -> prover.mkIn(i, bytes(2 * i), bytes(2 * i + 1)) }
+
+        val dummies = dummies(3)
+        decodeInputCommitments(encodeInputCommitments(inputs), dummies)
+
+        for ((input, dummy) in inputs.zip(dummies)) {
+            assertArrayEquals(input.hash, dummy.hash)
+            assertArrayEquals(input.nonce, dummy.nonce)
+        }
+    }
+
+    @Test
+    fun `messages for a different number of inputs are rejected`() {
+        val prover = WireGenerator()
+        val message = encodeInputCommitments(listOf(prover.mkIn(0, bytes(0), bytes(1))))
+
+        assertThrows<ViaductInterpreterError> { decodeInputCommitments(message, dummies(2)) }
+    }
+
+    @Test
+    fun `commitments to inputs can be split over several messages`() {
+        val prover = WireGenerator()
+        val inputs = List(3) { i -> prover.mkIn(i, bytes(2 * i), bytes(2 * i + 1)) }
+
+        val dummies = dummies(3)
+        val uncommitted = dummies.toMutableList()
+        decodeInputCommitmentPrefix(encodeInputCommitments(inputs.subList(0, 2)), uncommitted)
+        assertEquals(dummies.subList(2, 3), uncommitted)
+        decodeInputCommitmentPrefix(encodeInputCommitments(inputs.subList(2, 3)), uncommitted)
+        assertTrue(uncommitted.isEmpty())
+
+        for ((input, dummy) in inputs.zip(dummies)) {
+            assertArrayEquals(input.hash, dummy.hash)
+            assertArrayEquals(input.nonce, dummy.nonce)
+        }
+
+        val message = encodeInputCommitments(inputs)
+        assertThrows<ViaductInterpreterError> { decodeInputCommitmentPrefix(message, dummies(2).toMutableList()) }
+    }
+
+    /**
+     * Runs a program where the prover `alice` receives a secret input, then receives a value
+     * from the verifier `bob`. Bob only sends that value once the commitment to alice's input
+     * arrives, so the run only finishes on time if alice commits before receiving from bob.
+     */
+    @Test
+    @Timeout(60)
+    fun `commitments are sent before the prover receives from other hosts`() {
+        val source =
+            """
+            host alice : {A}
+            host bob : {B}
+
+            process main {
+                let ${'$'}x@Local(host = alice) = input int from alice;
+                let ${'$'}s@ZKP(prover = alice, verifiers = {bob}) = ${'$'}x;
+                let ${'$'}y@Local(host = bob) = input int from bob;
+                let ${'$'}z@Local(host = alice) = ${'$'}y;
+                let ${'$'}r@ZKP(prover = alice, verifiers = {bob}) = (${'$'}s + ${'$'}z);
+                let ${'$'}o@Local(host = bob) = ${'$'}r;
+                output ${'$'}o to bob;
+            }
+            """.trimIndent()
+        val program =
+            SourceFile.from("<commitments>", source)
+                .parse(
+                    mapOf(
+                        Local.protocolName to LocalProtocolParser,
+                        ZKP.protocolName to ZKPProtocolParser
+                    )
+                ).elaborated()
+
+        // the first byte vector bob receives is the commitment; proofs only follow releases
+        val commitmentReceived = CompletableDeferred<Unit>()
+        val network = InMemoryNetwork()
+        val transports =
+            object : TransportFactory {
+                override fun buildTransport(self: HostInfo, hosts: Collection<HostInfo>): ViaductTransport {
+                    val transport = network.buildTransport(self, hosts)
+                    if (self.host != Host("bob")) {
+                        return transport
+                    }
+                    return object : ViaductTransport by transport {
+                        override fun start(scope: CoroutineScope, deliver: (SendMessage) -> Unit) {
+                            transport.start(scope) { msg ->
+                                if (msg.message is ByteVecValue) {
+                                    commitmentReceived.complete(Unit)
+                                }
+                                deliver(msg)
+                            }
+                        }
+                    }
+                }
+            }
+
+        var committedFirst = false
+        var output: Value? = null
+        val alice =
+            object : Strategy {
+                override suspend fun getInput(): Value = IntegerValue(1)
+
+                override suspend fun recvOutput(value: Value) {}
+            }
+        val bob =
+            object : Strategy {
+                override suspend fun getInput(): Value {
+                    // give up eventually so the run finishes and the test fails instead of hanging
+                    committedFirst = withTimeoutOrNull(10_000) { commitmentReceived.await() } != null
+                    return IntegerValue(2)
+                }
+
+                override suspend fun recvOutput(value: Value) {
+                    output = value
+                }
+            }
+
+        val batchInputs = ZKPProtocolInterpreterFactory.batchInputs
+        val zkpBackend = ZKPProtocolInterpreterFactory.backend
+        ZKPProtocolInterpreterFactory.batchInputs = true
+        ZKPProtocolInterpreterFactory.backend = SimulatedZKPBackend()
+        try {
+            val backend =
+                ViaductBackend(
+                    listOf(PlaintextProtocolInterpreter, ZKPProtocolInterpreterFactory),
+                    transportFactory = transports
+                )
+            runBlocking {
+                for ((host, strategy) in listOf(Host("alice") to alice, Host("bob") to bob)) {
+                    launch(Executors.newSingleThreadExecutor().asCoroutineDispatcher()) {
+                        backend.run(program, host, strategy)
+                    }
+                }
+            }
+        } finally {
+            ZKPProtocolInterpreterFactory.batchInputs = batchInputs
+            ZKPProtocolInterpreterFactory.backend = zkpBackend
+        }
+
+        assertTrue(committedFirst)
+        assertEquals(IntegerValue(3), output)
+    }
+}